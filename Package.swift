@@ -0,0 +1,24 @@
+// swift-tools-version:5.5
+import PackageDescription
+
+// The plugin ships through CocoaPods (CapacitorMkPrinter.podspec). This package
+// builds only the ESC/POS encoders in ios/Plugin/Encoding, which import nothing
+// but Foundation, so `swift test` checks them against the Android encoder's
+// output on macOS or Linux without a simulator.
+let package = Package(
+    name: "CapacitorMkPrinterEncoding",
+    platforms: [.iOS(.v14), .macOS(.v11)],
+    products: [
+        .library(name: "MkPrinterEncoding", targets: ["MkPrinterEncoding"])
+    ],
+    targets: [
+        .target(
+            name: "MkPrinterEncoding",
+            path: "ios/Plugin/Encoding"),
+        .testTarget(
+            name: "MkPrinterEncodingTests",
+            dependencies: ["MkPrinterEncoding"],
+            path: "ios/Tests/EncodingTests",
+            resources: [.copy("Fixtures")])
+    ]
+)
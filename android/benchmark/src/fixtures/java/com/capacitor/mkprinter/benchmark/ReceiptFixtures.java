@@ -0,0 +1,64 @@
+package com.capacitor.mkprinter.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic receipt-like inputs: mostly white rows with dark text-sized
+ * blocks and blank gaps between sections.
+ */
+public class ReceiptFixtures {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+
+    private ReceiptFixtures() {}
+
+    /**
+     * @return ARGB pixels of a {@code width} x {@code height} receipt image
+     */
+    public static int[] receiptPixels(int width, int height) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(width * 31L + height);
+        int y = 0;
+        while (y < height) {
+            // 24-dot text line followed by 8 dots of line spacing; every 10th line is a blank gap
+            boolean blank = random.nextInt(10) == 0;
+            int lineEnd = Math.min(height, y + 24);
+            for (; y < lineEnd; y++) {
+                int row = y * width;
+                for (int x = 0; x < width; x++) {
+                    boolean ink = !blank && x < width * 3 / 4 && ((x / 12 + y / 3) % 3 == 0) && random.nextInt(4) != 0;
+                    pixels[row + x] = ink ? gray(random.nextInt(100)) : (random.nextInt(50) == 0 ? gray(200) : WHITE);
+                }
+            }
+            int gapEnd = Math.min(height, y + 8);
+            for (; y < gapEnd; y++) {
+                java.util.Arrays.fill(pixels, y * width, (y + 1) * width, WHITE);
+            }
+        }
+        pixels[0] = BLACK;
+        return pixels;
+    }
+
+    /**
+     * @return Receipt text with {@code lines} lines of {@code columns} characters
+     */
+    public static String receiptText(int lines, int columns) {
+        StringBuilder sb = new StringBuilder(lines * (columns + 1));
+        Random random = new Random(lines);
+        for (int i = 0; i < lines; i++) {
+            String item = "Item " + (i + 1) + " x" + (1 + random.nextInt(5));
+            String price = String.format(java.util.Locale.ROOT, "%d.%02d", random.nextInt(500), random.nextInt(100));
+            sb.append(item);
+            for (int pad = item.length() + price.length(); pad < columns; pad++) {
+                sb.append(' ');
+            }
+            sb.append(price).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static int gray(int level) {
+        return 0xFF000000 | (level << 16) | (level << 8) | level;
+    }
+}
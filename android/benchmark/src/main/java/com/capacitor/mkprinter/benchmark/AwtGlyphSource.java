@@ -0,0 +1,89 @@
+package com.capacitor.mkprinter.benchmark;
+
+import com.capacitor.mkprinter.raster.Glyph;
+import com.capacitor.mkprinter.raster.GlyphSource;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GlyphSource} backed by AWT fonts, standing in for the Android
+ * TypefaceGlyphSource when the rasterizer runs on a plain JVM.
+ */
+public class AwtGlyphSource implements GlyphSource {
+
+    private static final int INK_THRESHOLD = 128;
+
+    private final String mFamily;
+    private final String mFontKey;
+    private final Map<Integer, FontMetrics> mMetrics = new HashMap<>();
+
+    /**
+     * @param family Logical or installed font family, e.g. {@link Font#SANS_SERIF}
+     */
+    public AwtGlyphSource(String family) {
+        mFamily = family;
+        mFontKey = "awt:" + family;
+    }
+
+    @Override
+    public String getFontKey() {
+        return mFontKey;
+    }
+
+    @Override
+    public int getLineHeight(int sizeDots) {
+        FontMetrics fm = metrics(sizeDots);
+        return fm.getAscent() + fm.getDescent();
+    }
+
+    @Override
+    public Glyph render(int codePoint, int sizeDots) {
+        FontMetrics fm = metrics(sizeDots);
+        String text = new String(Character.toChars(codePoint));
+        int advance = fm.stringWidth(text);
+        int height = fm.getAscent() + fm.getDescent();
+        int bytesPerRow = (advance + 7) / 8;
+        byte[] data = new byte[bytesPerRow * height];
+        if (advance == 0 || Character.isWhitespace(codePoint)) {
+            return new Glyph(advance, height, data);
+        }
+
+        BufferedImage image = new BufferedImage(advance, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, advance, height);
+        g.setColor(Color.BLACK);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(fm.getFont());
+        g.drawString(text, 0, fm.getAscent());
+        g.dispose();
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < advance; x++) {
+                if (255 - (image.getRaster().getSample(x, y, 0)) >= INK_THRESHOLD) {
+                    data[y * bytesPerRow + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                }
+            }
+        }
+        return new Glyph(advance, height, data);
+    }
+
+    private FontMetrics metrics(int sizeDots) {
+        FontMetrics fm = mMetrics.get(sizeDots);
+        if (fm == null) {
+            BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = scratch.createGraphics();
+            fm = g.getFontMetrics(new Font(mFamily, Font.PLAIN, sizeDots));
+            g.dispose();
+            mMetrics.put(sizeDots, fm);
+        }
+        return fm;
+    }
+}
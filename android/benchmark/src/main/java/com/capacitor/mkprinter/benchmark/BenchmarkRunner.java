@@ -0,0 +1,131 @@
+package com.capacitor.mkprinter.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal JMH-style runner: timed warm-up and measurement iterations, a
+ * blackhole for results, and per-operation allocation from the thread
+ * allocation counter.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * One benchmarked operation. The return value is consumed so the JIT cannot
+     * drop the work.
+     */
+    public interface Operation {
+        long run();
+    }
+
+    public static class Result {
+        public final String name;
+        public final double opsPerSecond;
+        public final double opsError;
+        public final double bytesPerSecond;
+        public final double allocatedPerOp;
+
+        Result(String name, double opsPerSecond, double opsError, double bytesPerSecond, double allocatedPerOp) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.opsError = opsError;
+            this.bytesPerSecond = bytesPerSecond;
+            this.allocatedPerOp = allocatedPerOp;
+        }
+    }
+
+    private final int mWarmupIterations;
+    private final int mMeasurementIterations;
+    private final long mIterationNanos;
+    private final List<Result> mResults = new ArrayList<>();
+    private long mBlackhole;
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+        mWarmupIterations = warmupIterations;
+        mMeasurementIterations = measurementIterations;
+        mIterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    /**
+     * @param name Label printed in the report
+     * @param bytesPerOp Output bytes produced per operation, for the throughput column
+     * @param operation The code under test
+     */
+    public Result run(String name, long bytesPerOp, Operation operation) {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            iteration(operation);
+        }
+
+        double[] opsPerSecond = new double[mMeasurementIterations];
+        long totalOps = 0;
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < mMeasurementIterations; i++) {
+            long start = System.nanoTime();
+            long ops = iteration(operation);
+            long elapsed = System.nanoTime() - start;
+            opsPerSecond[i] = ops * 1e9 / elapsed;
+            totalOps += ops;
+        }
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        double mean = 0;
+        for (double v : opsPerSecond) {
+            mean += v;
+        }
+        mean /= opsPerSecond.length;
+        double variance = 0;
+        for (double v : opsPerSecond) {
+            variance += (v - mean) * (v - mean);
+        }
+        double error = opsPerSecond.length > 1 ? Math.sqrt(variance / (opsPerSecond.length - 1)) : 0;
+
+        Result result = new Result(name, mean, error, mean * bytesPerOp, (double) allocated / totalOps);
+        mResults.add(result);
+        System.out.println(format(result));
+        return result;
+    }
+
+    public List<Result> getResults() {
+        return mResults;
+    }
+
+    public static String header() {
+        return String.format(Locale.ROOT, "%-44s %14s %10s %12s %14s",
+                "Benchmark", "ops/s", "error", "MB/s", "alloc B/op");
+    }
+
+    public static String format(Result r) {
+        return String.format(Locale.ROOT, "%-44s %14.1f %10.1f %12.1f %14.1f",
+                r.name, r.opsPerSecond, r.opsError, r.bytesPerSecond / 1e6, r.allocatedPerOp);
+    }
+
+    private long iteration(Operation operation) {
+        long deadline = System.nanoTime() + mIterationNanos;
+        long ops = 0;
+        do {
+            mBlackhole += operation.run();
+            ops++;
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+
+    /**
+     * Bytes allocated by the current thread, or 0 where the JVM does not expose it
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Keeps the sink reachable so consumed results are not optimised away
+     */
+    public long blackhole() {
+        return mBlackhole;
+    }
+}
@@ -0,0 +1,288 @@
+package com.capacitor.mkprinter.benchmark;
+
+import com.capacitor.mkprinter.barcode.QrCode;
+import com.capacitor.mkprinter.barcode.QrRasterizer;
+import com.capacitor.mkprinter.escpos.CodePage;
+import com.capacitor.mkprinter.escpos.CodePageEncoder;
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.MonochromeConverter;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.MonochromeScaler;
+import com.capacitor.mkprinter.escpos.PrintJobEncoder;
+import com.capacitor.mkprinter.escpos.TextRow;
+import com.capacitor.mkprinter.raster.GlyphCache;
+import com.capacitor.mkprinter.raster.TextRasterizer;
+import com.capacitor.mkprinter.zebra.ZplGraphic;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Throughput and allocation of the pure-Java image, text and command encoding paths
+ * for 58 mm (384 dots), 80 mm (576 dots) and 104 mm (832 dots) receipts.
+ *
+ * Arguments: {@code --quick} for short iterations, any other argument filters
+ * benchmarks by name.
+ */
+public class EncodingBenchmark {
+
+    private static final int[] WIDTHS = {384, 576, 832};
+    private static final int[] ROWS = {500, 2000, 10000};
+    /** Serial and Bluetooth SPP speed of most label printers, for the transfer time of label graphics */
+    private static final int LABEL_BAUD = 115200;
+
+    public static void main(String[] args) {
+        boolean quick = false;
+        String filter = null;
+        for (String arg : args) {
+            if ("--quick".equals(arg)) {
+                quick = true;
+            } else {
+                filter = arg;
+            }
+        }
+        BenchmarkRunner runner = quick ? new BenchmarkRunner(1, 3, 200) : new BenchmarkRunner(3, 5, 1000);
+
+        System.out.println(BenchmarkRunner.header());
+        for (int width : WIDTHS) {
+            for (int rows : ROWS) {
+                runImageBenchmarks(runner, filter, width, rows);
+            }
+        }
+        for (int width : new int[] {384, 576}) {
+            runScaleBenchmarks(runner, filter, width);
+        }
+        runTextBenchmarks(runner, filter);
+        runRasterTextBenchmarks(runner, filter);
+        runCodePageBenchmarks(runner, filter);
+        runQrBenchmarks(runner, filter);
+        for (int width : new int[] {384, 832}) {
+            runLabelGraphicBenchmarks(runner, filter, width, 1200);
+        }
+        System.out.println("# blackhole " + runner.blackhole());
+    }
+
+    private static void runImageBenchmarks(BenchmarkRunner runner, String filter, int width, int rows) {
+        final int[] pixels = ReceiptFixtures.receiptPixels(width, rows);
+        final MonochromeImage image = MonochromeConverter.convert(pixels, width, rows, MonochromeConverter.DEFAULT_THRESHOLD);
+        final int[] legacyOut = new int[width * rows];
+        final byte[] packed = image.getData();
+        final CommandBuffer buffer = new CommandBuffer(packed.length + 64);
+        final EscPosEncoder encoder = new EscPosEncoder(buffer);
+        String suffix = "_" + width + "x" + rows;
+
+        if (matches(filter, "legacyThreshold" + suffix)) {
+            // The pre-extraction convertToBlackAndWhite: column-major, one int pixel out per pixel in
+            runner.run("legacyThreshold" + suffix, pixels.length * 4L, () -> {
+                for (int x = 0; x < width; x++) {
+                    for (int y = 0; y < rows; y++) {
+                        int c = pixels[y * width + x];
+                        int gray = (((c >> 16) & 0xFF) + ((c >> 8) & 0xFF) + (c & 0xFF)) / 3;
+                        legacyOut[y * width + x] = gray < 128 ? 0xFF000000 : 0xFFFFFFFF;
+                    }
+                }
+                return legacyOut[legacyOut.length - 1];
+            });
+        }
+        if (matches(filter, "packRows" + suffix)) {
+            runner.run("packRows" + suffix, pixels.length * 4L, () -> {
+                int bytesPerRow = image.getBytesPerRow();
+                for (int y = 0; y < rows; y++) {
+                    MonochromeConverter.packRow(pixels, y * width, width, MonochromeConverter.DEFAULT_THRESHOLD,
+                            packed, y * bytesPerRow);
+                }
+                return packed[packed.length - 1];
+            });
+        }
+        if (matches(filter, "rasterEncode" + suffix)) {
+            runner.run("rasterEncode" + suffix, packed.length, () -> {
+                buffer.reset();
+                encoder.initialize().rasterImage(image);
+                return buffer.size();
+            });
+        }
+    }
+
+    /**
+     * A 1080-wide phone screenshot of a receipt scaled to the printer width. The legacy
+     * path is a filtered full-color scale then a threshold pass, as prepareImageForPrinting
+     * did with createScaledBitmap; the fused path is MonochromeScaler, on the full image
+     * and on the half-width image an inSampleSize 2 decode hands it.
+     */
+    private static void runScaleBenchmarks(BenchmarkRunner runner, String filter, int width) {
+        final int sourceWidth = 1080;
+        final int sourceRows = 3000;
+        final int rows = MonochromeScaler.scaledHeight(sourceWidth, sourceRows, width);
+        String suffix = "_" + sourceWidth + "to" + width;
+        if (!matches(filter, "scaleLegacy" + suffix) && !matches(filter, "scaleFused" + suffix)
+                && !matches(filter, "scaleSampled" + suffix)) {
+            return;
+        }
+        final int[] pixels = ReceiptFixtures.receiptPixels(sourceWidth, sourceRows);
+
+        if (matches(filter, "scaleLegacy" + suffix)) {
+            final BufferedImage source = new BufferedImage(sourceWidth, sourceRows, BufferedImage.TYPE_INT_ARGB);
+            source.setRGB(0, 0, sourceWidth, sourceRows, pixels, 0, sourceWidth);
+            final int[] row = new int[width];
+            final MonochromeImage image = new MonochromeImage(width, rows);
+            runner.run("scaleLegacy" + suffix, pixels.length * 4L, () -> {
+                BufferedImage scaled = new BufferedImage(width, rows, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g = scaled.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(source, 0, 0, width, rows, null);
+                g.dispose();
+                for (int y = 0; y < rows; y++) {
+                    scaled.getRGB(0, y, width, 1, row, 0, width);
+                    MonochromeConverter.packRow(row, 0, width, MonochromeConverter.DEFAULT_THRESHOLD,
+                            image.getData(), y * image.getBytesPerRow());
+                }
+                return image.getData()[0];
+            });
+        }
+        if (matches(filter, "scaleFused" + suffix)) {
+            runner.run("scaleFused" + suffix, pixels.length * 4L, () -> {
+                MonochromeImage image = new MonochromeScaler(sourceWidth, sourceRows, width, rows)
+                        .scale((y, argb) -> System.arraycopy(pixels, y * sourceWidth, argb, 0, sourceWidth),
+                                MonochromeConverter.DEFAULT_THRESHOLD);
+                return image.getData()[0];
+            });
+        }
+        if (matches(filter, "scaleSampled" + suffix)) {
+            final int sampledWidth = sourceWidth / 2;
+            final int sampledRows = sourceRows / 2;
+            final int[] sampled = new int[sampledWidth * sampledRows];
+            for (int y = 0; y < sampledRows; y++) {
+                for (int x = 0; x < sampledWidth; x++) {
+                    sampled[y * sampledWidth + x] = pixels[2 * y * sourceWidth + 2 * x];
+                }
+            }
+            runner.run("scaleSampled" + suffix, pixels.length * 4L, () -> {
+                MonochromeImage image = new MonochromeScaler(sampledWidth, sampledRows, width, rows)
+                        .scale((y, argb) -> System.arraycopy(sampled, y * sampledWidth, argb, 0, sampledWidth),
+                                MonochromeConverter.DEFAULT_THRESHOLD);
+                return image.getData()[0];
+            });
+        }
+    }
+
+    private static void runTextBenchmarks(BenchmarkRunner runner, String filter) {
+        for (int lines : new int[] {40, 400}) {
+            final String text = ReceiptFixtures.receiptText(lines, 32);
+            final CommandBuffer buffer = new CommandBuffer();
+            final EscPosEncoder encoder = new EscPosEncoder(buffer);
+            String name = "textEncode_" + lines + "lines";
+            if (matches(filter, name)) {
+                runner.run(name, text.length(), () -> {
+                    buffer.reset();
+                    encoder.initialize().text(text).printAndFeedLines(2);
+                    return buffer.size();
+                });
+            }
+        }
+    }
+
+    private static void runRasterTextBenchmarks(BenchmarkRunner runner, String filter) {
+        String name = "textRasterize_40lines";
+        if (!matches(filter, name)) {
+            return;
+        }
+        List<TextRow> rows = new ArrayList<>();
+        for (String line : ReceiptFixtures.receiptText(40, 32).split("\n")) {
+            rows.add(new TextRow(line));
+        }
+        rows.add(new TextRow("Cảm ơn quý khách! 谢谢惠顾", 1, TextRow.Align.CENTER, true));
+        final CommandBuffer buffer = new CommandBuffer();
+        final EscPosEncoder encoder = new EscPosEncoder(buffer);
+        final TextRasterizer rasterizer = new TextRasterizer(new GlyphCache(4096), new AwtGlyphSource(Font.SANS_SERIF), 576);
+        runner.run(name, 41 * 33, () -> {
+            buffer.reset();
+            PrintJobEncoder.encodeRasterRows(encoder, rasterizer, rows, JobFinish.DEFAULT);
+            return buffer.size();
+        });
+    }
+
+    private static void runCodePageBenchmarks(BenchmarkRunner runner, String filter) {
+        String name = "textCodePage_40lines";
+        if (!matches(filter, name)) {
+            return;
+        }
+        // Vietnamese goes through CP1258, Chinese through GBK, the Arabic line falls back to raster
+        List<TextRow> rows = new ArrayList<>();
+        String[] lines = ReceiptFixtures.receiptText(40, 32).split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = i % 4 == 1 ? "Cà phê sữa đá  x2     50.000₫" : i % 4 == 3 ? "珍珠奶茶 x1          35.000" : lines[i];
+            rows.add(new TextRow(line, 1, TextRow.Align.LEFT, false));
+        }
+        rows.add(new TextRow("شكرا", 1, TextRow.Align.CENTER, false));
+        final CommandBuffer buffer = new CommandBuffer();
+        final EscPosEncoder encoder = new EscPosEncoder(buffer);
+        final CodePageEncoder codePages = new CodePageEncoder(CodePage.GBK, CodePage.GBK, CodePage.CP437, CodePage.CP1258);
+        codePages.prepare();
+        final TextRasterizer rasterizer = new TextRasterizer(new GlyphCache(4096), new AwtGlyphSource(Font.SANS_SERIF), 576);
+        runner.run(name, 41 * 33, () -> {
+            buffer.reset();
+            PrintJobEncoder.encodeRows(encoder, codePages, rasterizer, rows, JobFinish.DEFAULT);
+            return buffer.size();
+        });
+    }
+
+    private static void runQrBenchmarks(BenchmarkRunner runner, String filter) {
+        // A payment URL (version 5 at level M) and a 12-line ticket payload (version 15)
+        String[] payloads = {
+            "https://pay.example.com/r/8f3a9c21?amount=125000&ref=ORD-2024-000183",
+            ReceiptFixtures.receiptText(12, 32),
+        };
+        for (final String payload : payloads) {
+            final int version = QrCode.encodeText(payload, QrCode.Ecc.M).getVersion();
+            final CommandBuffer buffer = new CommandBuffer();
+            final EscPosEncoder encoder = new EscPosEncoder(buffer);
+            String name = "qrRaster_v" + version;
+            if (matches(filter, name)) {
+                runner.run(name, payload.length(), () -> {
+                    buffer.reset();
+                    QrCode qr = QrCode.encodeText(payload, QrCode.Ecc.M);
+                    int moduleDots = QrRasterizer.fitModuleDots(qr, 6, 576);
+                    encoder.rasterImage(QrRasterizer.render(qr, moduleDots, 576, TextRow.Align.CENTER));
+                    return buffer.size();
+                });
+            }
+        }
+    }
+
+    private static void runLabelGraphicBenchmarks(BenchmarkRunner runner, String filter, int width, int rows) {
+        String suffix = "_" + width + "x" + rows;
+        if (!matches(filter, "labelGraphicAcs" + suffix) && !matches(filter, "labelGraphicZ64" + suffix)) {
+            return;
+        }
+        final MonochromeImage image = MonochromeConverter.convert(ReceiptFixtures.receiptPixels(width, rows), width, rows,
+                MonochromeConverter.DEFAULT_THRESHOLD);
+        final StringBuilder out = new StringBuilder();
+        for (final boolean deflate : new boolean[] {false, true}) {
+            String name = (deflate ? "labelGraphicZ64" : "labelGraphicAcs") + suffix;
+            if (!matches(filter, name)) {
+                continue;
+            }
+            out.setLength(0);
+            ZplGraphic.append(out, 0, 0, image, deflate);
+            System.out.printf(Locale.ROOT, "# %s: %d B of ZPL for %d B of rows (%d B as plain hex), %.0f ms at %d baud%n",
+                    name, out.length(), image.getBytesPerRow() * rows, image.getBytesPerRow() * rows * 2,
+                    out.length() * 10 * 1000.0 / LABEL_BAUD, LABEL_BAUD);
+            runner.run(name, image.getBytesPerRow() * rows, () -> {
+                out.setLength(0);
+                ZplGraphic.append(out, 0, 0, image, deflate);
+                return out.length();
+            });
+        }
+    }
+
+    private static boolean matches(String filter, String name) {
+        return filter == null || name.contains(filter);
+    }
+}
@@ -0,0 +1,163 @@
+package com.capacitor.mkprinter.benchmark;
+
+import com.capacitor.mkprinter.barcode.BarcodeEncoder;
+import com.capacitor.mkprinter.barcode.BarcodeJob;
+import com.capacitor.mkprinter.barcode.BarcodeType;
+import com.capacitor.mkprinter.barcode.QrCode;
+import com.capacitor.mkprinter.escpos.CodePage;
+import com.capacitor.mkprinter.escpos.CodePageEncoder;
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.MonochromeConverter;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.PrintJobEncoder;
+import com.capacitor.mkprinter.escpos.TextRow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Byte fixtures for the iOS encoder tests ({@code swift test} at the repo
+ * root). Each job is encoded here by the same {@link PrintJobEncoder} and
+ * {@link BarcodeEncoder} calls as PrintUtils and written as {@code <name>.bin};
+ * the Swift port must produce the same bytes from the same input. Source
+ * images are written as binary PBM ({@code P4}), whose rows are packed the way
+ * {@link MonochromeImage} packs them.
+ *
+ * The text rows below are repeated in EncoderParityTests.swift; change both.
+ *
+ * Options: {@code --update} rewrites the fixtures, {@code --out DIR}
+ */
+public class IosFixtures {
+
+    private static final int WIDTH = 384;
+    private static final int WIDE = 576;
+    private static final int IMAGE_ROWS = 400;
+
+    public static void main(String[] args) throws IOException {
+        boolean update = Arrays.asList(args).contains("--update");
+        File dir = new File(arg(args, "--out", "../../ios/Tests/EncodingTests/Fixtures"));
+
+        int failures = 0;
+        for (Map.Entry<String, byte[]> entry : fixtures().entrySet()) {
+            File file = new File(dir, entry.getKey());
+            byte[] bytes = entry.getValue();
+            if (update || !file.exists()) {
+                dir.mkdirs();
+                Files.write(file.toPath(), bytes);
+                System.out.printf(Locale.ROOT, "%-28s %7d B written%n", file.getName(), bytes.length);
+                continue;
+            }
+            boolean same = Arrays.equals(bytes, Files.readAllBytes(file.toPath()));
+            System.out.printf(Locale.ROOT, "%-28s %7d B %s%n", file.getName(), bytes.length,
+                    same ? "ok" : "differs");
+            if (!same) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " failed; run with --update if the change is intended, then update the Swift port");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The fixture files by name: source images and encoded jobs
+     */
+    private static Map<String, byte[]> fixtures() {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+
+        // The default profile: Chinese (GBK) mode with PC437 for what GBK lacks
+        CommandBuffer text = new CommandBuffer();
+        PrintJobEncoder.encodeRows(new EscPosEncoder(text), new CodePageEncoder(CodePage.GBK, CodePage.GBK, CodePage.CP437),
+                null, Arrays.asList(
+                        new TextRow("RECEIPT", 2, TextRow.Align.CENTER, false),
+                        new TextRow("Café au lait    3.50\nPain ½          1.20\n", 1, TextRow.Align.LEFT, false),
+                        new TextRow("合计            4.70", 1, TextRow.Align.LEFT, true),
+                        new TextRow("Thank you!", 1, TextRow.Align.RIGHT, false)),
+                JobFinish.DEFAULT);
+        files.put("text_rows.bin", bytes(text));
+
+        CommandBuffer western = new CommandBuffer();
+        PrintJobEncoder.encodeRows(new EscPosEncoder(western), new CodePageEncoder(CodePage.CP1252, CodePage.CP1252),
+                null, Arrays.asList(
+                        new TextRow("Crème brûlée   €4.50", 1, TextRow.Align.LEFT, false),
+                        new TextRow("TOTAL", 3, TextRow.Align.RIGHT, true)),
+                new JobFinish(3, JobFinish.Cut.PARTIAL, JobFinish.DRAWER_PIN_2, JobFinish.DEFAULT_PULSE_MS));
+        files.put("text_rows_cp1252_cut.bin", bytes(western));
+
+        CommandBuffer vietnamese = new CommandBuffer();
+        PrintJobEncoder.encodeRows(new EscPosEncoder(vietnamese),
+                new CodePageEncoder(CodePage.CP1258, CodePage.CP1258), null, Arrays.asList(
+                        new TextRow("Tổng cộng      85.000đ", 1, TextRow.Align.LEFT, true),
+                        new TextRow("Cảm ơn quý khách", 1, TextRow.Align.CENTER, false)),
+                new JobFinish(JobFinish.DEFAULT_FEED, JobFinish.Cut.FULL, 0, JobFinish.DEFAULT_PULSE_MS));
+        files.put("text_rows_cp1258.bin", bytes(vietnamese));
+
+        for (int width : new int[] {WIDTH, WIDE}) {
+            MonochromeImage image = receipt(width, IMAGE_ROWS);
+            files.put("image_" + width + ".pbm", pbm(image));
+            CommandBuffer raster = new CommandBuffer();
+            PrintJobEncoder.encodeImage(new EscPosEncoder(raster), image, JobFinish.DEFAULT);
+            files.put("image_" + width + ".bin", bytes(raster));
+        }
+        CommandBuffer bitImage = new CommandBuffer();
+        PrintJobEncoder.encodeImage(new EscPosEncoder(bitImage).setRasterSupported(false), receipt(WIDTH, IMAGE_ROWS),
+                JobFinish.DEFAULT);
+        files.put("image_" + WIDTH + "_bit_image.bin", bytes(bitImage));
+
+        files.put("barcode_qr_native.bin",
+                barcode(new BarcodeJob(BarcodeType.QR, "https://example.com/r/1042", 0, BarcodeJob.DEFAULT_HEIGHT,
+                        QrCode.Ecc.M, TextRow.Align.CENTER, BarcodeJob.Hri.BELOW)));
+        files.put("barcode_pdf417.bin",
+                barcode(new BarcodeJob(BarcodeType.PDF417, "INV-1042;2024-01-17;85000", 3, BarcodeJob.DEFAULT_HEIGHT,
+                        QrCode.Ecc.Q, TextRow.Align.LEFT, BarcodeJob.Hri.NONE)));
+        files.put("barcode_code128.bin",
+                barcode(new BarcodeJob(BarcodeType.CODE128, "20240117", 0, BarcodeJob.DEFAULT_HEIGHT, QrCode.Ecc.M,
+                        TextRow.Align.CENTER, BarcodeJob.Hri.BELOW)));
+        files.put("barcode_code39.bin",
+                barcode(new BarcodeJob(BarcodeType.CODE39, "MK-42", 3, 120, QrCode.Ecc.M, TextRow.Align.RIGHT,
+                        BarcodeJob.Hri.BOTH)));
+        return files;
+    }
+
+    private static byte[] barcode(BarcodeJob job) {
+        CommandBuffer buffer = new CommandBuffer();
+        BarcodeEncoder.encode(new EscPosEncoder(buffer), job, true, WIDTH, JobFinish.DEFAULT);
+        return bytes(buffer);
+    }
+
+    private static MonochromeImage receipt(int width, int height) {
+        return MonochromeConverter.convert(ReceiptFixtures.receiptPixels(width, height), width, height,
+                MonochromeConverter.DEFAULT_THRESHOLD);
+    }
+
+    private static byte[] pbm(MonochromeImage image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] header = ("P4\n" + image.getWidth() + " " + image.getHeight() + "\n").getBytes(StandardCharsets.US_ASCII);
+        out.write(header, 0, header.length);
+        out.write(image.getData(), 0, image.getBytesPerRow() * image.getHeight());
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(CommandBuffer buffer) {
+        return Arrays.copyOf(buffer.array(), buffer.size());
+    }
+
+    private static String arg(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,228 @@
+package com.capacitor.mkprinter.benchmark;
+
+import com.capacitor.mkprinter.barcode.BarcodeEncoder;
+import com.capacitor.mkprinter.barcode.BarcodeJob;
+import com.capacitor.mkprinter.barcode.BarcodeType;
+import com.capacitor.mkprinter.barcode.QrCode;
+import com.capacitor.mkprinter.escpos.CodePage;
+import com.capacitor.mkprinter.escpos.CodePageEncoder;
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.MonochromeConverter;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.PrintJobEncoder;
+import com.capacitor.mkprinter.escpos.TextRow;
+import com.capacitor.mkprinter.preview.EscPosRenderer;
+import com.capacitor.mkprinter.preview.MonochromePng;
+import com.capacitor.mkprinter.raster.GlyphCache;
+import com.capacitor.mkprinter.raster.TextRasterizer;
+
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Golden-image checks of the print encoders. Each fixture job is encoded by
+ * the same {@link PrintJobEncoder} and {@link BarcodeEncoder} calls as
+ * PrintUtils, rendered back to paper with {@link EscPosRenderer}, and compared
+ * dot for dot with a PNG under {@code golden/}. Mismatches are written to
+ * {@code build/preview} with a diff image.
+ *
+ * Raster images are also rendered from both band encodings (GS v 0 and
+ * ESC *), each of which must reproduce the source image exactly; that check
+ * does not depend on fonts.
+ *
+ * Options: {@code --update} rewrites the golden images, {@code --golden DIR},
+ * {@code --out DIR}
+ */
+public class PreviewHarness {
+
+    private static final int WIDTH = 384;
+    private static final int WIDE = 576;
+
+    public static void main(String[] args) throws IOException {
+        boolean update = Arrays.asList(args).contains("--update");
+        File golden = new File(arg(args, "--golden", "golden"));
+        File out = new File(arg(args, "--out", "build/preview"));
+
+        int failures = checkRasterRoundTrip();
+
+        GlyphCache cache = new GlyphCache(4096);
+        AwtGlyphSource font = new AwtGlyphSource(Font.MONOSPACED);
+        Map<String, CommandBuffer> jobs = fixtures(cache, font);
+        for (Map.Entry<String, CommandBuffer> entry : jobs.entrySet()) {
+            String name = entry.getKey();
+            CommandBuffer job = entry.getValue();
+            int width = name.endsWith("576") ? WIDE : WIDTH;
+            EscPosRenderer renderer = new EscPosRenderer(cache, font, width, TextRasterizer.BASE_FONT_DOTS, CodePage.GBK);
+            MonochromeImage page = renderer.render(job.array(), 0, job.size());
+            File file = new File(golden, name + ".png");
+
+            if (update || !file.exists()) {
+                golden.mkdirs();
+                write(page, file);
+                System.out.printf(Locale.ROOT, "%-22s %4dx%-5d written%n", name, page.getWidth(), page.getHeight());
+                continue;
+            }
+            int diff = compare(page, ImageIO.read(file), out, name);
+            System.out.printf(Locale.ROOT, "%-22s %4dx%-5d %s%n", name, page.getWidth(), page.getHeight(),
+                    diff == 0 ? "ok" : diff + " dots differ");
+            if (diff != 0) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " failed; see " + out.getPath());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The fixture jobs, as PrintUtils encodes them with the default profile
+     */
+    private static Map<String, CommandBuffer> fixtures(GlyphCache cache, AwtGlyphSource font) {
+        Map<String, CommandBuffer> jobs = new LinkedHashMap<>();
+        CodePageEncoder codePages = new CodePageEncoder(CodePage.GBK, CodePage.GBK, CodePage.CP437, CodePage.CP1258);
+
+        List<TextRow> rows = new ArrayList<>();
+        rows.add(new TextRow("RECEIPT", 2, TextRow.Align.CENTER, false));
+        rows.add(new TextRow(ReceiptFixtures.receiptText(6, WIDTH / 12), 1, TextRow.Align.LEFT, false));
+        rows.add(new TextRow("Tổng cộng", 1, TextRow.Align.LEFT, true));
+        rows.add(new TextRow("Thank you!", 1, TextRow.Align.RIGHT, false));
+
+        CommandBuffer text = new CommandBuffer();
+        PrintJobEncoder.encodeRows(new EscPosEncoder(text), codePages,
+                new TextRasterizer(cache, font, WIDTH), rows, JobFinish.DEFAULT);
+        jobs.put("text_rows", text);
+
+        CommandBuffer cut = new CommandBuffer();
+        PrintJobEncoder.encodeRows(new EscPosEncoder(cut), codePages, new TextRasterizer(cache, font, WIDTH), rows,
+                new JobFinish(3, JobFinish.Cut.PARTIAL, JobFinish.DRAWER_PIN_2, JobFinish.DEFAULT_PULSE_MS));
+        jobs.put("text_rows_cut", cut);
+
+        CommandBuffer raster = new CommandBuffer();
+        PrintJobEncoder.encodeRasterRows(new EscPosEncoder(raster), new TextRasterizer(cache, font, WIDTH), rows,
+                JobFinish.DEFAULT);
+        jobs.put("text_raster", raster);
+
+        CommandBuffer qr = new CommandBuffer();
+        BarcodeEncoder.encode(new EscPosEncoder(qr), barcode(BarcodeType.QR, "https://example.com/r/1042"), true, WIDTH,
+                JobFinish.DEFAULT);
+        jobs.put("barcode_qr_native", qr);
+
+        CommandBuffer qrRaster = new CommandBuffer();
+        BarcodeEncoder.encode(new EscPosEncoder(qrRaster), barcode(BarcodeType.QR, "https://example.com/r/1042"), false, WIDTH,
+                JobFinish.DEFAULT);
+        jobs.put("barcode_qr_raster", qrRaster);
+
+        CommandBuffer code128 = new CommandBuffer();
+        BarcodeEncoder.encode(new EscPosEncoder(code128), barcode(BarcodeType.CODE128, "20240117"), true, WIDTH,
+                JobFinish.DEFAULT);
+        jobs.put("barcode_code128", code128);
+
+        for (int width : new int[] {WIDTH, WIDE}) {
+            CommandBuffer image = new CommandBuffer();
+            PrintJobEncoder.encodeImage(new EscPosEncoder(image), receipt(width, 600), JobFinish.DEFAULT);
+            jobs.put("image_" + width, image);
+        }
+        return jobs;
+    }
+
+    private static BarcodeJob barcode(BarcodeType type, String data) {
+        return new BarcodeJob(type, data, 0, BarcodeJob.DEFAULT_HEIGHT, QrCode.Ecc.M, TextRow.Align.CENTER,
+                BarcodeJob.Hri.BELOW);
+    }
+
+    private static MonochromeImage receipt(int width, int height) {
+        return MonochromeConverter.convert(ReceiptFixtures.receiptPixels(width, height), width, height,
+                MonochromeConverter.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @return Number of band encodings that did not reproduce the source image
+     */
+    private static int checkRasterRoundTrip() {
+        int failures = 0;
+        MonochromeImage image = receipt(WIDTH, 2000);
+        String[] modes = {"GS v 0", "ESC *"};
+        for (int mode = 0; mode < modes.length; mode++) {
+            CommandBuffer buffer = new CommandBuffer();
+            new EscPosEncoder(buffer)
+                    .setRasterSupported(mode == 0)
+                    .rasterImage(image);
+            MonochromeImage page = new EscPosRenderer(new GlyphCache(16), new AwtGlyphSource(Font.MONOSPACED),
+                    WIDTH, TextRasterizer.BASE_FONT_DOTS, CodePage.GBK).render(buffer.array(), 0, buffer.size());
+            int diff = 0;
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    if (image.isBlack(x, y) != (y < page.getHeight() && page.isBlack(x, y))) {
+                        diff++;
+                    }
+                }
+            }
+            System.out.printf(Locale.ROOT, "%-22s %4dx%-5d %s%n", "roundtrip " + modes[mode], WIDTH,
+                    image.getHeight(), diff == 0 ? "ok" : diff + " dots differ");
+            if (diff != 0) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return Dots that differ; on a mismatch the page and a diff image are written to {@code out}
+     */
+    private static int compare(MonochromeImage page, BufferedImage expected, File out, String name)
+            throws IOException {
+        int width = Math.max(page.getWidth(), expected.getWidth());
+        int height = Math.max(page.getHeight(), expected.getHeight());
+        BufferedImage diffImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int diff = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean actual = x < page.getWidth() && y < page.getHeight() && page.isBlack(x, y);
+                boolean wanted = x < expected.getWidth() && y < expected.getHeight()
+                        && (expected.getRGB(x, y) & 0xFF) < 128;
+                // Red: only in the new render, blue: only in the golden image
+                int color = actual == wanted ? (actual ? 0x000000 : 0xFFFFFF) : (actual ? 0xFF0000 : 0x0000FF);
+                diffImage.setRGB(x, y, color);
+                if (actual != wanted) {
+                    diff++;
+                }
+            }
+        }
+        if (diff != 0) {
+            out.mkdirs();
+            write(page, new File(out, name + ".png"));
+            ImageIO.write(diffImage, "png", new File(out, name + ".diff.png"));
+        }
+        return diff;
+    }
+
+    private static void write(MonochromeImage page, File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            MonochromePng.write(page, out);
+        }
+    }
+
+    private static String arg(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
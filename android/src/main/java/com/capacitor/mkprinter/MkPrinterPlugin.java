@@ -5,10 +5,13 @@ import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Looper;
 import android.provider.Settings;
+import android.util.Base64;
 import android.util.Log;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -23,14 +26,49 @@ import com.zebra.sdk.printer.PrinterStatus;
 import com.zebra.sdk.printer.discovery.DiscoveredPrinter;
 import com.zebra.sdk.printer.discovery.DiscoveryHandler;
 
+import com.capacitor.mkprinter.barcode.BarcodeJob;
+import com.capacitor.mkprinter.barcode.BarcodeType;
+import com.capacitor.mkprinter.barcode.QrCode;
+import com.capacitor.mkprinter.escpos.CodePage;
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.TextRow;
+import com.capacitor.mkprinter.firmware.FirmwareUpdater;
+import com.capacitor.mkprinter.goojprt.util.ConnectionWarmer;
 import com.capacitor.mkprinter.goojprt.util.PrintUtils;
-import com.android.print.sdk.PrinterInstance;
+import com.capacitor.mkprinter.goojprt.util.SpoolWorker;
+import com.capacitor.mkprinter.metrics.PrintMetrics;
+import com.capacitor.mkprinter.preview.MonochromePng;
+import com.capacitor.mkprinter.profile.PrinterProfile;
+import com.capacitor.mkprinter.profile.PrinterProfileRegistry;
+import com.capacitor.mkprinter.profile.ThroughputModel;
+import com.capacitor.mkprinter.spool.JobDedupIndex;
+import com.capacitor.mkprinter.spool.JobScheduler;
+import com.capacitor.mkprinter.spool.PrintSpool;
+import com.capacitor.mkprinter.transport.PartialWriteException;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+import com.capacitor.mkprinter.transport.RealTimeStatus;
+import com.capacitor.mkprinter.transport.StatusMultiplexer;
+import com.capacitor.mkprinter.zebra.LabelField;
+import com.capacitor.mkprinter.zebra.LabelFormat;
+import com.capacitor.mkprinter.zebra.ZebraPrint;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @CapacitorPlugin(
@@ -52,46 +90,583 @@ public class MkPrinterPlugin extends Plugin implements DiscoveryHandler {
     private Connection mPrinterConn;
     private PrinterStatus mPrinterStatus;
     private BluetoothAdapter mBluetoothAdapter;
+    private ConnectionWarmer mWarmer;
+    private SpoolWorker mSpoolWorker;
+    private boolean mSpoolByDefault;
+    private JobDedupIndex<JSObject> mDedup;
 
     private final String LOG_TAG = "MkPrinterPlugin";
 
+    private static final int DEFAULT_WARM_UP_IDLE_TIMEOUT = 60000;
+    private static final int DEFAULT_DEDUP_WINDOW = 600000;
+    private static final int DEDUP_MAX_ENTRIES = 512;
+    /** Rejection of spool calls before load or after destroy */
+    private static final String SPOOL_UNAVAILABLE = "The print spool is not available";
+
     public MkPrinterPlugin() {}
 
+    @Override
+    public void load() {
+        // Opt-in: plugins.MkPrinter.warmUp / warmUpIdleTimeout (ms) in the Capacitor config
+        if (getConfig().getBoolean("warmUp", false)) {
+            int idleTimeout = getConfig().getInt("warmUpIdleTimeout", DEFAULT_WARM_UP_IDLE_TIMEOUT);
+            mWarmer = new ConnectionWarmer(getContext(), idleTimeout);
+            mWarmer.warmUp();
+        }
+        loadPrinterProfiles();
+
+        // plugins.MkPrinter.spool: queue every job on disk first; jobs left over from earlier runs are always drained
+        mSpoolByDefault = getConfig().getBoolean("spool", false);
+        mSpoolWorker = new SpoolWorker(getContext(), mSpoolListener);
+
+        // plugins.MkPrinter.dedupWindow (ms): how long a clientJobId is remembered
+        mDedup = new JobDedupIndex<>(DEDUP_MAX_ENTRIES, getConfig().getInt("dedupWindow", DEFAULT_DEDUP_WINDOW));
+    }
+
+    /**
+     * Builds the printer profile registry from the config:
+     * plugins.MkPrinter.printerProfiles maps "default", MAC addresses and model names to profiles.
+     * The older top-level codePages and native2dBarcodes options still set the default profile.
+     */
+    private void loadPrinterProfiles() {
+        PrinterProfile.Builder builder = new PrinterProfile.Builder();
+        // plugins.MkPrinter.codePages: code pages the printer supports, the first being its default
+        CodePage[] codePages = parseCodePages(getConfig().getArray("codePages", null));
+        if (codePages != null) {
+            builder.setCodePages(codePages[0], codePages);
+        }
+        // plugins.MkPrinter.native2dBarcodes: the printer implements GS ( k for QR and PDF417
+        builder.setCapability(PrinterProfile.Capability.NATIVE_2D_BARCODES,
+                getConfig().getBoolean("native2dBarcodes", false));
+        PrinterProfile defaultProfile = builder.build();
+
+        JSONObject config = getConfig().getConfigJSON();
+        JSONObject profiles = config == null ? null : config.optJSONObject("printerProfiles");
+        if (profiles != null && profiles.optJSONObject("default") != null) {
+            defaultProfile = parseProfile(profiles.optJSONObject("default"), defaultProfile);
+        }
+        PrinterProfileRegistry registry = new PrinterProfileRegistry(
+                new File(getContext().getFilesDir(), PrinterProfileRegistry.FILE_NAME), defaultProfile);
+        if (profiles != null) {
+            Iterator<String> keys = profiles.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONObject profile = profiles.optJSONObject(key);
+                if (!"default".equals(key) && profile != null) {
+                    registry.putOverride(key, parseProfile(profile, defaultProfile));
+                }
+            }
+        }
+        PrintUtils.setProfileRegistry(getContext(), registry);
+    }
+
+    /**
+     * @param json Profile fields: model, width, dpi, maxLineBuffer, chunkSize, bytesPerSecond, linesPerSecond,
+     *             capabilities, codePages
+     * @param base Values of the fields json leaves out
+     */
+    private PrinterProfile parseProfile(JSONObject json, PrinterProfile base) {
+        PrinterProfile.Builder builder = new PrinterProfile.Builder(base);
+        if (json.has("model")) {
+            builder.setModel(json.optString("model"));
+        }
+        builder.setWidthDots(json.optInt("width", base.getWidthDots()))
+                .setDpi(json.optInt("dpi", base.getDpi()))
+                .setMaxLineBuffer(json.optInt("maxLineBuffer", base.getMaxLineBuffer()))
+                .setChunkSize(json.optInt("chunkSize", base.getChunkSize()))
+                .setBytesPerSecond(json.optInt("bytesPerSecond", base.getBytesPerSecond()))
+                .setLinesPerSecond(json.optInt("linesPerSecond", base.getLinesPerSecond()));
+        JSONArray capabilities = json.optJSONArray("capabilities");
+        if (capabilities != null) {
+            EnumSet<PrinterProfile.Capability> set = EnumSet.noneOf(PrinterProfile.Capability.class);
+            for (int i = 0; i < capabilities.length(); i++) {
+                PrinterProfile.Capability capability = PrinterProfile.Capability.parse(capabilities.optString(i));
+                if (capability == null) {
+                    Log.w(LOG_TAG, "Unknown printer capability " + capabilities.optString(i));
+                } else {
+                    set.add(capability);
+                }
+            }
+            builder.setCapabilities(set);
+        }
+        JSONArray pageNames = json.optJSONArray("codePages");
+        if (pageNames != null) {
+            String[] names = new String[pageNames.length()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = pageNames.optString(i);
+            }
+            CodePage[] codePages = parseCodePages(names);
+            if (codePages != null) {
+                builder.setCodePages(codePages[0], codePages);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return The known code pages among {@code names}, or null if there are none
+     */
+    private CodePage[] parseCodePages(String[] names) {
+        if (names == null) {
+            return null;
+        }
+        List<CodePage> pages = new ArrayList<>();
+        for (String name : names) {
+            CodePage page = CodePage.parse(name);
+            if (page == null) {
+                Log.w(LOG_TAG, "Unknown code page " + name);
+            } else {
+                pages.add(page);
+            }
+        }
+        return pages.isEmpty() ? null : pages.toArray(new CodePage[0]);
+    }
+
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+        if (mWarmer != null) {
+            mWarmer.warmUp();
+        }
+        if (mSpoolWorker != null) {
+            mSpoolWorker.kick();
+        }
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        super.handleOnDestroy();
+        if (mWarmer != null) {
+            mWarmer.release();
+            mWarmer = null;
+        }
+        if (mSpoolWorker != null) {
+            mSpoolWorker.release();
+            mSpoolWorker = null;
+        }
+    }
+
     @PluginMethod
     public void printText(PluginCall call) {
-        try {
-            String printText = call.getString("rows");
+        final JobScheduler.Lane lane = parseLane(call);
+        if (lane == null) {
+            return;
+        }
+        final JobFinish finish = parseFinish(call);
+        if (finish == null) {
+            return;
+        }
 
-            PrinterInstance mPrinter = PrintUtils.getCurrentPrinter(getContext());
-            PrintUtils.printText(mPrinter, printText);
-            call.resolve();
+        // Off the plugin thread, so a job waiting for the printer does not hold up more urgent calls
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!claimJob(call)) {
+                    return;
+                }
+                onPrintStarted();
+                try {
+                    JSArray rowsArray = call.getArray("rows");
+                    List<TextRow> rows = rowsArray == null
+                            ? Collections.singletonList(new TextRow(call.getString("rows")))
+                            : parseRows(rowsArray);
+                    boolean rasterize = rowsArray != null && call.getBoolean("rasterize", false);
+                    String font = call.getString("font");
 
-        } catch (Throwable e) {
-            Log.e(LOG_TAG, e.getMessage());
-            e.printStackTrace();
-            call.reject(e.getMessage());
+                    if (shouldSpool(call)) {
+                        CommandBuffer job = PrintUtils.obtainBuffer(4096);
+                        try {
+                            if (rasterize) {
+                                PrintUtils.encodeRasterRows(rows, font, finish, job);
+                            } else {
+                                PrintUtils.encodeRows(rows, font, finish, job);
+                            }
+                            resolveJob(call, spoolJob(job));
+                        } finally {
+                            PrintUtils.recycleBuffer(job);
+                        }
+                        return;
+                    }
+
+                    PrinterTransport printer = PrintUtils.getCurrentTransport(getContext());
+                    if (rasterize) {
+                        PrintUtils.printRasterText(printer, rows, font, finish, lane);
+                    } else {
+                        PrintUtils.printRows(printer, rows, font, finish, lane);
+                    }
+                    resolveJob(call, new JSObject());
+
+                } catch (Throwable e) {
+                    abandonJob(call, e);
+                    Log.e(LOG_TAG, e.getMessage());
+                    e.printStackTrace();
+                    call.reject(e.getMessage());
+                } finally {
+                    onPrintFinished();
+                }
+            }
+        }).start();
+    }
+
+    @PluginMethod
+    public void printBarcode(PluginCall call) {
+        final BarcodeType type = BarcodeType.parse(call.getString("type"));
+        final String data = call.getString("data");
+        if (type == null) {
+            call.reject("Unknown barcode type " + call.getString("type"));
+            return;
+        }
+        if (data == null || data.isEmpty()) {
+            call.reject("Missing barcode data");
+            return;
+        }
+
+        final JobScheduler.Lane lane = parseLane(call);
+        if (lane == null) {
+            return;
         }
+        final JobFinish finish = parseFinish(call);
+        if (finish == null) {
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!claimJob(call)) {
+                    return;
+                }
+                onPrintStarted();
+                try {
+                    BarcodeJob job = newBarcodeJob(call, type, data);
+                    if (shouldSpool(call)) {
+                        CommandBuffer buffer = PrintUtils.obtainBuffer(4096);
+                        try {
+                            PrintUtils.encodeBarcode(job, finish, buffer);
+                            resolveJob(call, spoolJob(buffer));
+                        } finally {
+                            PrintUtils.recycleBuffer(buffer);
+                        }
+                        return;
+                    }
+                    PrinterTransport printer = PrintUtils.getCurrentTransport(getContext());
+                    PrintUtils.printBarcode(printer, job, finish, lane);
+                    resolveJob(call, new JSObject());
+
+                } catch (Throwable e) {
+                    abandonJob(call, e);
+                    Log.e(LOG_TAG, e.getMessage());
+                    e.printStackTrace();
+                    call.reject(e.getMessage());
+                } finally {
+                    onPrintFinished();
+                }
+            }
+        }).start();
     }
 
     @PluginMethod
     public void printImage(PluginCall call) {
-        String base64Data = call.getString("base64Data");
+        final String base64Data = call.getString("base64Data");
+        if (base64Data == null || base64Data.isEmpty()) {
+            call.reject("base64Data is required");
+            return;
+        }
+        final JobScheduler.Lane lane = parseLane(call);
+        if (lane == null) {
+            return;
+        }
+        final JobFinish finish = parseFinish(call);
+        if (finish == null) {
+            return;
+        }
 
         new Thread(new Runnable() {
             @Override
             public void run() {
+                if (!claimJob(call)) {
+                    return;
+                }
+                onPrintStarted();
                 try {
                     Looper.prepare();
 
-                    PrinterInstance mPrinter = PrintUtils.getCurrentPrinter(getContext());
-                    PrintUtils.printImage(mPrinter, base64Data);
-                    call.resolve();
+                    if (shouldSpool(call)) {
+                        CommandBuffer job = PrintUtils.obtainImageBuffer();
+                        try {
+                            PrintUtils.encodeImage(base64Data, finish, job);
+                            resolveJob(call, spoolJob(job));
+                        } finally {
+                            PrintUtils.recycleBuffer(job);
+                        }
+                    } else {
+                        PrinterTransport printer = PrintUtils.getCurrentTransport(getContext());
+                        PrintUtils.printImage(printer, base64Data, finish, lane);
+                        resolveJob(call, new JSObject());
+                    }
 
                     Looper.myLooper().quit();
+                } catch (Throwable e) {
+                    abandonJob(call, e);
+                    Log.e(LOG_TAG, e.getMessage());
+                    e.printStackTrace();
+                    call.reject(e.getMessage());
+                } finally {
+                    onPrintFinished();
+                }
+            }
+        }).start();
+    }
+
+    @PluginMethod
+    public void printRaw(PluginCall call) {
+        final String base64Data = call.getString("base64Data");
+        final String uri = call.getString("uri");
+        if ((base64Data == null || base64Data.isEmpty()) == (uri == null || uri.isEmpty())) {
+            call.reject("Pass either base64Data or uri");
+            return;
+        }
+        final JobScheduler.Lane lane = parseLane(call);
+        if (lane == null) {
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!claimJob(call)) {
+                    return;
+                }
+                onPrintStarted();
+                try {
+                    JSObject res = new JSObject();
+                    if (shouldSpool(call)) {
+                        CommandBuffer job = PrintUtils.obtainBuffer(4096);
+                        try {
+                            if (uri == null) {
+                                job.write(PrintUtils.decodeRaw(base64Data));
+                            } else {
+                                try (InputStream in = openUri(uri)) {
+                                    PrintUtils.encodeRaw(in, job);
+                                }
+                            }
+                            res = spoolJob(job);
+                        } finally {
+                            PrintUtils.recycleBuffer(job);
+                        }
+                    } else {
+                        PrinterTransport printer = PrintUtils.getCurrentTransport(getContext());
+                        if (uri == null) {
+                            PrintUtils.printRaw(printer, base64Data, lane);
+                        } else {
+                            try (InputStream in = openUri(uri)) {
+                                res.put("length", PrintUtils.printRaw(printer, in, lane));
+                            }
+                        }
+                    }
+                    resolveJob(call, res);
+                } catch (Throwable e) {
+                    abandonJob(call, e);
+                    Log.e(LOG_TAG, e.getMessage());
+                    e.printStackTrace();
+                    call.reject(e.getMessage());
+                } finally {
+                    onPrintFinished();
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Opens a content:// or file:// URI, or a bare file path
+     */
+    private InputStream openUri(String uri) throws IOException {
+        Uri parsed = uri.startsWith("/") ? Uri.fromFile(new File(uri)) : Uri.parse(uri);
+        InputStream in = getContext().getContentResolver().openInputStream(parsed);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return new BufferedInputStream(in, 64 * 1024);
+    }
+
+    @PluginMethod
+    public void printLabels(PluginCall call) {
+        final JobScheduler.Lane lane = parseLane(call);
+        if (lane == null) {
+            return;
+        }
+        final LabelFormat format;
+        final List<Map<String, String>> labels;
+        try {
+            format = parseLabelFormat(call.getObject("format"));
+            labels = parseLabels(call.getArray("labels"));
+        } catch (IllegalArgumentException | JSONException | IOException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        final int copies = Math.max(1, call.getInt("copies", 1));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!claimJob(call)) {
+                    return;
+                }
+                onPrintStarted();
+                try {
+                    JSObject res;
+                    if (shouldSpool(call)) {
+                        // The printer the spool worker reaches may not have the format, so it always goes along
+                        CommandBuffer job = PrintUtils.obtainBuffer(4096);
+                        try {
+                            ZebraPrint.encodeLabels(null, format, labels, copies, job);
+                            res = spoolJob(job);
+                        } finally {
+                            PrintUtils.recycleBuffer(job);
+                        }
+                    } else {
+                        PrinterTransport printer = PrintUtils.getCurrentTransport(getContext());
+                        res = new JSObject();
+                        res.put("formatSent", PrintUtils.printLabels(printer, format, labels, copies, lane));
+                    }
+                    res.put("labels", labels.size());
+                    resolveJob(call, res);
+                } catch (Throwable e) {
+                    abandonJob(call, e);
+                    Log.e(LOG_TAG, e.getMessage());
+                    e.printStackTrace();
+                    call.reject(e.getMessage());
+                } finally {
+                    onPrintFinished();
+                }
+            }
+        }).start();
+    }
+
+    @PluginMethod
+    public void renderPreview(PluginCall call) {
+        final String kind = call.getString("job", "text");
+        if ("image".equals(kind)) {
+            String base64Data = call.getString("base64Data");
+            if (base64Data == null || base64Data.isEmpty()) {
+                call.reject("base64Data is required");
+                return;
+            }
+        }
+        // Raw jobs bring their own feed and cut
+        final JobFinish finish = "raw".equals(kind) ? JobFinish.DEFAULT : parseFinish(call);
+        if (finish == null) {
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CommandBuffer job = "image".equals(kind) ? PrintUtils.obtainImageBuffer() : PrintUtils.obtainBuffer(4096);
+                try {
+                    String font = call.getString("font");
+                    switch (kind) {
+                        case "text":
+                            JSArray rowsArray = call.getArray("rows");
+                            List<TextRow> rows = rowsArray == null
+                                    ? Collections.singletonList(new TextRow(call.getString("rows")))
+                                    : parseRows(rowsArray);
+                            if (rowsArray != null && call.getBoolean("rasterize", false)) {
+                                PrintUtils.encodeRasterRows(rows, font, finish, job);
+                            } else {
+                                PrintUtils.encodeRows(rows, font, finish, job);
+                            }
+                            break;
+                        case "barcode":
+                            BarcodeType barcodeType = BarcodeType.parse(call.getString("type"));
+                            String data = call.getString("data");
+                            if (barcodeType == null) {
+                                call.reject("Unknown barcode type " + call.getString("type"));
+                                return;
+                            }
+                            if (data == null || data.isEmpty()) {
+                                call.reject("Missing barcode data");
+                                return;
+                            }
+                            PrintUtils.encodeBarcode(newBarcodeJob(call, barcodeType, data), finish, job);
+                            break;
+                        case "image":
+                            PrintUtils.encodeImage(call.getString("base64Data"), finish, job);
+                            break;
+                        case "raw":
+                            String uri = call.getString("uri");
+                            if (uri != null && !uri.isEmpty()) {
+                                try (InputStream in = openUri(uri)) {
+                                    PrintUtils.encodeRaw(in, job);
+                                }
+                            } else {
+                                job.write(PrintUtils.decodeRaw(call.getString("base64Data", "")));
+                            }
+                            break;
+                        default:
+                            call.reject("Unknown preview job " + kind);
+                            return;
+                    }
+
+                    MonochromeImage page = PrintUtils.renderPreview(job.array(), job.size(), font);
+                    JSObject res = new JSObject();
+                    res.put("image", Base64.encodeToString(MonochromePng.encode(page), Base64.NO_WRAP));
+                    res.put("width", page.getWidth());
+                    res.put("height", page.getHeight());
+                    res.put("length", job.size());
+                    call.resolve(res);
+                } catch (Throwable e) {
+                    Log.e(LOG_TAG, e.getMessage());
+                    e.printStackTrace();
+                    call.reject(e.getMessage());
+                } finally {
+                    PrintUtils.recycleBuffer(job);
+                }
+            }
+        }).start();
+    }
+
+    @PluginMethod
+    public void updateFirmware(PluginCall call) {
+        String path = call.getString("path");
+        if (path == null || path.isEmpty()) {
+            call.reject("Missing firmware path");
+            return;
+        }
+        final File file = new File(path.startsWith("file://") ? Uri.parse(path).getPath() : path);
+        final String expectedCrc32 = call.getString("crc32");
+        final FirmwareUpdater updater = new FirmwareUpdater()
+                .setChunkDelayMs(call.getInt("chunkDelay", (int) FirmwareUpdater.DEFAULT_CHUNK_DELAY_MS))
+                .setMaxAttempts(call.getInt("attempts", FirmwareUpdater.DEFAULT_MAX_ATTEMPTS))
+                .setListener(mFirmwareListener);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                onPrintStarted();
+                try {
+                    if (expectedCrc32 != null) {
+                        FirmwareUpdater.Result image = FirmwareUpdater.verify(file);
+                        if (image.getCrc32() != Long.parseLong(expectedCrc32, 16)) {
+                            call.reject("Firmware CRC-32 is " + Long.toHexString(image.getCrc32())
+                                    + ", expected " + expectedCrc32);
+                            return;
+                        }
+                    }
+                    FirmwareUpdater.Result result = PrintUtils.updateFirmware(getContext(), file, updater);
+
+                    JSObject res = new JSObject();
+                    res.put("length", result.getLength());
+                    res.put("checksum", Integer.toHexString(result.getChecksum()));
+                    res.put("crc32", Long.toHexString(result.getCrc32()));
+                    res.put("attempts", result.getAttempts());
+                    call.resolve(res);
                 } catch (Throwable e) {
                     Log.e(LOG_TAG, e.getMessage());
                     e.printStackTrace();
                     call.reject(e.getMessage());
+                } finally {
+                    onPrintFinished();
                 }
             }
         }).start();
@@ -118,7 +693,10 @@ public class MkPrinterPlugin extends Plugin implements DiscoveryHandler {
     public void connectPrinter(PluginCall call) {
         try {
             String MACAddress = call.getString("macAddress");
-            PrintUtils.connectPrinter(getContext(), MACAddress);
+            PrintUtils.connectPrinter(getContext(), MACAddress, call.getString("transport"));
+            if (mSpoolWorker != null) {
+                mSpoolWorker.kick();
+            }
             call.resolve();
         } catch (Throwable e) {
             Log.e(LOG_TAG, e.getMessage());
@@ -154,6 +732,136 @@ public class MkPrinterPlugin extends Plugin implements DiscoveryHandler {
         }
     }
 
+    /**
+     * Real-time status of the connected printer; answered while a job is still being sent
+     */
+    @PluginMethod
+    public void getStatusPrinter(PluginCall call) {
+        try {
+            long timeout = call.getInt("timeout", (int) StatusMultiplexer.DEFAULT_TIMEOUT_MS);
+            RealTimeStatus status = PrintUtils.getPrinterStatus(getContext(), timeout);
+            JSObject res = new JSObject();
+            if (!status.hasReply()) {
+                res.put("status", "Cannot print, unknown error");
+            } else if (status.isCoverOpen()) {
+                res.put("status", "Printer head is open");
+            } else if (status.isPaperOut()) {
+                res.put("status", "Printer is out of paper");
+            } else if (status.hasError()) {
+                res.put("status", "Cannot print, unknown error");
+            } else if (status.isOffline()) {
+                res.put("status", "Printer is currently paused");
+            } else {
+                res.put("status", "Printer is ready for use");
+            }
+            res.put("responded", status.hasReply());
+            res.put("ready", status.isReady());
+            res.put("offline", status.isOffline());
+            res.put("coverOpen", status.isCoverOpen());
+            res.put("paperOut", status.isPaperOut());
+            res.put("paperNearEnd", status.isPaperNearEnd());
+            res.put("error", status.hasError());
+            res.put("cutterError", status.isCutterError());
+            call.resolve(res);
+        } catch (Throwable e) {
+            Log.e(LOG_TAG, e.getMessage());
+            e.printStackTrace();
+            call.reject(e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void getSpoolStatus(PluginCall call) {
+        SpoolWorker worker = mSpoolWorker;
+        if (worker == null) {
+            call.reject(SPOOL_UNAVAILABLE);
+            return;
+        }
+        try {
+            PrintSpool spool = worker.getSpool();
+            JSObject res = new JSObject();
+            res.put("pending", spool.getPendingCount());
+            res.put("pendingBytes", spool.getPendingBytes());
+            res.put("journalBytes", spool.getJournalSize());
+            res.put("estimatedMs", PrintUtils.estimateMillis(spool.getPendingBytes(), 0));
+            call.resolve(res);
+        } catch (Throwable e) {
+            Log.e(LOG_TAG, e.getMessage());
+            e.printStackTrace();
+            call.reject(e.getMessage());
+        }
+    }
+
+    @PluginMethod
+    public void getPrinterProfile(PluginCall call) {
+        PrinterProfile profile = PrintUtils.getProfile();
+        JSArray capabilities = new JSArray();
+        for (PrinterProfile.Capability capability : profile.getCapabilities()) {
+            capabilities.put(capability.getKey());
+        }
+        JSArray codePages = new JSArray();
+        for (CodePage page : profile.getCodePages()) {
+            codePages.put(page.name());
+        }
+        JSObject res = new JSObject();
+        res.put("model", profile.getModel());
+        res.put("width", profile.getWidthDots());
+        res.put("dpi", profile.getDpi());
+        res.put("maxLineBuffer", profile.getMaxLineBuffer());
+        res.put("chunkSize", profile.getChunkSize());
+        res.put("bytesPerSecond", profile.getBytesPerSecond());
+        res.put("linesPerSecond", profile.getLinesPerSecond());
+        res.put("capabilities", capabilities);
+        res.put("codePages", codePages);
+        ThroughputModel model = PrintUtils.getThroughput(null);
+        JSObject throughput = new JSObject();
+        throughput.put("jobs", model.getJobCount());
+        throughput.put("bytesPerSecond", Math.round(model.getBytesPerSecond()));
+        throughput.put("linesPerSecond", Math.round(model.getLinesPerSecond()));
+        throughput.put("connectTimeout", model.getConnectTimeoutMs(0));
+        res.put("throughput", throughput);
+        call.resolve(res);
+    }
+
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        PrintMetrics metrics = PrintMetrics.get();
+
+        JSObject stages = new JSObject();
+        for (Map.Entry<String, Map<String, Number>> stage : metrics.stageSnapshot().entrySet()) {
+            JSObject summary = new JSObject();
+            for (Map.Entry<String, Number> value : stage.getValue().entrySet()) {
+                summary.put(value.getKey(), value.getValue());
+            }
+            stages.put(stage.getKey(), summary);
+        }
+
+        JSObject counters = new JSObject();
+        for (Map.Entry<String, Long> counter : metrics.counterSnapshot().entrySet()) {
+            counters.put(counter.getKey(), counter.getValue());
+        }
+
+        boolean reset = call.getBoolean("reset", false);
+        JSObject pools = new JSObject();
+        for (Map.Entry<String, Map<String, Number>> pool : PrintUtils.getPoolStats(reset).entrySet()) {
+            JSObject stats = new JSObject();
+            for (Map.Entry<String, Number> value : pool.getValue().entrySet()) {
+                stats.put(value.getKey(), value.getValue());
+            }
+            pools.put(pool.getKey(), stats);
+        }
+
+        JSObject res = new JSObject();
+        res.put("stages", stages);
+        res.put("counters", counters);
+        res.put("pools", pools);
+
+        if (reset) {
+            metrics.reset();
+        }
+        call.resolve(res);
+    }
+
     @PluginMethod
     public void openBluetoothSettings(PluginCall call) {
         Intent intent = new Intent(Settings.ACTION_BLUETOOTH_SETTINGS);
@@ -161,6 +869,301 @@ public class MkPrinterPlugin extends Plugin implements DiscoveryHandler {
         call.resolve();
     }
 
+    private List<TextRow> parseRows(JSArray rowsArray) throws JSONException {
+        List<TextRow> rows = new ArrayList<>();
+        for (int i = 0; i < rowsArray.length(); i++) {
+            Object item = rowsArray.get(i);
+            if (item instanceof JSONObject) {
+                JSONObject row = (JSONObject) item;
+                rows.add(new TextRow(
+                        row.optString("text", ""),
+                        row.optInt("fontSize", 1),
+                        TextRow.Align.parse(row.optString("fontAlign", null)),
+                        row.optBoolean("fontUnderline", false)));
+            } else {
+                rows.add(new TextRow(String.valueOf(item)));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @param json Format name, width, height and fields
+     * @throws IllegalArgumentException If the format or one of its fields is invalid
+     * @throws IOException If an image field's data cannot be decoded
+     */
+    private LabelFormat parseLabelFormat(JSONObject json) throws JSONException, IOException {
+        if (json == null) {
+            throw new IllegalArgumentException("Pass a label format");
+        }
+        LabelFormat.Builder builder = new LabelFormat.Builder(json.optString("name", null))
+                .setWidthDots(json.optInt("width", 0))
+                .setHeightDots(json.optInt("height", 0));
+        JSONArray fields = json.optJSONArray("fields");
+        for (int i = 0; fields != null && i < fields.length(); i++) {
+            builder.addField(parseLabelField(fields.getJSONObject(i)));
+        }
+        return builder.build();
+    }
+
+    private LabelField parseLabelField(JSONObject field) throws IOException {
+        String type = field.optString("type", "text");
+        int x = field.optInt("x", 0);
+        int y = field.optInt("y", 0);
+        String name = field.has("name") ? field.optString("name") : null;
+        LabelField.Rotation rotation = LabelField.Rotation.parse(field.optString("rotation", null));
+        switch (type) {
+            case "text":
+                return new LabelField.Text(x, y, name, field.optString("text", ""), field.optString("font", null),
+                        field.optInt("height", 0), field.optInt("width", 0), rotation, field.optInt("blockWidth", 0),
+                        field.optInt("maxLines", 1), TextRow.Align.parse(field.optString("align", null)));
+            case "barcode":
+                BarcodeType symbology = BarcodeType.parse(field.optString("symbology", null));
+                if (symbology == null) {
+                    throw new IllegalArgumentException("Unknown barcode symbology " + field.optString("symbology", null));
+                }
+                return new LabelField.Barcode(x, y, name, symbology, field.optString("data", ""),
+                        field.optInt("size", 0), field.optInt("height", 0),
+                        QrCode.Ecc.parse(field.optString("errorCorrection", null)),
+                        BarcodeJob.Hri.parse(field.optString("hri", null)), rotation);
+            case "box":
+                return new LabelField.Box(x, y, field.optInt("width", 1), field.optInt("height", 1),
+                        field.optInt("thickness", 1), field.optBoolean("white", false), field.optInt("rounding", 0));
+            case "image":
+                String base64Data = field.optString("base64Data", "");
+                if (base64Data.isEmpty()) {
+                    return new LabelField.Image(x, y, field.optString("image", null), field.optInt("scaleX", 1),
+                            field.optInt("scaleY", 1));
+                }
+                MonochromeImage image = PrintUtils.decodeGraphic(base64Data, field.optInt("width", 0));
+                try {
+                    return new LabelField.Graphic(x, y, image,
+                            PrintUtils.getProfile().has(PrinterProfile.Capability.Z64_GRAPHICS));
+                } finally {
+                    PrintUtils.recycleImage(image);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown label field type " + type);
+        }
+    }
+
+    /**
+     * @param array One object per label, mapping field names to values
+     */
+    private List<Map<String, String>> parseLabels(JSArray array) throws JSONException {
+        if (array == null || array.length() == 0) {
+            throw new IllegalArgumentException("Pass at least one label");
+        }
+        List<Map<String, String>> labels = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject label = array.getJSONObject(i);
+            Map<String, String> data = new HashMap<>();
+            Iterator<String> keys = label.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                data.put(key, String.valueOf(label.get(key)));
+            }
+            labels.add(data);
+        }
+        return labels;
+    }
+
+    /**
+     * @return The feedLines, cut and openDrawer options of a print call, or null after rejecting
+     *         an unknown cut or drawer pin
+     */
+    private JobFinish parseFinish(PluginCall call) {
+        JobFinish.Cut cut = JobFinish.Cut.parse(call.getString("cut"));
+        if (cut == null) {
+            call.reject("Unknown cut " + call.getString("cut"));
+            return null;
+        }
+        boolean openDrawer = call.getBoolean("openDrawer", false);
+        try {
+            return new JobFinish(
+                    call.getInt("feedLines", JobFinish.DEFAULT_FEED),
+                    cut,
+                    openDrawer ? call.getInt("drawerPin", JobFinish.DRAWER_PIN_2) : 0,
+                    call.getInt("drawerPulse", JobFinish.DEFAULT_PULSE_MS));
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return null;
+        }
+    }
+
+    private BarcodeJob newBarcodeJob(PluginCall call, BarcodeType type, String data) {
+        return new BarcodeJob(type, data,
+                call.getInt("size", 0),
+                call.getInt("height", BarcodeJob.DEFAULT_HEIGHT),
+                QrCode.Ecc.parse(call.getString("errorCorrection")),
+                call.getString("align") == null ? TextRow.Align.CENTER : TextRow.Align.parse(call.getString("align")),
+                BarcodeJob.Hri.parse(call.getString("hri")));
+    }
+
+    /**
+     * @return The call's priority lane, or null after rejecting an unknown one
+     */
+    private JobScheduler.Lane parseLane(PluginCall call) {
+        JobScheduler.Lane lane = JobScheduler.Lane.parse(call.getString("priority"));
+        if (lane == null) {
+            call.reject("Unknown priority " + call.getString("priority"));
+        }
+        return lane;
+    }
+
+    private boolean shouldSpool(PluginCall call) {
+        return call.getBoolean("spool", mSpoolByDefault);
+    }
+
+    /**
+     * Stores an encoded job in the spool; the spool worker prints it
+     * @return The result to resolve the call with, including when the job should be printed
+     */
+    private JSObject spoolJob(CommandBuffer job) throws IOException, InterruptedException {
+        SpoolWorker worker = mSpoolWorker;
+        if (worker == null) {
+            throw new IOException(SPOOL_UNAVAILABLE);
+        }
+        // Behind the jobs waiting for the link and the spooled jobs ahead of it, at the printer's learned rates
+        long estimatedMs = PrintUtils.getBacklogMs(JobScheduler.Lane.NORMAL)
+                + PrintUtils.estimateMillis(worker.getSpool().getPendingBytes(), 0)
+                + PrintUtils.estimateJob(job.array(), job.size());
+        long jobId = worker.enqueue(job);
+        JSObject res = new JSObject();
+        res.put("jobId", jobId);
+        res.put("spooled", true);
+        res.put("estimatedMs", estimatedMs);
+        res.put("eta", System.currentTimeMillis() + estimatedMs);
+        return res;
+    }
+
+    /**
+     * Claims the call's clientJobId, if it has one. A retry of a job that already
+     * ran is resolved with the earlier result; one that is still running waits for it.
+     * @return false if the call has been answered and must not print
+     */
+    private boolean claimJob(PluginCall call) {
+        String clientJobId = call.getString("clientJobId");
+        if (clientJobId == null) {
+            return true;
+        }
+        JSObject earlier;
+        try {
+            earlier = mDedup.claim(clientJobId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.reject("Interrupted while waiting for job " + clientJobId);
+            return false;
+        }
+        if (earlier == null) {
+            return true;
+        }
+        JSObject res = new JSObject();
+        Iterator<String> keys = earlier.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            res.put(key, earlier.opt(key));
+        }
+        res.put("duplicate", true);
+        call.resolve(res);
+        return false;
+    }
+
+    /**
+     * Resolves a printed or spooled job and remembers the result under its clientJobId
+     */
+    private void resolveJob(PluginCall call, JSObject res) {
+        String clientJobId = call.getString("clientJobId");
+        if (clientJobId != null) {
+            res.put("clientJobId", clientJobId);
+            mDedup.complete(clientJobId, res);
+        }
+        call.resolve(res);
+    }
+
+    /**
+     * Settles a failed job's clientJobId. If nothing reached the printer the id is
+     * forgotten, so a retry prints; otherwise the printer may have printed some or
+     * all of the job, and a retry is answered with {@code possiblyPrinted} instead.
+     */
+    private void abandonJob(PluginCall call, Throwable error) {
+        String clientJobId = call.getString("clientJobId");
+        if (clientJobId == null) {
+            return;
+        }
+        if (error instanceof PartialWriteException) {
+            JSObject res = new JSObject();
+            res.put("clientJobId", clientJobId);
+            res.put("possiblyPrinted", true);
+            res.put("bytesSent", ((PartialWriteException) error).getBytesWritten());
+            mDedup.complete(clientJobId, res);
+        } else {
+            mDedup.abandon(clientJobId);
+        }
+    }
+
+    private final SpoolWorker.Listener mSpoolListener = new SpoolWorker.Listener() {
+        @Override
+        public void onPrintStarted() {
+            MkPrinterPlugin.this.onPrintStarted();
+        }
+
+        @Override
+        public void onPrintFinished() {
+            MkPrinterPlugin.this.onPrintFinished();
+        }
+
+        @Override
+        public void onJobPrinted(long jobId, int pending) {
+            JSObject event = new JSObject();
+            event.put("jobId", jobId);
+            event.put("pending", pending);
+            notifyListeners("spoolJobPrinted", event);
+        }
+
+        @Override
+        public void onJobFailed(long jobId, int pending, String error, long retryInMs) {
+            JSObject event = new JSObject();
+            event.put("jobId", jobId);
+            event.put("pending", pending);
+            event.put("error", error);
+            event.put("retryIn", retryInMs);
+            notifyListeners("spoolJobFailed", event);
+        }
+    };
+
+    private final FirmwareUpdater.Listener mFirmwareListener = new FirmwareUpdater.Listener() {
+        @Override
+        public void onProgress(int attempt, long sent, long total) {
+            JSObject event = new JSObject();
+            event.put("attempt", attempt);
+            event.put("sent", sent);
+            event.put("total", total);
+            notifyListeners("firmwareProgress", event);
+        }
+
+        @Override
+        public void onRetry(int attempt, IOException error, long retryInMs) {
+            JSObject event = new JSObject();
+            event.put("attempt", attempt);
+            event.put("error", error.getMessage());
+            event.put("retryIn", retryInMs);
+            notifyListeners("firmwareRetry", event);
+        }
+    };
+
+    private void onPrintStarted() {
+        if (mWarmer != null) {
+            mWarmer.onPrintStarted();
+        }
+    }
+
+    private void onPrintFinished() {
+        if (mWarmer != null) {
+            mWarmer.onPrintFinished();
+        }
+    }
+
     @SuppressLint("MissingPermission")
     private boolean openBluetoothConnection(String MACAddress) throws ConnectionException {
 
@@ -212,9 +1215,27 @@ public class MkPrinterPlugin extends Plugin implements DiscoveryHandler {
         if (device.getBluetoothClass() != null) {
             json.put("class", device.getBluetoothClass().getDeviceClass());
         }
+        json.put("type", getDeviceType(device));
         return json;
     }
 
+    /**
+     * @return "classic", "ble", "dual" or "unknown"
+     */
+    @SuppressLint("MissingPermission")
+    private static String getDeviceType(BluetoothDevice device) {
+        switch (device.getType()) {
+            case BluetoothDevice.DEVICE_TYPE_CLASSIC:
+                return "classic";
+            case BluetoothDevice.DEVICE_TYPE_LE:
+                return "ble";
+            case BluetoothDevice.DEVICE_TYPE_DUAL:
+                return "dual";
+            default:
+                return "unknown";
+        }
+    }
+
     @Override
     public void foundPrinter(DiscoveredPrinter discoveredPrinter) {
         Log.d(LOG_TAG, "Printer found: " + discoveredPrinter.address);
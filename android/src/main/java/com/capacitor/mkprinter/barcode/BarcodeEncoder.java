@@ -0,0 +1,109 @@
+package com.capacitor.mkprinter.barcode;
+
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.PrintJobEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a {@link BarcodeJob}: native GS k for 1D symbologies, native
+ * GS ( k for QR and PDF417 when the printer supports it, and otherwise a QR
+ * code built in the plugin and sent as raster rows.
+ */
+public class BarcodeEncoder {
+
+    /** PDF417 row height, in module widths */
+    private static final int PDF417_ROW_HEIGHT = 3;
+
+    private BarcodeEncoder() {}
+
+    /**
+     * A barcode job: reset, the barcode, then the finish (by default two lines of feed)
+     *
+     * @param nativeSymbols Whether the printer implements GS ( k for QR and PDF417
+     * @param widthDots Printable width, for the raster QR fallback
+     * @param finish Feed, cut and cash drawer after the barcode
+     * @throws IllegalArgumentException If the data does not fit the symbology, or PDF417 is asked of a printer without GS ( k
+     */
+    public static void encode(EscPosEncoder encoder, BarcodeJob job, boolean nativeSymbols, int widthDots,
+                              JobFinish finish) {
+        encoder.initialize();
+        switch (job.getType()) {
+            case QR:
+                if (nativeSymbols) {
+                    encoder.align(job.getAlign())
+                            .qrCode(job.getData().getBytes(StandardCharsets.UTF_8), job.getModuleSize(),
+                                    job.getEcc().ordinal());
+                } else {
+                    QrCode qr = QrCode.encodeText(job.getData(), job.getEcc());
+                    int moduleDots = QrRasterizer.fitModuleDots(qr, job.getModuleSize(), widthDots);
+                    encoder.rasterImage(QrRasterizer.render(qr, moduleDots, widthDots, job.getAlign()));
+                }
+                break;
+            case PDF417:
+                if (!nativeSymbols) {
+                    throw new IllegalArgumentException("PDF417 needs a printer with GS ( k support");
+                }
+                // Map the QR level onto PDF417's 0-8 scale: L=1, M=3, Q=5, H=7
+                encoder.align(job.getAlign())
+                        .pdf417(job.getData().getBytes(StandardCharsets.UTF_8), job.getModuleSize(),
+                                PDF417_ROW_HEIGHT, job.getEcc().ordinal() * 2 + 1);
+                break;
+            default:
+                encoder.align(job.getAlign())
+                        .barcode(job.getType().getGsK(), barcodeData(job), job.getModuleSize(), job.getHeight(),
+                                job.getHri().ordinal());
+                break;
+        }
+        finish.encode(encoder, PrintJobEncoder.TEXT_FEED_LINES);
+    }
+
+    /**
+     * @return The GS k data bytes; CODE128 gets a code set prefix unless it already has one
+     */
+    static byte[] barcodeData(BarcodeJob job) {
+        String data = job.getData();
+        for (int i = 0; i < data.length(); i++) {
+            if (data.charAt(i) > 0x7F) {
+                throw new IllegalArgumentException(job.getType() + " data must be ASCII");
+            }
+        }
+        byte[] bytes;
+        if (job.getType() == BarcodeType.CODE128 && !data.startsWith("{")) {
+            bytes = code128(data);
+        } else {
+            bytes = data.getBytes(StandardCharsets.US_ASCII);
+        }
+        if (bytes.length == 0 || bytes.length > 255) {
+            throw new IllegalArgumentException(job.getType() + " data must be 1-255 bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Code set C (two digits per symbol character) for even-length digit strings, code set B otherwise
+     */
+    private static byte[] code128(String data) {
+        boolean digits = data.length() >= 4 && data.length() % 2 == 0;
+        for (int i = 0; digits && i < data.length(); i++) {
+            digits = data.charAt(i) >= '0' && data.charAt(i) <= '9';
+        }
+        if (!digits) {
+            byte[] bytes = new byte[data.length() + 2];
+            bytes[0] = '{';
+            bytes[1] = 'B';
+            for (int i = 0; i < data.length(); i++) {
+                bytes[i + 2] = (byte) data.charAt(i);
+            }
+            return bytes;
+        }
+        byte[] bytes = new byte[data.length() / 2 + 2];
+        bytes[0] = '{';
+        bytes[1] = 'C';
+        for (int i = 0; i < data.length(); i += 2) {
+            bytes[i / 2 + 2] = (byte) ((data.charAt(i) - '0') * 10 + data.charAt(i + 1) - '0');
+        }
+        return bytes;
+    }
+}
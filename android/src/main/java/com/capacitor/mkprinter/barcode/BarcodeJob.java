@@ -0,0 +1,93 @@
+package com.capacitor.mkprinter.barcode;
+
+import com.capacitor.mkprinter.escpos.TextRow;
+
+/**
+ * One barcode to print, as passed to printBarcode
+ */
+public class BarcodeJob {
+
+    /** Human readable text position for 1D barcodes, in GS H order */
+    public enum Hri {
+        NONE, ABOVE, BELOW, BOTH;
+
+        /**
+         * @param value "none", "above", "below" or "both"; anything else is BELOW
+         */
+        public static Hri parse(String value) {
+            if (value != null) {
+                for (Hri hri : values()) {
+                    if (hri.name().equalsIgnoreCase(value)) {
+                        return hri;
+                    }
+                }
+            }
+            return BELOW;
+        }
+    }
+
+    /** QR cell size in dots when none is given */
+    public static final int DEFAULT_QR_MODULE_SIZE = 6;
+    /** 1D narrow bar and PDF417 module width in dots when none is given */
+    public static final int DEFAULT_MODULE_SIZE = 2;
+    public static final int DEFAULT_HEIGHT = 80;
+
+    private final BarcodeType mType;
+    private final String mData;
+    private final int mModuleSize;
+    private final int mHeight;
+    private final QrCode.Ecc mEcc;
+    private final TextRow.Align mAlign;
+    private final Hri mHri;
+
+    /**
+     * @param type Symbology
+     * @param data Content to encode
+     * @param moduleSize Module size in dots: QR cell size, PDF417 and 1D module width; 0 for the default
+     * @param height Bar height in dots for 1D barcodes, row height for PDF417
+     * @param ecc QR error correction level; also sets the PDF417 level
+     * @param align Horizontal position
+     * @param hri Human readable text for 1D barcodes
+     */
+    public BarcodeJob(BarcodeType type, String data, int moduleSize, int height, QrCode.Ecc ecc,
+                      TextRow.Align align, Hri hri) {
+        mType = type;
+        mData = data == null ? "" : data;
+        if (moduleSize <= 0) {
+            moduleSize = type == BarcodeType.QR ? DEFAULT_QR_MODULE_SIZE : DEFAULT_MODULE_SIZE;
+        }
+        mModuleSize = moduleSize;
+        mHeight = Math.max(1, Math.min(255, height));
+        mEcc = ecc == null ? QrCode.Ecc.M : ecc;
+        mAlign = align == null ? TextRow.Align.CENTER : align;
+        mHri = hri == null ? Hri.BELOW : hri;
+    }
+
+    public BarcodeType getType() {
+        return mType;
+    }
+
+    public String getData() {
+        return mData;
+    }
+
+    public int getModuleSize() {
+        return mModuleSize;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public QrCode.Ecc getEcc() {
+        return mEcc;
+    }
+
+    public TextRow.Align getAlign() {
+        return mAlign;
+    }
+
+    public Hri getHri() {
+        return mHri;
+    }
+}
@@ -0,0 +1,63 @@
+package com.capacitor.mkprinter.barcode;
+
+/**
+ * Symbologies the plugin can print. 1D types map to GS k function B
+ * (m = 65-73); QR and PDF417 use GS ( k.
+ */
+public enum BarcodeType {
+    UPC_A(65),
+    UPC_E(66),
+    EAN13(67),
+    EAN8(68),
+    CODE39(69),
+    ITF(70),
+    CODABAR(71),
+    CODE93(72),
+    CODE128(73),
+    PDF417(-1),
+    QR(-1);
+
+    private final int mGsK;
+
+    BarcodeType(int gsK) {
+        mGsK = gsK;
+    }
+
+    /**
+     * @return The GS k m value, or -1 for 2D symbologies
+     */
+    public int getGsK() {
+        return mGsK;
+    }
+
+    public boolean isTwoDimensional() {
+        return mGsK < 0;
+    }
+
+    /**
+     * @param name e.g. "QR", "code128", "EAN13"; also accepts "QRCODE", "JAN13" and "JAN8" as used by the vendor SDK
+     * @return The type, or null if unknown
+     */
+    public static BarcodeType parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        String key = name.trim().toUpperCase(java.util.Locale.ROOT).replace("-", "_");
+        switch (key) {
+            case "QRCODE":
+            case "QR_CODE":
+                return QR;
+            case "JAN13":
+            case "EAN_13":
+                return EAN13;
+            case "JAN8":
+            case "EAN_8":
+                return EAN8;
+        }
+        try {
+            return valueOf(key);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,599 @@
+package com.capacitor.mkprinter.barcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A QR Code symbol (ISO/IEC 18004, model 2) built in the plugin, for printers
+ * without the GS ( k QR command.
+ *
+ * Encodes one segment in numeric, alphanumeric or byte (UTF-8) mode, picks
+ * the smallest version that fits and the mask with the lowest penalty.
+ */
+public class QrCode {
+
+    /** Error correction level; the ordinal order is also the GS ( k order (48 + ordinal) */
+    public enum Ecc {
+        L(1), M(0), Q(3), H(2);
+
+        final int mFormatBits;
+
+        Ecc(int formatBits) {
+            mFormatBits = formatBits;
+        }
+
+        /**
+         * @param value "L", "M", "Q" or "H"; anything else is M
+         */
+        public static Ecc parse(String value) {
+            if (value != null && value.length() == 1) {
+                switch (Character.toUpperCase(value.charAt(0))) {
+                    case 'L':
+                        return L;
+                    case 'Q':
+                        return Q;
+                    case 'H':
+                        return H;
+                }
+            }
+            return M;
+        }
+    }
+
+    public static final int MIN_VERSION = 1;
+    public static final int MAX_VERSION = 40;
+
+    private static final int MODE_NUMERIC = 0x1;
+    private static final int MODE_ALPHANUMERIC = 0x2;
+    private static final int MODE_BYTE = 0x4;
+
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
+        // Version: 0 (unused), 1 ... 40
+        {-1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+        {-1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+        {-1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+        {-1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+    };
+
+    private static final byte[][] NUM_ERROR_CORRECTION_BLOCKS = {
+        {-1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25},
+        {-1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49},
+        {-1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68},
+        {-1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81},
+    };
+
+    private static final int[] GF_EXP = new int[512];
+    private static final int[] GF_LOG = new int[256];
+
+    static {
+        // GF(2^8) with the QR polynomial x^8 + x^4 + x^3 + x^2 + 1
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            GF_EXP[i] = x;
+            GF_LOG[x] = i;
+            x <<= 1;
+            if (x >= 0x100) {
+                x ^= 0x11D;
+            }
+        }
+        for (int i = 255; i < GF_EXP.length; i++) {
+            GF_EXP[i] = GF_EXP[i - 255];
+        }
+    }
+
+    private final int mVersion;
+    private final int mSize;
+    private final Ecc mEcc;
+    private final int mMask;
+    private final boolean[] mModules;
+    private final boolean[] mFunction;
+
+    private QrCode(int version, Ecc ecc, byte[] dataCodewords) {
+        mVersion = version;
+        mSize = version * 4 + 17;
+        mEcc = ecc;
+        mModules = new boolean[mSize * mSize];
+        mFunction = new boolean[mSize * mSize];
+
+        drawFunctionPatterns();
+        drawCodewords(addErrorCorrection(dataCodewords));
+
+        int bestMask = 0;
+        int bestPenalty = Integer.MAX_VALUE;
+        for (int mask = 0; mask < 8; mask++) {
+            applyMask(mask);
+            drawFormatBits(mask);
+            int penalty = penalty();
+            if (penalty < bestPenalty) {
+                bestMask = mask;
+                bestPenalty = penalty;
+            }
+            // XOR again to undo
+            applyMask(mask);
+        }
+        mMask = bestMask;
+        applyMask(bestMask);
+        drawFormatBits(bestMask);
+    }
+
+    /**
+     * Encodes text in the most compact single mode, at the smallest version that fits
+     *
+     * @throws IllegalArgumentException If the text does not fit version 40 at this level
+     */
+    public static QrCode encodeText(String text, Ecc ecc) {
+        int mode;
+        byte[] bytes = null;
+        if (isNumeric(text)) {
+            mode = MODE_NUMERIC;
+        } else if (isAlphanumeric(text)) {
+            mode = MODE_ALPHANUMERIC;
+        } else {
+            mode = MODE_BYTE;
+            bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+        int count = bytes != null ? bytes.length : text.length();
+
+        for (int version = MIN_VERSION; version <= MAX_VERSION; version++) {
+            int capacityBits = numDataCodewords(version, ecc) * 8;
+            int usedBits = 4 + charCountBits(mode, version) + dataBits(mode, count);
+            if (usedBits > capacityBits) {
+                continue;
+            }
+            BitBuffer bits = new BitBuffer(capacityBits);
+            bits.append(mode, 4);
+            bits.append(count, charCountBits(mode, version));
+            appendData(bits, mode, text, bytes);
+            // Terminator, byte alignment, then alternating pad bytes
+            bits.append(0, Math.min(4, capacityBits - bits.length()));
+            bits.append(0, (8 - bits.length() % 8) % 8);
+            for (int pad = 0xEC; bits.length() < capacityBits; pad ^= 0xEC ^ 0x11) {
+                bits.append(pad, 8);
+            }
+            return new QrCode(version, ecc, bits.toBytes());
+        }
+        throw new IllegalArgumentException("Data too long for a QR code (" + count + " characters)");
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return Modules per side, without the quiet zone
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    public Ecc getEcc() {
+        return mEcc;
+    }
+
+    public int getMask() {
+        return mMask;
+    }
+
+    /**
+     * @return Whether the module at column x, row y is dark; false outside the symbol
+     */
+    public boolean isDark(int x, int y) {
+        return x >= 0 && x < mSize && y >= 0 && y < mSize && mModules[y * mSize + x];
+    }
+
+    // ---- Data encoding ----
+
+    private static boolean isNumeric(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAlphanumeric(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (ALPHANUMERIC.indexOf(text.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int charCountBits(int mode, int version) {
+        int range = version <= 9 ? 0 : version <= 26 ? 1 : 2;
+        switch (mode) {
+            case MODE_NUMERIC:
+                return new int[] {10, 12, 14}[range];
+            case MODE_ALPHANUMERIC:
+                return new int[] {9, 11, 13}[range];
+            default:
+                return new int[] {8, 16, 16}[range];
+        }
+    }
+
+    private static int dataBits(int mode, int count) {
+        switch (mode) {
+            case MODE_NUMERIC:
+                return count / 3 * 10 + new int[] {0, 4, 7}[count % 3];
+            case MODE_ALPHANUMERIC:
+                return count / 2 * 11 + (count % 2) * 6;
+            default:
+                return count * 8;
+        }
+    }
+
+    private static void appendData(BitBuffer bits, int mode, String text, byte[] bytes) {
+        if (mode == MODE_NUMERIC) {
+            for (int i = 0; i < text.length(); i += 3) {
+                int n = Math.min(3, text.length() - i);
+                bits.append(Integer.parseInt(text.substring(i, i + n)), n * 3 + 1);
+            }
+        } else if (mode == MODE_ALPHANUMERIC) {
+            int i = 0;
+            for (; i + 1 < text.length(); i += 2) {
+                bits.append(ALPHANUMERIC.indexOf(text.charAt(i)) * 45 + ALPHANUMERIC.indexOf(text.charAt(i + 1)), 11);
+            }
+            if (i < text.length()) {
+                bits.append(ALPHANUMERIC.indexOf(text.charAt(i)), 6);
+            }
+        } else {
+            for (byte b : bytes) {
+                bits.append(b & 0xFF, 8);
+            }
+        }
+    }
+
+    private static int numRawDataModules(int version) {
+        int result = (16 * version + 128) * version + 64;
+        if (version >= 2) {
+            int numAlign = version / 7 + 2;
+            result -= (25 * numAlign - 10) * numAlign - 55;
+            if (version >= 7) {
+                result -= 36;
+            }
+        }
+        return result;
+    }
+
+    private static int numDataCodewords(int version, Ecc ecc) {
+        return numRawDataModules(version) / 8
+                - ECC_CODEWORDS_PER_BLOCK[ecc.ordinal()][version] * NUM_ERROR_CORRECTION_BLOCKS[ecc.ordinal()][version];
+    }
+
+    // ---- Error correction ----
+
+    /**
+     * Splits the data into blocks, appends Reed-Solomon codewords to each and interleaves them
+     */
+    private byte[] addErrorCorrection(byte[] data) {
+        int numBlocks = NUM_ERROR_CORRECTION_BLOCKS[mEcc.ordinal()][mVersion];
+        int eccLength = ECC_CODEWORDS_PER_BLOCK[mEcc.ordinal()][mVersion];
+        int rawCodewords = numRawDataModules(mVersion) / 8;
+        int numShortBlocks = numBlocks - rawCodewords % numBlocks;
+        int shortBlockLength = rawCodewords / numBlocks;
+
+        byte[] divisor = reedSolomonDivisor(eccLength);
+        byte[][] blocks = new byte[numBlocks][];
+        for (int i = 0, offset = 0; i < numBlocks; i++) {
+            int dataLength = shortBlockLength - eccLength + (i < numShortBlocks ? 0 : 1);
+            byte[] block = new byte[shortBlockLength + 1];
+            System.arraycopy(data, offset, block, 0, dataLength);
+            offset += dataLength;
+            reedSolomonRemainder(block, dataLength, divisor, block, shortBlockLength + 1 - eccLength);
+            blocks[i] = block;
+        }
+
+        byte[] result = new byte[rawCodewords];
+        int k = 0;
+        for (int i = 0; i < shortBlockLength + 1; i++) {
+            for (int j = 0; j < numBlocks; j++) {
+                // Short blocks have no data byte at the last data position
+                if (i != shortBlockLength - eccLength || j >= numShortBlocks) {
+                    result[k++] = blocks[j][i];
+                }
+            }
+        }
+        return result;
+    }
+
+    private static byte[] reedSolomonDivisor(int degree) {
+        byte[] result = new byte[degree];
+        result[degree - 1] = 1;
+        int root = 1;
+        for (int i = 0; i < degree; i++) {
+            for (int j = 0; j < degree; j++) {
+                result[j] = (byte) multiply(result[j] & 0xFF, root);
+                if (j + 1 < degree) {
+                    result[j] ^= result[j + 1];
+                }
+            }
+            root = multiply(root, 0x02);
+        }
+        return result;
+    }
+
+    private static void reedSolomonRemainder(byte[] data, int length, byte[] divisor, byte[] out, int outOffset) {
+        int degree = divisor.length;
+        Arrays.fill(out, outOffset, outOffset + degree, (byte) 0);
+        for (int i = 0; i < length; i++) {
+            int factor = (data[i] ^ out[outOffset]) & 0xFF;
+            System.arraycopy(out, outOffset + 1, out, outOffset, degree - 1);
+            out[outOffset + degree - 1] = 0;
+            if (factor != 0) {
+                for (int j = 0; j < degree; j++) {
+                    out[outOffset + j] ^= (byte) multiply(divisor[j] & 0xFF, factor);
+                }
+            }
+        }
+    }
+
+    private static int multiply(int a, int b) {
+        return a == 0 || b == 0 ? 0 : GF_EXP[GF_LOG[a] + GF_LOG[b]];
+    }
+
+    // ---- Module placement ----
+
+    private void drawFunctionPatterns() {
+        for (int i = 0; i < mSize; i++) {
+            setFunction(6, i, i % 2 == 0);
+            setFunction(i, 6, i % 2 == 0);
+        }
+        drawFinder(3, 3);
+        drawFinder(mSize - 4, 3);
+        drawFinder(3, mSize - 4);
+
+        int[] positions = alignmentPositions();
+        int last = positions.length - 1;
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j <= last; j++) {
+                // Skip the three corners taken by finder patterns
+                if (!(i == 0 && j == 0 || i == 0 && j == last || i == last && j == 0)) {
+                    drawAlignment(positions[i], positions[j]);
+                }
+            }
+        }
+
+        // Reserve the format areas with a dummy mask, then the version blocks
+        drawFormatBits(0);
+        if (mVersion >= 7) {
+            int remainder = mVersion;
+            for (int i = 0; i < 12; i++) {
+                remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1F25);
+            }
+            int bits = mVersion << 12 | remainder;
+            for (int i = 0; i < 18; i++) {
+                boolean dark = ((bits >>> i) & 1) != 0;
+                int a = mSize - 11 + i % 3;
+                int b = i / 3;
+                setFunction(a, b, dark);
+                setFunction(b, a, dark);
+            }
+        }
+    }
+
+    private void drawFinder(int cx, int cy) {
+        for (int dy = -4; dy <= 4; dy++) {
+            for (int dx = -4; dx <= 4; dx++) {
+                int distance = Math.max(Math.abs(dx), Math.abs(dy));
+                int x = cx + dx;
+                int y = cy + dy;
+                if (x >= 0 && x < mSize && y >= 0 && y < mSize) {
+                    setFunction(x, y, distance != 2 && distance != 4);
+                }
+            }
+        }
+    }
+
+    private void drawAlignment(int cx, int cy) {
+        for (int dy = -2; dy <= 2; dy++) {
+            for (int dx = -2; dx <= 2; dx++) {
+                setFunction(cx + dx, cy + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+            }
+        }
+    }
+
+    private int[] alignmentPositions() {
+        if (mVersion == 1) {
+            return new int[0];
+        }
+        int numAlign = mVersion / 7 + 2;
+        int step = mVersion == 32 ? 26 : (mVersion * 4 + numAlign * 2 + 1) / (numAlign * 2 - 2) * 2;
+        int[] result = new int[numAlign];
+        result[0] = 6;
+        for (int i = numAlign - 1, position = mSize - 7; i >= 1; i--, position -= step) {
+            result[i] = position;
+        }
+        return result;
+    }
+
+    private void drawFormatBits(int mask) {
+        int data = mEcc.mFormatBits << 3 | mask;
+        int remainder = data;
+        for (int i = 0; i < 10; i++) {
+            remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+        }
+        int bits = (data << 10 | remainder) ^ 0x5412;
+
+        // Around the top left finder
+        for (int i = 0; i <= 5; i++) {
+            setFunction(8, i, bit(bits, i));
+        }
+        setFunction(8, 7, bit(bits, 6));
+        setFunction(8, 8, bit(bits, 7));
+        setFunction(7, 8, bit(bits, 8));
+        for (int i = 9; i < 15; i++) {
+            setFunction(14 - i, 8, bit(bits, i));
+        }
+        // Split between the other two finders
+        for (int i = 0; i < 8; i++) {
+            setFunction(mSize - 1 - i, 8, bit(bits, i));
+        }
+        for (int i = 8; i < 15; i++) {
+            setFunction(8, mSize - 15 + i, bit(bits, i));
+        }
+        setFunction(8, mSize - 8, true);
+    }
+
+    private void drawCodewords(byte[] codewords) {
+        int i = 0;
+        int totalBits = codewords.length * 8;
+        for (int right = mSize - 1; right >= 1; right -= 2) {
+            if (right == 6) {
+                // Skip the vertical timing pattern
+                right = 5;
+            }
+            boolean upward = ((right + 1) & 2) == 0;
+            for (int vert = 0; vert < mSize; vert++) {
+                int y = upward ? mSize - 1 - vert : vert;
+                for (int j = 0; j < 2; j++) {
+                    int index = y * mSize + right - j;
+                    if (!mFunction[index] && i < totalBits) {
+                        mModules[index] = bit(codewords[i >>> 3], 7 - (i & 7));
+                        i++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyMask(int mask) {
+        for (int y = 0; y < mSize; y++) {
+            for (int x = 0; x < mSize; x++) {
+                boolean invert;
+                switch (mask) {
+                    case 0: invert = (x + y) % 2 == 0; break;
+                    case 1: invert = y % 2 == 0; break;
+                    case 2: invert = x % 3 == 0; break;
+                    case 3: invert = (x + y) % 3 == 0; break;
+                    case 4: invert = (x / 3 + y / 2) % 2 == 0; break;
+                    case 5: invert = x * y % 2 + x * y % 3 == 0; break;
+                    case 6: invert = (x * y % 2 + x * y % 3) % 2 == 0; break;
+                    default: invert = ((x + y) % 2 + x * y % 3) % 2 == 0; break;
+                }
+                int index = y * mSize + x;
+                if (invert && !mFunction[index]) {
+                    mModules[index] = !mModules[index];
+                }
+            }
+        }
+    }
+
+    // ---- Mask penalty (ISO/IEC 18004 section 7.8.3) ----
+
+    private int penalty() {
+        int penalty = 0;
+        int dark = 0;
+        for (int a = 0; a < mSize; a++) {
+            int rowRun = 0;
+            int columnRun = 0;
+            for (int b = 0; b < mSize; b++) {
+                boolean rowModule = mModules[a * mSize + b];
+                boolean columnModule = mModules[b * mSize + a];
+                if (rowModule) {
+                    dark++;
+                }
+                // N1: five or more same-coloured modules in a row or column
+                rowRun = b > 0 && rowModule == mModules[a * mSize + b - 1] ? rowRun + 1 : 1;
+                if (rowRun == 5) {
+                    penalty += 3;
+                } else if (rowRun > 5) {
+                    penalty++;
+                }
+                columnRun = b > 0 && columnModule == mModules[(b - 1) * mSize + a] ? columnRun + 1 : 1;
+                if (columnRun == 5) {
+                    penalty += 3;
+                } else if (columnRun > 5) {
+                    penalty++;
+                }
+                // N2: 2x2 blocks of one colour
+                if (a > 0 && b > 0 && rowModule == mModules[a * mSize + b - 1]
+                        && rowModule == mModules[(a - 1) * mSize + b]
+                        && rowModule == mModules[(a - 1) * mSize + b - 1]) {
+                    penalty += 3;
+                }
+                // N3: 1:1:3:1:1 finder-like pattern with four light modules on one side
+                if (b + 6 < mSize && isFinderLike(a, b, true)) {
+                    penalty += 40;
+                }
+                if (b + 6 < mSize && isFinderLike(b, a, false)) {
+                    penalty += 40;
+                }
+            }
+        }
+        // N4: 10 points for every 5% the dark share is away from 50%
+        int total = mSize * mSize;
+        penalty += Math.abs(dark * 2 - total) * 10 / total * 10;
+        return penalty;
+    }
+
+    /**
+     * @return Whether dark-light-dark-dark-dark-light-dark starts at (row, column) with four light modules before or after
+     */
+    private boolean isFinderLike(int row, int column, boolean horizontal) {
+        for (int i = 0; i < 7; i++) {
+            boolean expected = i != 1 && i != 5;
+            if (module(row, column, i, horizontal) != expected) {
+                return false;
+            }
+        }
+        return isLight(row, column, -4, 0, horizontal) || isLight(row, column, 7, 11, horizontal);
+    }
+
+    private boolean isLight(int row, int column, int from, int to, boolean horizontal) {
+        for (int i = from; i < to; i++) {
+            if (module(row, column, i, horizontal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean module(int row, int column, int offset, boolean horizontal) {
+        int x = horizontal ? column + offset : column;
+        int y = horizontal ? row : row + offset;
+        // The quiet zone counts as light
+        return isDark(x, y);
+    }
+
+    private void setFunction(int x, int y, boolean dark) {
+        mModules[y * mSize + x] = dark;
+        mFunction[y * mSize + x] = true;
+    }
+
+    private static boolean bit(int value, int index) {
+        return ((value >>> index) & 1) != 0;
+    }
+
+    /**
+     * Appends bits most significant first into a fixed-capacity byte array
+     */
+    private static class BitBuffer {
+        private final byte[] mData;
+        private int mLength;
+
+        BitBuffer(int capacityBits) {
+            mData = new byte[(capacityBits + 7) / 8];
+        }
+
+        void append(int value, int count) {
+            for (int i = count - 1; i >= 0; i--, mLength++) {
+                if (((value >>> i) & 1) != 0) {
+                    mData[mLength >>> 3] |= (byte) (0x80 >>> (mLength & 7));
+                }
+            }
+        }
+
+        int length() {
+            return mLength;
+        }
+
+        byte[] toBytes() {
+            return mData;
+        }
+    }
+}
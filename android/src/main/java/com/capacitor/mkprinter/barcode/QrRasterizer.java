@@ -0,0 +1,83 @@
+package com.capacitor.mkprinter.barcode;
+
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.TextRow;
+
+/**
+ * Draws a {@link QrCode} straight into packed raster rows: each module row
+ * is packed once and copied for the module's height, so no Bitmap or per-dot
+ * pixel array is involved.
+ */
+public class QrRasterizer {
+
+    /** Light modules around the symbol, as the QR spec requires */
+    public static final int QUIET_ZONE = 4;
+
+    private QrRasterizer() {}
+
+    /**
+     * @param requested Preferred module size in dots
+     * @return The largest module size up to {@code requested} at which the symbol and its quiet zone fit
+     * @throws IllegalArgumentException If the symbol is wider than the paper even at one dot per module
+     */
+    public static int fitModuleDots(QrCode qr, int requested, int widthDots) {
+        int fit = widthDots / (qr.getSize() + 2 * QUIET_ZONE);
+        if (fit < 1) {
+            throw new IllegalArgumentException("QR code version " + qr.getVersion() + " does not fit " + widthDots + " dots");
+        }
+        return Math.max(1, Math.min(requested, fit));
+    }
+
+    /**
+     * @param qr The symbol
+     * @param moduleDots Dots per module, from {@link #fitModuleDots}
+     * @param widthDots Paper width in dots; the image spans the full width
+     * @param align Horizontal position of the symbol
+     */
+    public static MonochromeImage render(QrCode qr, int moduleDots, int widthDots, TextRow.Align align) {
+        int size = qr.getSize();
+        int symbolDots = size * moduleDots;
+        int quietDots = QUIET_ZONE * moduleDots;
+        int left;
+        switch (align) {
+            case LEFT:
+                left = quietDots;
+                break;
+            case RIGHT:
+                left = widthDots - quietDots - symbolDots;
+                break;
+            default:
+                left = (widthDots - symbolDots) / 2;
+                break;
+        }
+
+        MonochromeImage image = new MonochromeImage(widthDots, symbolDots + 2 * quietDots);
+        int bytesPerRow = image.getBytesPerRow();
+        byte[] data = image.getData();
+        for (int my = 0; my < size; my++) {
+            int rowOffset = (quietDots + my * moduleDots) * bytesPerRow;
+            for (int mx = 0; mx < size; mx++) {
+                if (qr.isDark(mx, my)) {
+                    fillDots(data, rowOffset, left + mx * moduleDots, moduleDots);
+                }
+            }
+            for (int dy = 1; dy < moduleDots; dy++) {
+                System.arraycopy(data, rowOffset, data, rowOffset + dy * bytesPerRow, bytesPerRow);
+            }
+        }
+        return image;
+    }
+
+    private static void fillDots(byte[] data, int rowOffset, int x, int count) {
+        int end = x + count;
+        while (x < end) {
+            if ((x & 7) == 0 && end - x >= 8) {
+                data[rowOffset + (x >> 3)] = (byte) 0xFF;
+                x += 8;
+            } else {
+                data[rowOffset + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                x++;
+            }
+        }
+    }
+}
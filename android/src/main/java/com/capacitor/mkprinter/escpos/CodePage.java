@@ -0,0 +1,215 @@
+package com.capacitor.mkprinter.escpos;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Printer character code tables and their Unicode lookup tables.
+ *
+ * Single-byte pages are selected with ESC t n using the Epson table numbers;
+ * GBK is the double-byte Chinese mode entered with FS &amp;, which the vendor
+ * SDK assumes by default. Each lookup table is built once, on first use, from
+ * the JDK charset, and maps a char straight to its one or two bytes.
+ */
+public enum CodePage {
+    CP437(0, "IBM437"),
+    CP850(2, "IBM850"),
+    CP860(3, "IBM860"),
+    CP863(4, "IBM863"),
+    CP865(5, "IBM865"),
+    CP1252(16, "windows-1252"),
+    CP866(17, "IBM866"),
+    CP852(18, "IBM852"),
+    CP858(19, "IBM00858"),
+    CP1250(45, "windows-1250"),
+    CP1251(46, "windows-1251"),
+    CP1253(47, "windows-1253"),
+    CP1254(48, "windows-1254"),
+    CP1257(51, "windows-1257"),
+    CP1258(52, "windows-1258"),
+    GBK(-1, "GBK");
+
+    /** Marks a character with no encoding in this page */
+    public static final int UNMAPPED = 0;
+
+    private final int mEscPosNumber;
+    private final String mCharsetName;
+    private volatile int[] mTable;
+
+    CodePage(int escPosNumber, String charsetName) {
+        mEscPosNumber = escPosNumber;
+        mCharsetName = charsetName;
+    }
+
+    /**
+     * @return The ESC t table number, or -1 for the double-byte GBK mode
+     */
+    public int getEscPosNumber() {
+        return mEscPosNumber;
+    }
+
+    public boolean isMultiByte() {
+        return mEscPosNumber < 0;
+    }
+
+    public Charset getCharset() {
+        return Charset.forName(mCharsetName);
+    }
+
+    /**
+     * @param number An ESC t table number
+     * @return The single-byte code page with that number, or null if there is none
+     */
+    public static CodePage forEscPosNumber(int number) {
+        for (CodePage page : values()) {
+            if (page.mEscPosNumber == number && number >= 0) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name e.g. "CP1258", "cp437" or "GBK"
+     * @return The code page, or null if unknown
+     */
+    public static CodePage parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(java.util.Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the encoding of one character.
+     *
+     * @return {@link #UNMAPPED}, or the length (1 or 2) in bits 16-17 and the
+     *         bytes in bits 8-15 and 0-7 (the second byte only for length 2)
+     */
+    public int lookup(char c) {
+        int[] table = mTable;
+        if (table == null) {
+            table = buildTable();
+        }
+        return c < table.length ? table[c] : UNMAPPED;
+    }
+
+    /**
+     * Builds the lookup table now instead of on the first print
+     */
+    public void prepare() {
+        if (mTable == null) {
+            buildTable();
+        }
+    }
+
+    private synchronized int[] buildTable() {
+        if (mTable != null) {
+            return mTable;
+        }
+        // Invert the decoder over the code page's byte sequences: far fewer than the BMP's chars
+        CharsetDecoder decoder = Charset.forName(mCharsetName).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        int[] table = new int[0x10000];
+        ByteBuffer in = ByteBuffer.allocate(2);
+        CharBuffer out = CharBuffer.allocate(4);
+        if (isMultiByte()) {
+            for (int lead = 0x81; lead <= 0xFE; lead++) {
+                for (int trail = 0x40; trail <= 0xFE; trail++) {
+                    if (trail != 0x7F) {
+                        map(table, decoder, in, out, 2, lead, trail);
+                    }
+                }
+            }
+        } else {
+            for (int b = 0x80; b <= 0xFF; b++) {
+                map(table, decoder, in, out, 1, b, 0);
+            }
+            // CP1258 spells most Vietnamese letters as a base letter plus a combining tone mark
+            for (int c = 0xC0; c <= 0x1EFF; c++) {
+                // Only Latin-1 Supplement, Latin Extended-A/B and Latin Extended Additional
+                if (table[c] == UNMAPPED && (c <= 0x24F || c >= 0x1E00)) {
+                    table[c] = decomposed(table, (char) c);
+                }
+            }
+        }
+        for (int c = 0; c < 0x80; c++) {
+            table[c] = (1 << 16) | (c << 8);
+        }
+        int max = table.length - 1;
+        while (max >= 0x80 && table[max] == UNMAPPED) {
+            max--;
+        }
+        int[] trimmed = Arrays.copyOf(table, max + 1);
+        mTable = trimmed;
+        return trimmed;
+    }
+
+    /**
+     * Decodes one byte sequence and records it for the char it decodes to, keeping the first
+     */
+    private static void map(int[] table, CharsetDecoder decoder, ByteBuffer in, CharBuffer out, int length,
+                            int b0, int b1) {
+        in.clear();
+        in.put((byte) b0);
+        if (length == 2) {
+            in.put((byte) b1);
+        }
+        in.flip();
+        out.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(in, out, true);
+        if (result.isError() || in.hasRemaining() || out.position() != 1) {
+            return;
+        }
+        char c = out.get(0);
+        if (c != '\uFFFD' && table[c] == UNMAPPED) {
+            table[c] = length == 1 ? (1 << 16) | (b0 << 8) : (2 << 16) | (b0 << 8) | b1;
+        }
+    }
+
+    /**
+     * Encodes a precomposed letter as a shorter precomposed letter plus one combining mark
+     */
+    private static int decomposed(int[] table, char c) {
+        String nfd = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+        if (nfd.length() == 2) {
+            return pair(table, nfd.charAt(0), nfd.charAt(1));
+        }
+        if (nfd.length() != 3) {
+            return UNMAPPED;
+        }
+        // e.g. ệ is e + dot below + circumflex; CP1258 has ê, so try each mark as the combining one
+        for (int mark = 1; mark <= 2; mark++) {
+            String head = Normalizer.normalize(nfd.charAt(0) + nfd.substring(3 - mark, 4 - mark),
+                    Normalizer.Form.NFC);
+            if (head.length() == 1) {
+                int entry = pair(table, head.charAt(0), nfd.charAt(mark));
+                if (entry != UNMAPPED) {
+                    return entry;
+                }
+            }
+        }
+        return UNMAPPED;
+    }
+
+    private static int pair(int[] table, char base, char mark) {
+        int first = base < 0x80 ? (1 << 16) | (base << 8) : table[base];
+        int second = table[mark];
+        if ((first >> 16) != 1 || (second >> 16) != 1) {
+            return UNMAPPED;
+        }
+        return (2 << 16) | (first & 0xFF00) | ((second >> 8) & 0xFF);
+    }
+}
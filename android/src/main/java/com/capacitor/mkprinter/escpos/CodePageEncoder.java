@@ -0,0 +1,139 @@
+package com.capacitor.mkprinter.escpos;
+
+/**
+ * Encodes text into the printer's code pages, switching tables only when a
+ * character is missing from the current one.
+ *
+ * Tracks the printer's selected ESC t table and Chinese mode across calls so
+ * that a switch command is sent once per change, not once per line. Call
+ * {@link #reset()} whenever ESC @ is sent. Lookups go through the precomputed
+ * {@link CodePage} tables straight into the {@link CommandBuffer}; encoding
+ * allocates nothing.
+ */
+public class CodePageEncoder {
+
+    public static final int FS = 0x1C;
+
+    /** Written for characters no available code page can encode */
+    public static final int REPLACEMENT = '?';
+
+    private final CodePage mDefault;
+    private final CodePage[] mAvailable;
+    private CodePage mCurrent;
+    private int mSelectedTable;
+    private boolean mChineseMode;
+
+    /**
+     * @param defaultPage Code page the printer is in after ESC @
+     * @param available Code pages the printer supports, in order of preference
+     */
+    public CodePageEncoder(CodePage defaultPage, CodePage... available) {
+        mDefault = defaultPage;
+        mAvailable = available.clone();
+        reset();
+    }
+
+    /**
+     * Forgets all switches; the printer is back in the default code page
+     */
+    public void reset() {
+        mCurrent = mDefault;
+        mChineseMode = mDefault.isMultiByte();
+        // ESC @ selects table 0 (PC437) on every ESC/POS printer
+        mSelectedTable = mDefault.isMultiByte() ? CodePage.CP437.getEscPosNumber() : mDefault.getEscPosNumber();
+    }
+
+    public CodePage getCurrent() {
+        return mCurrent;
+    }
+
+    /**
+     * Builds the lookup tables of every available code page ahead of the first job
+     */
+    public void prepare() {
+        for (CodePage page : mAvailable) {
+            page.prepare();
+        }
+    }
+
+    /**
+     * @return Whether every character of text[start, end) is in some available code page
+     */
+    public boolean canEncode(CharSequence text, int start, int end) {
+        CodePage current = mCurrent;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 || current.lookup(c) != CodePage.UNMAPPED) {
+                continue;
+            }
+            current = find(c);
+            if (current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes text[start, end), switching code pages as needed. Characters no
+     * available code page can encode are written as {@link #REPLACEMENT}.
+     */
+    public void encode(CharSequence text, int start, int end, CommandBuffer out) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                // ASCII is the same in every code page and in GBK
+                out.write(c);
+                continue;
+            }
+            int entry = mCurrent.lookup(c);
+            if (entry == CodePage.UNMAPPED) {
+                CodePage page = find(c);
+                if (page == null) {
+                    out.write(REPLACEMENT);
+                    continue;
+                }
+                select(page, out);
+                entry = page.lookup(c);
+            }
+            out.write((entry >> 8) & 0xFF);
+            if ((entry >> 16) == 2) {
+                out.write(entry & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Makes {@code page} current, sending only the commands that change printer state
+     */
+    private void select(CodePage page, CommandBuffer out) {
+        if (page.isMultiByte()) {
+            if (!mChineseMode) {
+                // FS & - enter Chinese character mode
+                out.write(FS, '&');
+                mChineseMode = true;
+            }
+        } else {
+            if (mChineseMode) {
+                // FS . - leave Chinese character mode
+                out.write(FS, '.');
+                mChineseMode = false;
+            }
+            if (mSelectedTable != page.getEscPosNumber()) {
+                // ESC t n - select character code table
+                out.write(EscPosEncoder.ESC, 't', page.getEscPosNumber());
+                mSelectedTable = page.getEscPosNumber();
+            }
+        }
+        mCurrent = page;
+    }
+
+    private CodePage find(char c) {
+        for (CodePage page : mAvailable) {
+            if (page.lookup(c) != CodePage.UNMAPPED) {
+                return page;
+            }
+        }
+        return null;
+    }
+}
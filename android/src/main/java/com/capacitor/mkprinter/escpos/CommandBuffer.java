@@ -0,0 +1,119 @@
+package com.capacitor.mkprinter.escpos;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer that holds the encoded commands of a print job.
+ *
+ * The backing array is kept across {@link #reset()} calls so one buffer can be
+ * reused for many jobs without allocating.
+ */
+public class CommandBuffer {
+
+    private byte[] mData;
+    private int mSize;
+
+    public CommandBuffer() {
+        this(4096);
+    }
+
+    /**
+     * @param initialCapacity Initial size of the backing array in bytes
+     */
+    public CommandBuffer(int initialCapacity) {
+        mData = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Writes into {@code array}, e.g. one from a pool; {@link #array()} hands it back
+     * (or its replacement if the buffer had to grow)
+     */
+    public CommandBuffer(byte[] array) {
+        mData = array.length < 16 ? new byte[16] : array;
+    }
+
+    public CommandBuffer write(int b) {
+        ensureCapacity(mSize + 1);
+        mData[mSize++] = (byte) b;
+        return this;
+    }
+
+    public CommandBuffer write(int b0, int b1) {
+        ensureCapacity(mSize + 2);
+        mData[mSize++] = (byte) b0;
+        mData[mSize++] = (byte) b1;
+        return this;
+    }
+
+    public CommandBuffer write(int b0, int b1, int b2) {
+        ensureCapacity(mSize + 3);
+        mData[mSize++] = (byte) b0;
+        mData[mSize++] = (byte) b1;
+        mData[mSize++] = (byte) b2;
+        return this;
+    }
+
+    public CommandBuffer write(byte[] data) {
+        return write(data, 0, data.length);
+    }
+
+    public CommandBuffer write(byte[] data, int offset, int length) {
+        ensureCapacity(mSize + length);
+        System.arraycopy(data, offset, mData, mSize, length);
+        mSize += length;
+        return this;
+    }
+
+    /**
+     * Writes a 16-bit value as low byte, high byte (the ESC/POS nL nH order)
+     */
+    public CommandBuffer writeShortLE(int value) {
+        return write(value & 0xFF, (value >> 8) & 0xFF);
+    }
+
+    /**
+     * Makes room for {@code length} bytes and returns the offset to write them at.
+     * The caller must fill the reserved range directly in {@link #array()}.
+     */
+    public int reserve(int length) {
+        ensureCapacity(mSize + length);
+        int offset = mSize;
+        mSize += length;
+        return offset;
+    }
+
+    /**
+     * Drops everything written after {@code size}
+     */
+    public void truncate(int size) {
+        if (size < 0 || size > mSize) {
+            throw new IndexOutOfBoundsException("size " + size + " out of range 0.." + mSize);
+        }
+        mSize = size;
+    }
+
+    public void reset() {
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The backing array; only the first {@link #size()} bytes are valid
+     */
+    public byte[] array() {
+        return mData;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mData, mSize);
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > mData.length) {
+            mData = Arrays.copyOf(mData, Math.max(capacity, mData.length * 2));
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.capacitor.mkprinter.escpos;
+
+/**
+ * Steps through a stream of ESC/POS bytes command by command, finding the
+ * paper cut commands (GS V, ESC i, ESC m), so a batch can be split into
+ * whole tickets, finding the points between commands, where a real-time
+ * command can go in, and adding up how many dot rows the paper advances.
+ *
+ * Commands are stepped over by their length and the data of raster images,
+ * bit images, GS ( functions and barcodes is skipped, so bytes inside them
+ * that look like a cut are not taken for one. Bytes can be fed in any
+ * slices; a command split between two calls is picked up where it was left.
+ *
+ * The row count is an estimate for timing: raster images, paper feeds and
+ * text lines at the current line spacing and character height are counted,
+ * native 2D symbols are not.
+ */
+public class CommandScanner {
+
+    /** ESC 2 line spacing in dots, as the preview draws it */
+    public static final int DEFAULT_LINE_SPACING = 30;
+    /** GS h default bar height */
+    public static final int DEFAULT_BAR_HEIGHT = 162;
+
+    private static final int FS = CodePageEncoder.FS;
+    private static final int DLE = 0x10;
+    private static final int EOT = 0x04;
+    private static final int ENQ = 0x05;
+    private static final int DC4 = 0x14;
+    /** Font A character height in dots */
+    private static final int CHARACTER_HEIGHT = 24;
+    /** GS 8 L function 112 header up to yL yH */
+    private static final int RASTER_STORE_HEADER = 10;
+
+    /** The command read so far; the longest header is GS 8 L p1 p2 p3 p4 with the function 112 header */
+    private final byte[] mHead = new byte[7 + RASTER_STORE_HEADER];
+    private int mHeadLength;
+    /** Data bytes of the last command still to step over */
+    private long mSkip;
+    /** In GS k data that ends with NUL */
+    private boolean mUntilNul;
+
+    private long mRows;
+    private int mLineSpacing = DEFAULT_LINE_SPACING;
+    private int mHeightMul = 1;
+    private int mBarHeight = DEFAULT_BAR_HEIGHT;
+
+    /**
+     * Steps through {@code length} bytes from {@code offset}
+     *
+     * @return The index just after the first cut command completed in the
+     * range, or -1 if there is none; scan again from there for the next one
+     */
+    public int scan(byte[] data, int offset, int length) {
+        return scan(data, offset, length, false);
+    }
+
+    /**
+     * Steps through bytes up to the first point between two commands, e.g.
+     * to put a real-time command into the stream there
+     *
+     * @return The index just after the first command, data included, completed
+     * in the range, or -1 if the range ends inside one
+     */
+    public int scanToBoundary(byte[] data, int offset, int length) {
+        return scan(data, offset, length, true);
+    }
+
+    /**
+     * Steps through all {@code length} bytes from {@code offset}
+     */
+    public void scanAll(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int cut = scan(data, i, end - i, false);
+            i = cut < 0 ? end : cut;
+        }
+    }
+
+    /**
+     * @return true if the bytes scanned so far end between two commands
+     */
+    public boolean isAtBoundary() {
+        return mHeadLength == 0 && mSkip == 0 && !mUntilNul;
+    }
+
+    private int scan(byte[] data, int offset, int length, boolean anyCommand) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (mSkip > 0) {
+                int n = (int) Math.min(mSkip, end - i);
+                mSkip -= n;
+                i += n;
+                if (anyCommand && mSkip == 0) {
+                    return i;
+                }
+                continue;
+            }
+            int b = data[i++] & 0xFF;
+            if (mUntilNul) {
+                mUntilNul = b != 0;
+                if (anyCommand && !mUntilNul) {
+                    return i;
+                }
+                continue;
+            }
+            mHead[mHeadLength++] = (byte) b;
+            if (command() || anyCommand && isAtBoundary()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scans a whole job
+     *
+     * @return The dot rows it feeds
+     */
+    public static long countRows(byte[] data, int offset, int length) {
+        CommandScanner scanner = new CommandScanner();
+        scanner.scanAll(data, offset, length);
+        return scanner.getRows();
+    }
+
+    /**
+     * @return Dot rows fed by the bytes scanned so far
+     */
+    public long getRows() {
+        return mRows;
+    }
+
+    /**
+     * Starts over, as at the start of a new job
+     */
+    public void reset() {
+        mHeadLength = 0;
+        mSkip = 0;
+        mUntilNul = false;
+        mRows = 0;
+        resetModes();
+    }
+
+    private void resetModes() {
+        mLineSpacing = DEFAULT_LINE_SPACING;
+        mHeightMul = 1;
+        mBarHeight = DEFAULT_BAR_HEIGHT;
+    }
+
+    /**
+     * Looks at the command read so far; once it is complete, sets up the data
+     * to skip and clears it
+     *
+     * @return true if it was a complete cut command
+     */
+    private boolean command() {
+        int length = mHeadLength;
+        int b = mHead[0] & 0xFF;
+        if (b != EscPosEncoder.ESC && b != EscPosEncoder.GS && b != FS && b != DLE) {
+            if (b == EscPosEncoder.LF) {
+                mRows += lineHeight();
+            }
+            mHeadLength = 0;
+            return false;
+        }
+        if (length < 2) {
+            return false;
+        }
+        int c = mHead[1] & 0xFF;
+        int header;
+        boolean cut = false;
+        if (b == EscPosEncoder.ESC) {
+            if (c == '*') {
+                header = 5;
+            } else {
+                header = 2 + escParameters(c);
+                cut = c == 'i' || c == 'm';
+            }
+        } else if (b == EscPosEncoder.GS) {
+            switch (c) {
+                case 'v':
+                    header = 8;
+                    break;
+                case '8':
+                    // Read up to the row count of a function 112 raster band
+                    header = length >= 9 && (mHead[7] & 0xFF) == '0' && (mHead[8] & 0xFF) == 112
+                            && parameterLength() >= RASTER_STORE_HEADER ? 7 + RASTER_STORE_HEADER : 7;
+                    if (length == 7 || length == 8) {
+                        header = 9;
+                    }
+                    break;
+                case '(':
+                    header = 5;
+                    break;
+                case 'k':
+                    header = length >= 3 && (mHead[2] & 0xFF) > 6 ? 4 : 3;
+                    break;
+                case '*':
+                    header = 4;
+                    break;
+                case 'V':
+                    int m = length >= 3 ? mHead[2] & 0xFF : 0;
+                    // Function B (feed then cut) has a feed amount
+                    header = m == 65 || m == 66 || m == 97 || m == 98 || m == 103 || m == 104 ? 4 : 3;
+                    cut = true;
+                    break;
+                default:
+                    header = 2 + gsParameters(c);
+                    break;
+            }
+        } else if (b == FS) {
+            header = 2 + fsParameters(c);
+        } else {
+            header = 2 + (c == EOT || c == ENQ ? 1 : c == DC4 ? 3 : 0);
+        }
+        if (length < header) {
+            return false;
+        }
+
+        if (b == EscPosEncoder.ESC) {
+            escape(c);
+        } else if (b == EscPosEncoder.GS) {
+            groupSeparator(c, header);
+        }
+        mHeadLength = 0;
+        return cut;
+    }
+
+    private void escape(int c) {
+        switch (c) {
+            case '*':
+                int m = mHead[2] & 0xFF;
+                mSkip = (long) word(3) * (m == 32 || m == 33 ? 3 : 1);
+                break;
+            case '@':
+                resetModes();
+                break;
+            case '2':
+                mLineSpacing = DEFAULT_LINE_SPACING;
+                break;
+            case '3':
+                mLineSpacing = mHead[2] & 0xFF;
+                break;
+            case 'J':
+                mRows += mHead[2] & 0xFF;
+                break;
+            case 'd':
+                mRows += (long) (mHead[2] & 0xFF) * lineHeight();
+                break;
+            case '!':
+                mHeightMul = (mHead[2] & 0x10) != 0 ? 2 : 1;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void groupSeparator(int c, int header) {
+        switch (c) {
+            case 'v':
+                int scale = (mHead[3] & 2) != 0 ? 2 : 1;
+                mSkip = (long) word(4) * word(6);
+                mRows += (long) word(6) * scale;
+                break;
+            case '8':
+                long parameters = parameterLength();
+                if (header > 7) {
+                    mSkip = parameters - RASTER_STORE_HEADER;
+                    mRows += (long) word(15) * Math.max(1, mHead[11] & 0xFF);
+                } else {
+                    // Short of the function 112 check; skip what is left of the data
+                    mSkip = parameters - (mHeadLength - 7);
+                }
+                break;
+            case '(':
+                mSkip = word(3);
+                break;
+            case 'k':
+                if (header == 4) {
+                    mSkip = mHead[3] & 0xFF;
+                } else {
+                    mUntilNul = true;
+                }
+                mRows += mBarHeight;
+                break;
+            case '*':
+                mSkip = (mHead[2] & 0xFFL) * (mHead[3] & 0xFF) * 8;
+                break;
+            case '!':
+                mHeightMul = (mHead[2] & 0x0F) + 1;
+                break;
+            case 'h':
+                mBarHeight = Math.max(1, mHead[2] & 0xFF);
+                break;
+            case 'V':
+                if (header == 4) {
+                    mRows += mHead[3] & 0xFF;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private long lineHeight() {
+        return Math.max(mLineSpacing, CHARACTER_HEIGHT * mHeightMul);
+    }
+
+    /**
+     * p1 to p4 of GS 8 L
+     */
+    private long parameterLength() {
+        return (mHead[3] & 0xFFL) | (mHead[4] & 0xFFL) << 8 | (mHead[5] & 0xFFL) << 16 | (mHead[6] & 0xFFL) << 24;
+    }
+
+    private int word(int index) {
+        return (mHead[index] & 0xFF) | (mHead[index + 1] & 0xFF) << 8;
+    }
+
+    private static int escParameters(int c) {
+        switch (c) {
+            case '$':
+            case 'c':
+                return 2;
+            case 'p':
+                return 3;
+            case '!':
+            case '-':
+            case '3':
+            case 'E':
+            case 'G':
+            case 'J':
+            case 'M':
+            case 'R':
+            case 'T':
+            case 'U':
+            case 'V':
+            case 'a':
+            case 'd':
+            case 'e':
+            case 'r':
+            case 't':
+            case '{':
+            case ' ':
+            case '%':
+            case '=':
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static int gsParameters(int c) {
+        switch (c) {
+            case 'L':
+            case 'W':
+            case 'P':
+                return 2;
+            case '!':
+            case 'B':
+            case 'H':
+            case 'I':
+            case 'a':
+            case 'b':
+            case 'f':
+            case 'h':
+            case 'r':
+            case 'w':
+            case 'x':
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static int fsParameters(int c) {
+        switch (c) {
+            case 'p':
+                return 2;
+            case '!':
+            case '-':
+            case 'C':
+            case 'W':
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.capacitor.mkprinter.escpos;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Encodes ESC/POS commands into a {@link CommandBuffer}.
+ *
+ * Plain Java on purpose: the same encoder runs in the plugin and in the JVM
+ * benchmark build, without Android classes.
+ */
+public class EscPosEncoder {
+
+    public static final int ESC = 0x1B;
+    public static final int GS = 0x1D;
+    public static final int LF = 0x0A;
+
+    /** Charset the vendor SDK uses for PrinterInstance.printText */
+    public static final Charset DEFAULT_CHARSET = Charset.forName("GBK");
+
+    /** Rows per GS v 0 command of a 58 mm image; keeps each command within small printer buffers */
+    public static final int RASTER_BAND_HEIGHT = 256;
+
+    /** Dots per ESC * 33 stripe */
+    private static final int BIT_IMAGE_STRIPE = 24;
+
+    /** Shorter white runs stay in the raster command; a new command costs more than they do */
+    public static final int MIN_FEED_ROWS = 8;
+
+    /** Most data GS ( k function 080 accepts after its three parameter bytes */
+    public static final int MAX_SYMBOL_DATA = 0xFFFF - 3;
+
+    /** GS ( k symbol types (cn) */
+    private static final int PDF417 = '0';
+    private static final int QR_CODE = '1';
+
+    private final CommandBuffer mBuffer;
+    private Charset mCharset = DEFAULT_CHARSET;
+    private int mMaxBandBytes = RASTER_BAND_HEIGHT * 48;
+    private boolean mRasterSupported = true;
+    /** Justification set by {@link #align}; GS v 0 and ESC * images follow it */
+    private TextRow.Align mAlign = TextRow.Align.LEFT;
+
+    public EscPosEncoder(CommandBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    public CommandBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public EscPosEncoder setCharset(Charset charset) {
+        mCharset = charset;
+        return this;
+    }
+
+    /**
+     * Caps the data of one raster command; images are split into bands of at most this many bytes
+     */
+    public EscPosEncoder setMaxBandBytes(int maxBandBytes) {
+        mMaxBandBytes = Math.max(1, maxBandBytes);
+        return this;
+    }
+
+    /**
+     * Whether the printer implements GS v 0; if not, raster bands are sent as ESC * bit images
+     */
+    public EscPosEncoder setRasterSupported(boolean supported) {
+        mRasterSupported = supported;
+        return this;
+    }
+
+    /**
+     * ESC @ - reset the printer to its power-on settings
+     */
+    public EscPosEncoder initialize() {
+        mBuffer.write(ESC, '@');
+        mAlign = TextRow.Align.LEFT;
+        return this;
+    }
+
+    /**
+     * Appends text in the current charset; no line feed is added
+     */
+    public EscPosEncoder text(String text) {
+        mBuffer.write(text.getBytes(mCharset));
+        return this;
+    }
+
+    /**
+     * Appends text[start, end) through the code page encoder; no line feed is added
+     */
+    public EscPosEncoder text(CharSequence text, int start, int end, CodePageEncoder codePages) {
+        codePages.encode(text, start, end, mBuffer);
+        return this;
+    }
+
+    /**
+     * LF - print the buffer and feed one line
+     */
+    public EscPosEncoder lineFeed() {
+        mBuffer.write(LF);
+        return this;
+    }
+
+    /**
+     * ESC a n - justification of the following lines
+     */
+    public EscPosEncoder align(TextRow.Align align) {
+        mBuffer.write(ESC, 'a', align.ordinal());
+        mAlign = align;
+        return this;
+    }
+
+    /**
+     * GS ! n - character width and height multipliers, 1 to 8
+     */
+    public EscPosEncoder textSize(int width, int height) {
+        int w = Math.max(1, Math.min(TextRow.MAX_SIZE, width)) - 1;
+        int h = Math.max(1, Math.min(TextRow.MAX_SIZE, height)) - 1;
+        mBuffer.write(GS, '!', (w << 4) | h);
+        return this;
+    }
+
+    /**
+     * ESC - n - one-dot underline on or off
+     */
+    public EscPosEncoder underline(boolean underline) {
+        mBuffer.write(ESC, '-', underline ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * ESC d n - print the buffer and feed {@code lines} lines
+     */
+    public EscPosEncoder printAndFeedLines(int lines) {
+        mBuffer.write(ESC, 'd', clamp(lines));
+        return this;
+    }
+
+    /**
+     * GS V 65/66 0 - feed the paper to the cutter and cut it, leaving one point
+     * uncut if {@code partial}. Printers without a cutter ignore it.
+     */
+    public EscPosEncoder cut(boolean partial) {
+        mBuffer.write(GS, 'V', partial ? 66 : 65);
+        mBuffer.write(0);
+        return this;
+    }
+
+    /**
+     * ESC p m t1 t2 - pulse a cash drawer pin
+     *
+     * @param pin 0 for connector pin 2, 1 for pin 5
+     * @param pulseMs Pulse on time; the off time is at least 500 ms so the solenoid can release
+     */
+    public EscPosEncoder kickDrawer(int pin, int pulseMs) {
+        int on = Math.max(1, clamp(pulseMs / 2));
+        mBuffer.write(ESC, 'p', pin & 1);
+        mBuffer.write(on, Math.max(on, 250));
+        return this;
+    }
+
+    /**
+     * GS v 0 - prints a monochrome image in bands that fit the printer's line buffer
+     */
+    public EscPosEncoder rasterImage(MonochromeImage image) {
+        return rasterBand(image.getData(), 0, image.getBytesPerRow(), image.getHeight());
+    }
+
+    /**
+     * @return Rows per raster command for images {@code bytesPerRow} wide
+     */
+    public int getBandHeight(int bytesPerRow) {
+        return Math.max(1, Math.min(0xFFFF, mMaxBandBytes / Math.max(1, bytesPerRow)));
+    }
+
+    /**
+     * Prints packed rows as GS v 0 m xL xH yL yH d1...dk commands, split as the
+     * line buffer needs, or as ESC * stripes on printers without raster support.
+     *
+     * Runs of at least {@link #MIN_FEED_ROWS} white rows are not sent; ESC J
+     * feeds the paper past them instead. With left justification each command
+     * is also cropped to its rightmost inked byte. The paper comes out the same.
+     */
+    public EscPosEncoder rasterBand(byte[] data, int offset, int bytesPerRow, int rows) {
+        // ESC * always advances whole stripes, so its gaps are skipped in whole stripes
+        int unit = mRasterSupported ? 1 : BIT_IMAGE_STRIPE;
+        int minFeed = mRasterSupported ? MIN_FEED_ROWS : 2 * BIT_IMAGE_STRIPE;
+        int bandHeight = mRasterSupported ? getBandHeight(bytesPerRow) : rows;
+        boolean crop = mAlign == TextRow.Align.LEFT;
+        int y = 0;
+        while (y < rows) {
+            int blank = 0;
+            while (y + blank < rows && inkBytes(data, offset + (y + blank) * bytesPerRow, bytesPerRow) == 0) {
+                blank++;
+            }
+            if (y + blank < rows) {
+                blank -= blank % unit;
+            }
+            if (blank > 0 && (blank >= MIN_FEED_ROWS || y + blank == rows)) {
+                feedDots(blank);
+                y += blank;
+                continue;
+            }
+
+            // Rows up to the band height or the next long white run
+            int end = y;
+            int width = 0;
+            int run = 0;
+            int limit = Math.min(rows, y + bandHeight);
+            while (end < limit) {
+                int ink = inkBytes(data, offset + end * bytesPerRow, bytesPerRow);
+                end++;
+                if (ink > 0) {
+                    run = 0;
+                    width = Math.max(width, ink);
+                } else if (++run == minFeed) {
+                    end -= run;
+                    end = Math.min(limit, y + (end - y + unit - 1) / unit * unit);
+                    break;
+                }
+            }
+            if (width == 0) {
+                // Only a band shorter than MIN_FEED_ROWS can be all white
+                feedDots(end - y);
+            } else {
+                emitBand(data, offset + y * bytesPerRow, bytesPerRow, crop ? width : bytesPerRow, end - y);
+            }
+            y = end;
+        }
+        return this;
+    }
+
+    /**
+     * ESC J n - prints the buffer and feeds the paper {@code dots} dots, 255 at a time
+     */
+    public EscPosEncoder feedDots(int dots) {
+        while (dots > 0) {
+            int n = Math.min(0xFF, dots);
+            mBuffer.write(ESC, 'J', n);
+            dots -= n;
+        }
+        return this;
+    }
+
+    /**
+     * One command for {@code rows} rows of {@code width} bytes, {@code stride} bytes apart in data
+     */
+    private void emitBand(byte[] data, int offset, int stride, int width, int rows) {
+        if (!mRasterSupported) {
+            bitImageBand(data, offset, stride, width, rows);
+            return;
+        }
+        mBuffer.write(GS, 'v', '0');
+        mBuffer.write(0);
+        mBuffer.writeShortLE(width);
+        mBuffer.writeShortLE(rows);
+        if (width == stride) {
+            mBuffer.write(data, offset, width * rows);
+        } else {
+            for (int row = 0; row < rows; row++) {
+                mBuffer.write(data, offset + row * stride, width);
+            }
+        }
+    }
+
+    /**
+     * @return Bytes up to and including the last non-white one, 0 for a white row
+     */
+    private static int inkBytes(byte[] data, int offset, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (data[offset + i] != 0) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * GS w, GS h, GS H, then GS k m n d1...dn - a 1D barcode (function B)
+     *
+     * @param m Symbology, 65 (UPC-A) to 73 (CODE128)
+     * @param data Barcode data, at most 255 bytes
+     * @param moduleWidth Narrow bar width in dots, 2-6
+     * @param height Bar height in dots, 1-255
+     * @param hri Human readable text: 0 none, 1 above, 2 below, 3 both
+     */
+    public EscPosEncoder barcode(int m, byte[] data, int moduleWidth, int height, int hri) {
+        mBuffer.write(GS, 'w', Math.max(2, Math.min(6, moduleWidth)));
+        mBuffer.write(GS, 'h', Math.max(1, clamp(height)));
+        mBuffer.write(GS, 'H', hri & 3);
+        mBuffer.write(GS, 'k', m);
+        mBuffer.write(data.length);
+        mBuffer.write(data);
+        return this;
+    }
+
+    /**
+     * GS ( k - QR code model 2: set size and error correction, store the data, print it
+     *
+     * @param data Symbol data, at most 7089 bytes
+     * @param moduleSize Module size in dots, 1-16
+     * @param errorCorrection 0 (L), 1 (M), 2 (Q) or 3 (H)
+     */
+    public EscPosEncoder qrCode(byte[] data, int moduleSize, int errorCorrection) {
+        symbolParameter(QR_CODE, 'A', '2', 0);
+        symbolParameter(QR_CODE, 'C', Math.max(1, Math.min(16, moduleSize)));
+        symbolParameter(QR_CODE, 'E', '0' + (errorCorrection & 3));
+        storeAndPrintSymbol(QR_CODE, data);
+        return this;
+    }
+
+    /**
+     * GS ( k - PDF417 with automatic rows and columns: set sizes and error correction, store the data, print it
+     *
+     * @param data Symbol data
+     * @param moduleWidth Module width in dots, 2-8
+     * @param rowHeight Row height as a multiple of the module width, 2-8
+     * @param errorLevel Error correction level, 0-8
+     */
+    public EscPosEncoder pdf417(byte[] data, int moduleWidth, int rowHeight, int errorLevel) {
+        symbolParameter(PDF417, 'A', 0);
+        symbolParameter(PDF417, 'B', 0);
+        symbolParameter(PDF417, 'C', Math.max(2, Math.min(8, moduleWidth)));
+        symbolParameter(PDF417, 'D', Math.max(2, Math.min(8, rowHeight)));
+        symbolParameter(PDF417, 'E', '0', '0' + Math.max(0, Math.min(8, errorLevel)));
+        storeAndPrintSymbol(PDF417, data);
+        return this;
+    }
+
+    /**
+     * ESC 3 24, then ESC * 33 nL nH d1...dk LF per 24-dot stripe, then ESC 2.
+     * Each column of a stripe is three bytes, top dot in the high bit; the last
+     * stripe is padded with white.
+     */
+    private void bitImageBand(byte[] data, int offset, int stride, int bytesPerRow, int rows) {
+        int width = bytesPerRow * 8;
+        mBuffer.write(ESC, '3', BIT_IMAGE_STRIPE);
+        for (int top = 0; top < rows; top += BIT_IMAGE_STRIPE) {
+            mBuffer.write(ESC, '*', 33);
+            mBuffer.writeShortLE(width);
+            int out = mBuffer.reserve(width * 3);
+            byte[] dst = mBuffer.array();
+            Arrays.fill(dst, out, out + width * 3, (byte) 0);
+            int stripeRows = Math.min(BIT_IMAGE_STRIPE, rows - top);
+            for (int dy = 0; dy < stripeRows; dy++) {
+                int row = offset + (top + dy) * stride;
+                int bit = 0x80 >> (dy & 7);
+                int column = out + (dy >> 3);
+                for (int x = 0; x < width; x++) {
+                    if ((data[row + (x >> 3)] & (0x80 >> (x & 7))) != 0) {
+                        dst[column + x * 3] |= (byte) bit;
+                    }
+                }
+            }
+            mBuffer.write(LF);
+        }
+        mBuffer.write(ESC, '2');
+    }
+
+    private void symbolParameter(int cn, int fn, int n) {
+        mBuffer.write(GS, '(', 'k');
+        mBuffer.write(3, 0);
+        mBuffer.write(cn, fn, n);
+    }
+
+    private void symbolParameter(int cn, int fn, int n1, int n2) {
+        mBuffer.write(GS, '(', 'k');
+        mBuffer.write(4, 0);
+        mBuffer.write(cn, fn, n1);
+        mBuffer.write(n2);
+    }
+
+    private void storeAndPrintSymbol(int cn, byte[] data) {
+        if (data.length > MAX_SYMBOL_DATA) {
+            throw new IllegalArgumentException("Symbol data too long (" + data.length + " bytes)");
+        }
+        // Function 080: store data, then 081: print the stored symbol
+        mBuffer.write(GS, '(', 'k');
+        mBuffer.writeShortLE(data.length + 3);
+        mBuffer.write(cn, 'P', '0');
+        mBuffer.write(data);
+        symbolParameter(cn, 'Q', '0');
+    }
+
+    private static int clamp(int n) {
+        return Math.max(0, Math.min(255, n));
+    }
+}
@@ -0,0 +1,93 @@
+package com.capacitor.mkprinter.escpos;
+
+import java.util.Locale;
+
+/**
+ * What happens after a job's content: a paper feed, an optional cut and an
+ * optional cash drawer kick. The commands go at the end of the job's own
+ * buffer, so a receipt and its cut leave in the same write.
+ */
+public class JobFinish {
+
+    public enum Cut {
+        NONE, PARTIAL, FULL;
+
+        /**
+         * @param value "none", "partial" or "full"; null or blank is NONE
+         * @return The cut, or null if the value is not one
+         */
+        public static Cut parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return NONE;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /** Feed lines meaning "the job type's usual feed" */
+    public static final int DEFAULT_FEED = -1;
+    /** Drawer connector pins, as numbered on the printer's DK port */
+    public static final int DRAWER_PIN_2 = 2;
+    public static final int DRAWER_PIN_5 = 5;
+    /** Drawer pulse on time; most solenoids open with 50-200 ms */
+    public static final int DEFAULT_PULSE_MS = 100;
+
+    /** The usual feed, no cut, no drawer */
+    public static final JobFinish DEFAULT = new JobFinish(DEFAULT_FEED, Cut.NONE, 0, DEFAULT_PULSE_MS);
+
+    private final int mFeedLines;
+    private final Cut mCut;
+    private final int mDrawerPin;
+    private final int mPulseMs;
+
+    /**
+     * @param feedLines Lines to feed after the content, or {@link #DEFAULT_FEED}
+     * @param cut Cut after feeding
+     * @param drawerPin {@link #DRAWER_PIN_2} or {@link #DRAWER_PIN_5} to kick a cash drawer, 0 for none
+     * @param pulseMs Drawer pulse on time
+     */
+    public JobFinish(int feedLines, Cut cut, int drawerPin, int pulseMs) {
+        if (drawerPin != 0 && drawerPin != DRAWER_PIN_2 && drawerPin != DRAWER_PIN_5) {
+            throw new IllegalArgumentException("Cash drawer pin must be 2 or 5, not " + drawerPin);
+        }
+        mFeedLines = feedLines;
+        mCut = cut == null ? Cut.NONE : cut;
+        mDrawerPin = drawerPin;
+        mPulseMs = pulseMs;
+    }
+
+    public int getFeedLines() {
+        return mFeedLines;
+    }
+
+    public Cut getCut() {
+        return mCut;
+    }
+
+    public int getDrawerPin() {
+        return mDrawerPin;
+    }
+
+    public int getPulseMs() {
+        return mPulseMs;
+    }
+
+    /**
+     * Appends the feed, cut and drawer kick
+     *
+     * @param defaultFeedLines The job type's usual feed, used unless one was given
+     */
+    public void encode(EscPosEncoder encoder, int defaultFeedLines) {
+        encoder.printAndFeedLines(mFeedLines == DEFAULT_FEED ? defaultFeedLines : mFeedLines);
+        if (mCut != Cut.NONE) {
+            encoder.cut(mCut == Cut.PARTIAL);
+        }
+        if (mDrawerPin != 0) {
+            encoder.kickDrawer(mDrawerPin == DRAWER_PIN_5 ? 1 : 0, mPulseMs);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.capacitor.mkprinter.escpos;
+
+/**
+ * Converts ARGB pixels into packed 1-bit printer rows.
+ */
+public class MonochromeConverter {
+
+    /** Gray level below which a pixel prints as a black dot */
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    private MonochromeConverter() {}
+
+    /**
+     * Thresholds one row of ARGB pixels into packed bits
+     *
+     * @param argb Source pixels, one int per pixel as returned by Bitmap.getPixels
+     * @param offset Index of the first pixel of the row in {@code argb}
+     * @param width Number of pixels in the row
+     * @param threshold Gray level (0-255) below which a pixel is black
+     * @param out Destination for the packed row
+     * @param outOffset Index in {@code out} of the first byte of the row
+     */
+    public static void packRow(int[] argb, int offset, int width, int threshold, byte[] out, int outOffset) {
+        int limit = threshold * 3;
+        int fullBytes = width >> 3;
+        int p = offset;
+        int o = outOffset;
+        for (int i = 0; i < fullBytes; i++) {
+            int bits = 0;
+            for (int bit = 7; bit >= 0; bit--) {
+                int c = argb[p++];
+                int sum = ((c >> 16) & 0xFF) + ((c >> 8) & 0xFF) + (c & 0xFF);
+                if (sum < limit) {
+                    bits |= 1 << bit;
+                }
+            }
+            out[o++] = (byte) bits;
+        }
+        int rest = width & 7;
+        if (rest != 0) {
+            int bits = 0;
+            for (int bit = 7; bit > 7 - rest; bit--) {
+                int c = argb[p++];
+                int sum = ((c >> 16) & 0xFF) + ((c >> 8) & 0xFF) + (c & 0xFF);
+                if (sum < limit) {
+                    bits |= 1 << bit;
+                }
+            }
+            out[o] = (byte) bits;
+        }
+    }
+
+    /**
+     * Thresholds a whole ARGB image into a {@link MonochromeImage}
+     */
+    public static MonochromeImage convert(int[] argb, int width, int height, int threshold) {
+        MonochromeImage image = new MonochromeImage(width, height);
+        int bytesPerRow = image.getBytesPerRow();
+        byte[] data = image.getData();
+        for (int y = 0; y < height; y++) {
+            packRow(argb, y * width, width, threshold, data, y * bytesPerRow);
+        }
+        return image;
+    }
+}
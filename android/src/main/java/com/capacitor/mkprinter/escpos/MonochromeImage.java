@@ -0,0 +1,56 @@
+package com.capacitor.mkprinter.escpos;
+
+/**
+ * A 1-bit image packed the way raster commands expect it: rows of
+ * {@link #getBytesPerRow()} bytes, most significant bit first, 1 = black dot.
+ */
+public class MonochromeImage {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBytesPerRow;
+    private final byte[] mData;
+
+    /**
+     * @param width Width in dots
+     * @param height Height in dots
+     * @param data Packed rows, at least {@code bytesPerRow(width) * height} bytes
+     */
+    public MonochromeImage(int width, int height, byte[] data) {
+        mWidth = width;
+        mHeight = height;
+        mBytesPerRow = bytesPerRow(width);
+        if (data.length < mBytesPerRow * height) {
+            throw new IllegalArgumentException("Image data too short for " + width + "x" + height);
+        }
+        mData = data;
+    }
+
+    public MonochromeImage(int width, int height) {
+        this(width, height, new byte[bytesPerRow(width) * height]);
+    }
+
+    public static int bytesPerRow(int width) {
+        return (width + 7) / 8;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getBytesPerRow() {
+        return mBytesPerRow;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public boolean isBlack(int x, int y) {
+        return (mData[y * mBytesPerRow + (x >> 3)] & (0x80 >> (x & 7))) != 0;
+    }
+}
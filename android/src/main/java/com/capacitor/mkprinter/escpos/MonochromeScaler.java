@@ -0,0 +1,147 @@
+package com.capacitor.mkprinter.escpos;
+
+/**
+ * Scales ARGB rows to the printer width and thresholds them into packed
+ * 1-bit rows in a single pass, so no scaled color image is ever built.
+ *
+ * Each output dot is the mean luminance (BT.601 weights) of the source
+ * pixels it covers; when enlarging, of the nearest source pixel. Every
+ * source row is read once, and only one row plus one row of column sums
+ * is kept in memory.
+ */
+public class MonochromeScaler {
+
+    /**
+     * Supplies source rows, top to bottom
+     */
+    public interface RowSource {
+        /**
+         * @param y Source row, never lower than in the previous call
+         * @param argb Destination for the row's pixels, one int per pixel as returned by Bitmap.getPixels
+         */
+        void getRow(int y, int[] argb);
+    }
+
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final int mWidth;
+    private final int mHeight;
+    /** First source column of each output column; entry mWidth is mSourceWidth */
+    private final int[] mColumnStart;
+    private final int[] mRow;
+    private final int[] mColumnSums;
+
+    /**
+     * @param sourceWidth Width of the source rows
+     * @param sourceHeight Number of source rows
+     * @param width Width of the output in dots
+     * @param height Number of output rows
+     */
+    public MonochromeScaler(int sourceWidth, int sourceHeight, int width, int height) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image sizes must be positive");
+        }
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mWidth = width;
+        mHeight = height;
+        mColumnStart = new int[width + 1];
+        for (int x = 0; x <= width; x++) {
+            mColumnStart[x] = (int) ((long) x * sourceWidth / width);
+        }
+        mRow = new int[sourceWidth];
+        mColumnSums = new int[sourceWidth];
+    }
+
+    /**
+     * @return Bytes of the packed output image
+     */
+    public int getByteCount() {
+        return MonochromeImage.bytesPerRow(mWidth) * mHeight;
+    }
+
+    /**
+     * @return The height that keeps the aspect ratio of a source scaled to {@code width}
+     */
+    public static int scaledHeight(int sourceWidth, int sourceHeight, int width) {
+        return Math.max(1, (int) ((long) sourceHeight * width / sourceWidth));
+    }
+
+    /**
+     * @param source The source rows
+     * @param threshold Gray level (0-255) below which a dot is black
+     */
+    public MonochromeImage scale(RowSource source, int threshold) {
+        return scale(source, threshold, new byte[MonochromeImage.bytesPerRow(mWidth) * mHeight]);
+    }
+
+    /**
+     * @param source The source rows
+     * @param threshold Gray level (0-255) below which a dot is black
+     * @param data Destination for the packed rows, at least {@link #getByteCount()} bytes; need not be cleared
+     */
+    public MonochromeImage scale(RowSource source, int threshold, byte[] data) {
+        MonochromeImage image = new MonochromeImage(mWidth, mHeight, data);
+        int bytesPerRow = image.getBytesPerRow();
+        int loadedRow = -1;
+        for (int y = 0; y < mHeight; y++) {
+            int top = (int) ((long) y * mSourceHeight / mHeight);
+            int bottom = Math.max(top + 1, (int) ((long) (y + 1) * mSourceHeight / mHeight));
+            if (bottom - top == 1) {
+                // Enlarging or a 1:1 row: reuse the sums when the source row repeats
+                if (top != loadedRow) {
+                    source.getRow(top, mRow);
+                    for (int x = 0; x < mSourceWidth; x++) {
+                        mColumnSums[x] = luminance(mRow[x]);
+                    }
+                    loadedRow = top;
+                }
+            } else {
+                source.getRow(top, mRow);
+                for (int x = 0; x < mSourceWidth; x++) {
+                    mColumnSums[x] = luminance(mRow[x]);
+                }
+                for (int sy = top + 1; sy < bottom; sy++) {
+                    source.getRow(sy, mRow);
+                    for (int x = 0; x < mSourceWidth; x++) {
+                        mColumnSums[x] += luminance(mRow[x]);
+                    }
+                }
+                loadedRow = -1;
+            }
+            packRow(bottom - top, threshold, data, y * bytesPerRow);
+        }
+        return image;
+    }
+
+    private void packRow(int rows, int threshold, byte[] out, int outOffset) {
+        int limit = threshold * rows * 256;
+        int bits = 0;
+        for (int x = 0; x < mWidth; x++) {
+            int left = mColumnStart[x];
+            int right = Math.max(left + 1, mColumnStart[x + 1]);
+            int sum = 0;
+            for (int sx = left; sx < right; sx++) {
+                sum += mColumnSums[sx];
+            }
+            // sum / (pixels * 256) < threshold, without the division
+            if (sum < limit * (right - left)) {
+                bits |= 0x80 >> (x & 7);
+            }
+            if ((x & 7) == 7) {
+                out[outOffset + (x >> 3)] = (byte) bits;
+                bits = 0;
+            }
+        }
+        if ((mWidth & 7) != 0) {
+            out[outOffset + (mWidth >> 3)] = (byte) bits;
+        }
+    }
+
+    /**
+     * @return Luminance scaled by 256, 0 to 65280
+     */
+    private static int luminance(int argb) {
+        return ((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150 + (argb & 0xFF) * 29;
+    }
+}
@@ -0,0 +1,97 @@
+package com.capacitor.mkprinter.escpos;
+
+import com.capacitor.mkprinter.raster.TextRasterizer;
+
+import java.text.Normalizer;
+import java.util.List;
+
+/**
+ * Encodes the plugin's print jobs. PrintUtils and the JVM benchmarks both go
+ * through here so they measure exactly the same bytes.
+ */
+public class PrintJobEncoder {
+
+    private PrintJobEncoder() {}
+
+    /** Lines fed after text and barcode jobs unless the job says otherwise */
+    public static final int TEXT_FEED_LINES = 2;
+    /** Lines fed after an image, clear of the tear bar */
+    public static final int IMAGE_FEED_LINES = 4;
+
+    /**
+     * A text job: reset, the text, then the finish (by default two lines of feed)
+     */
+    public static void encodeText(EscPosEncoder encoder, String text, JobFinish finish) {
+        encoder.initialize()
+                .text(text);
+        finish.encode(encoder, TEXT_FEED_LINES);
+    }
+
+    /**
+     * An image job: reset, the raster image, then the finish (by default four lines of feed)
+     */
+    public static void encodeImage(EscPosEncoder encoder, MonochromeImage image, JobFinish finish) {
+        encoder.initialize()
+                .rasterImage(image);
+        finish.encode(encoder, IMAGE_FEED_LINES);
+    }
+
+    /**
+     * A rasterized text job: reset, every row as raster lines, then the finish
+     */
+    public static void encodeRasterRows(EscPosEncoder encoder, TextRasterizer rasterizer, List<TextRow> rows,
+                                        JobFinish finish) {
+        encoder.initialize();
+        rasterizer.rasterize(rows, encoder);
+        finish.encode(encoder, TEXT_FEED_LINES);
+    }
+
+    /**
+     * A text job with native per-row formatting: reset, every row in the
+     * printer's own font, then the finish. Lines with characters outside
+     * the printer's code pages are rasterized instead when {@code fallback} is
+     * set, and printed with '?' in their place otherwise.
+     */
+    public static void encodeRows(EscPosEncoder encoder, CodePageEncoder codePages, TextRasterizer fallback,
+                                  List<TextRow> rows, JobFinish finish) {
+        encoder.initialize();
+        codePages.reset();
+        for (TextRow row : rows) {
+            String text = row.getText();
+            if (hasCombiningMarks(text)) {
+                // One precomposed char per letter, as the code page tables expect
+                text = Normalizer.normalize(text, Normalizer.Form.NFC);
+            }
+            encoder.align(row.getAlign())
+                    .textSize(row.getSize(), row.getSize())
+                    .underline(row.isUnderline());
+            int start = 0;
+            int length = text.length();
+            do {
+                int newline = text.indexOf('\n', start);
+                int end = newline < 0 ? length : newline;
+                if (fallback == null || codePages.canEncode(text, start, end)) {
+                    encoder.text(text, start, end, codePages).lineFeed();
+                } else {
+                    fallback.rasterize(new TextRow(text.substring(start, end), row.getSize(), row.getAlign(),
+                            row.isUnderline()), encoder);
+                }
+                start = end + 1;
+            } while (start < length);
+        }
+        finish.encode(encoder, TEXT_FEED_LINES);
+    }
+
+    /**
+     * Cheaper than Normalizer.isNormalized, which allocates, for the decomposed input that matters here
+     */
+    private static boolean hasCombiningMarks(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x0300 && c <= 0x036F) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+package com.capacitor.mkprinter.escpos;
+
+/**
+ * One row of a text receipt, mirroring the JS {@code RowOption}.
+ */
+public class TextRow {
+
+    public enum Align {
+        LEFT, CENTER, RIGHT;
+
+        /**
+         * @param value "left", "center" or "right"; anything else is LEFT
+         */
+        public static Align parse(String value) {
+            if ("center".equalsIgnoreCase(value)) {
+                return CENTER;
+            }
+            if ("right".equalsIgnoreCase(value)) {
+                return RIGHT;
+            }
+            return LEFT;
+        }
+    }
+
+    /** Largest size multiplier, as with GS ! */
+    public static final int MAX_SIZE = 8;
+
+    private final String mText;
+    private final int mSize;
+    private final Align mAlign;
+    private final boolean mUnderline;
+
+    /**
+     * @param text Row text; may contain line breaks
+     * @param size Size multiplier 1-8 relative to the printer's standard font
+     * @param align Horizontal alignment
+     * @param underline Whether to underline the row
+     */
+    public TextRow(String text, int size, Align align, boolean underline) {
+        mText = text == null ? "" : text;
+        mSize = Math.max(1, Math.min(MAX_SIZE, size));
+        mAlign = align == null ? Align.LEFT : align;
+        mUnderline = underline;
+    }
+
+    public TextRow(String text) {
+        this(text, 1, Align.LEFT, false);
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public Align getAlign() {
+        return mAlign;
+    }
+
+    public boolean isUnderline() {
+        return mUnderline;
+    }
+}
@@ -0,0 +1,272 @@
+package com.capacitor.mkprinter.firmware;
+
+import com.capacitor.mkprinter.metrics.PrintMetrics;
+import com.capacitor.mkprinter.transport.ChunkedWriter;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Streams a firmware image to the printer in the vendor SDK's update framing:
+ * ESC # # U P P G, the 32-bit byte sum of the image and its length (both
+ * little-endian), then the image in 1 KB chunks with a pause after each one
+ * while the printer writes its flash.
+ *
+ * The file is never read into memory whole. It is read once up front for the
+ * header's checksum and length, then again while sending, summing as it goes;
+ * if the two sums differ the file changed under us and the update fails.
+ * The framing has no offset field, so an interrupted update cannot resume
+ * mid-image; it is retried from the header on a fresh link instead.
+ */
+public class FirmwareUpdater {
+
+    /** Pause after each chunk; the vendor SDK's sendSleep */
+    public static final long DEFAULT_CHUNK_DELAY_MS = 250;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final byte[] MAGIC = {0x1B, '#', '#', 'U', 'P', 'P', 'G'};
+    private static final long RETRY_DELAY_MS = 2000;
+
+    /**
+     * Opens the link to the printer for each attempt
+     */
+    public interface Link {
+        /**
+         * @param attempt 1 for the first attempt; later attempts follow a failure and should reconnect
+         */
+        PrinterTransport open(int attempt) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Receives progress on the updating thread
+     */
+    public interface Listener {
+        /**
+         * @param attempt The attempt, from 1
+         * @param sent Image bytes the printer has accepted in this attempt
+         * @param total Image size in bytes
+         */
+        void onProgress(int attempt, long sent, long total);
+
+        /**
+         * An attempt failed and the update will be retried after {@code retryInMs}
+         */
+        void onRetry(int attempt, IOException error, long retryInMs);
+    }
+
+    /**
+     * What was sent
+     */
+    public static class Result {
+        private final long mLength;
+        private final int mChecksum;
+        private final long mCrc32;
+        private final int mAttempts;
+
+        Result(long length, int checksum, long crc32, int attempts) {
+            mLength = length;
+            mChecksum = checksum;
+            mCrc32 = crc32;
+            mAttempts = attempts;
+        }
+
+        public long getLength() {
+            return mLength;
+        }
+
+        /**
+         * @return The byte sum sent in the header
+         */
+        public int getChecksum() {
+            return mChecksum;
+        }
+
+        /**
+         * @return CRC-32 of the image, to compare against a release manifest
+         */
+        public long getCrc32() {
+            return mCrc32;
+        }
+
+        public int getAttempts() {
+            return mAttempts;
+        }
+    }
+
+    private int mChunkSize = ChunkedWriter.DEFAULT_CHUNK_SIZE;
+    private long mChunkDelayMs = DEFAULT_CHUNK_DELAY_MS;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private Listener mListener;
+
+    public FirmwareUpdater setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Lower it only for printers known to write their flash faster
+     */
+    public FirmwareUpdater setChunkDelayMs(long chunkDelayMs) {
+        mChunkDelayMs = Math.max(0, chunkDelayMs);
+        return this;
+    }
+
+    public FirmwareUpdater setMaxAttempts(int maxAttempts) {
+        mMaxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+
+    public FirmwareUpdater setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Sums and CRCs the file without sending anything, e.g. to check it against a manifest first
+     */
+    public static Result verify(File file) throws IOException {
+        int checksum = 0;
+        long length = 0;
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                checksum += sum(buffer, n);
+                crc.update(buffer, 0, n);
+                length += n;
+            }
+        }
+        return new Result(length, checksum, crc.getValue(), 0);
+    }
+
+    /**
+     * Sends the image, retrying from the start on a fresh link when an attempt fails
+     *
+     * @throws IOException If the file cannot be read, changed while sending, or every attempt failed
+     */
+    public Result update(File file, Link link) throws IOException, InterruptedException {
+        Result image = verify(file);
+        if (image.getLength() == 0 || image.getLength() > Integer.MAX_VALUE) {
+            throw new IOException("Firmware image is empty or too large: " + image.getLength() + " bytes");
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                send(file, image, link.open(attempt), attempt);
+                return new Result(image.getLength(), image.getChecksum(), image.getCrc32(), attempt);
+            } catch (FirmwareChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= mMaxAttempts) {
+                    throw e;
+                }
+                long delay = RETRY_DELAY_MS * attempt;
+                if (mListener != null) {
+                    mListener.onRetry(attempt, e, delay);
+                }
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    private void send(File file, Result image, PrinterTransport transport, int attempt)
+            throws IOException, InterruptedException {
+        long total = image.getLength();
+        byte[] header = new byte[MAGIC.length + 8];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        putIntLE(header, MAGIC.length, image.getChecksum());
+        putIntLE(header, MAGIC.length + 4, (int) total);
+        writeFully(transport, header, header.length);
+
+        PrintMetrics metrics = PrintMetrics.get();
+        byte[] chunk = new byte[mChunkSize];
+        int checksum = 0;
+        long sent = 0;
+        reportProgress(attempt, 0, total);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), Math.max(8192, mChunkSize))) {
+            while (sent < total) {
+                int n = readChunk(in, chunk, (int) Math.min(mChunkSize, total - sent));
+                if (n <= 0) {
+                    throw new FirmwareChangedException("Firmware file shrank while sending, at " + sent + " bytes");
+                }
+                checksum += sum(chunk, n);
+                long start = PrintMetrics.start();
+                writeFully(transport, chunk, n);
+                metrics.add(PrintMetrics.COUNTER_BYTES_SENT, n);
+                metrics.stop(PrintMetrics.STAGE_TRANSFER, start);
+                sent += n;
+                reportProgress(attempt, sent, total);
+                if (mChunkDelayMs > 0) {
+                    Thread.sleep(mChunkDelayMs);
+                }
+            }
+        }
+        if (checksum != image.getChecksum()) {
+            throw new FirmwareChangedException("Firmware file changed while sending: checksum "
+                    + Integer.toHexString(checksum) + ", header " + Integer.toHexString(image.getChecksum()));
+        }
+    }
+
+    private void reportProgress(int attempt, long sent, long total) {
+        if (mListener != null) {
+            mListener.onProgress(attempt, sent, total);
+        }
+    }
+
+    private static int readChunk(InputStream in, byte[] chunk, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(chunk, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private static void writeFully(PrinterTransport transport, byte[] data, int length) throws IOException {
+        int written = 0;
+        while (written < length) {
+            int n = transport.write(data, written, length - written);
+            if (n <= 0) {
+                throw new IOException("Printer link accepted no data during the firmware update");
+            }
+            written += n;
+        }
+    }
+
+    private static int sum(byte[] data, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += data[i] & 0xFF;
+        }
+        return sum;
+    }
+
+    private static void putIntLE(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+        out[offset + 2] = (byte) (value >> 16);
+        out[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * The file no longer matches the header; retrying would not help
+     */
+    private static class FirmwareChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FirmwareChangedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import android.hardware.usb.UsbManager;
 import android.os.Handler;
 
 import com.android.print.sdk.PrinterInstance;
+import com.capacitor.mkprinter.transport.PrinterTransport;
 
 public interface IPrinterOpertion {
 	public void open(Intent data);
@@ -17,6 +18,8 @@ public interface IPrinterOpertion {
 
 	public PrinterInstance getPrinter();
 
+	public PrinterTransport getTransport();
+
 	public void usbAutoConn(UsbManager manager);
 
 	public void btAutoConn(Context context, Handler mHandler);
@@ -0,0 +1,74 @@
+package com.capacitor.mkprinter.goojprt;
+
+import com.android.print.sdk.PrinterInstance;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import java.io.IOException;
+
+/**
+ * {@link PrinterTransport} over the vendor SDK's {@link PrinterInstance}.
+ */
+public class PrinterInstanceTransport implements PrinterTransport {
+
+    private final PrinterInstance mPrinter;
+    private byte[] mChunk = new byte[0];
+    /** Last block the SDK returned; the bytes from mUnreadOffset on did not fit the caller's buffer yet */
+    private byte[] mUnread = new byte[0];
+    private int mUnreadOffset;
+
+    public PrinterInstanceTransport(PrinterInstance printer) {
+        mPrinter = printer;
+    }
+
+    public PrinterInstance getPrinter() {
+        return mPrinter;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) throws IOException {
+        byte[] chunk = data;
+        // sendByteData only takes whole arrays, so copy slices into a reused chunk array
+        if (offset != 0 || length != data.length) {
+            if (mChunk.length != length) {
+                mChunk = new byte[length];
+            }
+            System.arraycopy(data, offset, mChunk, 0, length);
+            chunk = mChunk;
+        }
+        int n = mPrinter.sendByteData(chunk);
+        if (n < 0) {
+            throw new IOException("Failed to send data to printer");
+        }
+        return length;
+    }
+
+    /**
+     * The SDK returns whatever arrived as one block; what does not fit in
+     * {@code length} is kept for the next read
+     */
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mUnreadOffset == mUnread.length) {
+            byte[] data = mPrinter.read();
+            if (data == null) {
+                return 0;
+            }
+            mUnread = data;
+            mUnreadOffset = 0;
+        }
+        int n = Math.min(length, mUnread.length - mUnreadOffset);
+        System.arraycopy(mUnread, mUnreadOffset, buffer, offset, n);
+        mUnreadOffset += n;
+        return n;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mPrinter.isConnected();
+    }
+
+    @Override
+    public void close() {
+        mPrinter.closeConnection();
+    }
+}
@@ -0,0 +1,148 @@
+package com.capacitor.mkprinter.goojprt.ble;
+
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.hardware.usb.UsbManager;
+import android.os.Handler;
+import android.util.Log;
+
+import com.android.print.sdk.PrinterConstants.Connect;
+import com.android.print.sdk.PrinterInstance;
+import com.android.print.sdk.util.Utils;
+import com.capacitor.mkprinter.goojprt.IPrinterOpertion;
+import com.capacitor.mkprinter.goojprt.bluetooth.BluetoothDeviceList;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import java.io.IOException;
+
+/**
+ * {@link IPrinterOpertion} for printers that only speak BLE. The vendor SDK
+ * has no {@link PrinterInstance} for a GATT link, so {@link #getPrinter()} is
+ * always null and jobs go through {@link #getTransport()}.
+ *
+ * The address is saved with the vendor's connection info like a classic
+ * printer's, and also marked as BLE so a later auto-connect comes back here.
+ */
+public class BleOperation implements IPrinterOpertion {
+    private static final String LOG_TAG = "BleOperation";
+
+    private static final String PREFS_NAME = "mkprinter_ble";
+    private static final String KEY_ADDRESS = "address";
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final BluetoothAdapter mAdapter;
+    private volatile BleTransport mTransport;
+
+    public BleOperation(Context context, Handler handler) {
+        mContext = context.getApplicationContext();
+        mHandler = handler;
+        mAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
+
+    /**
+     * Connects to a BLE printer, closing the previous link, and saves it for {@link #btAutoConn}
+     *
+     * @param macAddress The printer's address
+     * @param timeoutMs Time allowed for connecting and setting up the link
+     * @throws IOException If Bluetooth is off or the printer cannot be reached
+     */
+    public BleTransport connect(String macAddress, long timeoutMs) throws IOException, InterruptedException {
+        close();
+        if (mAdapter == null || !mAdapter.isEnabled()) {
+            throw new IOException("Bluetooth is disabled or unavailable");
+        }
+        BleTransport transport = BleTransport.connect(mContext, mAdapter.getRemoteDevice(macAddress), timeoutMs);
+        mTransport = transport;
+        Utils.saveBtConnInfo(mContext, macAddress);
+        setSavedAddress(mContext, macAddress);
+        return transport;
+    }
+
+    @Override
+    public void open(Intent data) {
+        connectAsync(data.getExtras().getString(BluetoothDeviceList.EXTRA_DEVICE_ADDRESS), mHandler);
+    }
+
+    @Override
+    public void btAutoConn(Context context, Handler handler) {
+        String macAddress = getSavedAddress(context);
+        if (macAddress == null) {
+            handler.obtainMessage(Connect.NODEVICE).sendToTarget();
+            return;
+        }
+        connectAsync(macAddress, handler);
+    }
+
+    /**
+     * Connects in the background and reports SUCCESS or FAILED to the handler, like BluetoothPort
+     */
+    private void connectAsync(final String macAddress, final Handler handler) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connect(macAddress, BleTransport.DEFAULT_CONNECT_TIMEOUT_MS);
+                    handler.obtainMessage(Connect.SUCCESS).sendToTarget();
+                } catch (IOException | InterruptedException e) {
+                    Log.e(LOG_TAG, "BLE connect failed: " + e.getMessage());
+                    handler.obtainMessage(Connect.FAILED).sendToTarget();
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public void close() {
+        BleTransport transport = mTransport;
+        mTransport = null;
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    @Override
+    public PrinterInstance getPrinter() {
+        return null;
+    }
+
+    @Override
+    public PrinterTransport getTransport() {
+        return mTransport;
+    }
+
+    @Override
+    public void chooseDevice() {
+    }
+
+    @Override
+    public void usbAutoConn(UsbManager manager) {
+    }
+
+    /**
+     * @return Address of the printer last connected over BLE, or null
+     */
+    public static String getSavedAddress(Context context) {
+        return prefs(context).getString(KEY_ADDRESS, null);
+    }
+
+    /**
+     * @param macAddress The printer connected over BLE, or null once a classic printer replaced it
+     */
+    public static void setSavedAddress(Context context, String macAddress) {
+        SharedPreferences.Editor editor = prefs(context).edit();
+        if (macAddress == null) {
+            editor.remove(KEY_ADDRESS);
+        } else {
+            editor.putString(KEY_ADDRESS, macAddress);
+        }
+        editor.apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,487 @@
+package com.capacitor.mkprinter.goojprt.ble;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * {@link PrinterTransport} over a BLE GATT link, for printers that have no
+ * classic SPP.
+ *
+ * Connecting negotiates the largest ATT MTU the printer accepts and asks for
+ * a short connection interval and, where the phone has it, the 2M PHY. Jobs
+ * are cut into packets of the MTU less the ATT header, at most the 512 bytes
+ * of one attribute value, and sent with write-without-response. The GATT client takes one packet per call and
+ * hands the credit back in onCharacteristicWrite as soon as the controller
+ * has queued the packet, so packets fill every connection event while a full
+ * controller buffer holds the writer back instead of dropping data.
+ * Characteristics that only take write-with-response go through the same
+ * loop, each credit coming back with the printer's acknowledgement.
+ *
+ * Notifications from the printer are buffered for {@link #read}.
+ */
+@SuppressLint("MissingPermission")
+public class BleTransport implements PrinterTransport {
+
+    private static final String LOG_TAG = "BleTransport";
+
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+
+    /** Largest ATT MTU Android asks for; the printer answers with what it supports */
+    public static final int MAX_MTU = 517;
+    /** ATT MTU before the exchange */
+    private static final int DEFAULT_MTU = 23;
+    /** Opcode and handle in front of each written value */
+    private static final int ATT_WRITE_HEADER = 3;
+    /** Longest attribute value; a bigger write fails even when the MTU would fit it */
+    private static final int MAX_ATTRIBUTE_LENGTH = 512;
+
+    /** Time without a credit coming back before a write fails */
+    private static final long WRITE_STALL_MS = 5000;
+    /** Wait before retrying a packet the stack refused as busy */
+    private static final long BUSY_RETRY_MS = 5;
+    /** Printer replies kept for read(); status answers are a few bytes */
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private static final UUID CLIENT_CONFIG = uuid16(0x2902);
+
+    /** Data services of common BLE receipt printers, preferred over any other writable characteristic */
+    private static final List<UUID> PRINTER_SERVICES = Arrays.asList(
+            uuid16(0x18F0),
+            UUID.fromString("e7810a71-73ae-499d-8c15-faa9aef0c3f2"),
+            UUID.fromString("49535343-fe7d-4ae5-8fa9-9fafd205e455"),
+            uuid16(0xFFE0),
+            uuid16(0xFF00));
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_MTU = 1;
+    private static final int STATE_DISCOVERING = 2;
+    private static final int STATE_NOTIFY = 3;
+    private static final int STATE_READY = 4;
+    private static final int STATE_CLOSED = 5;
+
+    private final BluetoothDevice mDevice;
+    private final Object mLock = new Object();
+
+    private BluetoothGatt mGatt;
+    private BluetoothGattCharacteristic mWriteCharacteristic;
+    private int mWriteType;
+    private int mMtu = DEFAULT_MTU;
+    private int mState = STATE_CONNECTING;
+    private String mError;
+
+    /** Whether the GATT client can take the next packet */
+    private boolean mCredit = true;
+    private int mWriteStatus = BluetoothGatt.GATT_SUCCESS;
+    private byte[] mPacket = new byte[0];
+
+    private final byte[] mReadBuffer = new byte[READ_BUFFER_SIZE];
+    private int mReadStart;
+    private int mReadCount;
+
+    private BleTransport(BluetoothDevice device) {
+        mDevice = device;
+    }
+
+    /**
+     * Connects to a BLE printer and waits until the link is ready for jobs
+     *
+     * @param context The application context
+     * @param device The printer
+     * @param timeoutMs Time allowed for connecting, the MTU exchange and service discovery
+     * @throws IOException If the printer cannot be reached or has no writable characteristic
+     */
+    public static BleTransport connect(Context context, BluetoothDevice device, long timeoutMs)
+            throws IOException, InterruptedException {
+        BleTransport transport = new BleTransport(device);
+        try {
+            transport.open(context, timeoutMs);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            transport.close();
+            throw e;
+        }
+        return transport;
+    }
+
+    private void open(Context context, long timeoutMs) throws IOException, InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        BluetoothGatt gatt = mDevice.connectGatt(context, false, mCallback, BluetoothDevice.TRANSPORT_LE);
+        if (gatt == null) {
+            throw new IOException("Could not open a GATT connection to " + mDevice.getAddress());
+        }
+        synchronized (mLock) {
+            mGatt = gatt;
+            while (mState != STATE_READY) {
+                if (mError != null) {
+                    throw new IOException(mError);
+                }
+                long left = deadline - SystemClock.elapsedRealtime();
+                if (left <= 0) {
+                    throw new IOException("Timed out connecting to " + mDevice.getAddress() + " over BLE");
+                }
+                mLock.wait(left);
+            }
+        }
+        Log.d(LOG_TAG, "Connected to " + mDevice.getAddress() + ", MTU " + mMtu);
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * @return The negotiated ATT MTU
+     */
+    public int getMtu() {
+        synchronized (mLock) {
+            return mMtu;
+        }
+    }
+
+    /**
+     * @return Bytes per written packet: the MTU less the ATT header, at most one attribute value
+     */
+    public int getPacketSize() {
+        return Math.min(MAX_ATTRIBUTE_LENGTH, getMtu() - ATT_WRITE_HEADER);
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) throws IOException {
+        int packetSize = getPacketSize();
+        int written = 0;
+        try {
+            synchronized (mLock) {
+                long busyDeadline = SystemClock.elapsedRealtime() + WRITE_STALL_MS;
+                while (written < length) {
+                    awaitCredit(written, length);
+                    int n = Math.min(packetSize, length - written);
+                    // Both write calls copy the value, so one packet array serves the whole job
+                    if (mPacket.length != n) {
+                        mPacket = new byte[n];
+                    }
+                    System.arraycopy(data, offset + written, mPacket, 0, n);
+                    if (send(mPacket)) {
+                        mCredit = false;
+                        written += n;
+                        busyDeadline = SystemClock.elapsedRealtime() + WRITE_STALL_MS;
+                    } else if (SystemClock.elapsedRealtime() < busyDeadline) {
+                        // Refused while the stack is busy, e.g. with a notification setting
+                        mLock.wait(BUSY_RETRY_MS);
+                    } else {
+                        throw new IOException("Printer link refused data after " + written + " of " + length + " bytes");
+                    }
+                }
+                awaitCredit(written, length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted after " + written + " of " + length + " bytes", e);
+        }
+        return length;
+    }
+
+    /**
+     * Waits for the previous packet's credit; call with mLock held
+     */
+    private void awaitCredit(int written, int length) throws IOException, InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + WRITE_STALL_MS;
+        while (!mCredit && mState == STATE_READY) {
+            long left = deadline - SystemClock.elapsedRealtime();
+            if (left <= 0) {
+                throw new IOException("Printer stopped taking data after " + written + " of " + length + " bytes");
+            }
+            mLock.wait(left);
+        }
+        if (mState != STATE_READY) {
+            throw new IOException(mError != null ? mError : "Printer is not connected");
+        }
+        if (mWriteStatus != BluetoothGatt.GATT_SUCCESS) {
+            int status = mWriteStatus;
+            mWriteStatus = BluetoothGatt.GATT_SUCCESS;
+            throw new IOException("Write failed with GATT status " + status + " after " + written + " of "
+                    + length + " bytes");
+        }
+    }
+
+    /**
+     * @return false if the stack did not take the packet
+     */
+    @SuppressWarnings("deprecation")
+    private boolean send(byte[] packet) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return mGatt.writeCharacteristic(mWriteCharacteristic, packet, mWriteType) == BluetoothStatusCodes.SUCCESS;
+        }
+        mWriteCharacteristic.setWriteType(mWriteType);
+        mWriteCharacteristic.setValue(packet);
+        return mGatt.writeCharacteristic(mWriteCharacteristic);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        synchronized (mLock) {
+            int n = Math.min(length, mReadCount);
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = mReadBuffer[(mReadStart + i) % READ_BUFFER_SIZE];
+            }
+            mReadStart = (mReadStart + n) % READ_BUFFER_SIZE;
+            mReadCount -= n;
+            return n;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        synchronized (mLock) {
+            return mState == STATE_READY;
+        }
+    }
+
+    @Override
+    public void close() {
+        BluetoothGatt gatt;
+        synchronized (mLock) {
+            gatt = mGatt;
+            mGatt = null;
+            mState = STATE_CLOSED;
+            mLock.notifyAll();
+        }
+        if (gatt != null) {
+            gatt.disconnect();
+            gatt.close();
+        }
+    }
+
+    /**
+     * Fails the connect or write in progress; call with mLock held
+     */
+    private void fail(String error) {
+        if (mError == null) {
+            mError = error;
+        }
+        mState = STATE_CLOSED;
+        mLock.notifyAll();
+    }
+
+    /**
+     * Keeps a notification for read(), dropping the oldest bytes when full
+     */
+    private void buffer(byte[] value) {
+        if (value == null) {
+            return;
+        }
+        synchronized (mLock) {
+            for (byte b : value) {
+                if (mReadCount == READ_BUFFER_SIZE) {
+                    mReadStart = (mReadStart + 1) % READ_BUFFER_SIZE;
+                    mReadCount--;
+                }
+                mReadBuffer[(mReadStart + mReadCount) % READ_BUFFER_SIZE] = b;
+                mReadCount++;
+            }
+        }
+    }
+
+    /**
+     * Printer services first, then write-without-response over write-with-response; 0 if not writable
+     */
+    private static int rank(BluetoothGattCharacteristic characteristic) {
+        int properties = characteristic.getProperties();
+        boolean withoutResponse = (properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+        if (!withoutResponse && (properties & BluetoothGattCharacteristic.PROPERTY_WRITE) == 0) {
+            return 0;
+        }
+        boolean known = PRINTER_SERVICES.contains(characteristic.getService().getUuid());
+        return (known ? 4 : 1) + (withoutResponse ? 2 : 0);
+    }
+
+    private static boolean canNotify(BluetoothGattCharacteristic characteristic) {
+        return (characteristic.getProperties()
+                & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0;
+    }
+
+    /**
+     * Picks the characteristic jobs are written to, and one in the same service to take replies from
+     *
+     * @return The reply characteristic, or null if the printer has none
+     */
+    private BluetoothGattCharacteristic selectCharacteristics(List<BluetoothGattService> services) {
+        int best = 0;
+        for (BluetoothGattService service : services) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                int rank = rank(characteristic);
+                if (rank > best) {
+                    best = rank;
+                    mWriteCharacteristic = characteristic;
+                }
+            }
+        }
+        if (mWriteCharacteristic == null) {
+            return null;
+        }
+        mWriteType = (mWriteCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0
+                ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+        if (canNotify(mWriteCharacteristic)) {
+            return mWriteCharacteristic;
+        }
+        for (BluetoothGattCharacteristic characteristic : mWriteCharacteristic.getService().getCharacteristics()) {
+            if (canNotify(characteristic)) {
+                return characteristic;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the descriptor write could not be started
+     */
+    @SuppressWarnings("deprecation")
+    private static boolean enableNotifications(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CONFIG);
+        if (descriptor == null || !gatt.setCharacteristicNotification(characteristic, true)) {
+            return false;
+        }
+        byte[] value = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0
+                ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                : BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return gatt.writeDescriptor(descriptor, value) == BluetoothStatusCodes.SUCCESS;
+        }
+        descriptor.setValue(value);
+        return gatt.writeDescriptor(descriptor);
+    }
+
+    private static UUID uuid16(int shortUuid) {
+        return UUID.fromString(String.format(Locale.ROOT, "%08x-0000-1000-8000-00805f9b34fb", shortUuid));
+    }
+
+    /**
+     * Connected, MTU exchange, service discovery, notifications, ready. Runs on binder threads.
+     */
+    private final BluetoothGattCallback mCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            synchronized (mLock) {
+                if (newState == BluetoothProfile.STATE_CONNECTED && status == BluetoothGatt.GATT_SUCCESS) {
+                    if (mState != STATE_CONNECTING) {
+                        return;
+                    }
+                    mState = STATE_MTU;
+                    if (!gatt.requestMtu(MAX_MTU)) {
+                        Log.d(LOG_TAG, "MTU request refused, staying at " + mMtu);
+                        discoverServices(gatt);
+                    }
+                    return;
+                }
+                if (mState != STATE_CLOSED) {
+                    Log.d(LOG_TAG, "Disconnected from " + mDevice.getAddress() + ", status " + status);
+                }
+                fail(mState == STATE_READY ? "Printer disconnected" : "Could not connect to the printer (status " + status + ")");
+            }
+            gatt.close();
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            synchronized (mLock) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    mMtu = mtu;
+                }
+                if (mState == STATE_MTU) {
+                    discoverServices(gatt);
+                }
+            }
+        }
+
+        private void discoverServices(BluetoothGatt gatt) {
+            mState = STATE_DISCOVERING;
+            if (!gatt.discoverServices()) {
+                fail("Could not discover the printer's services");
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            synchronized (mLock) {
+                if (mState != STATE_DISCOVERING) {
+                    return;
+                }
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    fail("Could not discover the printer's services (status " + status + ")");
+                    return;
+                }
+                BluetoothGattCharacteristic reply = selectCharacteristics(gatt.getServices());
+                if (mWriteCharacteristic == null) {
+                    fail("The printer has no writable characteristic");
+                    return;
+                }
+                // Shortest connection interval, so every connection event can carry packets
+                gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    gatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                            BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                }
+                mState = STATE_NOTIFY;
+                if (reply == null || !enableNotifications(gatt, reply)) {
+                    mState = STATE_READY;
+                    mLock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            synchronized (mLock) {
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    Log.d(LOG_TAG, "Printer replies unavailable, status " + status);
+                }
+                if (mState == STATE_NOTIFY) {
+                    mState = STATE_READY;
+                    mLock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            synchronized (mLock) {
+                mCredit = true;
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    mWriteStatus = status;
+                }
+                mLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
+                                            byte[] value) {
+            buffer(value);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            // Only called before API 33
+            buffer(characteristic.getValue());
+        }
+    };
+}
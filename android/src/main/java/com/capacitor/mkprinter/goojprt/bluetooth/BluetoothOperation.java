@@ -12,6 +12,8 @@ import android.hardware.usb.UsbManager;
 import android.os.Handler;
 
 import com.capacitor.mkprinter.goojprt.IPrinterOpertion;
+import com.capacitor.mkprinter.goojprt.PrinterInstanceTransport;
+import com.capacitor.mkprinter.transport.PrinterTransport;
 import com.android.print.sdk.PrinterInstance;
 import com.android.print.sdk.PrinterConstants.Connect;
 import com.android.print.sdk.bluetooth.BluetoothPort;
@@ -81,6 +83,12 @@ public class BluetoothOperation implements IPrinterOpertion {
         return mPrinter;
     }
 
+    @Override
+    public PrinterTransport getTransport() {
+        PrinterInstance printer = getPrinter();
+        return printer == null ? null : new PrinterInstanceTransport(printer);
+    }
+
     public BroadcastReceiver myReceiver = new BroadcastReceiver() {
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
@@ -0,0 +1,134 @@
+package com.capacitor.mkprinter.goojprt.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.capacitor.mkprinter.pool.PoolStats;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Mutable bitmaps kept between print jobs and handed to BitmapFactory as
+ * {@code inBitmap}, so decoding an image reuses the previous image's pixel
+ * memory. A pooled bitmap can take any image whose decoded size fits its
+ * allocation, whatever its width, height or config.
+ */
+public class BitmapPool {
+
+    private static final String LOG_TAG = "BitmapPool";
+
+    /** Free bitmaps, smallest allocation first */
+    private final ArrayList<Bitmap> mFree = new ArrayList<>();
+    private final PoolStats mStats = new PoolStats();
+    private long mMaxBytes;
+    private long mPooledBytes;
+
+    /**
+     * @param maxBytes Most pixel memory to keep
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Changes the size limit, recycling bitmaps that no longer fit
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * Decodes into a pooled bitmap if one is large enough, else into a new mutable one
+     * @param data The encoded image
+     * @param options Decode options; inBitmap and inMutable are set here
+     * @param byteCount Bytes the decoded image needs
+     * @return The bitmap, or null if the data cannot be decoded
+     */
+    public Bitmap decode(byte[] data, BitmapFactory.Options options, int byteCount) {
+        Bitmap reuse = acquire(byteCount);
+        options.inMutable = true;
+        options.inBitmap = reuse;
+        if (reuse != null) {
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            } catch (IllegalArgumentException e) {
+                // The decoder could not reuse it after all, e.g. for a format without inBitmap support
+                Log.d(LOG_TAG, "Could not decode into a pooled bitmap: " + e.getMessage());
+                options.inBitmap = null;
+                release(reuse);
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * @return A free bitmap of at least {@code byteCount} bytes, or null if there is none
+     */
+    public synchronized Bitmap acquire(int byteCount) {
+        for (int i = 0; i < mFree.size(); i++) {
+            Bitmap bitmap = mFree.get(i);
+            if (bitmap.getAllocationByteCount() >= byteCount) {
+                mFree.remove(i);
+                mPooledBytes -= bitmap.getAllocationByteCount();
+                mStats.hit();
+                return bitmap;
+            }
+        }
+        mStats.miss();
+        return null;
+    }
+
+    /**
+     * Returns a bitmap to the pool, or recycles it if it cannot be kept.
+     * The caller must not touch it afterwards.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > mMaxBytes) {
+            bitmap.recycle();
+            mStats.drop();
+            return;
+        }
+        int i = 0;
+        while (i < mFree.size() && mFree.get(i).getAllocationByteCount() < size) {
+            i++;
+        }
+        mFree.add(i, bitmap);
+        mPooledBytes += size;
+        trim();
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : mFree) {
+            bitmap.recycle();
+        }
+        mFree.clear();
+        mPooledBytes = 0;
+    }
+
+    /**
+     * @param reset Also zero the hit, miss and drop counts
+     */
+    public synchronized Map<String, Number> statsSnapshot(boolean reset) {
+        Map<String, Number> snapshot = mStats.snapshot(mFree.size(), mPooledBytes, mMaxBytes);
+        if (reset) {
+            mStats.reset();
+        }
+        return snapshot;
+    }
+
+    private void trim() {
+        while (mPooledBytes > mMaxBytes) {
+            Bitmap bitmap = mFree.remove(0);
+            mPooledBytes -= bitmap.getAllocationByteCount();
+            bitmap.recycle();
+            mStats.drop();
+        }
+    }
+}
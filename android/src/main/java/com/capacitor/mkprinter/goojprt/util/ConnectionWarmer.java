@@ -0,0 +1,107 @@
+package com.capacitor.mkprinter.goojprt.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Keeps the connection to the last used printer open between print jobs.
+ *
+ * The warm-up runs on a background thread so plugin load and app resume are
+ * never blocked by Bluetooth. The connection is closed again after it has been
+ * idle for the configured period to spare the printer battery.
+ */
+public class ConnectionWarmer {
+
+    private static final String LOG_TAG = "ConnectionWarmer";
+
+    private final Context mContext;
+    private final long mIdleTimeoutMs;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private int mActiveJobs;
+
+    /**
+     * @param context The application context
+     * @param idleTimeoutMs Idle period in milliseconds before the connection is closed
+     */
+    public ConnectionWarmer(Context context, long idleTimeoutMs) {
+        mContext = context.getApplicationContext();
+        mIdleTimeoutMs = idleTimeoutMs;
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Reconnects to the printer saved by the last connection, in the background
+     */
+    public void warmUp() {
+        mHandler.post(mWarmUp);
+    }
+
+    /**
+     * Marks the start of a print job so the idle timer cannot close the connection under it
+     */
+    public synchronized void onPrintStarted() {
+        mActiveJobs++;
+        mHandler.removeCallbacks(mIdleDisconnect);
+    }
+
+    /**
+     * Marks the end of a print job and restarts the idle timer
+     */
+    public synchronized void onPrintFinished() {
+        if (mActiveJobs > 0) {
+            mActiveJobs--;
+        }
+        scheduleIdleDisconnect();
+    }
+
+    /**
+     * Stops the background thread and closes the warmed connection
+     */
+    public void release() {
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.post(mIdleDisconnect);
+        mThread.quitSafely();
+    }
+
+    private synchronized void scheduleIdleDisconnect() {
+        mHandler.removeCallbacks(mIdleDisconnect);
+        if (mActiveJobs == 0) {
+            mHandler.postDelayed(mIdleDisconnect, mIdleTimeoutMs);
+        }
+    }
+
+    private final Runnable mWarmUp = new Runnable() {
+        @Override
+        public void run() {
+            if (!PrintUtils.hasSavedPrinter(mContext)) {
+                return;
+            }
+            try {
+                PrintUtils.getCurrentTransport(mContext);
+                Log.d(LOG_TAG, "Printer connection warmed up");
+            } catch (Throwable e) {
+                Log.e(LOG_TAG, "Warm-up failed: " + e.getMessage());
+            }
+            scheduleIdleDisconnect();
+        }
+    };
+
+    private final Runnable mIdleDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ConnectionWarmer.this) {
+                if (mActiveJobs > 0) {
+                    return;
+                }
+                Log.d(LOG_TAG, "Closing idle printer connection");
+                PrintUtils.closeCurrentPrinter(mContext);
+            }
+        }
+    };
+}
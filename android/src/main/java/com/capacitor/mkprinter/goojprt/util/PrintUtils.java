@@ -9,7 +9,6 @@ import android.content.res.Resources;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Color;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Base64;
@@ -23,28 +22,148 @@ import com.android.print.sdk.PrinterConstants;
 import com.android.print.sdk.PrinterConstants.Command;
 import com.android.print.sdk.PrinterInstance;
 import com.android.print.sdk.util.Utils;
+import com.capacitor.mkprinter.barcode.BarcodeEncoder;
+import com.capacitor.mkprinter.barcode.BarcodeJob;
+import com.capacitor.mkprinter.escpos.CodePageEncoder;
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.escpos.CommandScanner;
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.MonochromeConverter;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.MonochromeScaler;
+import com.capacitor.mkprinter.escpos.PrintJobEncoder;
+import com.capacitor.mkprinter.escpos.TextRow;
+import com.capacitor.mkprinter.firmware.FirmwareUpdater;
+import com.capacitor.mkprinter.goojprt.PrinterInstanceTransport;
+import com.capacitor.mkprinter.goojprt.ble.BleOperation;
+import com.capacitor.mkprinter.goojprt.ble.BleTransport;
+import com.capacitor.mkprinter.metrics.PrintMetrics;
+import com.capacitor.mkprinter.pool.ByteArrayPool;
+import com.capacitor.mkprinter.preview.EscPosRenderer;
+import com.capacitor.mkprinter.profile.PrinterIdentity;
+import com.capacitor.mkprinter.profile.PrinterProfile;
+import com.capacitor.mkprinter.profile.PrinterProfileRegistry;
+import com.capacitor.mkprinter.profile.ProfileProber;
+import com.capacitor.mkprinter.profile.ThroughputModel;
+import com.capacitor.mkprinter.raster.GlyphCache;
+import com.capacitor.mkprinter.raster.TextRasterizer;
+import com.capacitor.mkprinter.spool.JobScheduler;
+import com.capacitor.mkprinter.transport.ChunkedWriter;
+import com.capacitor.mkprinter.transport.PartialWriteException;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+import com.capacitor.mkprinter.transport.RealTimeStatus;
+import com.capacitor.mkprinter.transport.StatusMultiplexer;
+import com.capacitor.mkprinter.zebra.LabelFormat;
+import com.capacitor.mkprinter.zebra.ZebraPrint;
+import com.capacitor.mkprinter.zebra.ZplScanner;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 public class PrintUtils {
 
+    private static final String LOG_TAG = "PrintUtils";
+
     public static BluetoothDevice mBluetoothDevice;
 
+    /** Connect over classic SPP through the vendor SDK */
+    public static final String TRANSPORT_CLASSIC = "classic";
+    /** Connect over BLE GATT */
+    public static final String TRANSPORT_BLE = "ble";
+
+    /** Connect timeout of a classic printer never connected to */
+    private static final long CLASSIC_CONNECT_TIMEOUT_MS = 5000;
+    private static final long CONNECT_POLL_MS = 100;
+
+    /** Current classic printer; set by connect calls and read by the print and status threads */
+    private static volatile PrinterInstance mPrinterInstance;
+    /** Link to the current printer when it is a BLE one; created on first use */
+    private static BleOperation mBleOperation;
+    /** Orders the jobs of all threads on the link by priority lane */
+    private static final JobScheduler mScheduler = new JobScheduler();
+    /** The current link, shared by print jobs and status queries */
+    private static StatusMultiplexer mLink;
+    /** The PrinterInstance or BleTransport {@link #mLink} wraps */
+    private static Object mLinkConnection;
+    /** Link set by {@link #useTransport}, used instead of the saved printer */
+    private static volatile PrinterTransport mInjectedTransport;
+    /** Fails jobs whose printer stopped taking data; started on first use */
+    private static PrintWatchdog mWatchdog;
+    /** Learned rates used while there is no profile registry to keep them per printer */
+    private static final ThroughputModel mUnsavedThroughput = new ThroughputModel();
+
+    private static final GlyphCache mGlyphCache = new GlyphCache(4096);
+    private static final HashMap<String, TypefaceGlyphSource> mGlyphSources = new HashMap<>();
+
+    /** Serializes text encoding, which shares mCodePages, with profile changes */
+    private static final Object mCodePageLock = new Object();
+
+    /** Tallest image, in dots, whose buffers the pools keep between jobs */
+    private static final int POOLED_IMAGE_ROWS = 2048;
+    /** Capacity taken from the pool for an image job's command buffer */
+    private static final int IMAGE_BUFFER_ROWS = 1024;
+
+    /** Packed images and command buffers; sized by the profile */
+    private static final ByteArrayPool mBytePool = new ByteArrayPool(getBytePoolSize(PrinterProfile.DEFAULT));
+    /** Decoded source images; sized by the profile */
+    private static final BitmapPool mBitmapPool = new BitmapPool(getBitmapPoolSize(PrinterProfile.DEFAULT));
+
+    private static volatile PrinterProfileRegistry mProfiles;
+
+    /**
+     * Serializes opening links, so jobs and status queries that find the link
+     * down at the same time reconnect once instead of each opening their own
+     */
+    private static final Object mConnectLock = new Object();
+
+    /** Set while a firmware image is streaming; print jobs are refused meanwhile */
+    private static volatile boolean mUpdatingFirmware;
+
+    /** Profile of the current printer; written under mCodePageLock together with mCodePages */
+    private static volatile PrinterProfile mProfile = PrinterProfile.DEFAULT;
+    private static CodePageEncoder mCodePages = PrinterProfile.DEFAULT.newCodePageEncoder();
+
     /**
      * Connects to a printer using the provided MAC address
      *
      * @param context The application context
      * @param macAddress The MAC address of the printer to connect to
-     * @return PrinterInstance The connected printer instance
+     * @param transport {@link #TRANSPORT_CLASSIC}, {@link #TRANSPORT_BLE}, or null to go by the device type
+     * @return The link to the connected printer
      */
-    public static PrinterInstance connectPrinter(Context context, String macAddress) throws RuntimeException, InterruptedException {
+    public static PrinterTransport connectPrinter(Context context, String macAddress, String transport)
+            throws RuntimeException, InterruptedException {
+        PrintMetrics metrics = PrintMetrics.get();
+        metrics.increment(PrintMetrics.COUNTER_CONNECT_ATTEMPTS);
+        long start = PrintMetrics.start();
+        try {
+            PrinterTransport link;
+            synchronized (mConnectLock) {
+                if (transport == null ? isBleOnly(macAddress) : TRANSPORT_BLE.equals(transport)) {
+                    link = share(bleConnect(context, macAddress));
+                } else {
+                    link = share(btConnect(context, macAddress));
+                }
+            }
+            metrics.stop(PrintMetrics.STAGE_CONNECT, start);
+            return link;
+        } catch (RuntimeException | InterruptedException e) {
+            metrics.increment(PrintMetrics.COUNTER_CONNECT_FAILURES);
+            throw e;
+        }
+    }
+
+    private static PrinterInstance btConnect(Context context, String macAddress) throws InterruptedException {
         PrinterInstance printerInstance;
-        clearBluetoothDeviceInfo(context);
+        closeCurrentPrinter(context);
         File file = new File(context.getFilesDir(), "btinfo.properties");
         if (file.exists()) {
             file.delete();
@@ -63,6 +182,7 @@ public class PrintUtils {
         Handler handler = new Handler(Looper.getMainLooper());
 
         // Use BluetoothPort to establish the connection and get PrinterInstance
+        long start = System.nanoTime();
         printerInstance = bluetoothPort.btConnnect(context, macAddress, bluetoothAdapter, handler);
 
         // Add explicit check for null printerInstance, which indicates connection failure
@@ -70,46 +190,290 @@ public class PrintUtils {
             throw new RuntimeException("Failed to connect to printer: Connection attempt returned null");
         }
 
-        // Loop to check if the printer is connected, with a timeout 5s
-        int attempts = 0;
-        while (!printerInstance.isConnected() && attempts < 10) {
-            Thread.sleep(500);
-            attempts++;
-        }
-
-        // If the printer is still not connected after 10 attempts, throw an exception
-        if (!printerInstance.isConnected()) {
-            throw new RuntimeException("Failed to connect to printer: Printer instance created but not connected");
-        }
+        awaitConnected(printerInstance, macAddress, start);
 
         // Save printer name and MAC address
         mBluetoothDevice = bluetoothAdapter.getRemoteDevice(macAddress);
 
         // Save connection info for potential future auto-reconnect
         Utils.saveBtConnInfo(context, macAddress);
+        BleOperation.setSavedAddress(context, null);
 
+        loadProfile(macAddress, new PrinterInstanceTransport(printerInstance));
+        mPrinterInstance = printerInstance;
         return printerInstance;
     }
 
+    /**
+     * Waits for a classic connection to come up, as long as this printer has
+     * needed to connect before but at least 5 s, and learns how long it took
+     * @param start When the connect started, from {@link System#nanoTime}
+     * @throws RuntimeException If the printer did not connect in time
+     */
+    private static void awaitConnected(PrinterInstance printerInstance, String macAddress, long start)
+            throws InterruptedException {
+        ThroughputModel throughput = getThroughput(macAddress);
+        long timeoutMs = throughput.getConnectTimeoutMs(CLASSIC_CONNECT_TIMEOUT_MS);
+        long deadline = start + timeoutMs * 1000000L;
+        while (!printerInstance.isConnected() && System.nanoTime() - deadline < 0) {
+            Thread.sleep(CONNECT_POLL_MS);
+        }
+        boolean connected = printerInstance.isConnected();
+        // A timed-out connect counts as one that took the whole timeout, so the next attempt waits longer
+        throughput.recordConnect(connected ? (System.nanoTime() - start) / 1000000L : timeoutMs);
+        saveThroughput(macAddress);
+        if (!connected) {
+            throw new RuntimeException("Failed to connect to printer: Printer instance created but not connected after "
+                    + timeoutMs + " ms");
+        }
+    }
+
+    /**
+     * Connects to a BLE printer; it is saved for auto-reconnect like a classic one
+     */
+    private static BleTransport bleConnect(Context context, String macAddress) throws InterruptedException {
+        closeCurrentPrinter(context);
+        ThroughputModel throughput = getThroughput(macAddress);
+        BleTransport transport;
+        long start = System.nanoTime();
+        try {
+            transport = getBleOperation(context).connect(macAddress,
+                    throughput.getConnectTimeoutMs(BleTransport.DEFAULT_CONNECT_TIMEOUT_MS));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to connect to printer: " + e.getMessage(), e);
+        }
+        throughput.recordConnect((System.nanoTime() - start) / 1000000L);
+        saveThroughput(macAddress);
+        mBluetoothDevice = transport.getDevice();
+        loadProfile(macAddress, transport);
+        return transport;
+    }
+
+    private static synchronized BleOperation getBleOperation(Context context) {
+        if (mBleOperation == null) {
+            mBleOperation = new BleOperation(context, new Handler(Looper.getMainLooper()));
+        }
+        return mBleOperation;
+    }
+
+    /**
+     * Closes the BLE link, if any, without forgetting the printer
+     */
+    private static void closeBlePrinter() {
+        BleOperation operation = mBleOperation;
+        if (operation != null) {
+            operation.close();
+        }
+    }
+
+    /**
+     * @return true if the device is known to support only BLE; unknown devices are tried over classic SPP
+     */
+    private static boolean isBleOnly(String macAddress) {
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (bluetoothAdapter == null || !BluetoothAdapter.checkBluetoothAddress(macAddress)) {
+            return false;
+        }
+        try {
+            return bluetoothAdapter.getRemoteDevice(macAddress).getType() == BluetoothDevice.DEVICE_TYPE_LE;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
     /**
      * Disconnects and closes the printer connection
      * @param context The application context
      */
     public static void disconnectPrinter(Context context) throws InterruptedException {
+        if (isBleSaved(context)) {
+            closeBlePrinter();
+            clearBluetoothDeviceInfo(context);
+            return;
+        }
         PrinterInstance printerInstance = getCurrentPrinter(context);
         if (printerInstance != null && printerInstance.isConnected()) {
             printerInstance.closeConnection();
             clearBluetoothDeviceInfo(context);
         }
+        mPrinterInstance = null;
+    }
+
+    /**
+     * Closes the cached connection, if any, without reconnecting first
+     * @param context The application context
+     */
+    public static void closeCurrentPrinter(Context context) {
+        PrinterInstance printerInstance = mPrinterInstance;
+        mPrinterInstance = null;
+        if (printerInstance != null && printerInstance.isConnected()) {
+            printerInstance.closeConnection();
+        }
+        closeBlePrinter();
+        clearBluetoothDeviceInfo(context);
+    }
+
+    /**
+     * Checks whether a printer MAC address was saved by a previous connection
+     * @param context The application context
+     * @return true if {@link #getCurrentPrinter(Context)} has a printer to reconnect to
+     */
+    public static boolean hasSavedPrinter(Context context) {
+        Properties pro = Utils.getBtConnInfo(context);
+        return pro != null && pro.getProperty("mac") != null && !pro.getProperty("mac").isEmpty();
+    }
+
+    /**
+     * Returns the link to the last connected printer, reconnecting over classic SPP or BLE as it was connected
+     * @param context The application context
+     * @throws RuntimeException If the connection fails
+     * @return The link to the printer
+     */
+    public static PrinterTransport getCurrentTransport(Context context) throws InterruptedException {
+        PrinterTransport injected = mInjectedTransport;
+        if (injected != null) {
+            return share(injected);
+        }
+        if (!isBleSaved(context)) {
+            return share(getCurrentPrinter(context));
+        }
+        BleOperation operation = getBleOperation(context);
+        PrinterTransport transport = operation.getTransport();
+        if (transport != null && transport.isConnected() && mBluetoothDevice != null) {
+            return share(transport);
+        }
+
+        synchronized (mConnectLock) {
+            transport = operation.getTransport();
+            if (transport != null && transport.isConnected() && mBluetoothDevice != null) {
+                return share(transport);
+            }
+
+            PrintMetrics metrics = PrintMetrics.get();
+            metrics.increment(PrintMetrics.COUNTER_CONNECT_ATTEMPTS);
+            long start = PrintMetrics.start();
+            try {
+                transport = bleConnect(context, BleOperation.getSavedAddress(context));
+                metrics.stop(PrintMetrics.STAGE_CONNECT, start);
+                return share(transport);
+            } catch (RuntimeException | InterruptedException e) {
+                metrics.increment(PrintMetrics.COUNTER_CONNECT_FAILURES);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Prints on a link opened outside the plugin, e.g. a simulated printer,
+     * instead of the saved printer. Jobs and status queries share it as they
+     * share a connected printer's link.
+     * @param transport The link, or null to go back to the saved printer
+     * @param profile The profile to encode jobs for
+     * @return The shared link to print on, or null
+     */
+    public static PrinterTransport useTransport(PrinterTransport transport, PrinterProfile profile) {
+        mInjectedTransport = transport;
+        useProfile(profile);
+        return transport == null ? null : share(transport);
+    }
+
+    private static PrinterTransport share(PrinterInstance printer) {
+        synchronized (PrintUtils.class) {
+            if (mLinkConnection != printer) {
+                mLink = new StatusMultiplexer(new PrinterInstanceTransport(printer));
+                mLinkConnection = printer;
+            }
+            return mLink;
+        }
+    }
+
+    private static PrinterTransport share(PrinterTransport transport) {
+        synchronized (PrintUtils.class) {
+            if (mLinkConnection != transport) {
+                mLink = new StatusMultiplexer(transport);
+                mLinkConnection = transport;
+            }
+            return mLink;
+        }
+    }
+
+    /**
+     * Asks the current printer for its real-time status. The requests go out
+     * between the commands of a job being sent, so the job is not held up.
+     * @param context The application context
+     * @param timeoutMs How long to wait for the answers
+     * @return The printer's answers
+     * @throws IOException If a firmware update is running or the requests could not be sent
+     */
+    public static RealTimeStatus getPrinterStatus(Context context, long timeoutMs)
+            throws IOException, InterruptedException {
+        checkNotUpdating();
+        PrinterTransport link = getCurrentTransport(context);
+        return ((StatusMultiplexer) link).queryStatus(timeoutMs);
     }
 
     /**
-     * Attempts to auto-connect to the last connected printer
+     * @return true if the saved printer was last connected over BLE
+     */
+    private static boolean isBleSaved(Context context) {
+        Properties pro = Utils.getBtConnInfo(context);
+        String macAddress = pro == null ? null : pro.getProperty("mac");
+        return macAddress != null && macAddress.equals(BleOperation.getSavedAddress(context));
+    }
+
+    /**
+     * Attempts to auto-connect to the last connected printer over classic SPP
      * @param context The application context
      * @throws RuntimeException If the connection fails
      * @return PrinterInstance The connected printer instance
      */
     public static PrinterInstance getCurrentPrinter(Context context) throws InterruptedException {
+        PrinterInstance printerInstance = mPrinterInstance;
+
+        // Reuse the open connection (e.g. one pre-warmed by ConnectionWarmer)
+        if (printerInstance != null && printerInstance.isConnected() && mBluetoothDevice != null) {
+            return printerInstance;
+        }
+
+        synchronized (mConnectLock) {
+            // Another thread may have reconnected while this one waited
+            printerInstance = mPrinterInstance;
+            if (printerInstance != null && printerInstance.isConnected() && mBluetoothDevice != null) {
+                return printerInstance;
+            }
+
+            PrintMetrics metrics = PrintMetrics.get();
+            metrics.increment(PrintMetrics.COUNTER_CONNECT_ATTEMPTS);
+            long start = PrintMetrics.start();
+            try {
+                printerInstance = btAutoConnect(context);
+                metrics.stop(PrintMetrics.STAGE_CONNECT, start);
+                return printerInstance;
+            } catch (RuntimeException | InterruptedException e) {
+                metrics.increment(PrintMetrics.COUNTER_CONNECT_FAILURES);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reconnects to the saved classic printer; the caller holds mConnectLock
+     * @throws RuntimeException If no printer was saved or the connection fails
+     */
+    private static PrinterInstance btAutoConnect(Context context) throws InterruptedException {
+        Properties pro = Utils.getBtConnInfo(context);
+        String macAddress = pro == null ? null : pro.getProperty("mac");
+        if (macAddress == null || macAddress.isEmpty()) {
+            throw new RuntimeException("Failed to connect to printer: no saved printer, connect one with connectPrinter");
+        }
+
+        // The link being replaced is down or half set up; close it so its socket is not leaked
+        PrinterInstance replaced = mPrinterInstance;
+        mPrinterInstance = null;
+        if (replaced != null) {
+            replaced.closeConnection();
+        }
+
         PrinterInstance printerInstance;
         clearBluetoothDeviceInfo(context);
 
@@ -117,6 +481,7 @@ public class PrintUtils {
         BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
 
         // Use btAutoConn before create new connection
+        long start = System.nanoTime();
         printerInstance = bluetoothPort.btAutoConn(context, bluetoothAdapter, new Handler(Looper.getMainLooper()));
 
         // Check if printerInstance is null
@@ -124,23 +489,175 @@ public class PrintUtils {
             throw new RuntimeException("Failed to connect to printer: Auto-connection attempt returned null");
         }
 
-        // Loop to check if the printer is connected, with a timeout 5s
-        int attempts = 0;
-        while (!printerInstance.isConnected() && attempts < 10) {
-            Thread.sleep(500);
-            attempts++;
+        awaitConnected(printerInstance, macAddress, start);
+
+        // Save printer name and MAC address
+        mBluetoothDevice = bluetoothAdapter.getRemoteDevice(macAddress);
+
+        loadProfile(macAddress, new PrinterInstanceTransport(printerInstance));
+        mPrinterInstance = printerInstance;
+        return printerInstance;
+    }
+
+    /**
+     * Sets where printer profiles come from and selects the profile of the saved printer
+     * @param context The application context
+     * @param registry Configured profiles and cached probe results
+     */
+    public static void setProfileRegistry(Context context, PrinterProfileRegistry registry) {
+        mProfiles = registry;
+        Properties pro = Utils.getBtConnInfo(context);
+        useProfile(registry.getProfile(pro == null ? null : pro.getProperty("mac")));
+    }
+
+    /**
+     * @return The profile of the current printer, or the default one before the first connect
+     */
+    public static PrinterProfile getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * @param macAddress The printer, or null for the current one
+     * @return What was learned of how fast the printer prints and connects
+     */
+    public static ThroughputModel getThroughput(String macAddress) {
+        if (macAddress == null) {
+            macAddress = getCurrentAddress();
+        }
+        PrinterProfileRegistry registry = mProfiles;
+        return registry == null || macAddress == null ? mUnsavedThroughput : registry.getThroughput(macAddress);
+    }
+
+    /**
+     * Predicts how long the current printer takes to print a job, from the jobs it printed before
+     * @param bytes Bytes in the job
+     * @param rows Dot rows the job feeds
+     * @return Milliseconds
+     */
+    public static long estimateMillis(long bytes, long rows) {
+        return getThroughput(null).predictMillis(bytes, rows, mProfile);
+    }
+
+    /**
+     * Predicts how long the current printer takes to print an encoded job
+     * @param data The job's command bytes
+     * @param length Number of bytes in data
+     * @return Milliseconds
+     */
+    public static long estimateJob(byte[] data, int length) {
+        return estimateMillis(length, CommandScanner.countRows(data, 0, length));
+    }
+
+    /**
+     * @return How long a job of the lane sent now would wait for the jobs ahead of it, in milliseconds
+     */
+    public static long getBacklogMs(JobScheduler.Lane lane) {
+        return mScheduler.getBacklogMs(lane);
+    }
+
+    private static void saveThroughput(String macAddress) {
+        PrinterProfileRegistry registry = mProfiles;
+        if (registry == null || macAddress == null) {
+            return;
+        }
+        try {
+            registry.saveThroughput(macAddress);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not save the printer throughput: " + e.getMessage());
+        }
+    }
+
+    private static String getCurrentAddress() {
+        BluetoothDevice device = mBluetoothDevice;
+        return device == null ? null : device.getAddress();
+    }
+
+    /**
+     * Probes the printer on its first connect and selects its profile
+     */
+    private static void loadProfile(String macAddress, PrinterTransport transport) throws InterruptedException {
+        PrinterProfileRegistry registry = mProfiles;
+        if (registry == null || macAddress == null) {
+            return;
         }
+        if (!registry.hasOverride(macAddress) && registry.getIdentity(macAddress) == null) {
+            try {
+                PrinterIdentity identity = ProfileProber.probe(transport,
+                        getDeviceName(), ProfileProber.DEFAULT_TIMEOUT_MS);
+                registry.putIdentity(macAddress, identity);
+                Log.d(LOG_TAG, "Probed " + macAddress + ": " + identity);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not probe the printer: " + e.getMessage());
+            }
+        }
+        useProfile(registry.getProfile(macAddress));
+    }
 
-        // If the printer is still not connected after 10 attempts, throw an exception
-        if (!printerInstance.isConnected()) {
-            throw new RuntimeException("Failed to connect to printer: Printer instance created but not connected");
+    private static void useProfile(PrinterProfile profile) {
+        synchronized (mCodePageLock) {
+            if (!profile.equals(mProfile)) {
+                Log.d(LOG_TAG, "Using " + profile);
+                mProfile = profile;
+                mCodePages = profile.newCodePageEncoder();
+                mBytePool.setMaxBytes(getBytePoolSize(profile));
+                mBitmapPool.setMaxBytes(getBitmapPoolSize(profile));
+            }
         }
+    }
 
-        // Save printer name and MAC address
-        Properties pro = Utils.getBtConnInfo(context);
-        mBluetoothDevice = bluetoothAdapter.getRemoteDevice(pro.getProperty("mac"));
+    /**
+     * A packed image, its command buffer and one more job's buffer, for images up to POOLED_IMAGE_ROWS
+     */
+    private static long getBytePoolSize(PrinterProfile profile) {
+        return 3L * MonochromeImage.bytesPerRow(profile.getWidthDots()) * POOLED_IMAGE_ROWS;
+    }
 
-        return printerInstance;
+    /**
+     * One ARGB_8888 source image; subsampled decodes are under twice the printer width
+     */
+    private static long getBitmapPoolSize(PrinterProfile profile) {
+        return 4L * 2 * profile.getWidthDots() * POOLED_IMAGE_ROWS;
+    }
+
+    /**
+     * @return A command buffer backed by a pooled array; give it back with {@link #recycleBuffer}
+     */
+    public static CommandBuffer obtainBuffer(int capacity) {
+        return new CommandBuffer(mBytePool.acquire(capacity));
+    }
+
+    /**
+     * @return A pooled command buffer large enough for most image jobs
+     */
+    public static CommandBuffer obtainImageBuffer() {
+        return obtainBuffer(MonochromeImage.bytesPerRow(mProfile.getWidthDots()) * IMAGE_BUFFER_ROWS);
+    }
+
+    /**
+     * Returns a buffer's array to the pool once its job is sent or spooled
+     */
+    public static void recycleBuffer(CommandBuffer buffer) {
+        mBytePool.release(buffer.array());
+    }
+
+    /**
+     * @param reset Also zero the hit, miss and drop counts
+     * @return Statistics of the byte array pool ("buffers") and the bitmap pool ("bitmaps")
+     */
+    public static Map<String, Map<String, Number>> getPoolStats(boolean reset) {
+        Map<String, Map<String, Number>> stats = new LinkedHashMap<>();
+        stats.put("buffers", mBytePool.statsSnapshot(reset));
+        stats.put("bitmaps", mBitmapPool.statsSnapshot(reset));
+        return stats;
+    }
+
+    private static String getDeviceName() {
+        try {
+            return mBluetoothDevice == null ? null : mBluetoothDevice.getName();
+        } catch (SecurityException e) {
+            return null;
+        }
     }
 
    /**
@@ -164,102 +681,753 @@ public class PrintUtils {
    }
 
 
-    public static void printText(PrinterInstance mPrinter, String text) {
-        mPrinter.init();
-        mPrinter.printText(text);
-        mPrinter.setPrinter(Command.PRINT_AND_WAKE_PAPER_BY_LINE, 2);
+    /**
+     * Prints plain text in the printer's own font
+     * @param printer The link to the printer
+     * @param text The text to print
+     */
+    public static void printText(PrinterTransport printer, String text) throws IOException, InterruptedException {
+        printRows(printer, Collections.singletonList(new TextRow(text)), null, JobFinish.DEFAULT,
+                JobScheduler.Lane.NORMAL);
+    }
+
+    /**
+     * Prints text rows in the printer's own font, with native alignment, size and underline.
+     * Lines with characters outside the printer's code pages are rasterized instead.
+     * @param printer The link to the printer
+     * @param rows The rows to print
+     * @param fontFamily The font family for rasterized lines, or null for the system default
+     * @param finish Feed, cut and cash drawer after the rows
+     * @param lane Priority of the job
+     */
+    public static void printRows(PrinterTransport printer, List<TextRow> rows, String fontFamily, JobFinish finish,
+                                 JobScheduler.Lane lane) throws IOException, InterruptedException {
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
+        try {
+            // Each job encodes into its own buffer and writes without holding mCodePageLock: a bulk job
+            // yields the link at its cuts to jobs that must be able to encode meanwhile
+            CommandBuffer buffer = obtainBuffer(4096);
+            try {
+                encodeRows(rows, fontFamily, finish, buffer);
+                writeJob(printer, buffer, lane);
+            } finally {
+                recycleBuffer(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        } finally {
+            metrics.stop(PrintMetrics.STAGE_PRINT_TEXT, start);
+        }
+    }
+
+    /**
+     * Encodes a text job as {@link #printRows} prints it
+     * @param rows The rows to print
+     * @param fontFamily The font family for rasterized lines, or null for the system default
+     * @param finish Feed, cut and cash drawer after the rows
+     * @param out The buffer to append the job to
+     */
+    public static void encodeRows(List<TextRow> rows, String fontFamily, JobFinish finish, CommandBuffer out) {
+        long start = PrintMetrics.start();
+        synchronized (mCodePageLock) {
+            PrinterProfile profile = mProfile;
+            PrintJobEncoder.encodeRows(profile.configure(new EscPosEncoder(out)), mCodePages,
+                    newRasterizer(profile, fontFamily), rows, finish);
+        }
+        PrintMetrics.get().stop(PrintMetrics.STAGE_ENCODE, start);
+    }
+
+    /**
+     * Prints text rows rendered natively as raster lines, for scripts the printer has no code page for
+     * @param printer The link to the printer
+     * @param rows The rows to print
+     * @param fontFamily The font family to render with, or null for the system default
+     * @param finish Feed, cut and cash drawer after the rows
+     * @param lane Priority of the job
+     */
+    public static void printRasterText(PrinterTransport printer, List<TextRow> rows, String fontFamily,
+                                       JobFinish finish, JobScheduler.Lane lane)
+            throws IOException, InterruptedException {
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
+        try {
+            CommandBuffer buffer = obtainBuffer(4096);
+            try {
+                encodeRasterRows(rows, fontFamily, finish, buffer);
+                writeJob(printer, buffer, lane);
+            } finally {
+                recycleBuffer(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        } finally {
+            metrics.stop(PrintMetrics.STAGE_PRINT_TEXT, start);
+        }
+    }
+
+    /**
+     * Encodes a rasterized text job as {@link #printRasterText} prints it
+     * @param rows The rows to print
+     * @param fontFamily The font family to render with, or null for the system default
+     * @param finish Feed, cut and cash drawer after the rows
+     * @param out The buffer to append the job to
+     */
+    public static void encodeRasterRows(List<TextRow> rows, String fontFamily, JobFinish finish, CommandBuffer out) {
+        long start = PrintMetrics.start();
+        PrinterProfile profile = mProfile;
+        PrintJobEncoder.encodeRasterRows(profile.configure(new EscPosEncoder(out)), newRasterizer(profile, fontFamily), rows,
+                finish);
+        PrintMetrics.get().stop(PrintMetrics.STAGE_RASTERIZE, start);
+    }
+
+    /**
+     * Prints a barcode, QR code or PDF417 symbol using the printer's own barcode commands.
+     * QR codes are built in the plugin and sent as raster rows when the printer has no GS ( k.
+     * @param printer The link to the printer
+     * @param job The barcode to print
+     * @param finish Feed, cut and cash drawer after the barcode
+     * @param lane Priority of the job
+     * @throws IllegalArgumentException If the data does not fit the symbology
+     */
+    public static void printBarcode(PrinterTransport printer, BarcodeJob job, JobFinish finish, JobScheduler.Lane lane)
+            throws IOException, InterruptedException {
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
+        try {
+            CommandBuffer buffer = obtainBuffer(4096);
+            try {
+                encodeBarcode(job, finish, buffer);
+                writeJob(printer, buffer, lane);
+            } finally {
+                recycleBuffer(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        } finally {
+            metrics.stop(PrintMetrics.STAGE_PRINT_BARCODE, start);
+        }
+    }
+
+    /**
+     * Encodes a barcode job as {@link #printBarcode} prints it
+     * @param job The barcode to print
+     * @param finish Feed, cut and cash drawer after the barcode
+     * @param out The buffer to append the job to
+     * @throws IllegalArgumentException If the data does not fit the symbology
+     */
+    public static void encodeBarcode(BarcodeJob job, JobFinish finish, CommandBuffer out) {
+        long start = PrintMetrics.start();
+        PrinterProfile profile = mProfile;
+        BarcodeEncoder.encode(profile.configure(new EscPosEncoder(out)), job,
+                profile.has(PrinterProfile.Capability.NATIVE_2D_BARCODES), profile.getWidthDots(), finish);
+        PrintMetrics.get().stop(PrintMetrics.STAGE_ENCODE, start);
     }
 
     /**
      * Prints an image to the printer
-     * @param mPrinter The printer instance to use for printing
+     * @param printer The link to the printer
      * @param base64Data The base64 encoded image string.
+     * @param finish Feed, cut and cash drawer after the image
+     * @param lane Priority of the job
      * @throws RuntimeException If the image fails to load or print
      */
-    public static void printImage(PrinterInstance mPrinter, String base64Data) throws IOException, InterruptedException {
-        mPrinter.init();
+    public static void printImage(PrinterTransport printer, String base64Data, JobFinish finish,
+                                  JobScheduler.Lane lane) throws IOException, InterruptedException {
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
+        try {
+            CommandBuffer buffer = obtainImageBuffer();
+            try {
+                encodeImage(base64Data, finish, buffer);
+                writeJob(printer, buffer, lane);
+            } finally {
+                recycleBuffer(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        } finally {
+            metrics.stop(PrintMetrics.STAGE_PRINT_IMAGE, start);
+        }
+    }
+
+    /**
+     * Decodes, scales and thresholds an image and encodes it as {@link #printImage} prints it
+     * @param base64Data The base64 encoded image string.
+     * @param finish Feed, cut and cash drawer after the image
+     * @param out The buffer to append the job to
+     * @throws IOException If the image cannot be decoded
+     */
+    public static void encodeImage(String base64Data, JobFinish finish, CommandBuffer out) throws IOException {
         //Bitmap bitmapOrigin = BitmapFactory.decodeStream(resources.getAssets().open("receipt_2items.png"));
-        Bitmap bitmapOrigin = convertBase64ToBitmap(base64Data);
-        Bitmap bitmap1 = prepareImageForPrinting(bitmapOrigin);
-        mPrinter.printImage(bitmap1);
-        mPrinter.printText("\n\n\n\n");
+        PrinterProfile profile = mProfile;
+        encodeImage(profile, decodeForPrinting(base64Data, profile.getWidthDots()), finish, out);
     }
 
     /**
-     * Prints an update to the printer
-     * @param resources The application resources
-     * @param mPrinter The printer instance to use for printing
-     * @param filePath The path to the update file
+     * Prints an image whose pixels are already decoded, scaled to the printer width
+     * @param printer The link to the printer
+     * @param pixels The image's rows, top to bottom
+     * @param width Width of the image in pixels
+     * @param height Height of the image in pixels
+     * @param finish Feed, cut and cash drawer after the image
+     * @param lane Priority of the job
      */
-    public static void printUpdate(Resources resources, PrinterInstance mPrinter, String filePath) {
+    public static void printImage(PrinterTransport printer, MonochromeScaler.RowSource pixels, int width, int height,
+                                  JobFinish finish, JobScheduler.Lane lane) throws IOException, InterruptedException {
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
         try {
+            CommandBuffer buffer = obtainImageBuffer();
+            try {
+                PrinterProfile profile = mProfile;
+                MonochromeImage image = scaleForPrinting(pixels, width, height, profile.getWidthDots(),
+                        MonochromeScaler.scaledHeight(width, height, profile.getWidthDots()));
+                encodeImage(profile, image, finish, buffer);
+                writeJob(printer, buffer, lane);
+            } finally {
+                recycleBuffer(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        } finally {
+            metrics.stop(PrintMetrics.STAGE_PRINT_IMAGE, start);
+        }
+    }
 
-            FileInputStream fis = new FileInputStream(new File(filePath));
-            //InputStream is = resources.getAssets().open("PT8761-HT-BAT-9170.bin");
-            int length = fis.available();
-            byte[] fileByte = new byte[length];
-            fis.read(fileByte);
-            mPrinter.init();
-            mPrinter.updatePrint(fileByte);
-            fis.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Encodes a scaled image and gives its pooled data back
+     */
+    private static void encodeImage(PrinterProfile profile, MonochromeImage image, JobFinish finish,
+                                    CommandBuffer out) {
+        try {
+            long encodeStart = PrintMetrics.start();
+            out.ensureCapacity(out.size() + image.getBytesPerRow() * image.getHeight() + 64);
+            PrintJobEncoder.encodeImage(profile.configure(new EscPosEncoder(out)), image, finish);
+            PrintMetrics.get().stop(PrintMetrics.STAGE_ENCODE, encodeStart);
+        } finally {
+            mBytePool.release(image.getData());
         }
     }
 
     /**
-     * Converts a base64 encoded string to a Bitmap
+     * Decodes an image for a label graphic
      * @param base64Data The base64 encoded image string
-     * @return The decoded Bitmap
+     * @param widthDots Printed width in dots, or 0 for the image's own width
+     * @return The packed 1-bit image; give its data back with {@link #recycleImage}
+     * @throws IOException If the image cannot be decoded
+     */
+    public static MonochromeImage decodeGraphic(String base64Data, int widthDots) throws IOException {
+        return decodeForPrinting(base64Data, widthDots);
+    }
+
+    /**
+     * Returns the pooled data of an image from {@link #decodeGraphic}
+     */
+    public static void recycleImage(MonochromeImage image) {
+        mBytePool.release(image.getData());
+    }
+
+    /**
+     * Sends raw command bytes (ESC/POS, ZPL, ...) from base64, untouched
+     * @param printer The link to the printer
+     * @param base64Data The base64 encoded bytes
+     * @param lane Priority of the job; a bulk job gives way to more urgent ones at each cut
+     */
+    public static void printRaw(PrinterTransport printer, String base64Data, JobScheduler.Lane lane)
+            throws IOException, InterruptedException {
+        long start = PrintMetrics.start();
+        try {
+            printEncoded(printer, decodeRaw(base64Data), lane);
+        } finally {
+            PrintMetrics.get().stop(PrintMetrics.STAGE_PRINT_RAW, start);
+        }
+    }
+
+    /**
+     * Streams raw command bytes to the printer a chunk at a time, so large jobs never sit in memory whole
+     * @param printer The link to the printer
+     * @param in The bytes; not closed
+     * @param lane Priority of the job; a bulk job gives way to more urgent ones at each cut
+     * @return Number of bytes sent
+     */
+    public static long printRaw(PrinterTransport printer, InputStream in, JobScheduler.Lane lane)
+            throws IOException, InterruptedException {
+        checkNotUpdating();
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
+        String macAddress = getCurrentAddress();
+        ThroughputModel throughput = getThroughput(macAddress);
+        Object lease = mScheduler.acquire(lane);
+        PrintWatchdog.Timer timer = getWatchdog().watch(printer);
+        try {
+            ChunkedWriter writer = new ChunkedWriter(printer, mProfile.getChunkSize());
+            CommandScanner scanner = new CommandScanner();
+            // Set if the stream turns out to be ZPL, which is split at label ends instead of cuts
+            ZplScanner labels = null;
+            byte[] chunk = new byte[writer.getChunkSize()];
+            long sent = 0;
+            int n;
+            while ((n = in.read(chunk, 0, chunk.length)) >= 0) {
+                if (sent == 0 && n > 0 && ZplScanner.isZpl(chunk, 0, n)) {
+                    labels = new ZplScanner();
+                    beginOpaqueJob(printer);
+                }
+                int written = 0;
+                while (written < n) {
+                    long rows = scanner.getRows();
+                    int cut = labels != null ? labels.scan(chunk, written, n - written)
+                            : scanner.scan(chunk, written, n - written);
+                    int end = cut < 0 ? n : cut;
+                    // The stream's length is unknown, so each piece gets the time it should take
+                    timer.start(ThroughputModel.getPrintTimeoutMs(
+                            throughput.predictMillis(end - written, scanner.getRows() - rows, mProfile)));
+                    try {
+                        writer.write(chunk, written, end - written);
+                    } catch (IOException e) {
+                        throw failed(timer, writer, -1, e);
+                    } finally {
+                        timer.pause();
+                    }
+                    written = end;
+                    if (cut >= 0 && lane == JobScheduler.Lane.BULK) {
+                        try {
+                            mScheduler.yieldTo(lane, lease);
+                        } catch (InterruptedException e) {
+                            if (writer.getBytesWritten() > 0) {
+                                throw interruptedAfter(writer, -1, e);
+                            }
+                            throw e;
+                        }
+                        if (labels != null) {
+                            beginOpaqueJob(printer);
+                        }
+                    }
+                }
+                sent += n;
+            }
+            learn(macAddress, throughput, sent, scanner.getRows(), timer.getActiveMs());
+            metrics.increment(PrintMetrics.COUNTER_JOBS_PRINTED);
+            return sent;
+        } catch (IOException | RuntimeException e) {
+            metrics.increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        } finally {
+            endJob(printer);
+            mScheduler.release(lease);
+            metrics.stop(PrintMetrics.STAGE_PRINT_RAW, start);
+        }
+    }
+
+    /**
+     * Prints a batch of ZPL labels, storing their format on the printer first unless it is already stored there
+     * @param printer The link to the printer
+     * @param format The label layout
+     * @param labels Values of the variable fields of each label
+     * @param copies How many of each label to print
+     * @param lane Priority of the job
+     * @return true if the format was sent with the labels
+     * @throws IllegalArgumentException If a label names a field the format does not have
+     */
+    public static boolean printLabels(PrinterTransport printer, LabelFormat format, List<Map<String, String>> labels,
+                                      int copies, JobScheduler.Lane lane) throws IOException, InterruptedException {
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
+        try {
+            CommandBuffer buffer = obtainBuffer(4096);
+            try {
+                boolean withFormat = ZebraPrint.encodeLabels(printer, format, labels, copies, buffer);
+                writeJob(printer, buffer, lane);
+                if (withFormat) {
+                    ZebraPrint.setStored(printer, format);
+                }
+                return withFormat;
+            } finally {
+                recycleBuffer(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            metrics.increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        } finally {
+            metrics.stop(PrintMetrics.STAGE_PRINT_LABELS, start);
+        }
+    }
+
+    /**
+     * Appends raw command bytes from a stream, e.g. to spool them
+     * @param in The bytes; not closed
+     * @param out The buffer to append them to
+     */
+    public static void encodeRaw(InputStream in, CommandBuffer out) throws IOException {
+        int n;
+        do {
+            out.ensureCapacity(out.size() + mProfile.getChunkSize());
+            n = in.read(out.array(), out.size(), out.array().length - out.size());
+            if (n > 0) {
+                out.reserve(n);
+            }
+        } while (n >= 0);
+    }
+
+    /**
+     * @throws IOException If the data is not valid base64
+     */
+    public static byte[] decodeRaw(String base64Data) throws IOException {
+        try {
+            return Base64.decode(base64Data, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid base64 data", e);
+        }
+    }
+
+    /**
+     * Renders an encoded job the way the current printer would print it, for a preview.
+     * Text is drawn with the same glyph cache as rasterized printing.
+     * @param data The job's command bytes, e.g. from {@link #encodeRows}
+     * @param length Number of bytes in data
+     * @param fontFamily The font family standing in for the printer's font, or null for the system default
+     * @return The printed page
+     * @throws IllegalArgumentException If the bytes end in the middle of a command
+     */
+    public static MonochromeImage renderPreview(byte[] data, int length, String fontFamily) {
+        long start = PrintMetrics.start();
+        PrinterProfile profile = mProfile;
+        EscPosRenderer renderer = new EscPosRenderer(mGlyphCache, getGlyphSource(fontFamily), profile.getWidthDots(),
+                profile.scaleDots(TextRasterizer.BASE_FONT_DOTS), profile.getDefaultCodePage());
+        MonochromeImage page = renderer.render(data, 0, length);
+        PrintMetrics.get().stop(PrintMetrics.STAGE_PREVIEW, start);
+        return page;
+    }
+
+    /**
+     * Sends an already encoded job, e.g. one from the print spool
+     * @param printer The link to the printer
+     * @param data The job's command bytes
+     * @param lane Priority of the job; a bulk job gives way to more urgent ones at each cut
      */
-    private static Bitmap convertBase64ToBitmap(String base64Data) throws IOException {
-       byte[] decodedBytes = Base64.decode(base64Data, Base64.DEFAULT);
-       return BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
+    public static void printEncoded(PrinterTransport printer, byte[] data, JobScheduler.Lane lane)
+            throws IOException, InterruptedException {
+        try {
+            writeJob(printer, data, data.length, lane);
+        } catch (IOException | RuntimeException e) {
+            PrintMetrics.get().increment(PrintMetrics.COUNTER_JOBS_FAILED);
+            throw e;
+        }
+    }
+
+    private static void writeJob(PrinterTransport printer, CommandBuffer buffer, JobScheduler.Lane lane)
+            throws IOException, InterruptedException {
+        writeJob(printer, buffer.array(), buffer.size(), lane);
     }
 
     /**
-     * Prepares an image for printing by resizing and converting to black and white
-     * @param originalBitmap The original Bitmap to be printed
-     * @return Bitmap The prepared Bitmap for printing
+     * Writes a job once the scheduler gives it the link
      */
-    private static Bitmap prepareImageForPrinting(Bitmap originalBitmap) {
-        // Lấy kích thước máy in (ví dụ: 384 pixel cho máy in nhiệt)
-        int printerWidth = 384;
+    private static void writeJob(PrinterTransport printer, byte[] data, int length, JobScheduler.Lane lane)
+            throws IOException, InterruptedException {
+        checkNotUpdating();
+        // ZPL feeds no rows the scanner could count; its throughput is learned by bytes
+        long rows = ZplScanner.isZpl(data, 0, length) ? 0 : CommandScanner.countRows(data, 0, length);
+        Object lease = mScheduler.acquire(lane, estimateMillis(length, rows));
+        try {
+            writeJob(printer, data, length, rows, lane, lease);
+        } finally {
+            endJob(printer);
+            mScheduler.release(lease);
+        }
+    }
 
-        // Tính toán tỷ lệ để giữ nguyên tỷ lệ khung hình
-        float ratio = (float) printerWidth / originalBitmap.getWidth();
-        int newHeight = (int) (originalBitmap.getHeight() * ratio);
+    /**
+     * Tells the shared link the job written next is not ESC/POS, so no status request is put into it
+     */
+    private static void beginOpaqueJob(PrinterTransport printer) {
+        if (printer instanceof StatusMultiplexer) {
+            ((StatusMultiplexer) printer).beginOpaqueJob();
+        }
+    }
 
-        // Thay đổi kích thước hình ảnh phù hợp với máy in
-        Bitmap resizedBitmap = Bitmap.createScaledBitmap(
-                originalBitmap, printerWidth, newHeight, true);
+    /**
+     * Tells the shared link a job is over, so status requests may go out even if the job ended mid-command
+     */
+    private static void endJob(PrinterTransport printer) {
+        if (printer instanceof StatusMultiplexer) {
+            ((StatusMultiplexer) printer).endJob();
+        }
+    }
+
+    /**
+     * Writes a job on the link the caller holds. A bulk job is written one
+     * cut at a time, or one label at a time if it is ZPL, letting more urgent
+     * jobs in between. Status requests are kept out of ZPL. The job fails if
+     * writing takes far longer than the printer's learned rates predict, and
+     * what it took is learned in turn.
+     * @param rows Dot rows the job feeds
+     */
+    private static void writeJob(PrinterTransport printer, byte[] data, int length, long rows,
+                                 JobScheduler.Lane lane, Object lease) throws IOException, InterruptedException {
+        String macAddress = getCurrentAddress();
+        ThroughputModel throughput = getThroughput(macAddress);
+        long predictedMs = throughput.predictMillis(length, rows, mProfile);
+        long timeoutMs = ThroughputModel.getPrintTimeoutMs(predictedMs);
+        mScheduler.setEstimate(lease, predictedMs);
+
+        boolean zpl = ZplScanner.isZpl(data, 0, length);
+        if (zpl) {
+            beginOpaqueJob(printer);
+        }
+        ChunkedWriter writer = new ChunkedWriter(printer, mProfile.getChunkSize());
+        PrintWatchdog.Timer timer = getWatchdog().watch(printer);
+        timer.start(timeoutMs);
+        try {
+            if (lane != JobScheduler.Lane.BULK) {
+                writer.write(data, 0, length);
+            } else {
+                CommandScanner scanner = zpl ? null : new CommandScanner();
+                ZplScanner labels = zpl ? new ZplScanner() : null;
+                int written = 0;
+                while (written < length) {
+                    int cut = zpl ? labels.scan(data, written, length - written)
+                            : scanner.scan(data, written, length - written);
+                    int end = cut < 0 ? length : cut;
+                    writer.write(data, written, end - written);
+                    written = end;
+                    if (written < length) {
+                        timer.pause();
+                        mScheduler.yieldTo(lane, lease);
+                        if (zpl) {
+                            // A job that had the link in between ended the opaque mode
+                            beginOpaqueJob(printer);
+                        }
+                        timer.start(timeoutMs - timer.getActiveMs());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw failed(timer, writer, length, e);
+        } catch (InterruptedException e) {
+            if (writer.getBytesWritten() > 0) {
+                throw interruptedAfter(writer, length, e);
+            }
+            throw e;
+        } finally {
+            timer.pause();
+        }
+        learn(macAddress, throughput, length, rows, timer.getActiveMs());
+        PrintMetrics.get().increment(PrintMetrics.COUNTER_JOBS_PRINTED);
+    }
+
+    private static synchronized PrintWatchdog getWatchdog() {
+        if (mWatchdog == null) {
+            mWatchdog = new PrintWatchdog();
+        }
+        return mWatchdog;
+    }
+
+    /**
+     * @return The error to fail a job with: a timeout if the watchdog closed its link, else the write error
+     */
+    private static IOException timedOut(PrintWatchdog.Timer timer, IOException e) {
+        if (timer.hasExpired()) {
+            return new IOException("Print job timed out after " + timer.getTimeoutMs() + " ms", e);
+        }
+        return e;
+    }
+
+    /**
+     * @param length The job's size, or -1 if unknown
+     * @return The error to fail a job with, as {@link #timedOut}; a {@link PartialWriteException} once
+     *         some of the job reached the printer
+     */
+    private static IOException failed(PrintWatchdog.Timer timer, ChunkedWriter writer, long length, IOException e) {
+        IOException error = timedOut(timer, e);
+        long written = writer.getBytesWritten();
+        if (written == 0) {
+            return error;
+        }
+        return new PartialWriteException(error.getMessage() + " (" + written + (length < 0 ? "" : " of " + length)
+                + " bytes sent)", error, written);
+    }
 
-        // Chuyển đổi sang định dạng đen trắng nếu cần (cho máy in nhiệt)
-        return convertToBlackAndWhite(resizedBitmap);
+    /**
+     * @return The error to fail a job with that was interrupted after some of it was sent; the
+     *         thread's interrupt status is kept
+     */
+    private static PartialWriteException interruptedAfter(ChunkedWriter writer, long length, InterruptedException e) {
+        long written = writer.getBytesWritten();
+        Thread.currentThread().interrupt();
+        return new PartialWriteException("Print job interrupted after " + written
+                + (length < 0 ? "" : " of " + length) + " bytes", e, written);
     }
 
     /**
-     * Converts a color Bitmap to a black and white Bitmap
-     * @param colorBitmap The color Bitmap to be converted
-     * @return Bitmap The black and white Bitmap
+     * Feeds a written job to the printer's throughput model and saves it
      */
-    private static Bitmap convertToBlackAndWhite(Bitmap colorBitmap) {
-        int width = colorBitmap.getWidth();
-        int height = colorBitmap.getHeight();
-        Bitmap bwBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+    private static void learn(String macAddress, ThroughputModel throughput, long bytes, long rows, long millis) {
+        if (throughput.recordJob(bytes, rows, millis)) {
+            saveThroughput(macAddress);
+        }
+    }
 
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int pixel = colorBitmap.getPixel(x, y);
-                int r = Color.red(pixel);
-                int g = Color.green(pixel);
-                int b = Color.blue(pixel);
-                int gray = (r + g + b) / 3;
-                int bwPixel = gray < 128 ? Color.BLACK : Color.WHITE;
-                bwBitmap.setPixel(x, y, bwPixel);
+    /**
+     * Streams a firmware image to the current printer. The update waits for
+     * the job on the link to finish or give way and then holds the link for
+     * all its attempts: jobs already queued wait, new ones are refused until
+     * it is done. Each retry reconnects first.
+     * @param context The application context
+     * @param file The firmware image
+     * @param updater Chunk size, pacing, attempts and progress listener
+     * @return What was sent
+     * @throws IOException If the file cannot be read, another update is running, or every attempt failed
+     */
+    public static FirmwareUpdater.Result updateFirmware(final Context context, File file, FirmwareUpdater updater)
+            throws IOException, InterruptedException {
+        synchronized (PrintUtils.class) {
+            if (mUpdatingFirmware) {
+                throw new IOException("A firmware update is already running");
+            }
+            mUpdatingFirmware = true;
+        }
+        Object lease = null;
+        try {
+            lease = mScheduler.acquireExclusive();
+            return updater.update(file, new FirmwareUpdater.Link() {
+                @Override
+                public PrinterTransport open(int attempt) throws IOException, InterruptedException {
+                    if (attempt > 1) {
+                        dropConnection();
+                    }
+                    try {
+                        PrinterTransport transport = getCurrentTransport(context);
+                        if (transport instanceof PrinterInstanceTransport) {
+                            ((PrinterInstanceTransport) transport).getPrinter().init();
+                        }
+                        return transport;
+                    } catch (RuntimeException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                }
+            });
+        } finally {
+            mUpdatingFirmware = false;
+            if (lease != null) {
+                mScheduler.release(lease);
             }
         }
-        return bwBitmap;
+    }
+
+    /**
+     * Closes the link but keeps the saved printer, so the next job reconnects
+     */
+    private static void dropConnection() {
+        PrinterInstance printerInstance = mPrinterInstance;
+        mPrinterInstance = null;
+        if (printerInstance != null) {
+            printerInstance.closeConnection();
+        }
+        closeBlePrinter();
+    }
+
+    private static void checkNotUpdating() throws IOException {
+        if (mUpdatingFirmware) {
+            throw new IOException("Printer firmware update in progress");
+        }
+    }
+
+    /**
+     * Decodes an image straight to packed printer rows at the printer width.
+     * The decoder subsamples large images by a power of two and the rest of
+     * the scaling is fused with the luminance threshold, so no full-size or
+     * scaled ARGB copy is made.
+     * @param base64Data The base64 encoded image string
+     * @param printerWidth The printable width in dots, or 0 to keep the image's own width
+     * @return MonochromeImage The packed 1-bit image ready for the raster command; its data is pooled
+     */
+    private static MonochromeImage decodeForPrinting(String base64Data, int printerWidth) throws IOException {
+        PrintMetrics metrics = PrintMetrics.get();
+        long start = PrintMetrics.start();
+        byte[] decodedBytes = Base64.decode(base64Data, Base64.DEFAULT);
+        start = metrics.stop(PrintMetrics.STAGE_BASE64_DECODE, start);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Failed to decode image data");
+        }
+        if (printerWidth <= 0) {
+            printerWidth = options.outWidth;
+        }
+        // Height from the original size, so subsampling does not round it
+        int height = MonochromeScaler.scaledHeight(options.outWidth, options.outHeight, printerWidth);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, printerWidth);
+        // Half the memory of ARGB_8888; images with alpha still decode to ARGB_8888
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inScaled = false;
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        final Bitmap bitmap = mBitmapPool.decode(decodedBytes, options, 4 * sampledWidth * sampledHeight);
+        metrics.stop(PrintMetrics.STAGE_BITMAP_DECODE, start);
+        if (bitmap == null) {
+            throw new IOException("Failed to decode image data");
+        }
+
+        try {
+            final int width = bitmap.getWidth();
+            return scaleForPrinting(new MonochromeScaler.RowSource() {
+                @Override
+                public void getRow(int y, int[] argb) {
+                    bitmap.getPixels(argb, 0, width, 0, y, width, 1);
+                }
+            }, width, bitmap.getHeight(), printerWidth, height);
+        } finally {
+            mBitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Scales and thresholds decoded rows into packed printer rows
+     * @return The packed image; its data is pooled
+     */
+    private static MonochromeImage scaleForPrinting(MonochromeScaler.RowSource pixels, int sourceWidth,
+                                                    int sourceHeight, int width, int height) {
+        long start = PrintMetrics.start();
+        MonochromeScaler scaler = new MonochromeScaler(sourceWidth, sourceHeight, width, height);
+        MonochromeImage image = scaler.scale(pixels, MonochromeConverter.DEFAULT_THRESHOLD,
+                mBytePool.acquire(scaler.getByteCount()));
+        PrintMetrics.get().stop(PrintMetrics.STAGE_SCALE, start);
+        return image;
+    }
+
+    /**
+     * @return The largest power of two that keeps a decoded image at least {@code printerWidth} wide
+     */
+    private static int getSampleSize(int imageWidth, int printerWidth) {
+        int sampleSize = 1;
+        while (imageWidth / (sampleSize * 2) >= printerWidth) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static TextRasterizer newRasterizer(PrinterProfile profile, String fontFamily) {
+        return new TextRasterizer(mGlyphCache, getGlyphSource(fontFamily), profile.getWidthDots(),
+                profile.scaleDots(TextRasterizer.BASE_FONT_DOTS));
+    }
+
+    private static synchronized TypefaceGlyphSource getGlyphSource(String fontFamily) {
+        String key = fontFamily == null ? "" : fontFamily;
+        TypefaceGlyphSource source = mGlyphSources.get(key);
+        if (source == null) {
+            source = new TypefaceGlyphSource(fontFamily);
+            mGlyphSources.put(key, source);
+        }
+        return source;
     }
 
     /**
@@ -0,0 +1,113 @@
+package com.capacitor.mkprinter.goojprt.util;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+/**
+ * Gives up on a print job whose printer stopped taking data. A write to a
+ * printer that went out of range or jammed can block for minutes; when the
+ * job's time runs out the watchdog closes the link, which fails the write,
+ * and the next job reconnects.
+ *
+ * Only time spent writing counts: a bulk job pauses its timer while it gives
+ * the link to a more urgent one.
+ */
+public class PrintWatchdog {
+
+    private static final String LOG_TAG = "PrintWatchdog";
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    public PrintWatchdog() {
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * @param link The link the job writes to; closed if the job runs out of time
+     * @return The job's timer, not started yet
+     */
+    public Timer watch(PrinterTransport link) {
+        return new Timer(link);
+    }
+
+    public class Timer implements Runnable {
+        private final PrinterTransport mLink;
+        private long mTimeoutMs;
+        private long mActiveNanos;
+        private long mStartedAt;
+        private boolean mRunning;
+        private volatile boolean mExpired;
+
+        private Timer(PrinterTransport link) {
+            mLink = link;
+        }
+
+        /**
+         * Starts or resumes counting
+         *
+         * @param timeoutMs Time the job has from now on
+         */
+        public synchronized void start(long timeoutMs) {
+            if (mRunning) {
+                pause();
+            }
+            mTimeoutMs = timeoutMs;
+            mStartedAt = System.nanoTime();
+            mRunning = true;
+            mHandler.postDelayed(this, timeoutMs);
+        }
+
+        /**
+         * Stops counting, e.g. while the job waits for the link
+         */
+        public synchronized void pause() {
+            if (mRunning) {
+                mHandler.removeCallbacks(this);
+                mActiveNanos += System.nanoTime() - mStartedAt;
+                mRunning = false;
+            }
+        }
+
+        /**
+         * @return Time counted so far
+         */
+        public synchronized long getActiveMs() {
+            long nanos = mActiveNanos + (mRunning ? System.nanoTime() - mStartedAt : 0);
+            return nanos / 1000000L;
+        }
+
+        /**
+         * @return The timeout last started with
+         */
+        public synchronized long getTimeoutMs() {
+            return mTimeoutMs;
+        }
+
+        /**
+         * @return true if the job ran out of time and its link was closed
+         */
+        public boolean hasExpired() {
+            return mExpired;
+        }
+
+        @Override
+        public void run() {
+            long timeoutMs;
+            synchronized (this) {
+                if (!mRunning) {
+                    return;
+                }
+                mExpired = true;
+                timeoutMs = mTimeoutMs;
+            }
+            Log.e(LOG_TAG, "Print job still writing after " + timeoutMs + " ms, closing the link");
+            mLink.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.capacitor.mkprinter.goojprt.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.spool.JobScheduler;
+import com.capacitor.mkprinter.spool.PrintSpool;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Drains the {@link PrintSpool} to the current printer on a background thread.
+ *
+ * Jobs are printed oldest first and removed from the spool only after the
+ * printer accepted every byte. While the printer is unreachable the worker
+ * retries with exponential backoff; a kick (new job, connect, app resume)
+ * retries at once.
+ */
+public class SpoolWorker {
+
+    private static final String LOG_TAG = "SpoolWorker";
+
+    private static final long MIN_RETRY_DELAY_MS = 2000;
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    /**
+     * Receives spool events on the worker thread
+     */
+    public interface Listener {
+        void onPrintStarted();
+
+        void onPrintFinished();
+
+        void onJobPrinted(long jobId, int pending);
+
+        void onJobFailed(long jobId, int pending, String error, long retryInMs);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final CountDownLatch mOpened = new CountDownLatch(1);
+
+    private volatile PrintSpool mSpool;
+    private volatile IOException mOpenError;
+    private long mRetryDelayMs = MIN_RETRY_DELAY_MS;
+
+    /**
+     * Opens the spool in the app's files directory on the worker thread and starts draining it
+     * @param context The application context
+     * @param listener Receives progress on the worker thread
+     */
+    public SpoolWorker(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mSpool = new PrintSpool(new File(mContext.getFilesDir(), PrintSpool.FILE_NAME));
+                    Log.d(LOG_TAG, "Spool opened with " + mSpool.getPendingCount() + " pending jobs");
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not open the spool: " + e.getMessage());
+                    mOpenError = e;
+                }
+                mOpened.countDown();
+                mDrain.run();
+            }
+        });
+    }
+
+    /**
+     * Stores an encoded job durably and schedules it for printing
+     * @param job The job's command bytes
+     * @return The spool job id
+     */
+    public long enqueue(CommandBuffer job) throws IOException, InterruptedException {
+        long id = getSpool().enqueue(job);
+        kick();
+        return id;
+    }
+
+    /**
+     * Tries to drain the spool now instead of waiting for the retry delay
+     */
+    public void kick() {
+        mHandler.removeCallbacks(mDrain);
+        mRetryDelayMs = MIN_RETRY_DELAY_MS;
+        mHandler.post(mDrain);
+    }
+
+    /**
+     * Waits for the spool to be opened
+     * @throws IOException If the journal could not be opened
+     */
+    public PrintSpool getSpool() throws IOException, InterruptedException {
+        mOpened.await();
+        if (mSpool == null) {
+            throw mOpenError;
+        }
+        return mSpool;
+    }
+
+    /**
+     * Stops the worker thread and closes the journal; pending jobs stay on disk
+     */
+    public void release() {
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mSpool != null) {
+                        mSpool.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not close the spool: " + e.getMessage());
+                }
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            PrintSpool spool = mSpool;
+            if (spool == null || spool.getPendingCount() == 0 || !PrintUtils.hasSavedPrinter(mContext)) {
+                return;
+            }
+            PrintSpool.Job job = null;
+            mListener.onPrintStarted();
+            try {
+                while ((job = spool.peek()) != null) {
+                    PrinterTransport printer = PrintUtils.getCurrentTransport(mContext);
+                    PrintUtils.printEncoded(printer, job.getData(), JobScheduler.Lane.NORMAL);
+                    spool.complete(job.getId());
+                    mListener.onJobPrinted(job.getId(), spool.getPendingCount());
+                }
+                mRetryDelayMs = MIN_RETRY_DELAY_MS;
+            } catch (Throwable e) {
+                Log.e(LOG_TAG, "Spooled job failed, retrying in " + mRetryDelayMs + " ms: " + e.getMessage());
+                if (job != null) {
+                    mListener.onJobFailed(job.getId(), spool.getPendingCount(), e.getMessage(), mRetryDelayMs);
+                }
+                mHandler.postDelayed(this, mRetryDelayMs);
+                mRetryDelayMs = Math.min(MAX_RETRY_DELAY_MS, mRetryDelayMs * 2);
+            } finally {
+                mListener.onPrintFinished();
+            }
+        }
+    };
+}
@@ -0,0 +1,101 @@
+package com.capacitor.mkprinter.goojprt.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import com.capacitor.mkprinter.raster.Glyph;
+import com.capacitor.mkprinter.raster.GlyphSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link GlyphSource} that renders with an Android {@link Typeface}.
+ *
+ * Glyphs are drawn into one reused ALPHA_8 scratch bitmap and thresholded into
+ * packed bits; the GlyphCache makes sure this happens once per glyph and size.
+ */
+public class TypefaceGlyphSource implements GlyphSource {
+
+    /** Alpha at or above which an anti-aliased pixel becomes a black dot */
+    private static final int INK_THRESHOLD = 128;
+
+    private final String mFontKey;
+    private final Paint mPaint;
+    private final char[] mChars = new char[2];
+    private final Paint.FontMetricsInt mMetrics = new Paint.FontMetricsInt();
+    private Bitmap mScratch;
+    private Canvas mCanvas;
+    private ByteBuffer mPixels;
+
+    /**
+     * @param family Font family such as "sans-serif" or "serif"; null for the default
+     */
+    public TypefaceGlyphSource(String family) {
+        mFontKey = family == null ? "default" : family;
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setColor(Color.BLACK);
+        mPaint.setTypeface(family == null ? Typeface.DEFAULT : Typeface.create(family, Typeface.NORMAL));
+    }
+
+    @Override
+    public String getFontKey() {
+        return mFontKey;
+    }
+
+    @Override
+    public synchronized int getLineHeight(int sizeDots) {
+        mPaint.setTextSize(sizeDots);
+        mPaint.getFontMetricsInt(mMetrics);
+        return mMetrics.descent - mMetrics.ascent;
+    }
+
+    @Override
+    public synchronized Glyph render(int codePoint, int sizeDots) {
+        mPaint.setTextSize(sizeDots);
+        Paint.FontMetricsInt fm = mPaint.getFontMetricsInt();
+        int height = fm.descent - fm.ascent;
+        int count = Character.toChars(codePoint, mChars, 0);
+        int advance = (int) Math.ceil(mPaint.measureText(mChars, 0, count));
+        int bytesPerRow = (advance + 7) / 8;
+        byte[] data = new byte[bytesPerRow * height];
+        if (advance == 0 || Character.isWhitespace(codePoint)) {
+            return new Glyph(advance, height, data);
+        }
+
+        ensureScratch(advance, height);
+        mScratch.eraseColor(Color.TRANSPARENT);
+        mCanvas.drawText(mChars, 0, count, 0, -fm.ascent, mPaint);
+        mPixels.rewind();
+        mScratch.copyPixelsToBuffer(mPixels);
+
+        int rowBytes = mScratch.getRowBytes();
+        byte[] alpha = mPixels.array();
+        for (int y = 0; y < height; y++) {
+            int src = y * rowBytes;
+            int dst = y * bytesPerRow;
+            for (int x = 0; x < advance; x++) {
+                if ((alpha[src + x] & 0xFF) >= INK_THRESHOLD) {
+                    data[dst + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+                }
+            }
+        }
+        return new Glyph(advance, height, data);
+    }
+
+    private void ensureScratch(int width, int height) {
+        if (mScratch != null && mScratch.getWidth() >= width && mScratch.getHeight() >= height) {
+            return;
+        }
+        int w = Math.max(width, mScratch == null ? 0 : mScratch.getWidth());
+        int h = Math.max(height, mScratch == null ? 0 : mScratch.getHeight());
+        if (mScratch != null) {
+            mScratch.recycle();
+        }
+        mScratch = Bitmap.createBitmap(w, h, Bitmap.Config.ALPHA_8);
+        mCanvas = new Canvas(mScratch);
+        mPixels = ByteBuffer.allocate(mScratch.getRowBytes() * h);
+    }
+}
@@ -0,0 +1,141 @@
+package com.capacitor.mkprinter.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide timings and counters for the print pipeline.
+ *
+ * Stages are timed with {@link #start()} / {@link #stop(String, long)} and
+ * land in a {@link LatencyHistogram} per stage; counters are plain atomic
+ * longs. Both are created on first use, so new stages need no registration.
+ */
+public class PrintMetrics {
+
+    public static final String STAGE_BASE64_DECODE = "base64Decode";
+    public static final String STAGE_BITMAP_DECODE = "bitmapDecode";
+    public static final String STAGE_SCALE = "scale";
+    public static final String STAGE_RASTERIZE = "rasterize";
+    public static final String STAGE_ENCODE = "encode";
+    public static final String STAGE_CONNECT = "connect";
+    public static final String STAGE_TRANSFER = "transfer";
+    public static final String STAGE_PRINT_TEXT = "printText";
+    public static final String STAGE_PRINT_IMAGE = "printImage";
+    public static final String STAGE_PRINT_BARCODE = "printBarcode";
+    public static final String STAGE_PRINT_RAW = "printRaw";
+    public static final String STAGE_PRINT_LABELS = "printLabels";
+    public static final String STAGE_PREVIEW = "renderPreview";
+    /** Time a job waited for the printer link, per priority lane */
+    public static final String STAGE_QUEUE_WAIT_URGENT = "queueWaitUrgent";
+    public static final String STAGE_QUEUE_WAIT_NORMAL = "queueWaitNormal";
+    public static final String STAGE_QUEUE_WAIT_BULK = "queueWaitBulk";
+
+    public static final String COUNTER_BYTES_SENT = "bytesSent";
+    public static final String COUNTER_JOBS_PRINTED = "jobsPrinted";
+    public static final String COUNTER_JOBS_FAILED = "jobsFailed";
+    public static final String COUNTER_CONNECT_ATTEMPTS = "connectAttempts";
+    public static final String COUNTER_CONNECT_FAILURES = "connectFailures";
+    /** Times a bulk job gave the link to a more urgent one at a cut */
+    public static final String COUNTER_PREEMPTIONS = "preemptions";
+
+    private static final PrintMetrics INSTANCE = new PrintMetrics();
+
+    private final ConcurrentMap<String, LatencyHistogram> mStages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+    public static PrintMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return A start timestamp to pass to {@link #stop(String, long)}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since {@code startNanos} for {@code stage}
+     *
+     * @return The current timestamp, so consecutive stages can be chained
+     */
+    public long stop(String stage, long startNanos) {
+        long now = System.nanoTime();
+        histogram(stage).recordNanos(now - startNanos);
+        return now;
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long delta) {
+        AtomicLong value = mCounters.get(counter);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = mCounters.putIfAbsent(counter, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    public long getCounter(String counter) {
+        AtomicLong value = mCounters.get(counter);
+        return value == null ? 0 : value.get();
+    }
+
+    public LatencyHistogram histogram(String stage) {
+        LatencyHistogram histogram = mStages.get(stage);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = mStages.putIfAbsent(stage, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return Stage summaries keyed by stage name; times are in milliseconds
+     */
+    public Map<String, Map<String, Number>> stageSnapshot() {
+        Map<String, Map<String, Number>> stages = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : mStages.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            Map<String, Number> summary = new LinkedHashMap<>();
+            summary.put("count", h.getCount());
+            summary.put("min", h.getMinMicros() / 1000.0);
+            summary.put("mean", h.getMeanMicros() / 1000.0);
+            summary.put("p50", h.getPercentileMicros(50) / 1000.0);
+            summary.put("p90", h.getPercentileMicros(90) / 1000.0);
+            summary.put("p99", h.getPercentileMicros(99) / 1000.0);
+            summary.put("p999", h.getPercentileMicros(99.9) / 1000.0);
+            summary.put("max", h.getMaxMicros() / 1000.0);
+            stages.put(entry.getKey(), summary);
+        }
+        return stages;
+    }
+
+    public Map<String, Long> counterSnapshot() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : mCounters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        return counters;
+    }
+
+    public void reset() {
+        for (LatencyHistogram h : mStages.values()) {
+            h.reset();
+        }
+        for (AtomicLong c : mCounters.values()) {
+            c.set(0);
+        }
+    }
+}
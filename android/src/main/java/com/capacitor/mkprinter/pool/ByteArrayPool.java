@@ -0,0 +1,101 @@
+package com.capacitor.mkprinter.pool;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Keeps the byte arrays of finished print jobs, packed images and command
+ * buffers, for the next job, so steady printing stops allocating them.
+ *
+ * {@link #acquire} returns the smallest pooled array that is large enough;
+ * arrays come back with {@link #release}. The pool holds at most
+ * {@link #getMaxBytes()} bytes and drops the smallest arrays first when full,
+ * since a large array can serve any request.
+ */
+public class ByteArrayPool {
+
+    /** Free arrays, shortest first */
+    private final ArrayList<byte[]> mFree = new ArrayList<>();
+    private final PoolStats mStats = new PoolStats();
+    private long mMaxBytes;
+    private long mPooledBytes;
+
+    /**
+     * @param maxBytes Most bytes to keep
+     */
+    public ByteArrayPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Changes the size limit, dropping arrays that no longer fit
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * @return An array of at least {@code minLength} bytes; its contents are undefined
+     */
+    public synchronized byte[] acquire(int minLength) {
+        for (int i = 0; i < mFree.size(); i++) {
+            byte[] array = mFree.get(i);
+            if (array.length >= minLength) {
+                mFree.remove(i);
+                mPooledBytes -= array.length;
+                mStats.hit();
+                return array;
+            }
+        }
+        mStats.miss();
+        return new byte[minLength];
+    }
+
+    /**
+     * Returns an array to the pool. The caller must not touch it afterwards.
+     */
+    public synchronized void release(byte[] array) {
+        if (array == null) {
+            return;
+        }
+        if (array.length > mMaxBytes) {
+            mStats.drop();
+            return;
+        }
+        int i = 0;
+        while (i < mFree.size() && mFree.get(i).length < array.length) {
+            i++;
+        }
+        mFree.add(i, array);
+        mPooledBytes += array.length;
+        trim();
+    }
+
+    public synchronized void clear() {
+        mFree.clear();
+        mPooledBytes = 0;
+    }
+
+    /**
+     * @param reset Also zero the hit, miss and drop counts
+     */
+    public synchronized Map<String, Number> statsSnapshot(boolean reset) {
+        Map<String, Number> snapshot = mStats.snapshot(mFree.size(), mPooledBytes, mMaxBytes);
+        if (reset) {
+            mStats.reset();
+        }
+        return snapshot;
+    }
+
+    private void trim() {
+        while (mPooledBytes > mMaxBytes) {
+            mPooledBytes -= mFree.remove(0).length;
+            mStats.drop();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.capacitor.mkprinter.pool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hit, miss and drop counts of one pool. Not thread-safe; the pool updates
+ * it under its own lock.
+ */
+public class PoolStats {
+
+    private long mHits;
+    private long mMisses;
+    private long mDrops;
+
+    /** A request was served from the pool */
+    public void hit() {
+        mHits++;
+    }
+
+    /** A request needed a new allocation */
+    public void miss() {
+        mMisses++;
+    }
+
+    /** A returned object was not kept, because it was too large or the pool was full */
+    public void drop() {
+        mDrops++;
+    }
+
+    public long getHits() {
+        return mHits;
+    }
+
+    public long getMisses() {
+        return mMisses;
+    }
+
+    public long getDrops() {
+        return mDrops;
+    }
+
+    public void reset() {
+        mHits = 0;
+        mMisses = 0;
+        mDrops = 0;
+    }
+
+    /**
+     * @param pooled Objects currently held by the pool
+     * @param pooledBytes Bytes currently held by the pool
+     * @param maxBytes Most bytes the pool will hold
+     * @return hits, misses, drops, pooled, pooledBytes and maxBytes
+     */
+    public Map<String, Number> snapshot(int pooled, long pooledBytes, long maxBytes) {
+        Map<String, Number> snapshot = new LinkedHashMap<>();
+        snapshot.put("hits", mHits);
+        snapshot.put("misses", mMisses);
+        snapshot.put("drops", mDrops);
+        snapshot.put("pooled", pooled);
+        snapshot.put("pooledBytes", pooledBytes);
+        snapshot.put("maxBytes", maxBytes);
+        return snapshot;
+    }
+}
@@ -0,0 +1,842 @@
+package com.capacitor.mkprinter.preview;
+
+import com.capacitor.mkprinter.barcode.QrCode;
+import com.capacitor.mkprinter.barcode.QrRasterizer;
+import com.capacitor.mkprinter.escpos.CodePage;
+import com.capacitor.mkprinter.escpos.CodePageEncoder;
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.TextRow;
+import com.capacitor.mkprinter.raster.Glyph;
+import com.capacitor.mkprinter.raster.GlyphCache;
+import com.capacitor.mkprinter.raster.GlyphSource;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+
+/**
+ * Prints ESC/POS command bytes onto a monochrome page the way a receipt
+ * printer would, so a preview comes from the very bytes that are sent.
+ *
+ * Raster images (GS v 0, GS 8 L with GS ( L, ESC *) and paper feeds come out
+ * dot for dot. Text in the printer's font is laid out in Font A cells, half
+ * as wide as they are high and full width for GBK characters, so wrapping
+ * and alignment match the printout; the letterforms come from a
+ * {@link GlyphSource} and only approximate the printer's. QR codes from
+ * GS ( k are drawn with the plugin's own QR encoder. GS k barcodes and
+ * PDF417 are drawn as outlined boxes of about their size, since only the
+ * printer knows their bars. A cut is drawn as a dashed line. Commands that do
+ * not mark the paper are skipped.
+ */
+public class EscPosRenderer {
+
+    /** ESC 2 line spacing in dots at 203 dpi */
+    public static final int DEFAULT_LINE_SPACING = 30;
+
+    /** Longest page, in rows; a runaway feed stops here */
+    public static final int MAX_HEIGHT = 1 << 17;
+
+    private static final int FS = CodePageEncoder.FS;
+    private static final int DLE = 0x10;
+    private static final int HT = 0x09;
+    private static final int TAB_COLUMNS = 8;
+
+    private final GlyphCache mCache;
+    private final GlyphSource mSource;
+    private final int mWidth;
+    private final int mBytesPerRow;
+    private final int mFontDots;
+    private final int mGlyphDots;
+    private final CodePage mDefaultPage;
+    private final EnumMap<CodePage, char[]> mTables = new EnumMap<>(CodePage.class);
+
+    private byte[] mPage = new byte[0];
+    private int mHeight;
+    private final ArrayList<Cell> mLine = new ArrayList<>();
+    private int mLineWidth;
+
+    // Printer state, reset by ESC @
+    private TextRow.Align mAlign;
+    private int mLineSpacing;
+    private int mWidthMul;
+    private int mHeightMul;
+    private int mUnderline;
+    private boolean mBold;
+    private CodePage mTable;
+    private boolean mChineseMode;
+    private int mBarWidth;
+    private int mBarHeight;
+    private int mHri;
+    private int mQrModule;
+    private QrCode.Ecc mQrEcc;
+    private byte[] mQrData;
+    private int mPdfModule;
+    private int mPdfRowHeight;
+    private int mPdfErrorLevel;
+    private byte[] mPdfData;
+    private MonochromeImage mGraphic;
+
+    /**
+     * @param cache Glyph cache, shared with the rasterizer that prints
+     * @param source Typeface standing in for the printer's font
+     * @param widthDots Printable width in dots
+     * @param fontDots Height of the printer's Font A in dots, 24 at 203 dpi
+     * @param defaultPage Code page the printer is in after ESC @
+     */
+    public EscPosRenderer(GlyphCache cache, GlyphSource source, int widthDots, int fontDots, CodePage defaultPage) {
+        mCache = cache;
+        mSource = source;
+        mWidth = widthDots;
+        mBytesPerRow = MonochromeImage.bytesPerRow(widthDots);
+        mFontDots = fontDots;
+        mDefaultPage = defaultPage;
+        // The largest size whose line fits the cell, so ascenders and descenders are not cut off
+        int glyphDots = fontDots;
+        while (glyphDots > 1 && source.getLineHeight(glyphDots) > fontDots) {
+            glyphDots--;
+        }
+        mGlyphDots = glyphDots;
+    }
+
+    /**
+     * Prints one job on a fresh page
+     *
+     * @param data Command bytes
+     * @param offset Start of the job in data
+     * @param length Length of the job
+     * @return The page, {@code widthDots} wide and as long as the paper fed
+     * @throws IllegalArgumentException If a command is truncated or the page exceeds {@link #MAX_HEIGHT}
+     */
+    public MonochromeImage render(byte[] data, int offset, int length) {
+        Arrays.fill(mPage, 0, mHeight * mBytesPerRow, (byte) 0);
+        mHeight = 0;
+        mLine.clear();
+        mLineWidth = 0;
+        reset();
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            i = command(data, i, end);
+        }
+        feed(printLine());
+        byte[] page = Arrays.copyOf(mPage, Math.max(1, mHeight) * mBytesPerRow);
+        return new MonochromeImage(mWidth, Math.max(1, mHeight), page);
+    }
+
+    /**
+     * ESC @ state
+     */
+    private void reset() {
+        mAlign = TextRow.Align.LEFT;
+        mLineSpacing = DEFAULT_LINE_SPACING * mFontDots / 24;
+        mWidthMul = 1;
+        mHeightMul = 1;
+        mUnderline = 0;
+        mBold = false;
+        mChineseMode = mDefaultPage.isMultiByte();
+        mTable = mChineseMode ? CodePage.CP437 : mDefaultPage;
+        mBarWidth = 3;
+        mBarHeight = 162;
+        mHri = 0;
+        mQrModule = 3;
+        mQrEcc = QrCode.Ecc.L;
+        mQrData = null;
+        mPdfModule = 3;
+        mPdfRowHeight = 3;
+        mPdfErrorLevel = 1;
+        mPdfData = null;
+        mGraphic = null;
+    }
+
+    /**
+     * Executes the command or character at {@code i}
+     *
+     * @return The index after it
+     */
+    private int command(byte[] d, int i, int end) {
+        int b = d[i] & 0xFF;
+        switch (b) {
+            case EscPosEncoder.LF:
+                lineFeed();
+                return i + 1;
+            case '\r':
+                return i + 1;
+            case HT:
+                int cell = mFontDots / 2 * mWidthMul;
+                int next = (mLineWidth / cell / TAB_COLUMNS + 1) * TAB_COLUMNS * cell;
+                addCell(new Cell(null, Math.min(next, mWidth) - mLineWidth, mFontDots * mHeightMul));
+                return i + 1;
+            case EscPosEncoder.ESC:
+                return escape(d, i + 1, end);
+            case EscPosEncoder.GS:
+                return groupSeparator(d, i + 1, end);
+            case FS:
+                need(d, i + 1, end, 1);
+                int f = d[i + 1] & 0xFF;
+                if (f == '&') {
+                    mChineseMode = true;
+                } else if (f == '.') {
+                    mChineseMode = false;
+                } else if (f == '!' || f == '-' || f == 'C' || f == 'W') {
+                    return i + 3;
+                }
+                return i + 2;
+            case DLE:
+                // DLE EOT n / DLE ENQ n status requests
+                return i + 3;
+            default:
+                if (b < 0x20 || b == 0x7F) {
+                    return i + 1;
+                }
+                return character(d, i, end);
+        }
+    }
+
+    private int escape(byte[] d, int i, int end) {
+        need(d, i, end, 1);
+        int c = d[i] & 0xFF;
+        switch (c) {
+            case '@':
+                feed(printLine());
+                reset();
+                return i + 1;
+            case '2':
+                mLineSpacing = DEFAULT_LINE_SPACING * mFontDots / 24;
+                return i + 1;
+            case '3':
+                mLineSpacing = arg(d, i + 1, end);
+                return i + 2;
+            case 'a':
+                int a = arg(d, i + 1, end);
+                mAlign = TextRow.Align.values()[(a >= '0' ? a - '0' : a) % 3];
+                return i + 2;
+            case '-':
+                int u = arg(d, i + 1, end);
+                mUnderline = (u >= '0' ? u - '0' : u) & 3;
+                return i + 2;
+            case 'E':
+            case 'G':
+                mBold = (arg(d, i + 1, end) & 1) != 0;
+                return i + 2;
+            case '!':
+                int mode = arg(d, i + 1, end);
+                mHeightMul = (mode & 0x10) != 0 ? 2 : 1;
+                mWidthMul = (mode & 0x20) != 0 ? 2 : 1;
+                mBold = (mode & 0x08) != 0;
+                mUnderline = (mode & 0x80) != 0 ? 1 : 0;
+                return i + 2;
+            case 't':
+                CodePage page = CodePage.forEscPosNumber(arg(d, i + 1, end));
+                mTable = page != null ? page : CodePage.CP437;
+                return i + 2;
+            case 'd':
+                printAndFeedLines(arg(d, i + 1, end));
+                return i + 2;
+            case 'J':
+                int height = printLine();
+                feed(Math.max(height, arg(d, i + 1, end)));
+                return i + 2;
+            case '$':
+                need(d, i + 1, end, 2);
+                int x = (d[i + 1] & 0xFF) | (d[i + 2] & 0xFF) << 8;
+                if (x > mLineWidth) {
+                    addCell(new Cell(null, Math.min(x, mWidth) - mLineWidth, 0));
+                }
+                return i + 3;
+            case '*':
+                return bitImage(d, i + 1, end);
+            case 'p':
+                // Cash drawer pulse: m t1 t2
+                return i + 4;
+            case 'c':
+                // ESC c 3 n, ESC c 4 n, ESC c 5 n
+                return i + 3;
+            case 'i':
+            case 'm':
+                cut();
+                return i + 1;
+            case ' ':
+            case '%':
+            case '=':
+            case 'M':
+            case 'R':
+            case 'T':
+            case 'U':
+            case 'V':
+            case 'e':
+            case 'r':
+            case '{':
+                // Settings with one parameter that do not change the layout here
+                return i + 2;
+            default:
+                return i + 1;
+        }
+    }
+
+    private int groupSeparator(byte[] d, int i, int end) {
+        need(d, i, end, 1);
+        int c = d[i] & 0xFF;
+        switch (c) {
+            case '!':
+                int size = arg(d, i + 1, end);
+                mWidthMul = Math.min(TextRow.MAX_SIZE, (size >> 4) + 1);
+                mHeightMul = Math.min(TextRow.MAX_SIZE, (size & 0x0F) + 1);
+                return i + 2;
+            case 'v':
+                need(d, i + 1, end, 6);
+                int mode = d[i + 2] & 3;
+                int bytesPerRow = (d[i + 3] & 0xFF) | (d[i + 4] & 0xFF) << 8;
+                int rows = (d[i + 5] & 0xFF) | (d[i + 6] & 0xFF) << 8;
+                need(d, i + 7, end, bytesPerRow * rows);
+                MonochromeImage image = new MonochromeImage(bytesPerRow * 8, rows,
+                        Arrays.copyOfRange(d, i + 7, i + 7 + bytesPerRow * rows));
+                printImage(image, (mode & 1) != 0 ? 2 : 1, (mode & 2) != 0 ? 2 : 1);
+                return i + 7 + bytesPerRow * rows;
+            case '8':
+                need(d, i + 1, end, 5);
+                long length = (d[i + 2] & 0xFFL) | (d[i + 3] & 0xFFL) << 8 | (d[i + 4] & 0xFFL) << 16
+                        | (d[i + 5] & 0xFFL) << 24;
+                need(d, i + 6, end, length);
+                graphics(d, i + 6, (int) length);
+                return i + 6 + (int) length;
+            case '(':
+                need(d, i + 1, end, 3);
+                int fn = d[i + 1] & 0xFF;
+                int parameters = (d[i + 2] & 0xFF) | (d[i + 3] & 0xFF) << 8;
+                need(d, i + 4, end, parameters);
+                if (fn == 'L') {
+                    graphics(d, i + 4, parameters);
+                } else if (fn == 'k') {
+                    symbol(d, i + 4, parameters);
+                }
+                return i + 4 + parameters;
+            case 'k':
+                return barcode(d, i + 1, end);
+            case 'w':
+                mBarWidth = Math.max(1, arg(d, i + 1, end));
+                return i + 2;
+            case 'h':
+                mBarHeight = Math.max(1, arg(d, i + 1, end));
+                return i + 2;
+            case 'H':
+                int hri = arg(d, i + 1, end);
+                mHri = (hri >= '0' ? hri - '0' : hri) & 3;
+                return i + 2;
+            case 'V':
+                int m = arg(d, i + 1, end);
+                cut();
+                // Function B (feed then cut) has a feed amount
+                if (m == 65 || m == 66 || m == 97 || m == 98 || m == 103 || m == 104) {
+                    feed(arg(d, i + 2, end));
+                    return i + 3;
+                }
+                return i + 2;
+            case 'L':
+            case 'W':
+            case 'P':
+                return i + 3;
+            case 'B':
+            case 'f':
+            case 'b':
+            case 'a':
+            case 'I':
+            case 'r':
+            case 'x':
+                return i + 2;
+            default:
+                return i + 1;
+        }
+    }
+
+    /**
+     * A printable character, one or two bytes
+     */
+    private int character(byte[] d, int i, int end) {
+        int b = d[i] & 0xFF;
+        int cellWidth = mFontDots / 2 * mWidthMul;
+        char c;
+        int length = 1;
+        if (mChineseMode && b >= 0x81 && b <= 0xFE && i + 1 < end && (d[i + 1] & 0xFF) >= 0x40
+                && (d[i + 1] & 0xFF) != 0x7F) {
+            String decoded = new String(d, i, 2, CodePage.GBK.getCharset());
+            c = decoded.length() == 1 ? decoded.charAt(0) : '?';
+            cellWidth *= 2;
+            length = 2;
+        } else {
+            c = b < 0x80 ? (char) b : table(mTable)[b];
+        }
+
+        if (Character.getType(c) == Character.NON_SPACING_MARK && !mLine.isEmpty()) {
+            // CP1258 sends a tone mark after its letter; print them as one
+            Cell last = mLine.get(mLine.size() - 1);
+            if (last.mChar != 0) {
+                String composed = Normalizer.normalize(String.valueOf(last.mChar) + c, Normalizer.Form.NFC);
+                if (composed.length() == 1) {
+                    last.mChar = composed.charAt(0);
+                    last.mGlyph = mCache.get(mSource, mGlyphDots, last.mChar);
+                    return i + length;
+                }
+            }
+        }
+
+        Cell cell = new Cell(null, cellWidth, mFontDots * mHeightMul);
+        cell.mChar = c;
+        cell.mGlyph = mCache.get(mSource, mGlyphDots, c);
+        cell.mWidthMul = mWidthMul;
+        cell.mHeightMul = mHeightMul;
+        cell.mUnderline = mUnderline;
+        cell.mBold = mBold;
+        addCell(cell);
+        return i + length;
+    }
+
+    /**
+     * ESC * m nL nH d1...dk - a bit image in the line buffer, one column of 1 or 3 bytes per dot
+     */
+    private int bitImage(byte[] d, int i, int end) {
+        need(d, i, end, 3);
+        int m = d[i] & 0xFF;
+        int columns = (d[i + 1] & 0xFF) | (d[i + 2] & 0xFF) << 8;
+        boolean tall = m == 32 || m == 33;
+        int bytesPerColumn = tall ? 3 : 1;
+        // Single density doubles each column; 8-dot modes print each dot three rows high
+        int xScale = (m == 0 || m == 32) ? 2 : 1;
+        int yScale = tall ? 1 : 3;
+        need(d, i + 3, end, columns * bytesPerColumn);
+        MonochromeImage image = new MonochromeImage(columns * xScale, 8 * bytesPerColumn * yScale);
+        for (int x = 0; x < columns; x++) {
+            for (int bit = 0; bit < 8 * bytesPerColumn; bit++) {
+                if ((d[i + 3 + x * bytesPerColumn + (bit >> 3)] & (0x80 >> (bit & 7))) != 0) {
+                    fill(image, x * xScale, bit * yScale, xScale, yScale);
+                }
+            }
+        }
+        Cell cell = new Cell(image, image.getWidth(), image.getHeight());
+        addCell(cell);
+        return i + 3 + columns * bytesPerColumn;
+    }
+
+    /**
+     * GS 8 L / GS ( L body: m fn ... - stores a raster graphic (fn 112) or prints the stored one (fn 50)
+     */
+    private void graphics(byte[] d, int i, int length) {
+        if (length < 2) {
+            return;
+        }
+        int fn = d[i + 1] & 0xFF;
+        if ((fn == 50 || fn == 2) && mGraphic != null) {
+            printImage(mGraphic, 1, 1);
+        } else if (fn == 112 && length >= 10 && (d[i + 2] & 0xFF) == 48) {
+            // Monochrome (a = 48) only; multi-tone graphics are not drawn
+            int widthDots = (d[i + 6] & 0xFF) | (d[i + 7] & 0xFF) << 8;
+            int rows = (d[i + 8] & 0xFF) | (d[i + 9] & 0xFF) << 8;
+            MonochromeImage image = new MonochromeImage(widthDots, rows);
+            int in = i + 10;
+            System.arraycopy(d, in, image.getData(), 0, Math.min(image.getBytesPerRow() * rows, i + length - in));
+            mGraphic = image;
+        }
+    }
+
+    /**
+     * GS ( k body: cn fn ... - QR code (cn 49) and PDF417 (cn 48) settings, data and print
+     */
+    private void symbol(byte[] d, int i, int length) {
+        if (length < 3) {
+            return;
+        }
+        int cn = d[i] & 0xFF;
+        int fn = d[i + 1] & 0xFF;
+        int n = d[i + 2] & 0xFF;
+        if (cn == '1') {
+            if (fn == 'C') {
+                mQrModule = Math.max(1, n);
+            } else if (fn == 'E') {
+                mQrEcc = QrCode.Ecc.values()[(n - '0') & 3];
+            } else if (fn == 'P') {
+                mQrData = Arrays.copyOfRange(d, i + 3, i + length);
+            } else if (fn == 'Q' && mQrData != null) {
+                QrCode qr = QrCode.encodeText(new String(mQrData, StandardCharsets.UTF_8), mQrEcc);
+                int module = QrRasterizer.fitModuleDots(qr, mQrModule, mWidth);
+                printImage(QrRasterizer.render(qr, module, mWidth, mAlign), 1, 1);
+            }
+        } else if (cn == '0') {
+            if (fn == 'C') {
+                mPdfModule = Math.max(1, n);
+            } else if (fn == 'D') {
+                mPdfRowHeight = Math.max(1, n);
+            } else if (fn == 'E' && length >= 4) {
+                mPdfErrorLevel = (d[i + 3] - '0') & 0x0F;
+            } else if (fn == 'P') {
+                mPdfData = Arrays.copyOfRange(d, i + 3, i + length);
+            } else if (fn == 'Q' && mPdfData != null) {
+                // About one codeword per 1.2 bytes plus the error correction words, in a near-square layout
+                int codewords = (int) Math.ceil(mPdfData.length / 1.2) + (2 << mPdfErrorLevel);
+                int columns = Math.max(1, Math.min(30, (int) Math.ceil(Math.sqrt(codewords / 3.0))));
+                int rows = Math.max(3, Math.min(90, (codewords + columns - 1) / columns));
+                printBox((69 + 17 * columns) * mPdfModule, rows * mPdfRowHeight * mPdfModule, null);
+            }
+        }
+    }
+
+    /**
+     * GS k m - a 1D barcode, NUL-terminated for m 0-6, length-prefixed for m 65-73
+     */
+    private int barcode(byte[] d, int i, int end) {
+        need(d, i, end, 1);
+        int m = d[i] & 0xFF;
+        boolean terminated = m <= 6;
+        int start;
+        int length;
+        if (terminated) {
+            start = i + 1;
+            length = 0;
+            while (start + length < end && d[start + length] != 0) {
+                length++;
+            }
+            need(d, start, end, length + 1);
+            m += 65;
+        } else {
+            need(d, i + 1, end, 1);
+            start = i + 2;
+            length = d[i + 1] & 0xFF;
+            need(d, start, end, length);
+        }
+        StringBuilder text = new StringBuilder(length);
+        int symbols = 0;
+        for (int k = start; k < start + length; k++) {
+            int c = d[k] & 0xFF;
+            if (m == 73 && c == '{' && k + 1 < start + length) {
+                // A code set switch: one symbol, no human readable text
+                boolean codeC = d[k + 1] == 'C';
+                k++;
+                symbols++;
+                if (codeC) {
+                    while (k + 1 < start + length && d[k + 1] != '{') {
+                        k++;
+                        text.append((char) ('0' + (d[k] & 0xFF) / 10)).append((char) ('0' + (d[k] & 0xFF) % 10));
+                        symbols++;
+                    }
+                }
+                continue;
+            }
+            text.append((char) c);
+            symbols++;
+        }
+        printBox(barcodeModules(m, symbols) * mBarWidth, mBarHeight, text.toString());
+        return start + length + (terminated ? 1 : 0);
+    }
+
+    /**
+     * @return Approximate width in modules of a GS k symbology with {@code symbols} data characters
+     */
+    private static int barcodeModules(int m, int symbols) {
+        switch (m) {
+            case 65:
+            case 67:
+                return 95 + 18;
+            case 66:
+                return 51 + 18;
+            case 68:
+                return 67 + 14;
+            case 69:
+                return (symbols + 2) * 13 + 20;
+            case 70:
+                return symbols * 9 + 9 + 20;
+            case 71:
+                return symbols * 10 + 20;
+            case 72:
+                return (symbols + 4) * 9 + 1 + 20;
+            default:
+                return (symbols + 2) * 11 + 13 + 20;
+        }
+    }
+
+    /**
+     * Prints an outlined box standing in for a symbol, with human readable text if enabled
+     */
+    private void printBox(int width, int height, String hri) {
+        feed(printLine());
+        width = Math.min(width, mWidth);
+        MonochromeImage box = new MonochromeImage(mWidth, height);
+        int left = alignedX(width);
+        fill(box, left, 0, width, 1);
+        fill(box, left, height - 1, width, 1);
+        fill(box, left, 0, 1, height);
+        fill(box, left + width - 1, 0, 1, height);
+        // Diagonal hatching marks it as a placeholder, not bars
+        for (int y = 0; y < height; y++) {
+            for (int x = left + (y % 8); x < left + width; x += 8) {
+                fill(box, x, y, 1, 1);
+            }
+        }
+        if (hri != null && (mHri & 1) != 0) {
+            printHri(hri);
+        }
+        blit(box, 0, allocate(height));
+        if (hri != null && (mHri & 2) != 0) {
+            printHri(hri);
+        }
+    }
+
+    private void printHri(String text) {
+        TextRow.Align align = mAlign;
+        int widthMul = mWidthMul;
+        int heightMul = mHeightMul;
+        int underline = mUnderline;
+        mWidthMul = 1;
+        mHeightMul = 1;
+        mUnderline = 0;
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        for (int k = 0; k < bytes.length; k++) {
+            character(bytes, k, bytes.length);
+        }
+        feed(printLine());
+        mAlign = align;
+        mWidthMul = widthMul;
+        mHeightMul = heightMul;
+        mUnderline = underline;
+    }
+
+    private void addCell(Cell cell) {
+        if (mLineWidth + cell.mWidth > mWidth && !mLine.isEmpty()) {
+            // The printer wraps a full line by itself
+            lineFeed();
+        }
+        mLine.add(cell);
+        mLineWidth += cell.mWidth;
+    }
+
+    private void lineFeed() {
+        int height = printLine();
+        feed(Math.max(height, mLineSpacing));
+    }
+
+    private void printAndFeedLines(int lines) {
+        boolean empty = mLine.isEmpty();
+        int height = printLine();
+        if (empty) {
+            feed(lines * mLineSpacing);
+        } else {
+            feed(Math.max(height, mLineSpacing) + Math.max(0, lines - 1) * mLineSpacing);
+        }
+    }
+
+    /**
+     * Prints the line buffer at the current position, cells on a common bottom
+     * edge, without feeding. Leaves room for the line so a following feed covers it.
+     *
+     * @return Height of the printed line, 0 if it was empty
+     */
+    private int printLine() {
+        if (mLine.isEmpty()) {
+            return 0;
+        }
+        int height = 0;
+        for (Cell cell : mLine) {
+            height = Math.max(height, cell.mHeight);
+        }
+        int top = mHeight;
+        ensureRows(top + height);
+        int x = alignedX(mLineWidth);
+        for (Cell cell : mLine) {
+            int cellTop = top + height - cell.mHeight;
+            if (cell.mImage != null) {
+                blit(cell.mImage, x, cellTop);
+            } else if (cell.mGlyph != null) {
+                drawGlyph(cell, x, cellTop);
+            }
+            x += cell.mWidth;
+        }
+        mLine.clear();
+        mLineWidth = 0;
+        return height;
+    }
+
+    private void drawGlyph(Cell cell, int left, int top) {
+        Glyph glyph = cell.mGlyph;
+        byte[] bits = glyph.getData();
+        int glyphRows = Math.min(glyph.getHeight(), mFontDots);
+        if (!glyph.isBlank()) {
+            for (int y = 0; y < glyphRows; y++) {
+                for (int x = 0; x < glyph.getAdvance(); x++) {
+                    if ((bits[y * glyph.getBytesPerRow() + (x >> 3)] & (0x80 >> (x & 7))) != 0) {
+                        int w = cell.mBold ? cell.mWidthMul + 1 : cell.mWidthMul;
+                        setDots(left + x * cell.mWidthMul, top + y * cell.mHeightMul, w, cell.mHeightMul);
+                    }
+                }
+            }
+        }
+        if (cell.mUnderline > 0) {
+            setDots(left, top + cell.mHeight - cell.mUnderline, cell.mWidth, cell.mUnderline);
+        }
+    }
+
+    /**
+     * Prints an image on lines of its own, following the justification
+     */
+    private void printImage(MonochromeImage image, int widthMul, int heightMul) {
+        feed(printLine());
+        int width = Math.min(image.getWidth() * widthMul, mWidth);
+        int top = allocate(image.getHeight() * heightMul);
+        int left = alignedX(width);
+        if (widthMul == 1 && heightMul == 1) {
+            blit(image, left, top);
+            return;
+        }
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x * widthMul < width; x++) {
+                if (image.isBlack(x, y)) {
+                    setDots(left + x * widthMul, top + y * heightMul, widthMul, heightMul);
+                }
+            }
+        }
+    }
+
+    private void cut() {
+        feed(printLine());
+        ensureRows(mHeight + 1);
+        for (int x = 0; x < mWidth; x += 8) {
+            setDots(x, mHeight, 4, 1);
+        }
+        mHeight++;
+    }
+
+    private int alignedX(int width) {
+        switch (mAlign) {
+            case CENTER:
+                return Math.max(0, (mWidth - width) / 2);
+            case RIGHT:
+                return Math.max(0, mWidth - width);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Feeds the paper, leaving blank rows
+     */
+    private void feed(int dots) {
+        allocate(dots);
+    }
+
+    /**
+     * @return The first of {@code rows} new rows at the end of the page
+     */
+    private int allocate(int rows) {
+        int top = mHeight;
+        ensureRows(top + rows);
+        mHeight = top + rows;
+        return top;
+    }
+
+    private void ensureRows(int rows) {
+        if (rows > MAX_HEIGHT) {
+            throw new IllegalArgumentException("Preview longer than " + MAX_HEIGHT + " rows");
+        }
+        if (rows * mBytesPerRow > mPage.length) {
+            mPage = Arrays.copyOf(mPage, Math.max(rows, mPage.length / mBytesPerRow * 2) * mBytesPerRow);
+        }
+    }
+
+    /**
+     * ORs an image into the page at (left, top), clipped to the paper
+     */
+    private void blit(MonochromeImage image, int left, int top) {
+        ensureRows(top + image.getHeight());
+        int width = Math.min(image.getWidth(), mWidth - left);
+        if ((left & 7) == 0) {
+            // Whole bytes; dots past the paper edge land in the row padding, which is never shown
+            int bytes = (width + 7) / 8;
+            for (int y = 0; y < image.getHeight(); y++) {
+                int src = y * image.getBytesPerRow();
+                int dst = (top + y) * mBytesPerRow + (left >> 3);
+                for (int k = 0; k < bytes; k++) {
+                    mPage[dst + k] |= image.getData()[src + k];
+                }
+            }
+            return;
+        }
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                if (image.isBlack(x, y)) {
+                    setDots(left + x, top + y, 1, 1);
+                }
+            }
+        }
+    }
+
+    private void setDots(int left, int top, int width, int height) {
+        int right = Math.min(mWidth, left + width);
+        for (int y = top; y < top + height; y++) {
+            int row = y * mBytesPerRow;
+            for (int x = left; x < right; x++) {
+                mPage[row + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+            }
+        }
+    }
+
+    private static void fill(MonochromeImage image, int left, int top, int width, int height) {
+        byte[] data = image.getData();
+        int right = Math.min(image.getWidth(), left + width);
+        int bottom = Math.min(image.getHeight(), top + height);
+        for (int y = Math.max(0, top); y < bottom; y++) {
+            for (int x = Math.max(0, left); x < right; x++) {
+                data[y * image.getBytesPerRow() + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+            }
+        }
+    }
+
+    /**
+     * @return The characters of a single-byte code page's 256 bytes
+     */
+    private char[] table(CodePage page) {
+        char[] table = mTables.get(page);
+        if (table == null) {
+            byte[] bytes = new byte[256];
+            for (int b = 0; b < 256; b++) {
+                bytes[b] = (byte) b;
+            }
+            Charset charset = page.getCharset();
+            String decoded = new String(bytes, charset);
+            table = decoded.length() == 256 ? decoded.toCharArray() : new char[256];
+            mTables.put(page, table);
+        }
+        return table;
+    }
+
+    private static int arg(byte[] d, int i, int end) {
+        need(d, i, end, 1);
+        return d[i] & 0xFF;
+    }
+
+    private static void need(byte[] d, int i, int end, long count) {
+        if (i + count > end) {
+            throw new IllegalArgumentException("Command truncated at byte " + i);
+        }
+    }
+
+    /**
+     * One character or bit image in the line buffer
+     */
+    private static class Cell {
+        final MonochromeImage mImage;
+        final int mWidth;
+        final int mHeight;
+        char mChar;
+        Glyph mGlyph;
+        int mWidthMul = 1;
+        int mHeightMul = 1;
+        int mUnderline;
+        boolean mBold;
+
+        Cell(MonochromeImage image, int width, int height) {
+            mImage = image;
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.capacitor.mkprinter.preview;
+
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a {@link MonochromeImage} as a 1-bit grayscale PNG. The packed rows
+ * go into the file almost as they are, so no Bitmap or per-pixel array is
+ * needed, and the output is the same on Android and on a plain JVM.
+ */
+public class MonochromePng {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private MonochromePng() {}
+
+    public static byte[] encode(MonochromeImage image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.getBytesPerRow() * image.getHeight() / 8 + 256);
+        try {
+            write(image, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static void write(MonochromeImage image, OutputStream out) throws IOException {
+        out.write(SIGNATURE);
+
+        byte[] header = new byte[13];
+        putInt(header, 0, image.getWidth());
+        putInt(header, 4, image.getHeight());
+        header[8] = 1;  // bit depth
+        header[9] = 0;  // grayscale
+        chunk(out, "IHDR", header, header.length);
+
+        // PNG gray 0 is black where the image's 1 is, so each row is inverted behind a filter type 0 byte
+        int bytesPerRow = image.getBytesPerRow();
+        int padding = bytesPerRow * 8 - image.getWidth();
+        byte[] data = image.getData();
+        byte[] row = new byte[bytesPerRow + 1];
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytesPerRow * image.getHeight() / 8 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, deflater, 8192)) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                int offset = y * bytesPerRow;
+                for (int k = 0; k < bytesPerRow; k++) {
+                    row[k + 1] = (byte) ~data[offset + k];
+                }
+                if (padding > 0) {
+                    // Keep the padding white so identical images give identical files
+                    row[bytesPerRow] |= (byte) ((1 << padding) - 1);
+                }
+                deflate.write(row);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] idat = compressed.toByteArray();
+        chunk(out, "IDAT", idat, idat.length);
+        chunk(out, "IEND", new byte[0], 0);
+    }
+
+    private static void chunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] head = new byte[8];
+        putInt(head, 0, length);
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(typeBytes, 0, head, 4, 4);
+        out.write(head);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(tail);
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >> 24);
+        out[offset + 1] = (byte) (value >> 16);
+        out[offset + 2] = (byte) (value >> 8);
+        out[offset + 3] = (byte) value;
+    }
+}
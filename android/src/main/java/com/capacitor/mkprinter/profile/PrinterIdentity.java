@@ -0,0 +1,52 @@
+package com.capacitor.mkprinter.profile;
+
+/**
+ * What a printer told {@link ProfileProber} about itself: its model name and
+ * the GS I 2 type ID byte.
+ */
+public class PrinterIdentity {
+
+    /** The printer did not answer GS I 2 */
+    public static final int UNKNOWN_TYPE = -1;
+
+    /** Type ID bit: multi-byte (e.g. GBK) characters supported */
+    private static final int TYPE_MULTI_BYTE = 0x01;
+    /** Type ID bit: autocutter fitted */
+    private static final int TYPE_CUTTER = 0x02;
+
+    private final String mModel;
+    private final int mTypeId;
+
+    /**
+     * @param model Model name, or null if unknown
+     * @param typeId The GS I 2 answer, or {@link #UNKNOWN_TYPE}
+     */
+    public PrinterIdentity(String model, int typeId) {
+        mModel = model;
+        mTypeId = typeId;
+    }
+
+    public String getModel() {
+        return mModel;
+    }
+
+    public int getTypeId() {
+        return mTypeId;
+    }
+
+    /**
+     * @return False only if the printer said it has no multi-byte character sets
+     */
+    public boolean supportsMultiByte() {
+        return mTypeId == UNKNOWN_TYPE || (mTypeId & TYPE_MULTI_BYTE) != 0;
+    }
+
+    public boolean hasCutter() {
+        return mTypeId != UNKNOWN_TYPE && (mTypeId & TYPE_CUTTER) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PrinterIdentity{model=" + mModel + ", typeId=" + mTypeId + "}";
+    }
+}
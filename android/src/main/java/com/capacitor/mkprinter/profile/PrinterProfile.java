@@ -0,0 +1,337 @@
+package com.capacitor.mkprinter.profile;
+
+import com.capacitor.mkprinter.escpos.CodePage;
+import com.capacitor.mkprinter.escpos.CodePageEncoder;
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.transport.ChunkedWriter;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * What one printer model can do: paper width, resolution, buffer and chunk
+ * sizes, the commands it implements, its code pages and how fast it prints.
+ * Every encoding and transport decision reads these instead of assuming a
+ * 58 mm printer.
+ *
+ * Immutable; derive variants with a {@link Builder}.
+ */
+public class PrinterProfile {
+
+    /**
+     * Optional commands a printer may implement
+     */
+    public enum Capability {
+        /** GS v 0 raster images; without it images go out as ESC * bit images */
+        RASTER,
+        /** FS q / FS p images stored in non-volatile memory */
+        NV_GRAPHICS,
+        /** GS ( k QR codes and PDF417 */
+        NATIVE_2D_BARCODES,
+        /** ZPL ^GF graphics in Z64 (deflate) form; without it label images use ACS run-length hex */
+        Z64_GRAPHICS;
+
+        /**
+         * @return The name used in the plugin config, e.g. "nvGraphics"
+         */
+        public String getKey() {
+            StringBuilder key = new StringBuilder();
+            for (String word : name().toLowerCase(Locale.ROOT).split("_")) {
+                key.append(key.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+            }
+            return key.toString();
+        }
+
+        /**
+         * @param name The capability name, e.g. "raster", "nvGraphics" or "NATIVE_2D_BARCODES"
+         * @return The capability, or null if unknown
+         */
+        public static Capability parse(String name) {
+            if (name == null) {
+                return null;
+            }
+            String key = name.replace("_", "").toUpperCase(Locale.ROOT);
+            for (Capability capability : values()) {
+                if (capability.name().replace("_", "").equals(key)) {
+                    return capability;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Printable width in dots of a 58 mm printer */
+    public static final int DEFAULT_WIDTH_DOTS = 384;
+    /** Printable width in dots of an 80 mm printer */
+    public static final int WIDE_WIDTH_DOTS = 576;
+    /** 8 dots per mm, the resolution of nearly every receipt printer */
+    public static final int DEFAULT_DPI = 203;
+    /** Bytes of one raster command; a 58 mm printer takes 256 rows at a time */
+    public static final int DEFAULT_MAX_LINE_BUFFER = EscPosEncoder.RASTER_BAND_HEIGHT * DEFAULT_WIDTH_DOTS / 8;
+    public static final int DEFAULT_CHUNK_SIZE = ChunkedWriter.DEFAULT_CHUNK_SIZE;
+    /** What a classic SPP link moves in practice */
+    public static final int DEFAULT_BYTES_PER_SECOND = 8000;
+    /** 75 mm/s at 8 dots per mm, a typical thermal mechanism */
+    public static final int DEFAULT_LINES_PER_SECOND = 600;
+
+    /** The vendor printers: 58 mm, GS v 0, no GS ( k, Chinese (GBK) mode with PC437 */
+    public static final PrinterProfile DEFAULT = new Builder().build();
+
+    private final String mModel;
+    private final int mWidthDots;
+    private final int mDpi;
+    private final int mMaxLineBuffer;
+    private final int mChunkSize;
+    private final int mBytesPerSecond;
+    private final int mLinesPerSecond;
+    private final EnumSet<Capability> mCapabilities;
+    private final CodePage mDefaultCodePage;
+    private final CodePage[] mCodePages;
+
+    private PrinterProfile(Builder builder) {
+        mModel = builder.mModel;
+        mWidthDots = builder.mWidthDots;
+        mDpi = builder.mDpi;
+        mMaxLineBuffer = builder.mMaxLineBuffer;
+        mChunkSize = builder.mChunkSize;
+        mBytesPerSecond = builder.mBytesPerSecond;
+        mLinesPerSecond = builder.mLinesPerSecond;
+        mCapabilities = EnumSet.copyOf(builder.mCapabilities);
+        mDefaultCodePage = builder.mDefaultCodePage;
+        mCodePages = builder.mCodePages.clone();
+    }
+
+    /**
+     * @return The model name reported by the printer or configured, or null if unknown
+     */
+    public String getModel() {
+        return mModel;
+    }
+
+    public int getWidthDots() {
+        return mWidthDots;
+    }
+
+    public int getDpi() {
+        return mDpi;
+    }
+
+    /**
+     * @return Most bytes a single raster command may carry
+     */
+    public int getMaxLineBuffer() {
+        return mMaxLineBuffer;
+    }
+
+    /**
+     * @return Bytes handed to the link per write
+     */
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * @return Bytes the link takes per second, until {@link ThroughputModel} has learned the printer's own rate
+     */
+    public int getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * @return Dot rows the printer feeds per second, until {@link ThroughputModel} has learned its own rate
+     */
+    public int getLinesPerSecond() {
+        return mLinesPerSecond;
+    }
+
+    public boolean has(Capability capability) {
+        return mCapabilities.contains(capability);
+    }
+
+    public EnumSet<Capability> getCapabilities() {
+        return EnumSet.copyOf(mCapabilities);
+    }
+
+    /**
+     * @return The code page the printer is in after a reset
+     */
+    public CodePage getDefaultCodePage() {
+        return mDefaultCodePage;
+    }
+
+    /**
+     * @return The code pages the printer supports, in order of preference
+     */
+    public CodePage[] getCodePages() {
+        return mCodePages.clone();
+    }
+
+    /**
+     * @return A fresh encoder for this printer's code pages; encoders are stateful, so one per thread
+     */
+    public CodePageEncoder newCodePageEncoder() {
+        return new CodePageEncoder(mDefaultCodePage, mCodePages);
+    }
+
+    /**
+     * Scales a size given for a 203 dpi printer to this printer's resolution
+     */
+    public int scaleDots(int dots) {
+        return Math.max(1, (dots * mDpi + DEFAULT_DPI / 2) / DEFAULT_DPI);
+    }
+
+    /**
+     * Configures an encoder for this printer's raster commands and buffer size
+     */
+    public EscPosEncoder configure(EscPosEncoder encoder) {
+        return encoder.setMaxBandBytes(mMaxLineBuffer)
+                .setRasterSupported(has(Capability.RASTER));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PrinterProfile)) {
+            return false;
+        }
+        PrinterProfile other = (PrinterProfile) o;
+        return mWidthDots == other.mWidthDots && mDpi == other.mDpi && mMaxLineBuffer == other.mMaxLineBuffer
+                && mChunkSize == other.mChunkSize && mBytesPerSecond == other.mBytesPerSecond
+                && mLinesPerSecond == other.mLinesPerSecond && mCapabilities.equals(other.mCapabilities)
+                && mDefaultCodePage == other.mDefaultCodePage && Arrays.equals(mCodePages, other.mCodePages)
+                && (mModel == null ? other.mModel == null : mModel.equals(other.mModel));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mModel == null ? 0 : mModel.hashCode();
+        result = 31 * result + mWidthDots;
+        result = 31 * result + mDpi;
+        result = 31 * result + mMaxLineBuffer;
+        result = 31 * result + mChunkSize;
+        result = 31 * result + mBytesPerSecond;
+        result = 31 * result + mLinesPerSecond;
+        result = 31 * result + mCapabilities.hashCode();
+        result = 31 * result + mDefaultCodePage.hashCode();
+        return 31 * result + Arrays.hashCode(mCodePages);
+    }
+
+    @Override
+    public String toString() {
+        return "PrinterProfile{model=" + mModel + ", width=" + mWidthDots + ", dpi=" + mDpi
+                + ", maxLineBuffer=" + mMaxLineBuffer + ", chunkSize=" + mChunkSize
+                + ", bytesPerSecond=" + mBytesPerSecond + ", linesPerSecond=" + mLinesPerSecond
+                + ", capabilities=" + mCapabilities + ", codePages=" + Arrays.toString(mCodePages) + "}";
+    }
+
+    public static class Builder {
+        private String mModel;
+        private int mWidthDots = DEFAULT_WIDTH_DOTS;
+        private int mDpi = DEFAULT_DPI;
+        private int mMaxLineBuffer = DEFAULT_MAX_LINE_BUFFER;
+        private int mChunkSize = DEFAULT_CHUNK_SIZE;
+        private int mBytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+        private int mLinesPerSecond = DEFAULT_LINES_PER_SECOND;
+        private EnumSet<Capability> mCapabilities = EnumSet.of(Capability.RASTER);
+        private CodePage mDefaultCodePage = CodePage.GBK;
+        private CodePage[] mCodePages = {CodePage.GBK, CodePage.CP437};
+
+        public Builder() {}
+
+        /**
+         * Starts from the values of {@code base}
+         */
+        public Builder(PrinterProfile base) {
+            mModel = base.mModel;
+            mWidthDots = base.mWidthDots;
+            mDpi = base.mDpi;
+            mMaxLineBuffer = base.mMaxLineBuffer;
+            mChunkSize = base.mChunkSize;
+            mBytesPerSecond = base.mBytesPerSecond;
+            mLinesPerSecond = base.mLinesPerSecond;
+            mCapabilities = EnumSet.copyOf(base.mCapabilities);
+            mDefaultCodePage = base.mDefaultCodePage;
+            mCodePages = base.mCodePages.clone();
+        }
+
+        public Builder setModel(String model) {
+            mModel = model;
+            return this;
+        }
+
+        public Builder setWidthDots(int widthDots) {
+            mWidthDots = widthDots;
+            return this;
+        }
+
+        public Builder setDpi(int dpi) {
+            mDpi = dpi;
+            return this;
+        }
+
+        public Builder setMaxLineBuffer(int maxLineBuffer) {
+            mMaxLineBuffer = maxLineBuffer;
+            return this;
+        }
+
+        public Builder setChunkSize(int chunkSize) {
+            mChunkSize = chunkSize;
+            return this;
+        }
+
+        public Builder setBytesPerSecond(int bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param linesPerSecond Dot rows fed per second
+         */
+        public Builder setLinesPerSecond(int linesPerSecond) {
+            mLinesPerSecond = linesPerSecond;
+            return this;
+        }
+
+        public Builder setCapability(Capability capability, boolean supported) {
+            if (supported) {
+                mCapabilities.add(capability);
+            } else {
+                mCapabilities.remove(capability);
+            }
+            return this;
+        }
+
+        /**
+         * Replaces all capabilities
+         */
+        public Builder setCapabilities(EnumSet<Capability> capabilities) {
+            mCapabilities = EnumSet.copyOf(capabilities);
+            return this;
+        }
+
+        /**
+         * @param defaultPage The code page the printer is in after a reset
+         * @param available The code pages the printer supports, in order of preference
+         */
+        public Builder setCodePages(CodePage defaultPage, CodePage... available) {
+            mDefaultCodePage = defaultPage;
+            mCodePages = available.clone();
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If a size is not positive
+         */
+        public PrinterProfile build() {
+            if (mWidthDots <= 0 || mDpi <= 0 || mMaxLineBuffer <= 0 || mChunkSize <= 0 || mBytesPerSecond <= 0
+                    || mLinesPerSecond <= 0) {
+                throw new IllegalArgumentException(
+                        "Printer width, dpi, maxLineBuffer, chunkSize, bytesPerSecond and linesPerSecond must be positive");
+            }
+            return new PrinterProfile(this);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.capacitor.mkprinter.profile;
+
+import com.capacitor.mkprinter.escpos.CodePage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the {@link PrinterProfile} of a printer by MAC address.
+ *
+ * Configured profiles come first: one keyed by the printer's MAC address,
+ * else one keyed by its model name (exact, else the longest matching
+ * prefix). Without one the default profile is adapted to what the printer
+ * reported when it was probed: an "80" or "58" in the model name sets the
+ * paper width, and a printer without multi-byte support loses GBK.
+ *
+ * Probe results are cached in a properties file next to btinfo.properties,
+ * so each printer is probed once. The {@link ThroughputModel} learned for
+ * each printer is kept in the same file.
+ */
+public class PrinterProfileRegistry {
+
+    /** Cache file name; lives in the app's files directory */
+    public static final String FILE_NAME = "printerprofiles.properties";
+
+    private static final String KEY_MODEL = ".model";
+    private static final String KEY_TYPE_ID = ".typeId";
+    private static final String KEY_THROUGHPUT = ".throughput";
+    /** A standalone 58 or 80, as in "POS-80C" or "PT58", read as the paper width in mm */
+    private static final Pattern PAPER_WIDTH = Pattern.compile("(?<![0-9])(58|80)(?![0-9])");
+
+    private final File mFile;
+    private final PrinterProfile mDefault;
+    private final Map<String, PrinterProfile> mOverrides = new HashMap<>();
+    private final Properties mIdentities = new Properties();
+    private final Map<String, ThroughputModel> mThroughput = new HashMap<>();
+
+    /**
+     * Loads the probe cache; an unreadable cache is treated as empty and rebuilt
+     *
+     * @param file The probe cache
+     * @param defaultProfile Profile of printers without a configured one
+     */
+    public PrinterProfileRegistry(File file, PrinterProfile defaultProfile) {
+        mFile = file;
+        mDefault = defaultProfile;
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                mIdentities.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                mIdentities.clear();
+            }
+        }
+    }
+
+    public PrinterProfile getDefault() {
+        return mDefault;
+    }
+
+    /**
+     * Configures the profile of one printer or model
+     *
+     * @param macOrModel A MAC address, a model name or a model name prefix
+     */
+    public synchronized void putOverride(String macOrModel, PrinterProfile profile) {
+        mOverrides.put(normalize(macOrModel), profile);
+    }
+
+    /**
+     * @return True if the printer's profile is configured by MAC address, so probing it is pointless
+     */
+    public synchronized boolean hasOverride(String macAddress) {
+        return macAddress != null && mOverrides.containsKey(normalize(macAddress));
+    }
+
+    /**
+     * @return What the printer reported when it was probed, or null if it never was
+     */
+    public synchronized PrinterIdentity getIdentity(String macAddress) {
+        if (macAddress == null) {
+            return null;
+        }
+        String key = normalize(macAddress);
+        String typeId = mIdentities.getProperty(key + KEY_TYPE_ID);
+        if (typeId == null) {
+            return null;
+        }
+        int type;
+        try {
+            type = Integer.parseInt(typeId);
+        } catch (NumberFormatException e) {
+            type = PrinterIdentity.UNKNOWN_TYPE;
+        }
+        return new PrinterIdentity(mIdentities.getProperty(key + KEY_MODEL), type);
+    }
+
+    /**
+     * Caches a probe result and writes the cache
+     */
+    public synchronized void putIdentity(String macAddress, PrinterIdentity identity) throws IOException {
+        String key = normalize(macAddress);
+        if (identity.getModel() == null) {
+            mIdentities.remove(key + KEY_MODEL);
+        } else {
+            mIdentities.setProperty(key + KEY_MODEL, identity.getModel());
+        }
+        mIdentities.setProperty(key + KEY_TYPE_ID, Integer.toString(identity.getTypeId()));
+        save();
+    }
+
+    /**
+     * @return The printer's learned rates; a new model for a printer without any. The
+     * same instance is returned each time, so what is recorded in it can be saved with
+     * {@link #saveThroughput}
+     */
+    public synchronized ThroughputModel getThroughput(String macAddress) {
+        String key = normalize(macAddress);
+        ThroughputModel model = mThroughput.get(key);
+        if (model == null) {
+            model = ThroughputModel.decode(mIdentities.getProperty(key + KEY_THROUGHPUT));
+            mThroughput.put(key, model);
+        }
+        return model;
+    }
+
+    /**
+     * Writes the printer's learned rates to the cache
+     */
+    public synchronized void saveThroughput(String macAddress) throws IOException {
+        String key = normalize(macAddress);
+        mIdentities.setProperty(key + KEY_THROUGHPUT, getThroughput(macAddress).encode());
+        save();
+    }
+
+    /**
+     * Drops a cached probe result so the printer is probed again on its next connect
+     */
+    public synchronized void forget(String macAddress) throws IOException {
+        String key = normalize(macAddress);
+        mIdentities.remove(key + KEY_MODEL);
+        mIdentities.remove(key + KEY_TYPE_ID);
+        save();
+    }
+
+    /**
+     * @param macAddress The printer, or null for the default profile
+     */
+    public synchronized PrinterProfile getProfile(String macAddress) {
+        if (macAddress != null) {
+            PrinterProfile configured = mOverrides.get(normalize(macAddress));
+            if (configured != null) {
+                return configured;
+            }
+        }
+        return getProfile(getIdentity(macAddress));
+    }
+
+    /**
+     * @param identity A probe result, or null for the default profile
+     */
+    public synchronized PrinterProfile getProfile(PrinterIdentity identity) {
+        if (identity == null) {
+            return mDefault;
+        }
+        String model = identity.getModel();
+        PrinterProfile configured = model == null ? null : findModel(normalize(model));
+        if (configured != null) {
+            return configured.getModel() == null
+                    ? new PrinterProfile.Builder(configured).setModel(model).build()
+                    : configured;
+        }
+
+        PrinterProfile.Builder builder = new PrinterProfile.Builder(mDefault).setModel(model);
+        if (model != null) {
+            Matcher matcher = PAPER_WIDTH.matcher(model);
+            if (matcher.find()) {
+                builder.setWidthDots("80".equals(matcher.group(1))
+                        ? PrinterProfile.WIDE_WIDTH_DOTS : PrinterProfile.DEFAULT_WIDTH_DOTS);
+            }
+        }
+        if (!identity.supportsMultiByte()) {
+            List<CodePage> pages = new ArrayList<>();
+            for (CodePage page : mDefault.getCodePages()) {
+                if (!page.isMultiByte()) {
+                    pages.add(page);
+                }
+            }
+            if (pages.isEmpty()) {
+                pages.add(CodePage.CP437);
+            }
+            CodePage defaultPage = mDefault.getDefaultCodePage().isMultiByte()
+                    ? pages.get(0) : mDefault.getDefaultCodePage();
+            builder.setCodePages(defaultPage, pages.toArray(new CodePage[0]));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return The profile configured for the model, or for the longest prefix of it
+     */
+    private PrinterProfile findModel(String model) {
+        PrinterProfile exact = mOverrides.get(model);
+        if (exact != null) {
+            return exact;
+        }
+        PrinterProfile best = null;
+        int bestLength = 0;
+        for (Map.Entry<String, PrinterProfile> entry : mOverrides.entrySet()) {
+            String key = entry.getKey();
+            if (key.length() > bestLength && model.startsWith(key)) {
+                best = entry.getValue();
+                bestLength = key.length();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the cache to a temporary file and renames it over the old one
+     */
+    private void save() throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            mIdentities.store(out, "Probed printer identities and throughput");
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    private static String normalize(String key) {
+        return key.trim().toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,96 @@
+package com.capacitor.mkprinter.profile;
+
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Asks a freshly connected printer who it is with the ESC/POS GS I
+ * (transmit printer ID) command: GS I 67 for the model name and GS I 2 for
+ * the type ID. Printers that ignore GS I, as many clones do, simply leave the
+ * answers empty; the model then falls back to the Bluetooth device name.
+ */
+public class ProfileProber {
+
+    /** How long to wait for each answer */
+    public static final long DEFAULT_TIMEOUT_MS = 400;
+
+    private static final long POLL_INTERVAL_MS = 20;
+    private static final int GS = 0x1D;
+    /** GS I 67 answers '_', the name, then NUL */
+    private static final int MODEL_NAME = 67;
+    private static final int TYPE_ID = 2;
+    private static final int HEADER = '_';
+
+    private ProfileProber() {}
+
+    /**
+     * @param transport An open link to the printer, not in use by a print job
+     * @param fallbackModel Model to report when the printer does not name itself, e.g. its Bluetooth name
+     * @param timeoutMs How long to wait for each answer
+     */
+    public static PrinterIdentity probe(PrinterTransport transport, String fallbackModel, long timeoutMs)
+            throws IOException, InterruptedException {
+        byte[] buffer = new byte[80];
+        // Drop anything left over from before, e.g. an automatic status report
+        while (transport.read(buffer, 0, buffer.length) > 0) {
+            // discard
+        }
+
+        String model = null;
+        transport.write(new byte[]{GS, 'I', MODEL_NAME}, 0, 3);
+        int n = readAnswer(transport, buffer, 0, timeoutMs);
+        if (n > 1 && buffer[0] == HEADER) {
+            int end = 1;
+            while (end < n && buffer[end] != 0) {
+                end++;
+            }
+            model = new String(buffer, 1, end - 1, StandardCharsets.US_ASCII).trim();
+        }
+
+        int typeId = PrinterIdentity.UNKNOWN_TYPE;
+        transport.write(new byte[]{GS, 'I', TYPE_ID}, 0, 3);
+        n = readAnswer(transport, buffer, -1, timeoutMs);
+        // Bits 4 and 7 are always 0 in a type ID; anything else is not one
+        if (n == 1 && (buffer[0] & 0x90) == 0) {
+            typeId = buffer[0] & 0xFF;
+        }
+
+        if (model == null || model.isEmpty()) {
+            model = fallbackModel;
+        }
+        return new PrinterIdentity(model, typeId);
+    }
+
+    /**
+     * Collects an answer until {@code terminator} arrives, or for a single-byte
+     * answer ({@code terminator} -1) until one byte arrives, or the time is up
+     *
+     * @return Number of bytes read
+     */
+    private static int readAnswer(PrinterTransport transport, byte[] buffer, int terminator, long timeoutMs)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        int length = 0;
+        while (length < buffer.length) {
+            int n = transport.read(buffer, length, buffer.length - length);
+            if (n > 0) {
+                for (int i = length; i < length + n; i++) {
+                    if (terminator >= 0 && (buffer[i] & 0xFF) == terminator) {
+                        return i + 1;
+                    }
+                }
+                length += n;
+                if (terminator < 0) {
+                    return length;
+                }
+            } else if (System.nanoTime() >= deadline) {
+                break;
+            } else {
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+        }
+        return length;
+    }
+}
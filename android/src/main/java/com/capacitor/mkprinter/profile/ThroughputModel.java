@@ -0,0 +1,208 @@
+package com.capacitor.mkprinter.profile;
+
+import java.util.Locale;
+
+/**
+ * How fast one printer takes jobs and connects, learned from the jobs it
+ * printed, for completion estimates and for timeouts that fit the printer
+ * instead of a fixed guess.
+ *
+ * A job is taken to need {@code bytes / bytesPerSecond + rows / linesPerSecond}
+ * seconds: the link moves the bytes, the mechanism feeds the dot rows. Both
+ * rates are fitted by least squares over all jobs, with older jobs weighing
+ * exponentially less, so the model follows a printer whose battery runs down
+ * or whose link gets worse. Until a rate is learned the profile's configured
+ * one stands in.
+ *
+ * Connect times are tracked like TCP round trip times: a smoothed mean and
+ * mean deviation, the timeout being the mean plus four deviations.
+ */
+public class ThroughputModel {
+
+    /** Weight of the newest job in the fit */
+    private static final double JOB_WEIGHT = 0.2;
+    /** Jobs written faster than this went into the printer's buffer; they say nothing about its speed */
+    private static final long MIN_SAMPLE_MS = 50;
+    /** Print timeout: this many times the prediction, plus SLACK_MS, but at least MIN_PRINT_TIMEOUT_MS */
+    private static final int PRINT_TIMEOUT_FACTOR = 3;
+    private static final long PRINT_TIMEOUT_SLACK_MS = 5000;
+    public static final long MIN_PRINT_TIMEOUT_MS = 10000;
+    /** Longest connect timeout, however slow past connects were */
+    public static final long MAX_CONNECT_TIMEOUT_MS = 30000;
+
+    /** Weighted sums of bytes², bytes·rows, rows², bytes·seconds and rows·seconds */
+    private double mBytesBytes;
+    private double mBytesRows;
+    private double mRowsRows;
+    private double mBytesSeconds;
+    private double mRowsSeconds;
+    private int mJobs;
+    /** Fitted seconds per byte and per dot row; 0 when not learned */
+    private double mSecondsPerByte;
+    private double mSecondsPerRow;
+
+    private double mConnectMs;
+    private double mConnectDeviationMs;
+    private int mConnects;
+
+    /**
+     * Learns from a job that was written whole
+     *
+     * @param bytes Bytes in the job
+     * @param rows Dot rows it feeds
+     * @param millis How long writing it took, not counting time given to other jobs
+     * @return false if the job was too quick to learn from
+     */
+    public synchronized boolean recordJob(long bytes, long rows, long millis) {
+        if (millis < MIN_SAMPLE_MS || bytes <= 0) {
+            return false;
+        }
+        double b = bytes;
+        double r = rows;
+        double t = millis / 1000.0;
+        double keep = mJobs == 0 ? 0 : 1 - JOB_WEIGHT;
+        double add = mJobs == 0 ? 1 : JOB_WEIGHT;
+        mBytesBytes = keep * mBytesBytes + add * b * b;
+        mBytesRows = keep * mBytesRows + add * b * r;
+        mRowsRows = keep * mRowsRows + add * r * r;
+        mBytesSeconds = keep * mBytesSeconds + add * b * t;
+        mRowsSeconds = keep * mRowsSeconds + add * r * t;
+        mJobs++;
+        fit();
+        return true;
+    }
+
+    /**
+     * Solves the normal equations; when jobs so far cannot tell bytes and
+     * rows apart, e.g. all text at the same line length, the whole time is
+     * put on the bytes
+     */
+    private void fit() {
+        double det = mBytesBytes * mRowsRows - mBytesRows * mBytesRows;
+        if (det > 1e-9 * mBytesBytes * mRowsRows) {
+            double perByte = (mBytesSeconds * mRowsRows - mRowsSeconds * mBytesRows) / det;
+            double perRow = (mRowsSeconds * mBytesBytes - mBytesSeconds * mBytesRows) / det;
+            if (perByte > 0 && perRow > 0) {
+                mSecondsPerByte = perByte;
+                mSecondsPerRow = perRow;
+                return;
+            }
+        }
+        mSecondsPerByte = mBytesSeconds > 0 ? mBytesSeconds / mBytesBytes : 0;
+        mSecondsPerRow = 0;
+    }
+
+    /**
+     * Learns from a successful connect, or from one that timed out after {@code millis}
+     */
+    public synchronized void recordConnect(long millis) {
+        if (mConnects == 0) {
+            mConnectMs = millis;
+            mConnectDeviationMs = millis / 2.0;
+        } else {
+            mConnectDeviationMs = 0.75 * mConnectDeviationMs + 0.25 * Math.abs(mConnectMs - millis);
+            mConnectMs = 0.875 * mConnectMs + 0.125 * millis;
+        }
+        mConnects++;
+    }
+
+    /**
+     * @return Jobs learned from
+     */
+    public synchronized int getJobCount() {
+        return mJobs;
+    }
+
+    /**
+     * @return The learned rate, or 0 if there is none yet
+     */
+    public synchronized double getBytesPerSecond() {
+        return mSecondsPerByte > 0 ? 1 / mSecondsPerByte : 0;
+    }
+
+    /**
+     * @return The learned rate in dot rows, or 0 if there is none yet
+     */
+    public synchronized double getLinesPerSecond() {
+        return mSecondsPerRow > 0 ? 1 / mSecondsPerRow : 0;
+    }
+
+    /**
+     * @param profile Rates to use until some are learned
+     * @return How long a job should take to write
+     */
+    public synchronized long predictMillis(long bytes, long rows, PrinterProfile profile) {
+        double seconds;
+        if (mJobs == 0) {
+            seconds = (double) bytes / profile.getBytesPerSecond() + (double) rows / profile.getLinesPerSecond();
+        } else {
+            seconds = bytes * mSecondsPerByte + rows * mSecondsPerRow;
+        }
+        return (long) Math.ceil(seconds * 1000);
+    }
+
+    /**
+     * @return How long to let a job predicted to take {@code predictedMs} write before giving up on the printer
+     */
+    public static long getPrintTimeoutMs(long predictedMs) {
+        return Math.max(MIN_PRINT_TIMEOUT_MS, predictedMs * PRINT_TIMEOUT_FACTOR + PRINT_TIMEOUT_SLACK_MS);
+    }
+
+    /**
+     * @param minMs The timeout of a printer never connected to, and the shortest one given
+     * @return How long to wait for the printer to connect
+     */
+    public synchronized long getConnectTimeoutMs(long minMs) {
+        if (mConnects == 0) {
+            return minMs;
+        }
+        long timeout = (long) Math.ceil(mConnectMs + 4 * mConnectDeviationMs);
+        return Math.max(minMs, Math.min(MAX_CONNECT_TIMEOUT_MS, timeout));
+    }
+
+    /**
+     * @return The model as a line of numbers, for {@link #decode}
+     */
+    public synchronized String encode() {
+        return String.format(Locale.ROOT, "%d,%s,%s,%s,%s,%s,%d,%s,%s", mJobs, mBytesBytes, mBytesRows, mRowsRows,
+                mBytesSeconds, mRowsSeconds, mConnects, mConnectMs, mConnectDeviationMs);
+    }
+
+    /**
+     * @return The model {@link #encode} wrote, or a new one if {@code text} is null or not one
+     */
+    public static ThroughputModel decode(String text) {
+        ThroughputModel model = new ThroughputModel();
+        if (text == null) {
+            return model;
+        }
+        String[] fields = text.split(",");
+        if (fields.length != 9) {
+            return model;
+        }
+        try {
+            model.mJobs = Integer.parseInt(fields[0]);
+            model.mBytesBytes = Double.parseDouble(fields[1]);
+            model.mBytesRows = Double.parseDouble(fields[2]);
+            model.mRowsRows = Double.parseDouble(fields[3]);
+            model.mBytesSeconds = Double.parseDouble(fields[4]);
+            model.mRowsSeconds = Double.parseDouble(fields[5]);
+            model.mConnects = Integer.parseInt(fields[6]);
+            model.mConnectMs = Double.parseDouble(fields[7]);
+            model.mConnectDeviationMs = Double.parseDouble(fields[8]);
+        } catch (NumberFormatException e) {
+            return new ThroughputModel();
+        }
+        if (model.mJobs > 0) {
+            model.fit();
+        }
+        return model;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "ThroughputModel{jobs=%d, bytesPerSecond=%.0f, linesPerSecond=%.0f, "
+                + "connects=%d, connectMs=%.0f}", mJobs, getBytesPerSecond(), getLinesPerSecond(), mConnects,
+                mConnectMs);
+    }
+}
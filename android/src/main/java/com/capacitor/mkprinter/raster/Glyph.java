@@ -0,0 +1,52 @@
+package com.capacitor.mkprinter.raster;
+
+/**
+ * A rendered glyph cell: {@link #getAdvance()} dots wide and one line high,
+ * packed 1 bit per dot, most significant bit first.
+ */
+public class Glyph {
+
+    private final int mAdvance;
+    private final int mHeight;
+    private final int mBytesPerRow;
+    private final byte[] mData;
+    private final boolean mBlank;
+
+    public Glyph(int advance, int height, byte[] data) {
+        mAdvance = advance;
+        mHeight = height;
+        mBytesPerRow = (advance + 7) / 8;
+        mData = data;
+        boolean blank = true;
+        for (byte b : data) {
+            if (b != 0) {
+                blank = false;
+                break;
+            }
+        }
+        mBlank = blank;
+    }
+
+    public int getAdvance() {
+        return mAdvance;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getBytesPerRow() {
+        return mBytesPerRow;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * @return true for whitespace and other glyphs without ink, which are skipped when drawing
+     */
+    public boolean isBlank() {
+        return mBlank;
+    }
+}
@@ -0,0 +1,93 @@
+package com.capacitor.mkprinter.raster;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of rendered glyphs keyed by font, size and code point, so each
+ * glyph is rendered once and then only copied into printer rows.
+ *
+ * A direct-mapped front table answers repeat lookups without boxing the key;
+ * the LRU map behind it bounds memory.
+ */
+public class GlyphCache {
+
+    private static final int MAX_SIZE_DOTS = (1 << 11) - 1;
+    private static final int FRONT_SLOTS = 1024;
+
+    private final int mMaxGlyphs;
+    private final Map<String, Integer> mFontIds = new HashMap<>();
+    private final LinkedHashMap<Long, Glyph> mGlyphs;
+    private final long[] mFrontKeys = new long[FRONT_SLOTS];
+    private final Glyph[] mFrontGlyphs = new Glyph[FRONT_SLOTS];
+    private String mLastFontKey;
+    private int mLastFontId;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param maxGlyphs Number of glyphs kept before the least recently used are dropped
+     */
+    public GlyphCache(final int maxGlyphs) {
+        mMaxGlyphs = maxGlyphs;
+        mGlyphs = new LinkedHashMap<Long, Glyph>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Glyph> eldest) {
+                return size() > mMaxGlyphs;
+            }
+        };
+    }
+
+    public synchronized Glyph get(GlyphSource source, int sizeDots, int codePoint) {
+        long key = key(source.getFontKey(), sizeDots, codePoint);
+        int slot = (int) ((key ^ (key >>> 21) ^ (key >>> 32)) & (FRONT_SLOTS - 1));
+        Glyph glyph = mFrontGlyphs[slot];
+        if (glyph != null && mFrontKeys[slot] == key) {
+            mHits++;
+            return glyph;
+        }
+        glyph = mGlyphs.get(key);
+        if (glyph != null) {
+            mHits++;
+        } else {
+            mMisses++;
+            glyph = source.render(codePoint, sizeDots);
+            mGlyphs.put(key, glyph);
+        }
+        mFrontKeys[slot] = key;
+        mFrontGlyphs[slot] = glyph;
+        return glyph;
+    }
+
+    public synchronized int size() {
+        return mGlyphs.size();
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized void clear() {
+        mGlyphs.clear();
+        Arrays.fill(mFrontGlyphs, null);
+    }
+
+    private long key(String fontKey, int sizeDots, int codePoint) {
+        if (!fontKey.equals(mLastFontKey)) {
+            Integer fontId = mFontIds.get(fontKey);
+            if (fontId == null) {
+                fontId = mFontIds.size();
+                mFontIds.put(fontKey, fontId);
+            }
+            mLastFontKey = fontKey;
+            mLastFontId = fontId;
+        }
+        return ((long) mLastFontId << 32) | ((long) Math.min(sizeDots, MAX_SIZE_DOTS) << 21) | codePoint;
+    }
+}
@@ -0,0 +1,23 @@
+package com.capacitor.mkprinter.raster;
+
+/**
+ * Renders single code points of one typeface into {@link Glyph}s.
+ */
+public interface GlyphSource {
+
+    /**
+     * @return Identifies the typeface in the glyph cache key
+     */
+    String getFontKey();
+
+    /**
+     * @param sizeDots Font size in printer dots
+     * @return Height in dots of a line at this size
+     */
+    int getLineHeight(int sizeDots);
+
+    /**
+     * Renders {@code codePoint} into a cell one line high
+     */
+    Glyph render(int codePoint, int sizeDots);
+}
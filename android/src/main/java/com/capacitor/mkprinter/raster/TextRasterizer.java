@@ -0,0 +1,202 @@
+package com.capacitor.mkprinter.raster;
+
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.TextRow;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lays out {@link TextRow}s with a {@link GlyphSource} and writes each line
+ * as a raster band, copying cached glyph bits straight into a reused line
+ * buffer. No Bitmap is involved after a glyph is first rendered, so text in
+ * any script prints without the printer needing a matching code page.
+ */
+public class TextRasterizer {
+
+    /** Dot height at 203 dpi of the standard printer font that TextRow sizes multiply */
+    public static final int BASE_FONT_DOTS = 24;
+
+    private final GlyphCache mCache;
+    private final GlyphSource mSource;
+    private final int mWidth;
+    private final int mBaseFontDots;
+    private final int mBytesPerRow;
+    private byte[] mLine = new byte[0];
+
+    /**
+     * @param cache Shared glyph cache
+     * @param source Typeface to render with
+     * @param widthDots Printable width in dots
+     */
+    public TextRasterizer(GlyphCache cache, GlyphSource source, int widthDots) {
+        this(cache, source, widthDots, BASE_FONT_DOTS);
+    }
+
+    /**
+     * @param cache Shared glyph cache
+     * @param source Typeface to render with
+     * @param widthDots Printable width in dots
+     * @param baseFontDots Height of a size 1 row in dots, {@link #BASE_FONT_DOTS} scaled to the printer's dpi
+     */
+    public TextRasterizer(GlyphCache cache, GlyphSource source, int widthDots, int baseFontDots) {
+        mCache = cache;
+        mSource = source;
+        mWidth = widthDots;
+        mBaseFontDots = baseFontDots;
+        mBytesPerRow = (widthDots + 7) / 8;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Rasterizes all rows into {@code encoder}, one raster band per printed line
+     */
+    public void rasterize(List<TextRow> rows, EscPosEncoder encoder) {
+        for (TextRow row : rows) {
+            rasterize(row, encoder);
+        }
+    }
+
+    public void rasterize(TextRow row, EscPosEncoder encoder) {
+        int size = row.getSize() * mBaseFontDots;
+        int lineHeight = mSource.getLineHeight(size);
+        String text = row.getText();
+        if (!Normalizer.isNormalized(text, Normalizer.Form.NFC)) {
+            // Compose decomposed Vietnamese diacritics so each letter is one cached glyph
+            text = Normalizer.normalize(text, Normalizer.Form.NFC);
+        }
+
+        int start = 0;
+        int length = text.length();
+        do {
+            int newline = text.indexOf('\n', start);
+            int end = newline < 0 ? length : newline;
+            start = layoutParagraph(text, start, end, row, size, lineHeight, encoder);
+            if (newline >= 0) {
+                start = newline + 1;
+            }
+        } while (start < length);
+    }
+
+    /**
+     * Wraps text[start, end) into lines that fit the paper and emits them
+     *
+     * @return The index after the paragraph
+     */
+    private int layoutParagraph(String text, int start, int end, TextRow row, int size, int lineHeight,
+                                EscPosEncoder encoder) {
+        int lineStart = start;
+        do {
+            int width = 0;
+            int lineEnd = lineStart;
+            int lastBreak = -1;
+            int widthAtBreak = 0;
+            while (lineEnd < end) {
+                int cp = text.codePointAt(lineEnd);
+                int advance = mCache.get(mSource, size, cp).getAdvance();
+                if (width + advance > mWidth && lineEnd > lineStart) {
+                    break;
+                }
+                if (cp == ' ') {
+                    lastBreak = lineEnd;
+                    widthAtBreak = width;
+                }
+                width += advance;
+                lineEnd += Character.charCount(cp);
+            }
+            int next = lineEnd;
+            if (lineEnd < end && lastBreak > lineStart) {
+                // Wrap at the last space instead of inside a word; the space itself is dropped
+                lineEnd = lastBreak;
+                next = lastBreak + 1;
+                width = widthAtBreak;
+            }
+            emitLine(text, lineStart, lineEnd, width, row, size, lineHeight, encoder);
+            lineStart = next;
+        } while (lineStart < end);
+        return end;
+    }
+
+    private void emitLine(String text, int start, int end, int width, TextRow row, int size, int lineHeight,
+                          EscPosEncoder encoder) {
+        int bytes = mBytesPerRow * lineHeight;
+        if (mLine.length < bytes) {
+            mLine = new byte[bytes];
+        }
+        Arrays.fill(mLine, 0, bytes, (byte) 0);
+
+        int x;
+        switch (row.getAlign()) {
+            case CENTER:
+                x = Math.max(0, (mWidth - width) / 2);
+                break;
+            case RIGHT:
+                x = Math.max(0, mWidth - width);
+                break;
+            default:
+                x = 0;
+        }
+        int left = x;
+        for (int i = start; i < end; ) {
+            int cp = text.codePointAt(i);
+            Glyph glyph = mCache.get(mSource, size, cp);
+            if (!glyph.isBlank()) {
+                blit(glyph, x, lineHeight);
+            }
+            x += glyph.getAdvance();
+            i += Character.charCount(cp);
+        }
+        if (row.isUnderline() && x > left) {
+            int thickness = Math.max(1, size / mBaseFontDots);
+            for (int y = lineHeight - 1 - thickness; y < lineHeight - 1; y++) {
+                fillRow(y, left, Math.min(x, mWidth));
+            }
+        }
+        encoder.rasterBand(mLine, 0, mBytesPerRow, lineHeight);
+    }
+
+    /**
+     * ORs the glyph bits into the line buffer at dot column {@code x}
+     */
+    private void blit(Glyph glyph, int x, int lineHeight) {
+        byte[] src = glyph.getData();
+        int srcBytes = glyph.getBytesPerRow();
+        int rows = Math.min(lineHeight, glyph.getHeight());
+        int byteOffset = x >> 3;
+        int shift = x & 7;
+        for (int y = 0; y < rows; y++) {
+            int s = y * srcBytes;
+            int d = y * mBytesPerRow + byteOffset;
+            int rowEnd = (y + 1) * mBytesPerRow;
+            for (int i = 0; i < srcBytes && d + i < rowEnd; i++) {
+                int b = src[s + i] & 0xFF;
+                if (b == 0) {
+                    continue;
+                }
+                mLine[d + i] |= (byte) (b >>> shift);
+                if (shift != 0 && d + i + 1 < rowEnd) {
+                    mLine[d + i + 1] |= (byte) (b << (8 - shift));
+                }
+            }
+        }
+        // Clear any bits spilled past the paper width in the last byte
+        int tail = mWidth & 7;
+        if (tail != 0) {
+            byte mask = (byte) (0xFF << (8 - tail));
+            for (int y = 0; y < rows; y++) {
+                mLine[(y + 1) * mBytesPerRow - 1] &= mask;
+            }
+        }
+    }
+
+    private void fillRow(int y, int from, int to) {
+        int base = y * mBytesPerRow;
+        for (int px = from; px < to; px++) {
+            mLine[base + (px >> 3)] |= (byte) (0x80 >>> (px & 7));
+        }
+    }
+}
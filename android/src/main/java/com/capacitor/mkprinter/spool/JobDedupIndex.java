@@ -0,0 +1,101 @@
+package com.capacitor.mkprinter.spool;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the results of recently finished jobs by client job id, so a
+ * retried call returns the earlier result instead of printing again.
+ *
+ * Results are kept for a time window and at most {@code maxEntries} of them,
+ * oldest evicted first. A retry that arrives while the original is still
+ * running waits for it; if the original is abandoned, the retry runs the job
+ * itself. A job that failed after part of it reached the printer should be
+ * completed, with a result saying so, rather than abandoned.
+ *
+ * @param <R> Result type handed back to duplicates
+ */
+public class JobDedupIndex<R> {
+
+    private static class Completed<R> {
+        final R result;
+        final long completedAtNanos;
+
+        Completed(R result, long completedAtNanos) {
+            this.result = result;
+            this.completedAtNanos = completedAtNanos;
+        }
+    }
+
+    private final int mMaxEntries;
+    private final long mWindowNanos;
+    /** In completion order, oldest first */
+    private final LinkedHashMap<String, Completed<R>> mCompleted = new LinkedHashMap<>();
+    private final Set<String> mInFlight = new HashSet<>();
+
+    /**
+     * @param maxEntries Most finished jobs to remember
+     * @param windowMs How long a finished job is remembered, in milliseconds
+     */
+    public JobDedupIndex(int maxEntries, long windowMs) {
+        mMaxEntries = Math.max(1, maxEntries);
+        mWindowNanos = windowMs * 1000000L;
+    }
+
+    /**
+     * Claims a job id before running the job
+     *
+     * @return null if the caller now owns the job and must call {@link #complete} or {@link #abandon};
+     *         otherwise the result of the earlier run of the same job
+     */
+    public synchronized R claim(String jobId) throws InterruptedException {
+        while (true) {
+            evictExpired(System.nanoTime());
+            Completed<R> completed = mCompleted.get(jobId);
+            if (completed != null) {
+                return completed.result;
+            }
+            if (mInFlight.add(jobId)) {
+                return null;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Records the result of a claimed job; later claims of the same id get it back
+     */
+    public synchronized void complete(String jobId, R result) {
+        mInFlight.remove(jobId);
+        mCompleted.remove(jobId);
+        mCompleted.put(jobId, new Completed<>(result, System.nanoTime()));
+        while (mCompleted.size() > mMaxEntries) {
+            Iterator<String> oldest = mCompleted.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Releases a claimed job that failed before it printed anything, so a retry runs it again
+     */
+    public synchronized void abandon(String jobId) {
+        mInFlight.remove(jobId);
+        notifyAll();
+    }
+
+    public synchronized int size() {
+        return mCompleted.size();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Completed<R>>> it = mCompleted.entrySet().iterator();
+        while (it.hasNext() && now - it.next().getValue().completedAtNanos > mWindowNanos) {
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.capacitor.mkprinter.spool;
+
+import com.capacitor.mkprinter.metrics.PrintMetrics;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+
+/**
+ * Hands the printer link to one job at a time, most urgent lane first and in
+ * arrival order within a lane.
+ *
+ * A job {@link #acquire}s the link before writing and {@link #release}s it
+ * when done. A long job writes in segments and calls {@link #yieldTo} between
+ * them, at a job or cut boundary; if a job of a more urgent lane is waiting,
+ * the link goes to it and the long job resumes ahead of its own lane once
+ * the link is free again. The time each job waits for the link is recorded
+ * per lane, e.g. {@link PrintMetrics#STAGE_QUEUE_WAIT_URGENT}.
+ *
+ * Jobs may tell how long they expect to hold the link, so the scheduler can
+ * say how long a new job of a lane would wait, see {@link #getBacklogMs}.
+ *
+ * Work that must not share the link with any job, such as a firmware update,
+ * takes it with {@link #acquireExclusive}: from then on no lane is granted
+ * the link and a long job gives way at its next segment, until it is released.
+ */
+public class JobScheduler {
+
+    public enum Lane {
+        /** Rush tickets: next on the link, even ahead of a bulk batch in progress */
+        URGENT("urgent", PrintMetrics.STAGE_QUEUE_WAIT_URGENT),
+        NORMAL("normal", PrintMetrics.STAGE_QUEUE_WAIT_NORMAL),
+        /** Label and ticket batches: split at cuts, giving way to the other lanes */
+        BULK("bulk", PrintMetrics.STAGE_QUEUE_WAIT_BULK);
+
+        private final String mKey;
+        private final String mWaitStage;
+
+        Lane(String key, String waitStage) {
+            mKey = key;
+            mWaitStage = waitStage;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public String getWaitStage() {
+            return mWaitStage;
+        }
+
+        /**
+         * @return The lane with this key, {@link #NORMAL} for null, or null if there is none
+         */
+        public static Lane parse(String key) {
+            if (key == null) {
+                return NORMAL;
+            }
+            for (Lane lane : values()) {
+                if (lane.mKey.equalsIgnoreCase(key)) {
+                    return lane;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Lease {
+        final Lane lane;
+        /** Expected time on the link from grantedAt on */
+        long remainingMs;
+        long grantedAt;
+
+        Lease(Lane lane) {
+            this.lane = lane;
+        }
+
+        long getRemainingMs(long now) {
+            return Math.max(0, remainingMs - (now - grantedAt) / 1000000L);
+        }
+    }
+
+    /** Waiting jobs per lane, in arrival order */
+    private final EnumMap<Lane, ArrayDeque<Lease>> mWaiting = new EnumMap<>(Lane.class);
+    private Lease mHolder;
+    /** Exclusive lease waiting for or holding the link; no lane job is granted it meanwhile */
+    private Lease mExclusive;
+
+    public JobScheduler() {
+        for (Lane lane : Lane.values()) {
+            mWaiting.put(lane, new ArrayDeque<Lease>());
+        }
+    }
+
+    /**
+     * Waits until the link is free and no more urgent or earlier job is waiting
+     *
+     * @return The lease to pass to {@link #yieldTo} and {@link #release}
+     */
+    public Object acquire(Lane lane) throws InterruptedException {
+        return acquire(lane, 0);
+    }
+
+    /**
+     * @param estimateMs How long the job expects to hold the link
+     * @see #acquire(Lane)
+     */
+    public Object acquire(Lane lane, long estimateMs) throws InterruptedException {
+        Lease lease = new Lease(lane);
+        lease.remainingMs = estimateMs;
+        await(lane, lease, false);
+        return lease;
+    }
+
+    /**
+     * Takes the link for work that must not share it with any job: waits for
+     * the current job to finish or give way, and keeps every lane waiting
+     * until {@link #release}
+     *
+     * @return The lease to pass to {@link #release}
+     */
+    public synchronized Object acquireExclusive() throws InterruptedException {
+        while (mExclusive != null) {
+            wait();
+        }
+        Lease lease = new Lease(null);
+        mExclusive = lease;
+        // Wakes a bulk job's yieldTo check at its next segment
+        notifyAll();
+        try {
+            while (mHolder != null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            mExclusive = null;
+            notifyAll();
+            throw e;
+        }
+        mHolder = lease;
+        lease.grantedAt = System.nanoTime();
+        return lease;
+    }
+
+    /**
+     * Tells how much longer the job expects to hold the link, once it knows
+     */
+    public synchronized void setEstimate(Object lease, long estimateMs) {
+        Lease job = (Lease) lease;
+        job.remainingMs = estimateMs;
+        job.grantedAt = System.nanoTime();
+    }
+
+    /**
+     * @return How long a job of {@code lane} enqueued now would wait for the link:
+     * what the holder has left, unless it is a bulk job that gives way at its next
+     * cut, plus the estimates of the jobs waiting in this lane and more urgent ones
+     */
+    public synchronized long getBacklogMs(Lane lane) {
+        long now = System.nanoTime();
+        long backlog = 0;
+        if (mHolder != null && !(mHolder.lane == Lane.BULK && lane != Lane.BULK)) {
+            backlog = mHolder.getRemainingMs(now);
+        }
+        for (Lane waitingLane : Lane.values()) {
+            if (waitingLane.compareTo(lane) > 0) {
+                break;
+            }
+            for (Lease waiting : mWaiting.get(waitingLane)) {
+                backlog += waiting.remainingMs;
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * Gives the link to a waiting job of a more urgent lane or exclusive work,
+     * if there is one, and waits to get it back
+     *
+     * @return true if another job went in between
+     */
+    public boolean yieldTo(Lane lane, Object lease) throws InterruptedException {
+        Lease job = (Lease) lease;
+        synchronized (this) {
+            checkHolder(lease);
+            if (mExclusive == null && !hasMoreUrgent(lane)) {
+                return false;
+            }
+            job.remainingMs = job.getRemainingMs(System.nanoTime());
+            mHolder = null;
+            notifyAll();
+        }
+        PrintMetrics.get().increment(PrintMetrics.COUNTER_PREEMPTIONS);
+        await(lane, job, true);
+        return true;
+    }
+
+    /**
+     * Frees the link; does nothing if the job does not hold it, e.g. after
+     * being interrupted while waiting to resume
+     */
+    public synchronized void release(Object lease) {
+        if (mHolder == lease) {
+            mHolder = null;
+            if (mExclusive == lease) {
+                mExclusive = null;
+            }
+            notifyAll();
+        }
+    }
+
+    private void await(Lane lane, Lease lease, boolean resume) throws InterruptedException {
+        long start = PrintMetrics.start();
+        ArrayDeque<Lease> queue = mWaiting.get(lane);
+        synchronized (this) {
+            if (resume) {
+                queue.addFirst(lease);
+            } else {
+                queue.addLast(lease);
+            }
+            try {
+                while (mHolder != null || mExclusive != null || queue.peekFirst() != lease || hasMoreUrgent(lane)) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                queue.remove(lease);
+                notifyAll();
+                throw e;
+            }
+            queue.removeFirst();
+            mHolder = lease;
+            lease.grantedAt = System.nanoTime();
+        }
+        PrintMetrics.get().stop(lane.getWaitStage(), start);
+    }
+
+    private boolean hasMoreUrgent(Lane lane) {
+        for (Lane waitingLane : Lane.values()) {
+            if (waitingLane == lane) {
+                return false;
+            }
+            if (!mWaiting.get(waitingLane).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkHolder(Object lease) {
+        if (mHolder != lease) {
+            throw new IllegalStateException("The link is not held by this job");
+        }
+    }
+}
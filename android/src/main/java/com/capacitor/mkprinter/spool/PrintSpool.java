@@ -0,0 +1,388 @@
+package com.capacitor.mkprinter.spool;
+
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+
+/**
+ * A durable queue of encoded print jobs, kept as an append-only journal.
+ *
+ * Each record is a header (magic, type, job id, payload length, CRC32) and
+ * the payload. A JOB record carries the command bytes of one job, a DONE
+ * record marks it printed. On open the journal is replayed; a torn or
+ * corrupt tail, as left by a crash mid-write, is cut off. Job ids keep
+ * counting up across compactions and restarts: a compacted journal starts
+ * with a LAST_ID record holding the last id given out, so an id a caller
+ * saw never names a different job later.
+ *
+ * {@link #enqueue} returns once the job is on disk. Concurrent enqueues share
+ * one fsync (group commit), and DONE records are only flushed with the next
+ * sync, so a crash can at worst print a finished job again. The journal is
+ * truncated when the queue drains and rewritten when finished jobs make up
+ * most of it.
+ */
+public class PrintSpool implements Closeable {
+
+    /** Journal file name; lives in the app's files directory next to btinfo.properties */
+    public static final String FILE_NAME = "printspool.journal";
+
+    /** Rewrite the journal once this many bytes belong to finished jobs and they outweigh the pending ones */
+    public static final long COMPACT_THRESHOLD = 1024 * 1024;
+
+    private static final short MAGIC = 0x4D4B;
+    private static final byte TYPE_JOB = 1;
+    private static final byte TYPE_DONE = 2;
+    /** No payload; the id is the last one given out */
+    private static final byte TYPE_LAST_ID = 3;
+    /** magic(2) type(1) id(8) length(4) crc(4) */
+    private static final int HEADER_SIZE = 19;
+
+    private final File mFile;
+    private final Object mSyncLock = new Object();
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final CRC32 mCrc = new CRC32();
+
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private final ArrayDeque<Entry> mPending = new ArrayDeque<>();
+    private long mPendingBytes;
+    private long mNextId = 1;
+    private long mWriteSeq;
+    private long mSyncedSeq;
+
+    /**
+     * A pending job; {@code data} is read from the journal on demand
+     */
+    public static class Job {
+        private final long mId;
+        private final byte[] mData;
+
+        Job(long id, byte[] data) {
+            mId = id;
+            mData = data;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+    }
+
+    private static class Entry {
+        final long id;
+        final long offset;
+        final int length;
+
+        Entry(long id, long offset, int length) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Opens the journal, creating it if needed, and recovers the pending jobs
+     */
+    public PrintSpool(File file) throws IOException {
+        mFile = file;
+        open();
+    }
+
+    /**
+     * Appends a job and waits until it is durable
+     *
+     * @return The job id
+     */
+    public long enqueue(CommandBuffer job) throws IOException {
+        return enqueue(job.array(), 0, job.size());
+    }
+
+    /**
+     * Appends a job and waits until it is durable
+     *
+     * @return The job id
+     */
+    public long enqueue(byte[] data, int offset, int length) throws IOException {
+        long id;
+        long seq;
+        synchronized (this) {
+            id = mNextId++;
+            long position = append(TYPE_JOB, id, data, offset, length);
+            mPending.add(new Entry(id, position + HEADER_SIZE, length));
+            mPendingBytes += length;
+            seq = ++mWriteSeq;
+        }
+        sync(seq);
+        return id;
+    }
+
+    /**
+     * @return The oldest pending job, or null if the spool is empty
+     */
+    public synchronized Job peek() throws IOException {
+        Entry entry = mPending.peek();
+        if (entry == null) {
+            return null;
+        }
+        byte[] data = new byte[entry.length];
+        readFully(ByteBuffer.wrap(data), entry.offset);
+        return new Job(entry.id, data);
+    }
+
+    /**
+     * Marks a job printed. The journal is compacted when that leaves it empty or mostly garbage.
+     */
+    public void complete(long id) throws IOException {
+        boolean compact;
+        synchronized (this) {
+            Entry removed = null;
+            for (Entry entry : mPending) {
+                if (entry.id == id) {
+                    removed = entry;
+                    break;
+                }
+            }
+            if (removed == null) {
+                return;
+            }
+            mPending.remove(removed);
+            mPendingBytes -= removed.length;
+            append(TYPE_DONE, id, null, 0, 0);
+            mWriteSeq++;
+            long garbage = mChannel.size() - mPendingBytes - (long) mPending.size() * HEADER_SIZE;
+            compact = mPending.isEmpty() || (garbage > COMPACT_THRESHOLD && garbage > mPendingBytes);
+        }
+        if (compact) {
+            compact();
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    public synchronized long getPendingBytes() {
+        return mPendingBytes;
+    }
+
+    /**
+     * @return The journal size in bytes, including finished jobs not compacted yet
+     */
+    public synchronized long getJournalSize() throws IOException {
+        return mChannel.size();
+    }
+
+    /**
+     * Rewrites the journal with only the pending jobs, or truncates it if there are none
+     */
+    public void compact() throws IOException {
+        synchronized (mSyncLock) {
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    mChannel.truncate(0);
+                    writeLastId(mChannel, 0);
+                    mChannel.force(true);
+                } else {
+                    rewrite();
+                }
+                mSyncedSeq = mWriteSeq;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (mSyncLock) {
+            synchronized (this) {
+                if (mChannel.isOpen()) {
+                    mChannel.force(false);
+                    mRaf.close();
+                }
+            }
+        }
+    }
+
+    // ---- Journal I/O ----
+
+    private void open() throws IOException {
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        recover();
+    }
+
+    /**
+     * Replays the journal and cuts it at the first record that does not check out
+     */
+    private void recover() throws IOException {
+        mPending.clear();
+        mPendingBytes = 0;
+        long size = mChannel.size();
+        long position = 0;
+        byte[] payload = new byte[0];
+        while (position + HEADER_SIZE <= size) {
+            mHeader.clear();
+            readFully(mHeader, position);
+            mHeader.flip();
+            short magic = mHeader.getShort();
+            byte type = mHeader.get();
+            long id = mHeader.getLong();
+            int length = mHeader.getInt();
+            int crc = mHeader.getInt();
+            if (magic != MAGIC || (type != TYPE_JOB && type != TYPE_DONE && type != TYPE_LAST_ID) || length < 0
+                    || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            if (payload.length < length) {
+                payload = new byte[length];
+            }
+            readFully(ByteBuffer.wrap(payload, 0, length), position + HEADER_SIZE);
+            if (crc != checksum(type, id, payload, 0, length)) {
+                break;
+            }
+            if (type == TYPE_JOB) {
+                mPending.add(new Entry(id, position + HEADER_SIZE, length));
+                mPendingBytes += length;
+            } else if (type == TYPE_DONE) {
+                for (Entry entry : mPending) {
+                    if (entry.id == id) {
+                        mPending.remove(entry);
+                        mPendingBytes -= entry.length;
+                        break;
+                    }
+                }
+            }
+            mNextId = Math.max(mNextId, id + 1);
+            position += HEADER_SIZE + length;
+        }
+        if (position < size) {
+            mChannel.truncate(position);
+            mChannel.force(true);
+        }
+        mChannel.position(position);
+    }
+
+    /**
+     * Writes one record at the end of the journal
+     *
+     * @return The record's offset
+     */
+    private long append(byte type, long id, byte[] data, int offset, int length) throws IOException {
+        long position = mChannel.size();
+        writeRecord(mChannel, position, type, id, data, offset, length);
+        return position;
+    }
+
+    private void writeRecord(FileChannel channel, long position, byte type, long id, byte[] data, int offset,
+                             int length) throws IOException {
+        mHeader.clear();
+        mHeader.putShort(MAGIC).put(type).putLong(id).putInt(length).putInt(checksum(type, id, data, offset, length));
+        mHeader.flip();
+        writeFully(channel, mHeader, position);
+        if (length > 0) {
+            writeFully(channel, ByteBuffer.wrap(data, offset, length), position + HEADER_SIZE);
+        }
+    }
+
+    /**
+     * Writes the LAST_ID record, if any id was given out, at the start of a compacted journal
+     *
+     * @return The size of the record
+     */
+    private long writeLastId(FileChannel channel, long position) throws IOException {
+        if (mNextId == 1) {
+            return 0;
+        }
+        writeRecord(channel, position, TYPE_LAST_ID, mNextId - 1, null, 0, 0);
+        return HEADER_SIZE;
+    }
+
+    /**
+     * Flushes the journal unless another thread's flush already covered write {@code seq}
+     */
+    private void sync(long seq) throws IOException {
+        synchronized (mSyncLock) {
+            if (mSyncedSeq >= seq) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                target = mWriteSeq;
+            }
+            mChannel.force(false);
+            mSyncedSeq = target;
+        }
+    }
+
+    /**
+     * Copies the pending jobs into a new journal and swaps it in atomically
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        ArrayDeque<Entry> moved = new ArrayDeque<>();
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            long position = writeLastId(channel, 0);
+            for (Entry entry : mPending) {
+                long copied = 0;
+                // Header and payload are contiguous in the old journal
+                while (copied < HEADER_SIZE + entry.length) {
+                    copied += mChannel.transferTo(entry.offset - HEADER_SIZE + copied,
+                            HEADER_SIZE + entry.length - copied, channel);
+                }
+                moved.add(new Entry(entry.id, position + HEADER_SIZE, entry.length));
+                position += HEADER_SIZE + entry.length;
+            }
+            channel.force(true);
+        }
+        mRaf.close();
+        if (!temp.renameTo(mFile)) {
+            // Keep using the old journal; it is still complete
+            mRaf = new RandomAccessFile(mFile, "rw");
+            mChannel = mRaf.getChannel();
+            throw new IOException("Could not replace " + mFile);
+        }
+        mRaf = new RandomAccessFile(mFile, "rw");
+        mChannel = mRaf.getChannel();
+        mPending.clear();
+        mPending.addAll(moved);
+    }
+
+    private int checksum(byte type, long id, byte[] data, int offset, int length) {
+        mCrc.reset();
+        mCrc.update(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mCrc.update((int) (id >>> shift));
+        }
+        if (length > 0) {
+            mCrc.update(data, offset, length);
+        }
+        return (int) mCrc.getValue();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + mFile);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.capacitor.mkprinter.transport;
+
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.metrics.PrintMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes encoded jobs to a {@link PrinterTransport} in fixed-size chunks so
+ * one large job never has to fit in the link's send buffer at once.
+ */
+public class ChunkedWriter {
+
+    /** Chunk size the vendor SDK uses for firmware transfers */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final PrinterTransport mTransport;
+    private final int mChunkSize;
+    /** Bytes the link accepted over all writes */
+    private long mBytesWritten;
+
+    public ChunkedWriter(PrinterTransport transport) {
+        this(transport, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedWriter(PrinterTransport transport, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        mTransport = transport;
+        mChunkSize = chunkSize;
+    }
+
+    public PrinterTransport getTransport() {
+        return mTransport;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * @return Bytes the link has accepted so far, including those of a write that failed
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Writes the valid part of {@code buffer}
+     *
+     * @return Number of bytes written
+     */
+    public int write(CommandBuffer buffer) throws IOException {
+        return write(buffer.array(), 0, buffer.size());
+    }
+
+    public int write(byte[] data, int offset, int length) throws IOException {
+        long start = PrintMetrics.start();
+        int written = 0;
+        try {
+            while (written < length) {
+                int chunk = Math.min(mChunkSize, length - written);
+                int n = mTransport.write(data, offset + written, chunk);
+                if (n <= 0) {
+                    throw new IOException("Printer link accepted no data after " + written + " of " + length + " bytes");
+                }
+                written += n;
+            }
+        } finally {
+            mBytesWritten += written;
+            PrintMetrics metrics = PrintMetrics.get();
+            metrics.add(PrintMetrics.COUNTER_BYTES_SENT, written);
+            metrics.stop(PrintMetrics.STAGE_TRANSFER, start);
+        }
+        return written;
+    }
+
+    /**
+     * Copies a stream to the printer one chunk at a time, so a job of any size
+     * needs one chunk of memory. The stream is not closed.
+     *
+     * @return Number of bytes written
+     */
+    public long write(InputStream in) throws IOException {
+        long start = PrintMetrics.start();
+        byte[] chunk = new byte[mChunkSize];
+        long written = 0;
+        try {
+            int n;
+            while ((n = in.read(chunk, 0, chunk.length)) >= 0) {
+                int sent = 0;
+                while (sent < n) {
+                    int accepted = mTransport.write(chunk, sent, n - sent);
+                    if (accepted <= 0) {
+                        throw new IOException("Printer link accepted no data after " + (written + sent) + " bytes");
+                    }
+                    sent += accepted;
+                    mBytesWritten += accepted;
+                }
+                written += n;
+            }
+        } finally {
+            PrintMetrics metrics = PrintMetrics.get();
+            metrics.add(PrintMetrics.COUNTER_BYTES_SENT, written);
+            metrics.stop(PrintMetrics.STAGE_TRANSFER, start);
+        }
+        return written;
+    }
+}
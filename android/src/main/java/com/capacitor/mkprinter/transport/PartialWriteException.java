@@ -0,0 +1,26 @@
+package com.capacitor.mkprinter.transport;
+
+import java.io.IOException;
+
+/**
+ * A job failed after part of it had reached the printer, which may already
+ * have printed that part. Running the job again could print it twice.
+ */
+public class PartialWriteException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long mBytesWritten;
+
+    public PartialWriteException(String message, Throwable cause, long bytesWritten) {
+        super(message, cause);
+        mBytesWritten = bytesWritten;
+    }
+
+    /**
+     * @return Bytes the link accepted before the failure
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+}
@@ -0,0 +1,30 @@
+package com.capacitor.mkprinter.transport;
+
+import java.io.IOException;
+
+/**
+ * Byte-level link to a printer.
+ *
+ * Implementations wrap a vendor connection, a BLE link or a simulated printer,
+ * so the encoding and writing code does not depend on how the bytes travel.
+ */
+public interface PrinterTransport {
+
+    /**
+     * Writes {@code length} bytes, blocking until the link has accepted them
+     *
+     * @return Number of bytes written
+     */
+    int write(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Reads whatever the printer has sent back
+     *
+     * @return Number of bytes read, 0 if nothing is available
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    boolean isConnected();
+
+    void close();
+}
@@ -0,0 +1,110 @@
+package com.capacitor.mkprinter.transport;
+
+/**
+ * The printer's answers to the ESC/POS real-time status requests
+ * DLE EOT 1 (printer), 2 (offline cause), 3 (error cause) and 4 (paper
+ * sensor). Each answer is one byte; a request the printer did not answer
+ * in time is {@link #NO_REPLY} and its flags read as false.
+ */
+public class RealTimeStatus {
+
+    public static final int PRINTER = 1;
+    public static final int OFFLINE = 2;
+    public static final int ERROR = 3;
+    public static final int PAPER = 4;
+
+    public static final int NO_REPLY = -1;
+
+    private final int[] mReplies;
+
+    /**
+     * @param replies The answers to requests 1 to 4 in order, {@link #NO_REPLY} where there was none
+     */
+    public RealTimeStatus(int[] replies) {
+        if (replies.length != PAPER) {
+            throw new IllegalArgumentException("Expected " + PAPER + " replies");
+        }
+        mReplies = replies.clone();
+    }
+
+    /**
+     * Fixed bits 1 and 4 set, 0 and 7 clear, as in every DLE EOT answer
+     */
+    public static boolean isReply(int b) {
+        return (b & 0x93) == 0x12;
+    }
+
+    /**
+     * @param request {@link #PRINTER}, {@link #OFFLINE}, {@link #ERROR} or {@link #PAPER}
+     * @return The answer byte, or {@link #NO_REPLY}
+     */
+    public int getReply(int request) {
+        return mReplies[request - 1];
+    }
+
+    /**
+     * @return true if the printer answered at least one request
+     */
+    public boolean hasReply() {
+        for (int reply : mReplies) {
+            if (reply != NO_REPLY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isOffline() {
+        return bit(PRINTER, 3);
+    }
+
+    public boolean isCoverOpen() {
+        return bit(OFFLINE, 2);
+    }
+
+    /**
+     * Stopped because the paper ran out, as the offline cause reports it
+     */
+    public boolean isPaperOut() {
+        return bit(OFFLINE, 5) || (bit(PAPER, 5) && bit(PAPER, 6));
+    }
+
+    public boolean isPaperNearEnd() {
+        return bit(PAPER, 2) && bit(PAPER, 3);
+    }
+
+    /**
+     * Cutter, mechanical or other error, recoverable or not
+     */
+    public boolean hasError() {
+        return bit(OFFLINE, 6) || bit(ERROR, 2) || bit(ERROR, 3) || bit(ERROR, 5) || bit(ERROR, 6);
+    }
+
+    public boolean isCutterError() {
+        return bit(ERROR, 3);
+    }
+
+    /**
+     * Answered and neither offline, out of paper, open nor in error
+     */
+    public boolean isReady() {
+        return getReply(PRINTER) != NO_REPLY && !isOffline() && !isCoverOpen() && !isPaperOut() && !hasError();
+    }
+
+    private boolean bit(int request, int bit) {
+        int reply = getReply(request);
+        return reply != NO_REPLY && (reply & (1 << bit)) != 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("RealTimeStatus{");
+        for (int i = 0; i < mReplies.length; i++) {
+            if (i > 0) {
+                s.append(", ");
+            }
+            s.append(i + 1).append('=').append(mReplies[i] == NO_REPLY ? "none" : Integer.toHexString(mReplies[i]));
+        }
+        return s.append('}').toString();
+    }
+}
@@ -0,0 +1,337 @@
+package com.capacitor.mkprinter.transport;
+
+import com.capacitor.mkprinter.escpos.CommandScanner;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link PrinterTransport} shared by print jobs and real-time status queries,
+ * so status can be polled while a large job is still being sent.
+ *
+ * A status request (DLE EOT n) waits in a queue and goes out at the next
+ * point between two commands of the stream written, found by a
+ * {@link CommandScanner}: on its own when the link is idle, or between two
+ * commands of the chunk being written, never inside a command or its image
+ * or symbol data. The printer acts on real-time commands as they arrive,
+ * ahead of the job data in its buffer, and answers each with one byte;
+ * those bytes are matched to the outstanding requests in order and
+ * everything else the printer sends is left for {@link #read}.
+ *
+ * A request that is not answered in time is given up together with any older
+ * ones, and that many late answers arriving within the next timeout are
+ * dropped rather than matched to newer requests.
+ *
+ * A job that is not ESC/POS, e.g. ZPL, is marked with {@link #beginOpaqueJob}:
+ * its bytes are passed through unscanned and nothing is put into them, so
+ * requests wait until the job ends.
+ */
+public class StatusMultiplexer implements PrinterTransport {
+
+    /** How long a query waits for its answers */
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+
+    private static final long POLL_INTERVAL_MS = 10;
+    private static final int DLE = 0x10;
+    private static final int EOT = 0x04;
+    /** Most unread non-status bytes kept, oldest dropped first */
+    private static final int MAX_PASSTHROUGH = 1024;
+
+    private static class Request {
+        final int n;
+        int reply = RealTimeStatus.NO_REPLY;
+        boolean sent;
+        IOException error;
+
+        Request(int n) {
+            this.n = n;
+        }
+
+        boolean isDone() {
+            return reply != RealTimeStatus.NO_REPLY || error != null;
+        }
+    }
+
+    private final PrinterTransport mTransport;
+    /** Held for each write, so requests and job data do not interleave mid-write */
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    /** Follows the commands written so far; used under the write lock */
+    private final CommandScanner mScanner = new CommandScanner();
+    /** Set while a job that is not ESC/POS is written; used under the write lock */
+    private boolean mOpaque;
+    /** Guards the queues, the stale answer count and the passthrough buffer */
+    private final Object mLock = new Object();
+    private final ArrayDeque<Request> mPending = new ArrayDeque<>();
+    /** Sent and not answered yet, oldest first */
+    private final ArrayDeque<Request> mSent = new ArrayDeque<>();
+    private int mStale;
+    private long mStaleDeadline;
+    private final byte[] mReadBuffer = new byte[256];
+    private final byte[] mPassthrough = new byte[MAX_PASSTHROUGH];
+    private int mPassthroughLength;
+
+    public StatusMultiplexer(PrinterTransport transport) {
+        mTransport = transport;
+    }
+
+    public PrinterTransport getTransport() {
+        return mTransport;
+    }
+
+    @Override
+    public int write(byte[] data, int offset, int length) throws IOException {
+        mWriteLock.lock();
+        try {
+            if (mOpaque) {
+                return mTransport.write(data, offset, length);
+            }
+            int written = 0;
+            if (!mScanner.isAtBoundary() && hasPending()) {
+                // Finish the command in progress first, if it ends in this chunk, and send the requests after it
+                int boundary = mScanner.scanToBoundary(data, offset, length);
+                written = boundary < 0 ? length : boundary - offset;
+                writeFully(data, offset, written);
+                if (boundary < 0) {
+                    return length;
+                }
+            }
+            if (mScanner.isAtBoundary()) {
+                flushPending();
+            }
+            int n = mTransport.write(data, offset + written, length - written);
+            if (n > 0) {
+                mScanner.scanAll(data, offset + written, n);
+                written += n;
+            }
+            return written > 0 ? written : n;
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Marks the start, or the resumption after another job had the link, of a
+     * job whose bytes are not ESC/POS: they cannot be scanned for points
+     * between commands, so no status request goes out until {@link #endJob}.
+     * Call it while no other job can write.
+     */
+    public void beginOpaqueJob() {
+        mWriteLock.lock();
+        try {
+            mOpaque = true;
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of a job: whatever the job's last bytes were, the next
+     * job starts with a new command, so waiting requests may go out. Call it
+     * while no other job can write.
+     */
+    public void endJob() {
+        mWriteLock.lock();
+        try {
+            mOpaque = false;
+            mScanner.reset();
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        synchronized (mLock) {
+            poll();
+            int n = Math.min(length, mPassthroughLength);
+            System.arraycopy(mPassthrough, 0, buffer, offset, n);
+            System.arraycopy(mPassthrough, n, mPassthrough, 0, mPassthroughLength - n);
+            mPassthroughLength -= n;
+            return n;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mTransport.isConnected();
+    }
+
+    @Override
+    public void close() {
+        mTransport.close();
+    }
+
+    /**
+     * Asks for all four real-time statuses without waiting for a job being
+     * written to finish
+     *
+     * @param timeoutMs How long to wait for the answers
+     * @return The answers; unanswered ones are {@link RealTimeStatus#NO_REPLY}
+     * @throws IOException If the requests could not be sent
+     */
+    public RealTimeStatus queryStatus(long timeoutMs) throws IOException, InterruptedException {
+        Request[] requests = new Request[RealTimeStatus.PAPER];
+        synchronized (mLock) {
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = new Request(RealTimeStatus.PRINTER + i);
+                mPending.add(requests[i]);
+            }
+        }
+
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        try {
+            while (true) {
+                // An idle link between commands is ours to write on; otherwise the writer sends the
+                // requests at the next command boundary
+                if (!requests[requests.length - 1].sent && mWriteLock.tryLock()) {
+                    try {
+                        if (!mOpaque && mScanner.isAtBoundary()) {
+                            flushPending();
+                        }
+                    } finally {
+                        mWriteLock.unlock();
+                    }
+                }
+                synchronized (mLock) {
+                    poll();
+                    boolean done = true;
+                    for (Request request : requests) {
+                        if (request.error != null) {
+                            throw new IOException("Status request not sent: " + request.error.getMessage(),
+                                    request.error);
+                        }
+                        done &= request.isDone();
+                    }
+                    if (done || System.nanoTime() >= deadline) {
+                        break;
+                    }
+                }
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+        } finally {
+            synchronized (mLock) {
+                giveUp(requests, timeoutMs);
+            }
+        }
+
+        int[] replies = new int[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            replies[i] = requests[i].reply;
+        }
+        return new RealTimeStatus(replies);
+    }
+
+    private boolean hasPending() {
+        synchronized (mLock) {
+            return !mPending.isEmpty();
+        }
+    }
+
+    /**
+     * Writes all of the bytes; the caller holds the write lock
+     */
+    private void writeFully(byte[] data, int offset, int length) throws IOException {
+        int written = 0;
+        while (written < length) {
+            int n = mTransport.write(data, offset + written, length - written);
+            if (n <= 0) {
+                throw new IOException("Printer link accepted no data");
+            }
+            written += n;
+        }
+    }
+
+    /**
+     * Sends the queued requests; the caller holds the write lock and the stream is between commands
+     */
+    private void flushPending() throws IOException {
+        Request[] batch;
+        synchronized (mLock) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = mPending.toArray(new Request[0]);
+            mPending.clear();
+            // Queued as sent first, so an answer that comes back quickly finds its request
+            for (Request request : batch) {
+                request.sent = true;
+                mSent.add(request);
+            }
+        }
+
+        byte[] data = new byte[batch.length * 3];
+        for (int i = 0; i < batch.length; i++) {
+            data[i * 3] = DLE;
+            data[i * 3 + 1] = EOT;
+            data[i * 3 + 2] = (byte) batch[i].n;
+        }
+        try {
+            writeFully(data, 0, data.length);
+        } catch (IOException e) {
+            synchronized (mLock) {
+                for (Request request : batch) {
+                    mSent.remove(request);
+                    request.error = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads what the printer sent and hands the status answers to their
+     * requests; the caller holds {@link #mLock}
+     */
+    private void poll() throws IOException {
+        int n;
+        while ((n = mTransport.read(mReadBuffer, 0, mReadBuffer.length)) > 0) {
+            for (int i = 0; i < n; i++) {
+                int b = mReadBuffer[i] & 0xFF;
+                if (mStale > 0 && System.nanoTime() - mStaleDeadline >= 0) {
+                    mStale = 0;
+                }
+                if (RealTimeStatus.isReply(b) && mStale > 0) {
+                    mStale--;
+                } else if (RealTimeStatus.isReply(b) && !mSent.isEmpty()) {
+                    mSent.poll().reply = b;
+                } else {
+                    if (mPassthroughLength == mPassthrough.length) {
+                        System.arraycopy(mPassthrough, 1, mPassthrough, 0, mPassthroughLength - 1);
+                        mPassthroughLength--;
+                    }
+                    mPassthrough[mPassthroughLength++] = (byte) b;
+                }
+            }
+        }
+    }
+
+    /**
+     * Withdraws the unanswered requests of a finished query; sent ones and any
+     * older ones still outstanding will have late answers, which are dropped
+     */
+    private void giveUp(Request[] requests, long timeoutMs) {
+        for (Request request : requests) {
+            mPending.remove(request);
+        }
+        Request last = null;
+        for (Request request : requests) {
+            if (request.sent && !request.isDone()) {
+                last = request;
+            }
+        }
+        if (last == null) {
+            return;
+        }
+        Iterator<Request> it = mSent.iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            it.remove();
+            mStale++;
+            if (request == last) {
+                break;
+            }
+        }
+        mStaleDeadline = System.nanoTime() + timeoutMs * 1000000L;
+    }
+}
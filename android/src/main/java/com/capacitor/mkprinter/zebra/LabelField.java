@@ -0,0 +1,394 @@
+package com.capacitor.mkprinter.zebra;
+
+import com.capacitor.mkprinter.barcode.BarcodeJob;
+import com.capacitor.mkprinter.barcode.BarcodeType;
+import com.capacitor.mkprinter.barcode.QrCode;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.TextRow;
+
+import java.util.Locale;
+
+/**
+ * One element of a {@link LabelFormat}, placed at x, y in dots from the
+ * label's top left corner.
+ *
+ * Text and barcode fields are variable when they have a name: the format
+ * stored on the printer holds a numbered ^FN slot and each label fills it
+ * with its own data. Without a name they print the same content on every
+ * label, as boxes and images always do.
+ */
+public abstract class LabelField {
+
+    /** Field orientation, in ZPL order */
+    public enum Rotation {
+        /** Upright */
+        N,
+        /** 90 degrees clockwise */
+        R,
+        /** Upside down */
+        I,
+        /** 270 degrees clockwise */
+        B;
+
+        /**
+         * @param value "N", "R", "I", "B" or the angle in degrees; anything else is N
+         */
+        public static Rotation parse(String value) {
+            if (value == null) {
+                return N;
+            }
+            switch (value.trim().toUpperCase(Locale.ROOT)) {
+                case "R":
+                case "90":
+                    return R;
+                case "I":
+                case "180":
+                    return I;
+                case "B":
+                case "270":
+                    return B;
+                default:
+                    return N;
+            }
+        }
+    }
+
+    private final int mX;
+    private final int mY;
+    private final String mName;
+
+    LabelField(int x, int y, String name) {
+        mX = Math.max(0, x);
+        mY = Math.max(0, y);
+        mName = name;
+    }
+
+    public int getX() {
+        return mX;
+    }
+
+    public int getY() {
+        return mY;
+    }
+
+    /**
+     * @return The name labels give this field's data under, or null if it is fixed
+     */
+    public String getName() {
+        return mName;
+    }
+
+    public boolean isVariable() {
+        return mName != null;
+    }
+
+    /**
+     * Appends the field's commands to a format
+     *
+     * @param number The ^FN number of a variable field
+     */
+    abstract void compile(StringBuilder out, int number);
+
+    /**
+     * @return The ^FD content for a label's value, e.g. with the QR mode prefix
+     */
+    String encodeData(String value) {
+        return value;
+    }
+
+    void appendOrigin(StringBuilder out) {
+        out.append("^FO").append(mX).append(',').append(mY);
+    }
+
+    /**
+     * Ends the field: a ^FN slot for a variable field, the content for a fixed one
+     */
+    void appendData(StringBuilder out, int number, String fixed) {
+        if (isVariable()) {
+            out.append("^FN").append(number);
+        } else {
+            appendFieldData(out, encodeData(fixed));
+        }
+        out.append("^FS");
+    }
+
+    /**
+     * Appends ^FD with the data, hex-escaped after ^FH if it holds ^, ~, \ or control characters
+     */
+    static void appendFieldData(StringBuilder out, String data) {
+        boolean escape = false;
+        for (int i = 0; i < data.length() && !escape; i++) {
+            escape = needsEscape(data.charAt(i));
+        }
+        if (!escape) {
+            out.append("^FD").append(data);
+            return;
+        }
+        out.append("^FH\\^FD");
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (needsEscape(c)) {
+                out.append('\\').append(String.format(Locale.ROOT, "%02X", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static boolean needsEscape(char c) {
+        return c == '^' || c == '~' || c == '\\' || c < 0x20;
+    }
+
+    /**
+     * Text in a printer font, optionally wrapped in a block
+     */
+    public static class Text extends LabelField {
+        /** ^A0 scalable font height in dots when none is given */
+        public static final int DEFAULT_HEIGHT = 30;
+
+        private final String mText;
+        private final String mFont;
+        private final int mHeight;
+        private final int mWidth;
+        private final Rotation mRotation;
+        private final int mBlockWidth;
+        private final int mMaxLines;
+        private final TextRow.Align mAlign;
+
+        /**
+         * @param name Field name for per-label text, or null for fixed text
+         * @param text The fixed text; ignored for a variable field
+         * @param font Printer font, "0" to "9" or "A" to "Z"; null for the scalable font 0
+         * @param height Character height in dots; 0 for the default
+         * @param width Character width in dots; 0 to follow the height
+         * @param rotation Orientation
+         * @param blockWidth Width to wrap and align the text in; 0 for a single unaligned line
+         * @param maxLines Most lines in the block
+         * @param align Alignment in the block
+         */
+        public Text(int x, int y, String name, String text, String font, int height, int width, Rotation rotation,
+                    int blockWidth, int maxLines, TextRow.Align align) {
+            super(x, y, name);
+            mText = text == null ? "" : text;
+            mFont = font == null || !font.matches("[0-9A-Za-z]") ? "0" : font.toUpperCase(Locale.ROOT);
+            mHeight = height > 0 ? height : DEFAULT_HEIGHT;
+            mWidth = Math.max(0, width);
+            mRotation = rotation == null ? Rotation.N : rotation;
+            mBlockWidth = Math.max(0, blockWidth);
+            mMaxLines = Math.max(1, maxLines);
+            mAlign = align == null ? TextRow.Align.LEFT : align;
+        }
+
+        @Override
+        void compile(StringBuilder out, int number) {
+            appendOrigin(out);
+            out.append("^A").append(mFont).append(mRotation.name()).append(',').append(mHeight);
+            if (mWidth > 0) {
+                out.append(',').append(mWidth);
+            }
+            if (mBlockWidth > 0) {
+                char justify = mAlign == TextRow.Align.CENTER ? 'C' : mAlign == TextRow.Align.RIGHT ? 'R' : 'L';
+                out.append("^FB").append(mBlockWidth).append(',').append(mMaxLines).append(",0,").append(justify);
+            }
+            appendData(out, number, mText);
+        }
+    }
+
+    /**
+     * A 1D barcode, QR code or PDF417 symbol drawn by the printer
+     */
+    public static class Barcode extends LabelField {
+        private final BarcodeType mType;
+        private final String mData;
+        private final int mModuleSize;
+        private final int mHeight;
+        private final QrCode.Ecc mEcc;
+        private final BarcodeJob.Hri mHri;
+        private final Rotation mRotation;
+
+        /**
+         * @param name Field name for per-label data, or null for fixed data
+         * @param data The fixed data; ignored for a variable field
+         * @param moduleSize Narrow bar width, or QR magnification, in dots; 0 for the default
+         * @param height Bar height in dots for 1D barcodes, row height for PDF417
+         * @param ecc QR error correction level; also sets the PDF417 security level
+         * @param hri Human readable text for 1D barcodes; {@link BarcodeJob.Hri#BOTH} prints it below
+         * @param rotation Orientation; QR codes are always upright
+         */
+        public Barcode(int x, int y, String name, BarcodeType type, String data, int moduleSize, int height,
+                       QrCode.Ecc ecc, BarcodeJob.Hri hri, Rotation rotation) {
+            super(x, y, name);
+            mType = type;
+            mData = data == null ? "" : data;
+            if (moduleSize <= 0) {
+                moduleSize = type == BarcodeType.QR ? BarcodeJob.DEFAULT_QR_MODULE_SIZE : BarcodeJob.DEFAULT_MODULE_SIZE;
+            }
+            mModuleSize = Math.min(10, moduleSize);
+            mHeight = height > 0 ? height : BarcodeJob.DEFAULT_HEIGHT;
+            mEcc = ecc == null ? QrCode.Ecc.M : ecc;
+            mHri = hri == null ? BarcodeJob.Hri.BELOW : hri;
+            mRotation = rotation == null ? Rotation.N : rotation;
+        }
+
+        @Override
+        void compile(StringBuilder out, int number) {
+            appendOrigin(out);
+            String o = mRotation.name();
+            String hri = mHri == BarcodeJob.Hri.NONE ? "N" : "Y";
+            String above = mHri == BarcodeJob.Hri.ABOVE ? "Y" : "N";
+            if (mType == BarcodeType.QR) {
+                out.append("^BQN,2,").append(mModuleSize);
+            } else {
+                out.append("^BY").append(mModuleSize);
+                switch (mType) {
+                    case CODE128:
+                        out.append("^BC").append(o).append(',').append(mHeight).append(',').append(hri)
+                                .append(',').append(above).append(",N");
+                        break;
+                    case CODE39:
+                        out.append("^B3").append(o).append(",N,").append(mHeight).append(',').append(hri)
+                                .append(',').append(above);
+                        break;
+                    case CODE93:
+                        out.append("^BA").append(o).append(',').append(mHeight).append(',').append(hri)
+                                .append(',').append(above).append(",N");
+                        break;
+                    case EAN13:
+                        out.append("^BE").append(o).append(',').append(mHeight).append(',').append(hri)
+                                .append(',').append(above);
+                        break;
+                    case EAN8:
+                        out.append("^B8").append(o).append(',').append(mHeight).append(',').append(hri)
+                                .append(',').append(above);
+                        break;
+                    case UPC_A:
+                        out.append("^BU").append(o).append(',').append(mHeight).append(',').append(hri)
+                                .append(',').append(above).append(",Y");
+                        break;
+                    case UPC_E:
+                        out.append("^B9").append(o).append(',').append(mHeight).append(',').append(hri)
+                                .append(',').append(above).append(",Y");
+                        break;
+                    case ITF:
+                        out.append("^B2").append(o).append(',').append(mHeight).append(',').append(hri)
+                                .append(',').append(above).append(",N");
+                        break;
+                    case CODABAR:
+                        out.append("^BK").append(o).append(",N,").append(mHeight).append(',').append(hri)
+                                .append(',').append(above).append(",A,A");
+                        break;
+                    case PDF417:
+                        out.append("^B7").append(o).append(',').append(mHeight).append(',')
+                                .append(getPdf417Security());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("No ZPL command for " + mType);
+                }
+            }
+            appendData(out, number, mData);
+        }
+
+        @Override
+        String encodeData(String value) {
+            // Error correction and automatic mode go in front of the QR data
+            return mType == BarcodeType.QR ? mEcc.name() + "A," + value : value;
+        }
+
+        private int getPdf417Security() {
+            switch (mEcc) {
+                case L:
+                    return 1;
+                case Q:
+                    return 4;
+                case H:
+                    return 5;
+                default:
+                    return 2;
+            }
+        }
+    }
+
+    /**
+     * A rectangle or line; a box as thick as it is narrow is a line
+     */
+    public static class Box extends LabelField {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mThickness;
+        private final boolean mWhite;
+        private final int mRounding;
+
+        /**
+         * @param thickness Border thickness in dots
+         * @param white Draw in white, to clear part of a black area
+         * @param rounding Corner rounding, 0 to 8
+         */
+        public Box(int x, int y, int width, int height, int thickness, boolean white, int rounding) {
+            super(x, y, null);
+            mThickness = Math.max(1, thickness);
+            mWidth = Math.max(mThickness, width);
+            mHeight = Math.max(mThickness, height);
+            mWhite = white;
+            mRounding = Math.max(0, Math.min(8, rounding));
+        }
+
+        @Override
+        void compile(StringBuilder out, int number) {
+            appendOrigin(out);
+            out.append("^GB").append(mWidth).append(',').append(mHeight).append(',').append(mThickness)
+                    .append(',').append(mWhite ? 'W' : 'B').append(',').append(mRounding).append("^FS");
+        }
+    }
+
+    /**
+     * A graphic already stored on the printer, e.g. a logo downloaded once with ~DG
+     */
+    public static class Image extends LabelField {
+        private final String mImage;
+        private final int mScaleX;
+        private final int mScaleY;
+
+        /**
+         * @param image Stored graphic name, e.g. "LOGO" or "E:LOGO.GRF"
+         * @param scaleX Horizontal magnification, 1 to 10
+         * @param scaleY Vertical magnification, 1 to 10
+         * @throws IllegalArgumentException If the name is not a printer object name
+         */
+        public Image(int x, int y, String image, int scaleX, int scaleY) {
+            super(x, y, null);
+            mImage = LabelFormat.objectName(image, "GRF");
+            mScaleX = Math.max(1, Math.min(10, scaleX));
+            mScaleY = Math.max(1, Math.min(10, scaleY));
+        }
+
+        @Override
+        void compile(StringBuilder out, int number) {
+            appendOrigin(out);
+            out.append("^XG").append(mImage).append(',').append(mScaleX).append(',').append(mScaleY).append("^FS");
+        }
+    }
+
+    /**
+     * An image carried in the format itself as compressed ^GF fields, so it
+     * goes to the printer once with the stored format
+     */
+    public static class Graphic extends LabelField {
+        private final String mFields;
+
+        /**
+         * @param image The image at its printed size; it is encoded here and not kept
+         * @param deflate Whether the printer takes Z64 (deflated) graphic data, see {@link ZplGraphic}
+         */
+        public Graphic(int x, int y, MonochromeImage image, boolean deflate) {
+            super(x, y, null);
+            StringBuilder fields = new StringBuilder(image.getBytesPerRow() * image.getHeight() / 4 + 64);
+            ZplGraphic.append(fields, getX(), getY(), image, deflate);
+            mFields = fields.toString();
+        }
+
+        @Override
+        void compile(StringBuilder out, int number) {
+            out.append(mFields);
+        }
+    }
+}
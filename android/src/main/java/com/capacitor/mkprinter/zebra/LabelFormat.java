@@ -0,0 +1,202 @@
+package com.capacitor.mkprinter.zebra;
+
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A label layout compiled to ZPL. The layout is stored on the printer once
+ * as a format (^DF) and each label then recalls it (^XF) with only the data
+ * of its variable fields, so a batch sends the layout's boxes, fonts and
+ * barcode settings once instead of with every label.
+ *
+ * Text is sent as UTF-8 (^CI28). Immutable; build one with a {@link Builder}.
+ */
+public class LabelFormat {
+
+    /** Device, name and extension of a printer object, e.g. R:SHIPPING.ZPL */
+    private static final Pattern OBJECT_NAME = Pattern.compile("([REBA]:)?[A-Z0-9_]{1,16}(\\.[A-Z]{3})?");
+    /** Highest ^FN number */
+    private static final int MAX_FIELDS = 9999;
+
+    private final String mName;
+    private final int mWidthDots;
+    private final int mHeightDots;
+    private final List<LabelField> mFields;
+    /** ^FN number of each field, 0 for fixed ones */
+    private final int[] mNumbers;
+    private final Set<String> mNames = new HashSet<>();
+    private final String mFormat;
+
+    private LabelFormat(Builder builder) {
+        mName = builder.mName;
+        mWidthDots = builder.mWidthDots;
+        mHeightDots = builder.mHeightDots;
+        mFields = Collections.unmodifiableList(new ArrayList<>(builder.mFields));
+        mNumbers = new int[mFields.size()];
+
+        StringBuilder out = new StringBuilder(256);
+        out.append("^XA^DF").append(mName).append("^FS^CI28^LH0,0");
+        if (mWidthDots > 0) {
+            out.append("^PW").append(mWidthDots);
+        }
+        if (mHeightDots > 0) {
+            out.append("^LL").append(mHeightDots);
+        }
+        out.append('\n');
+        int number = 0;
+        for (int i = 0; i < mFields.size(); i++) {
+            LabelField field = mFields.get(i);
+            if (field.isVariable()) {
+                mNumbers[i] = ++number;
+                mNames.add(field.getName());
+            }
+            field.compile(out, mNumbers[i]);
+            out.append('\n');
+        }
+        out.append("^XZ\n");
+        mFormat = out.toString();
+    }
+
+    /**
+     * @return The format's object name on the printer, e.g. R:SHIPPING.ZPL
+     */
+    public String getName() {
+        return mName;
+    }
+
+    public List<LabelField> getFields() {
+        return mFields;
+    }
+
+    /**
+     * @return The ZPL that stores the format
+     */
+    public String getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Appends the ZPL that stores the format on the printer
+     */
+    public void encodeFormat(CommandBuffer out) {
+        out.write(mFormat.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Appends one label that recalls the stored format
+     *
+     * @param data Values of the variable fields by name; fields left out print empty
+     * @param copies How many of this label to print
+     * @throws IllegalArgumentException If data names a field the format does not have
+     */
+    public void encodeLabel(Map<String, String> data, int copies, CommandBuffer out) {
+        StringBuilder label = new StringBuilder(64);
+        label.append("^XA^XF").append(mName).append("^FS");
+        for (String name : data.keySet()) {
+            if (!mNames.contains(name)) {
+                throw new IllegalArgumentException("Unknown label field " + name);
+            }
+        }
+        // Fields may share a name, e.g. a tracking number as text and as a barcode; each gets the value its own way
+        for (int i = 0; i < mFields.size(); i++) {
+            LabelField field = mFields.get(i);
+            String value = field.isVariable() ? data.get(field.getName()) : null;
+            if (value != null) {
+                label.append("^FN").append(mNumbers[i]);
+                LabelField.appendFieldData(label, field.encodeData(value));
+                label.append("^FS");
+            }
+        }
+        if (copies > 1) {
+            label.append("^PQ").append(copies);
+        }
+        label.append("^XZ\n");
+        out.write(label.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param name A printer object name, with or without device and extension
+     * @param extension The extension to add when the name has none
+     * @return The name with device (R:, RAM, when none is given) and extension
+     * @throws IllegalArgumentException If the name is not a printer object name
+     */
+    static String objectName(String name, String extension) {
+        String key = name == null ? "" : name.trim().toUpperCase(Locale.ROOT);
+        if (!OBJECT_NAME.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid printer object name " + name
+                    + "; use up to 16 letters, digits and _, e.g. E:LABEL." + extension);
+        }
+        if (key.indexOf(':') < 0) {
+            key = "R:" + key;
+        }
+        if (key.indexOf('.') < 0) {
+            key = key + "." + extension;
+        }
+        return key;
+    }
+
+    public static class Builder {
+        private final String mName;
+        private int mWidthDots;
+        private int mHeightDots;
+        private final List<LabelField> mFields = new ArrayList<>();
+
+        /**
+         * @param name The format's name on the printer, e.g. "SHIPPING" or "E:SHIPPING.ZPL" to keep it in flash
+         * @throws IllegalArgumentException If the name is not a printer object name
+         */
+        public Builder(String name) {
+            mName = objectName(name, "ZPL");
+        }
+
+        /**
+         * @param widthDots Print width (^PW); 0 to keep the printer's
+         */
+        public Builder setWidthDots(int widthDots) {
+            mWidthDots = widthDots;
+            return this;
+        }
+
+        /**
+         * @param heightDots Label length (^LL); 0 to keep the printer's
+         */
+        public Builder setHeightDots(int heightDots) {
+            mHeightDots = heightDots;
+            return this;
+        }
+
+        public Builder addField(LabelField field) {
+            mFields.add(field);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException If the format has no fields or too many variable ones
+         */
+        public LabelFormat build() {
+            if (mFields.isEmpty()) {
+                throw new IllegalArgumentException("A label format needs at least one field");
+            }
+            if (mWidthDots < 0 || mHeightDots < 0) {
+                throw new IllegalArgumentException("Label width and height must not be negative");
+            }
+            int variable = 0;
+            for (LabelField field : mFields) {
+                variable += field.isVariable() ? 1 : 0;
+            }
+            if (variable > MAX_FIELDS) {
+                throw new IllegalArgumentException("A label format takes at most " + MAX_FIELDS + " variable fields");
+            }
+            return new LabelFormat(this);
+        }
+    }
+}
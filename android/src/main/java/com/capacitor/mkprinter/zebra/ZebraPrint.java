@@ -1,27 +1,66 @@
 package com.capacitor.mkprinter.zebra;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.Base64;
-import android.util.Log;
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.transport.PrinterTransport;
 
-import com.getcapacitor.JSArray;
-
-import com.zebra.sdk.comm.BluetoothConnectionInsecure;
-import com.zebra.sdk.comm.Connection;
-import com.zebra.sdk.comm.ConnectionException;
-import com.zebra.sdk.graphics.internal.ZebraImageAndroid;
-import com.zebra.sdk.printer.PrinterStatus;
-import com.zebra.sdk.printer.SGD;
-import com.zebra.sdk.printer.ZebraPrinter;
-import com.zebra.sdk.printer.ZebraPrinterFactory;
-import com.zebra.sdk.printer.ZebraPrinterLanguageUnknownException;
-import com.zebra.sdk.printer.ZebraPrinterLinkOs;
-import com.zebra.sdk.printer.discovery.BluetoothDiscoverer;
-import com.zebra.sdk.printer.discovery.DiscoveredPrinter;
-import com.zebra.sdk.printer.discovery.DiscoveryHandler;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
+/**
+ * Batches {@link LabelFormat} labels for a ZPL printer.
+ *
+ * Remembers which formats each printer link has stored, so the ^DF format
+ * goes out with the first batch on a connection, or after the format
+ * changed, and later batches hold only ^XF labels. A reconnect is a new
+ * link and stores the format again: a printer that was switched off has
+ * lost the formats kept in RAM.
+ */
 public class ZebraPrint {
 
+    /** Format ZPL stored on each link, by format name */
+    private static final Map<PrinterTransport, Map<String, String>> mStored = new WeakHashMap<>();
+
+    /**
+     * Appends a batch of labels, preceded by the format if the link may not have it
+     *
+     * @param link The link the batch is for, or null if it is not known yet, e.g. for a spooled batch
+     * @param labels Values of the variable fields of each label
+     * @param copies How many of each label to print
+     * @return true if the format is in the batch; once it is written, call {@link #setStored}
+     * @throws IllegalArgumentException If a label names a field the format does not have
+     */
+    public static boolean encodeLabels(PrinterTransport link, LabelFormat format, List<Map<String, String>> labels,
+                                       int copies, CommandBuffer out) {
+        boolean withFormat = link == null || !isStored(link, format);
+        if (withFormat) {
+            format.encodeFormat(out);
+        }
+        for (Map<String, String> label : labels) {
+            format.encodeLabel(label, copies, out);
+        }
+        return withFormat;
+    }
+
+    /**
+     * Records that a batch with the format reached the printer over the link
+     */
+    public static void setStored(PrinterTransport link, LabelFormat format) {
+        synchronized (mStored) {
+            Map<String, String> formats = mStored.get(link);
+            if (formats == null) {
+                formats = new HashMap<>();
+                mStored.put(link, formats);
+            }
+            formats.put(format.getName(), format.getFormat());
+        }
+    }
 
-}
\ No newline at end of file
+    private static boolean isStored(PrinterTransport link, LabelFormat format) {
+        synchronized (mStored) {
+            Map<String, String> formats = mStored.get(link);
+            return formats != null && format.getFormat().equals(formats.get(format.getName()));
+        }
+    }
+}
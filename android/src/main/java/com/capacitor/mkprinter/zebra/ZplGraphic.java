@@ -0,0 +1,201 @@
+package com.capacitor.mkprinter.zebra;
+
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a 1-bit image as ZPL ^GF graphic fields, compressed with the two
+ * schemes the ZPL II guide defines for ASCII graphic data:
+ *
+ * <ul>
+ *   <li>ACS, the alternative data compression scheme every ZPL printer takes:
+ *   hex digits with run counts (G-Y for 1-19, g-z for 20-400), ',' for a row
+ *   that is white to its end, '!' for one black to its end and ':' for a row
+ *   that repeats the one above</li>
+ *   <li>Z64: the rows deflated (LZ77), base64 encoded and closed with a
+ *   CRC-16 of the base64 text, for printers with {@code Z64_GRAPHICS}</li>
+ * </ul>
+ *
+ * The image goes out in bands of {@link #BAND_ROWS} rows, one ^GF field
+ * each, and every band takes whichever encoding is shorter, so mostly white
+ * stretches stay in ACS and busy ones switch to Z64.
+ */
+public class ZplGraphic {
+
+    /** Rows per ^GF field */
+    public static final int BAND_ROWS = 256;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    /** Most a single lower case ACS count letter (z) stands for */
+    private static final int MAX_LOWER_COUNT = 400;
+
+    private ZplGraphic() {}
+
+    /**
+     * Appends the image as ^FO/^GF fields placed at x, y
+     *
+     * @param deflate Whether the printer takes Z64 data
+     */
+    public static void append(StringBuilder out, int x, int y, MonochromeImage image, boolean deflate) {
+        int bytesPerRow = image.getBytesPerRow();
+        byte[] data = image.getData();
+        Deflater deflater = deflate ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+        StringBuilder acs = new StringBuilder();
+        StringBuilder z64 = new StringBuilder();
+        try {
+            for (int top = 0; top < image.getHeight(); top += BAND_ROWS) {
+                int rows = Math.min(BAND_ROWS, image.getHeight() - top);
+                int offset = top * bytesPerRow;
+                int length = rows * bytesPerRow;
+                acs.setLength(0);
+                appendAcs(acs, data, offset, bytesPerRow, rows);
+                StringBuilder band = acs;
+                if (deflater != null) {
+                    z64.setLength(0);
+                    appendZ64(z64, deflater, data, offset, length);
+                    if (z64.length() < acs.length()) {
+                        band = z64;
+                    }
+                }
+                out.append("^FO").append(x).append(',').append(y + top)
+                        .append("^GFA,").append(length).append(',').append(length).append(',').append(bytesPerRow)
+                        .append(',').append(band).append("^FS");
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Appends rows as ACS-compressed hex
+     */
+    static void appendAcs(StringBuilder out, byte[] data, int offset, int bytesPerRow, int rows) {
+        int digits = bytesPerRow * 2;
+        for (int row = 0; row < rows; row++) {
+            int start = offset + row * bytesPerRow;
+            if (row > 0 && sameRow(data, start - bytesPerRow, start, bytesPerRow)) {
+                out.append(':');
+                continue;
+            }
+            // The row's end, in hex digits, once a trailing run of 0 or F is cut off
+            int end = digits;
+            int last = digit(data, start, digits - 1);
+            if (last == 0 || last == 0xF) {
+                while (end > 0 && digit(data, start, end - 1) == last) {
+                    end--;
+                }
+            }
+            int i = 0;
+            while (i < end) {
+                int value = digit(data, start, i);
+                int run = 1;
+                while (i + run < end && digit(data, start, i + run) == value) {
+                    run++;
+                }
+                appendRun(out, HEX[value], run);
+                i += run;
+            }
+            if (end < digits) {
+                out.append(last == 0 ? ',' : '!');
+            }
+        }
+    }
+
+    /**
+     * Appends data deflated, base64 encoded and checked: ":Z64:" data ":" CRC
+     */
+    static void appendZ64(StringBuilder out, Deflater deflater, byte[] data, int offset, int length) {
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(length / 4 + 64);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            deflated.write(chunk, 0, deflater.deflate(chunk));
+        }
+        out.append(":Z64:");
+        int start = out.length();
+        appendBase64(out, deflated.toByteArray());
+        int crc = crc16(out, start, out.length());
+        out.append(':');
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            out.append(Character.toLowerCase(HEX[(crc >> shift) & 0xF]));
+        }
+    }
+
+    /**
+     * CRC-16/XMODEM (polynomial 0x1021, initial value 0), as Z64 checks its base64 text
+     */
+    static int crc16(CharSequence text, int start, int end) {
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc ^= (text.charAt(i) & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            crc &= 0xFFFF;
+        }
+        return crc;
+    }
+
+    /**
+     * A run of one hex digit: the digit alone, or the ACS count letters and the digit when shorter
+     */
+    private static void appendRun(StringBuilder out, char digit, int run) {
+        if (run < 3) {
+            for (int i = 0; i < run; i++) {
+                out.append(digit);
+            }
+            return;
+        }
+        while (run >= MAX_LOWER_COUNT) {
+            out.append('z');
+            run -= MAX_LOWER_COUNT;
+        }
+        if (run >= 20) {
+            out.append((char) ('g' + run / 20 - 1));
+            run %= 20;
+        }
+        if (run > 0) {
+            out.append((char) ('G' + run - 1));
+        }
+        out.append(digit);
+    }
+
+    private static void appendBase64(StringBuilder out, byte[] data) {
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+            out.append(BASE64[bits >> 18]).append(BASE64[(bits >> 12) & 0x3F])
+                    .append(BASE64[(bits >> 6) & 0x3F]).append(BASE64[bits & 0x3F]);
+        }
+        if (i < data.length) {
+            int bits = (data[i] & 0xFF) << 16 | (i + 1 < data.length ? (data[i + 1] & 0xFF) << 8 : 0);
+            out.append(BASE64[bits >> 18]).append(BASE64[(bits >> 12) & 0x3F]);
+            out.append(i + 1 < data.length ? BASE64[(bits >> 6) & 0x3F] : '=').append('=');
+        }
+    }
+
+    /**
+     * @return Hex digit {@code index} of the row at {@code start}, high nibble first
+     */
+    private static int digit(byte[] data, int start, int index) {
+        int b = data[start + (index >> 1)];
+        return (index & 1) == 0 ? (b >> 4) & 0xF : b & 0xF;
+    }
+
+    private static boolean sameRow(byte[] data, int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (data[a + i] != data[b + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
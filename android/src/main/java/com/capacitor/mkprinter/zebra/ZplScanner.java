@@ -0,0 +1,52 @@
+package com.capacitor.mkprinter.zebra;
+
+/**
+ * Steps through a stream of ZPL, finding where each label format ends (^XZ),
+ * so a batch can be split into whole labels the way
+ * {@link com.capacitor.mkprinter.escpos.CommandScanner} splits ESC/POS
+ * tickets at their cuts. Bytes can be fed in any slices; a ^XZ split between
+ * two calls is still found.
+ *
+ * Field data cannot hold a bare caret, so every ^XZ in the stream ends a format.
+ */
+public class ZplScanner {
+
+    /** Bytes of "^XZ" matched at the end of the bytes scanned so far */
+    private int mMatched;
+
+    /**
+     * @return true if the job is ZPL: its first byte that is not white space is a ZPL command prefix (^ or ~)
+     */
+    public static boolean isZpl(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b == '^' || b == '~';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Steps through {@code length} bytes from {@code offset}
+     *
+     * @return The index just after the first ^XZ completed in the range, or
+     * -1 if there is none; scan again from there for the next one
+     */
+    public int scan(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            if (b == '^') {
+                mMatched = 1;
+            } else if (mMatched == 1 && (b == 'X' || b == 'x')) {
+                mMatched = 2;
+            } else if (mMatched == 2 && (b == 'Z' || b == 'z')) {
+                mMatched = 0;
+                return i + 1;
+            } else {
+                mMatched = 0;
+            }
+        }
+        return -1;
+    }
+}
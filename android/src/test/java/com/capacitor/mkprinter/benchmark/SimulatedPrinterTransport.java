@@ -0,0 +1,227 @@
+package com.capacitor.mkprinter.benchmark;
+
+import com.capacitor.mkprinter.escpos.CommandScanner;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory printer for running the print paths without hardware.
+ *
+ * Models a serial link of a given baud rate feeding a receive buffer that the
+ * print mechanism drains at a fixed rate. When the buffer is full the printer
+ * signals busy and the writer stalls until it is half empty again, like
+ * hardware flow control. Time is simulated on a virtual clock so thousands of jobs run
+ * in milliseconds; {@link #setRealtime(boolean)} also sleeps for it.
+ *
+ * Real-time status requests (DLE EOT n) found between two commands are
+ * answered at once with a status byte for an online printer with paper,
+ * read back through {@link #read}. Safe to use from several threads.
+ */
+public class SimulatedPrinterTransport implements PrinterTransport {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int DLE = 0x10;
+    private static final int EOT = 0x04;
+    /** Answer to every status request: fixed bits only, nothing wrong */
+    private static final int STATUS_OK = 0x12;
+
+    private final int mBaudRate;
+    private final int mBufferSize;
+    private final int mPrintBytesPerSecond;
+    private final int mRecordLimit;
+    private final ByteArrayOutputStream mRecorded = new ByteArrayOutputStream();
+    /** Follows the commands received, so status requests are told from job data */
+    private final CommandScanner mScanner = new CommandScanner();
+    private int mPendingReplies;
+    private long mStatusRequests;
+    /** When the bytes each thread wrote last will have been printed */
+    private final ThreadLocal<Long> mPrintedAtNanos = new ThreadLocal<>();
+
+    private long mClockNanos;
+    private long mDrainedAtNanos;
+    private double mBufferLevel;
+    private long mBytesReceived;
+    private long mBusyEvents;
+    private long mBusyNanos;
+    private boolean mRealtime;
+    private boolean mConnected = true;
+
+    /**
+     * @param baudRate Link speed in bits per second; 10 bits are sent per byte
+     * @param bufferSize Printer receive buffer in bytes
+     * @param printBytesPerSecond Rate at which the print mechanism consumes buffered bytes
+     * @param recordLimit Maximum number of received bytes kept for inspection
+     */
+    public SimulatedPrinterTransport(int baudRate, int bufferSize, int printBytesPerSecond, int recordLimit) {
+        mBaudRate = baudRate;
+        mBufferSize = bufferSize;
+        mPrintBytesPerSecond = printBytesPerSecond;
+        mRecordLimit = recordLimit;
+    }
+
+    public synchronized void setRealtime(boolean realtime) {
+        mRealtime = realtime;
+    }
+
+    @Override
+    public synchronized int write(byte[] data, int offset, int length) {
+        if (!mConnected) {
+            throw new IllegalStateException("Simulated printer is disconnected");
+        }
+        record(data, offset, length);
+        answerStatusRequests(data, offset, length);
+        long start = mClockNanos;
+        int remaining = length;
+        while (remaining > 0) {
+            drain();
+            int free = (int) (mBufferSize - mBufferLevel);
+            if (free <= 0) {
+                // Buffer full: printer raises busy until it has printed down to half full
+                long wait = (long) Math.ceil((mBufferLevel - mBufferSize / 2.0) * NANOS_PER_SECOND / mPrintBytesPerSecond);
+                mBusyEvents++;
+                mBusyNanos += wait;
+                mClockNanos += wait;
+                continue;
+            }
+            int slice = Math.min(remaining, free);
+            mClockNanos += slice * 10L * NANOS_PER_SECOND / mBaudRate;
+            drain();
+            mBufferLevel += slice;
+            remaining -= slice;
+        }
+        mBytesReceived += length;
+        mPrintedAtNanos.set(mClockNanos + (long) Math.ceil(mBufferLevel * NANOS_PER_SECOND / mPrintBytesPerSecond));
+        sleepIfRealtime(mClockNanos - start);
+        return length;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) {
+        int n = Math.min(length, mPendingReplies);
+        for (int i = 0; i < n; i++) {
+            buffer[offset + i] = (byte) STATUS_OK;
+        }
+        mPendingReplies -= n;
+        return n;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public synchronized void close() {
+        mConnected = false;
+    }
+
+    /**
+     * Advances the clock until everything received has been printed
+     */
+    public synchronized void awaitPrinted() {
+        drain();
+        if (mBufferLevel > 0) {
+            long wait = (long) Math.ceil(mBufferLevel * NANOS_PER_SECOND / mPrintBytesPerSecond);
+            mClockNanos += wait;
+            sleepIfRealtime(wait);
+            drain();
+        }
+    }
+
+    /**
+     * Moves the clock forward to {@code nanos} if it is behind, e.g. while the printer sits idle
+     */
+    public synchronized void advanceTo(long nanos) {
+        if (nanos > mClockNanos) {
+            mClockNanos = nanos;
+        }
+    }
+
+    public synchronized void advanceBy(long nanos) {
+        mClockNanos += nanos;
+    }
+
+    public synchronized long getClockNanos() {
+        return mClockNanos;
+    }
+
+    /**
+     * @return The time on the clock at which the bytes the calling thread wrote last will have been
+     * printed, or 0 if it wrote none
+     */
+    public long getPrintedAtNanos() {
+        Long printedAt = mPrintedAtNanos.get();
+        return printedAt == null ? 0 : printedAt;
+    }
+
+    public synchronized long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    public synchronized long getBusyEvents() {
+        return mBusyEvents;
+    }
+
+    public synchronized long getBusyNanos() {
+        return mBusyNanos;
+    }
+
+    public synchronized long getStatusRequests() {
+        return mStatusRequests;
+    }
+
+    /**
+     * @return The first {@code recordLimit} bytes received
+     */
+    public synchronized byte[] getRecordedBytes() {
+        return mRecorded.toByteArray();
+    }
+
+    public synchronized void clearRecording() {
+        mRecorded.reset();
+    }
+
+    /**
+     * Queues an answer for each DLE EOT n received between two commands
+     */
+    private void answerStatusRequests(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (mScanner.isAtBoundary() && end - i >= 3 && data[i] == DLE && data[i + 1] == EOT) {
+                mScanner.scanAll(data, i, 3);
+                mPendingReplies++;
+                mStatusRequests++;
+                i += 3;
+            } else {
+                int boundary = mScanner.scanToBoundary(data, i, end - i);
+                i = boundary < 0 ? end : boundary;
+            }
+        }
+    }
+
+    private void drain() {
+        long elapsed = mClockNanos - mDrainedAtNanos;
+        mDrainedAtNanos = mClockNanos;
+        mBufferLevel = Math.max(0, mBufferLevel - (double) elapsed * mPrintBytesPerSecond / NANOS_PER_SECOND);
+    }
+
+    private void record(byte[] data, int offset, int length) {
+        int room = mRecordLimit - mRecorded.size();
+        if (room > 0) {
+            mRecorded.write(data, offset, Math.min(room, length));
+        }
+    }
+
+    private void sleepIfRealtime(long nanos) {
+        if (mRealtime && nanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
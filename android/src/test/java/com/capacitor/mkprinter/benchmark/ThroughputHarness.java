@@ -0,0 +1,307 @@
+package com.capacitor.mkprinter.benchmark;
+
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+import com.capacitor.mkprinter.escpos.MonochromeScaler;
+import com.capacitor.mkprinter.escpos.TextRow;
+import com.capacitor.mkprinter.goojprt.util.PrintUtils;
+import com.capacitor.mkprinter.profile.PrinterProfile;
+import com.capacitor.mkprinter.spool.JobScheduler;
+import com.capacitor.mkprinter.transport.ChunkedWriter;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+import com.capacitor.mkprinter.transport.RealTimeStatus;
+import com.capacitor.mkprinter.transport.StatusMultiplexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives the plugin's print path, {@link PrintUtils} with its job scheduler
+ * lanes, shared status link and watchdog, against a
+ * {@link SimulatedPrinterTransport} and reports jobs/sec, bytes/sec and
+ * end-to-end latency percentiles per lane.
+ *
+ * {@code --producers} threads print at once, as the plugin's calls do: text
+ * jobs on the normal lane, a share of them urgent, and images, scaled from
+ * twice the paper width by {@link MonochromeScaler}, on the bulk lane. A
+ * status thread queries the printer while they print. With {@code --rate 0},
+ * the default, each producer sends its next job as soon as its last one is
+ * written, so the link never idles; with {@code --rate R} jobs arrive
+ * open-loop at R per second and latency includes the wait for a producer.
+ * Encoding runs on the producers alongside the link and is not charged to
+ * the simulated clock.
+ *
+ * Options: {@code --jobs N --producers N --rate R --width DOTS --baud B --buffer BYTES
+ * --print-speed LINES_PER_SEC --image-ratio 0..1 --urgent-ratio 0..1 --chunk BYTES --status-ms MS}
+ */
+public class ThroughputHarness {
+
+    private static final int IMAGE_HEIGHT = 1200;
+    private static final JobScheduler.Lane[] LANES = JobScheduler.Lane.values();
+
+    private final SimulatedPrinterTransport mPrinter;
+    private final PrinterTransport mLink;
+    private final int mJobs;
+    private final long mInterArrival;
+    private final int mImageEvery;
+    private final int mUrgentEvery;
+    private final List<TextRow> mRows = new ArrayList<>();
+    private final int[] mPixels;
+    private final int mImageWidth;
+
+    private final AtomicInteger mNext = new AtomicInteger();
+    private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+    /** Guards mReleased and mInFlight */
+    private final Object mGate = new Object();
+    /** Jobs that have arrived so far, in order */
+    private int mReleased;
+    /** Jobs handed to PrintUtils and not written yet */
+    private int mInFlight;
+    private final long[] mLatencies;
+    private final long[] mPrintedAt;
+    private final JobScheduler.Lane[] mLanes;
+
+    private ThroughputHarness(SimulatedPrinterTransport printer, PrinterTransport link, int jobs, double rate,
+                              int width, double imageRatio, double urgentRatio) {
+        mPrinter = printer;
+        mLink = link;
+        mJobs = jobs;
+        mInterArrival = rate > 0 ? (long) (1e9 / rate) : 0;
+        mImageEvery = imageRatio > 0 ? (int) Math.round(1 / imageRatio) : Integer.MAX_VALUE;
+        mUrgentEvery = urgentRatio > 0 ? (int) Math.round(1 / urgentRatio) : Integer.MAX_VALUE;
+        for (String line : ReceiptFixtures.receiptText(40, width / 12).split("\n")) {
+            mRows.add(new TextRow(line));
+        }
+        mImageWidth = width * 2;
+        mPixels = ReceiptFixtures.receiptPixels(mImageWidth, IMAGE_HEIGHT * 2);
+        mLatencies = new long[jobs];
+        mPrintedAt = new long[jobs];
+        mLanes = new JobScheduler.Lane[jobs];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int jobs = intArg(args, "--jobs", 2000);
+        int producers = intArg(args, "--producers", 4);
+        double rate = doubleArg(args, "--rate", 0);
+        int width = intArg(args, "--width", 384);
+        int baud = intArg(args, "--baud", 921600);
+        int bufferSize = intArg(args, "--buffer", 4096);
+        int linesPerSecond = intArg(args, "--print-speed", 640);
+        double imageRatio = doubleArg(args, "--image-ratio", 0.3);
+        double urgentRatio = doubleArg(args, "--urgent-ratio", 0.1);
+        int chunkSize = intArg(args, "--chunk", ChunkedWriter.DEFAULT_CHUNK_SIZE);
+        int statusMs = intArg(args, "--status-ms", 50);
+
+        SimulatedPrinterTransport printer = new SimulatedPrinterTransport(
+                baud, bufferSize, linesPerSecond * MonochromeImage.bytesPerRow(width), 0);
+        PrinterProfile profile = new PrinterProfile.Builder()
+                .setWidthDots(width)
+                .setMaxLineBuffer(EscPosEncoder.RASTER_BAND_HEIGHT * width / 8)
+                .setChunkSize(chunkSize)
+                .setBytesPerSecond(baud / 10)
+                .setLinesPerSecond(linesPerSecond)
+                .build();
+        PrinterTransport link = PrintUtils.useTransport(printer, profile);
+        ThroughputHarness harness = new ThroughputHarness(printer, link, jobs, rate, width, imageRatio, urgentRatio);
+
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = harness.startProducer("producer " + i);
+        }
+        StatusPoller poller = new StatusPoller(statusMs);
+        if (statusMs > 0) {
+            poller.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        poller.interrupt();
+        poller.join();
+        PrintUtils.useTransport(null, PrinterProfile.DEFAULT);
+        if (harness.mFailure.get() != null) {
+            throw new AssertionError("print job failed", harness.mFailure.get());
+        }
+
+        double seconds = 0;
+        for (long printedAt : harness.mPrintedAt) {
+            seconds = Math.max(seconds, printedAt / 1e9);
+        }
+        System.out.printf(Locale.ROOT, "jobs            %d (%s, %d dots wide), %d producers%n", jobs,
+                harness.mImageEvery == Integer.MAX_VALUE ? "text only" : "1 image per " + harness.mImageEvery + " jobs",
+                width, producers);
+        System.out.printf(Locale.ROOT, "link            %d baud, %d B buffer, %d lines/s, %d B chunks%n", baud, bufferSize, linesPerSecond, chunkSize);
+        System.out.printf(Locale.ROOT, "offered rate    %s%n", rate > 0 ? String.format(Locale.ROOT, "%.1f jobs/s", rate) : "closed loop");
+        System.out.printf(Locale.ROOT, "simulated time  %.2f s%n", seconds);
+        System.out.printf(Locale.ROOT, "throughput      %.2f jobs/s, %.1f KB/s%n", jobs / seconds, printer.getBytesReceived() / seconds / 1024);
+        System.out.printf(Locale.ROOT, "busy            %d events, %.2f s stalled%n", printer.getBusyEvents(), printer.getBusyNanos() / 1e9);
+        System.out.printf(Locale.ROOT, "status          %d queries, %d answered, %d requests sent%n",
+                poller.mQueries, poller.mAnswered, printer.getStatusRequests());
+        harness.printLatencies(null);
+        for (JobScheduler.Lane lane : LANES) {
+            harness.printLatencies(lane);
+        }
+    }
+
+    private Thread startProducer(String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int job;
+                    while ((job = mNext.getAndIncrement()) < mJobs && mFailure.get() == null) {
+                        runJob(job);
+                    }
+                } catch (Throwable e) {
+                    mFailure.compareAndSet(null, e);
+                    synchronized (mGate) {
+                        // Let producers waiting for this job's turn see the failure
+                        mReleased = mJobs;
+                        mGate.notifyAll();
+                    }
+                }
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    private void runJob(int job) throws Exception {
+        long arrival = arrive(job);
+        try {
+            if (job % mImageEvery == mImageEvery - 1) {
+                mLanes[job] = JobScheduler.Lane.BULK;
+                PrintUtils.printImage(mLink, new MonochromeScaler.RowSource() {
+                    @Override
+                    public void getRow(int y, int[] argb) {
+                        System.arraycopy(mPixels, y * mImageWidth, argb, 0, mImageWidth);
+                    }
+                }, mImageWidth, IMAGE_HEIGHT * 2, JobFinish.DEFAULT, JobScheduler.Lane.BULK);
+            } else {
+                mLanes[job] = job % mUrgentEvery == mUrgentEvery - 1 ? JobScheduler.Lane.URGENT
+                        : JobScheduler.Lane.NORMAL;
+                PrintUtils.printRows(mLink, mRows, null, JobFinish.DEFAULT, mLanes[job]);
+            }
+            mPrintedAt[job] = mPrinter.getPrintedAtNanos();
+            mLatencies[job] = mPrintedAt[job] - arrival;
+        } finally {
+            synchronized (mGate) {
+                mInFlight--;
+                mGate.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for the job's arrival: right away in closed loop, else after the
+     * jobs before it and once the clock reaches its time. An idle printer's
+     * clock is moved on to it; a busy one's runs on as jobs are written.
+     *
+     * @return The job's arrival time on the simulated clock
+     */
+    private long arrive(int job) throws InterruptedException {
+        synchronized (mGate) {
+            if (mInterArrival == 0) {
+                mInFlight++;
+                return mPrinter.getClockNanos();
+            }
+            while (mReleased < job) {
+                mGate.wait();
+            }
+            long arrival = job * mInterArrival;
+            while (mPrinter.getClockNanos() < arrival) {
+                if (mInFlight == 0) {
+                    mPrinter.advanceTo(arrival);
+                    break;
+                }
+                mGate.wait(1);
+            }
+            mInFlight++;
+            mReleased = Math.max(mReleased, job + 1);
+            mGate.notifyAll();
+            return arrival;
+        }
+    }
+
+    /**
+     * @param lane The lane to report, or null for all jobs
+     */
+    private void printLatencies(JobScheduler.Lane lane) {
+        long[] latencies = new long[mJobs];
+        int count = 0;
+        for (int i = 0; i < mJobs; i++) {
+            if (lane == null || mLanes[i] == lane) {
+                latencies[count++] = mLatencies[i];
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        latencies = Arrays.copyOf(latencies, count);
+        Arrays.sort(latencies);
+        String name = lane == null ? "latency ms" : "  " + lane.name().toLowerCase(Locale.ROOT);
+        System.out.printf(Locale.ROOT, "%-15s p50 %.1f  p90 %.1f  p99 %.1f  max %.1f  (%d jobs)%n", name,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                latencies[count - 1] / 1e6, count);
+    }
+
+    /**
+     * Asks the printer for its status through PrintUtils every few milliseconds of real time
+     */
+    private static class StatusPoller extends Thread {
+        private final long mIntervalMs;
+        int mQueries;
+        int mAnswered;
+
+        StatusPoller(long intervalMs) {
+            super("status");
+            mIntervalMs = intervalMs;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    RealTimeStatus status = PrintUtils.getPrinterStatus(null, StatusMultiplexer.DEFAULT_TIMEOUT_MS);
+                    mQueries++;
+                    if (status.hasReply()) {
+                        mAnswered++;
+                    }
+                    Thread.sleep(mIntervalMs);
+                }
+            } catch (InterruptedException e) {
+                // Done
+            } catch (Exception e) {
+                throw new AssertionError("status query failed", e);
+            }
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        String value = arg(args, name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static double doubleArg(String[] args, String name, double defaultValue) {
+        String value = arg(args, name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    private static String arg(String[] args, String name) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equals(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,121 @@
+package com.capacitor.mkprinter.goojprt.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.capacitor.mkprinter.escpos.JobFinish;
+import com.capacitor.mkprinter.escpos.TextRow;
+import com.capacitor.mkprinter.spool.JobScheduler;
+import com.capacitor.mkprinter.transport.PrinterTransport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PrintUtilsLaneTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Starts the urgent job on the first write and holds the write until that
+     * job waits for the link, so the bulk job reaches its cut with an urgent
+     * job queued
+     */
+    private static class GatedTransport implements PrinterTransport {
+        final ByteArrayOutputStream mReceived = new ByteArrayOutputStream();
+        volatile Thread mUrgent;
+        private boolean mGated = true;
+
+        @Override
+        public int write(byte[] data, int offset, int length) {
+            synchronized (this) {
+                if (mGated) {
+                    mGated = false;
+                    mUrgent.start();
+                    awaitWaiting(mUrgent);
+                }
+                mReceived.write(data, offset, length);
+            }
+            return length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return 0;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void bulkTextJobYieldsToUrgentTextJobAtCut() throws Exception {
+        final GatedTransport printer = new GatedTransport();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // The drawer kick comes after the cut, so the bulk job yields with bytes left to write
+        final JobFinish cutAndDrawer = new JobFinish(3, JobFinish.Cut.PARTIAL, JobFinish.DRAWER_PIN_2,
+                JobFinish.DEFAULT_PULSE_MS);
+
+        Thread bulk = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PrintUtils.printRows(printer, Collections.singletonList(new TextRow("BULK")), null,
+                            cutAndDrawer, JobScheduler.Lane.BULK);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+        Thread urgent = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PrintUtils.printRows(printer, Collections.singletonList(new TextRow("URGENT")), null,
+                            JobFinish.DEFAULT, JobScheduler.Lane.URGENT);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+        printer.mUrgent = urgent;
+        // A deadlocked pair must not keep the test JVM alive
+        bulk.setDaemon(true);
+        urgent.setDaemon(true);
+
+        bulk.start();
+        bulk.join(TIMEOUT_MS);
+        urgent.join(TIMEOUT_MS);
+
+        if (failure.get() != null) {
+            throw new AssertionError("print job failed", failure.get());
+        }
+        assertFalse("bulk job did not finish", bulk.isAlive());
+        assertTrue("urgent job did not start", urgent.getState() != Thread.State.NEW);
+        assertFalse("urgent job did not finish", urgent.isAlive());
+        String received = new String(printer.mReceived.toByteArray(), "ISO-8859-1");
+        int bulkText = received.indexOf("BULK");
+        int urgentText = received.indexOf("URGENT");
+        assertTrue(bulkText >= 0 && urgentText > bulkText);
+        // The urgent job went in at the cut, ahead of the bulk job's drawer kick (ESC p)
+        assertTrue(received.indexOf("\u001bp", bulkText) > urgentText);
+    }
+
+    /**
+     * Waits until a thread blocks, e.g. on the job scheduler
+     */
+    private static void awaitWaiting(Thread thread) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+    }
+}
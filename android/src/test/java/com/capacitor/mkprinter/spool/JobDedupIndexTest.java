@@ -0,0 +1,112 @@
+package com.capacitor.mkprinter.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class JobDedupIndexTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    @Test
+    public void claimOwnsTheJobAndLaterClaimsGetItsResult() throws Exception {
+        JobDedupIndex<String> index = new JobDedupIndex<>(8, 60000);
+        assertNull(index.claim("a"));
+        index.complete("a", "printed");
+        assertEquals("printed", index.claim("a"));
+        assertEquals("printed", index.claim("a"));
+        assertNull(index.claim("b"));
+    }
+
+    @Test
+    public void retryWaitsForTheRunningJob() throws Exception {
+        final JobDedupIndex<String> index = new JobDedupIndex<>(8, 60000);
+        assertNull(index.claim("a"));
+        final AtomicReference<String> retry = new AtomicReference<>();
+        Thread waiter = claimer(index, "a", retry);
+        awaitWaiting(waiter);
+        assertTrue(waiter.isAlive());
+
+        index.complete("a", "printed");
+        waiter.join(TIMEOUT_MS);
+        assertFalse(waiter.isAlive());
+        assertEquals("printed", retry.get());
+    }
+
+    @Test
+    public void abandonedJobIsRunAgainByTheWaitingRetry() throws Exception {
+        final JobDedupIndex<String> index = new JobDedupIndex<>(8, 60000);
+        assertNull(index.claim("a"));
+        final AtomicReference<String> retry = new AtomicReference<>("unset");
+        Thread waiter = claimer(index, "a", retry);
+        awaitWaiting(waiter);
+
+        index.abandon("a");
+        waiter.join(TIMEOUT_MS);
+        assertFalse(waiter.isAlive());
+        // The retry now owns the job
+        assertNull(retry.get());
+        index.complete("a", "printed");
+        assertEquals("printed", index.claim("a"));
+    }
+
+    @Test
+    public void partlySentJobIsKeptAsPossiblyPrinted() throws Exception {
+        JobDedupIndex<String> index = new JobDedupIndex<>(8, 60000);
+        assertNull(index.claim("a"));
+        // What the plugin does when a write fails after some bytes went out
+        index.complete("a", "possiblyPrinted");
+        assertEquals("possiblyPrinted", index.claim("a"));
+    }
+
+    @Test
+    public void resultsAreEvictedAfterTheWindowAndBeyondTheLimit() throws Exception {
+        JobDedupIndex<String> index = new JobDedupIndex<>(2, 50);
+        assertNull(index.claim("a"));
+        index.complete("a", "A");
+        assertNull(index.claim("b"));
+        index.complete("b", "B");
+        assertNull(index.claim("c"));
+        index.complete("c", "C");
+        assertEquals(2, index.size());
+        // The oldest went to make room
+        assertNull(index.claim("a"));
+        index.abandon("a");
+        assertEquals("C", index.claim("c"));
+
+        Thread.sleep(100);
+        assertNull(index.claim("b"));
+        assertEquals(0, index.size());
+    }
+
+    private static Thread claimer(final JobDedupIndex<String> index, final String jobId,
+                                  final AtomicReference<String> result) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(index.claim(jobId));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(thread.getName() + " never waited");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
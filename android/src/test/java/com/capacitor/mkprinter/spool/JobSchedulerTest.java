@@ -0,0 +1,190 @@
+package com.capacitor.mkprinter.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class JobSchedulerTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /** Names of the jobs in the order they got the link */
+    private final List<String> mOrder = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+
+    @Test
+    public void urgentJobGetsTheLinkBeforeAnEarlierBulkJob() throws Exception {
+        JobScheduler scheduler = new JobScheduler();
+        Object normal = scheduler.acquire(JobScheduler.Lane.NORMAL);
+        Thread bulk = job(scheduler, JobScheduler.Lane.BULK, "bulk");
+        awaitWaiting(bulk);
+        Thread urgent = job(scheduler, JobScheduler.Lane.URGENT, "urgent");
+        awaitWaiting(urgent);
+
+        scheduler.release(normal);
+        join(bulk, urgent);
+        assertEquals(list("urgent", "bulk"), mOrder);
+    }
+
+    @Test
+    public void yieldedBulkJobResumesAheadOfItsLane() throws Exception {
+        JobScheduler scheduler = new JobScheduler();
+        Object first = scheduler.acquire(JobScheduler.Lane.BULK);
+        Thread second = job(scheduler, JobScheduler.Lane.BULK, "second bulk");
+        awaitWaiting(second);
+        // Nothing more urgent waits yet, so the job keeps the link
+        assertFalse(scheduler.yieldTo(JobScheduler.Lane.BULK, first));
+
+        Thread urgent = job(scheduler, JobScheduler.Lane.URGENT, "urgent");
+        awaitWaiting(urgent);
+        assertTrue(scheduler.yieldTo(JobScheduler.Lane.BULK, first));
+        mOrder.add("first bulk");
+        scheduler.release(first);
+
+        join(second, urgent);
+        assertEquals(list("urgent", "first bulk", "second bulk"), mOrder);
+    }
+
+    @Test
+    public void interruptedWaitLeavesNothingQueued() throws Exception {
+        final JobScheduler scheduler = new JobScheduler();
+        Object bulk = scheduler.acquire(JobScheduler.Lane.BULK, 1000);
+        Thread urgent = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(JobScheduler.Lane.URGENT, 500);
+                    mOrder.add("urgent");
+                } catch (InterruptedException e) {
+                    mOrder.add("urgent interrupted");
+                }
+            }
+        });
+        urgent.start();
+        awaitWaiting(urgent);
+        assertEquals(500, scheduler.getBacklogMs(JobScheduler.Lane.URGENT));
+        urgent.interrupt();
+        join(urgent);
+
+        // The interrupted job no longer counts as waiting: the bulk job keeps the link and nothing is queued
+        assertEquals(0, scheduler.getBacklogMs(JobScheduler.Lane.URGENT));
+        assertFalse(scheduler.yieldTo(JobScheduler.Lane.BULK, bulk));
+        scheduler.release(bulk);
+        Thread next = job(scheduler, JobScheduler.Lane.BULK, "next bulk");
+        join(next);
+        assertEquals(list("urgent interrupted", "next bulk"), mOrder);
+    }
+
+    @Test
+    public void exclusiveWaitsForTheBulkJobToGiveWayAndHoldsBackTheLanes() throws Exception {
+        final JobScheduler scheduler = new JobScheduler();
+        Object bulk = scheduler.acquire(JobScheduler.Lane.BULK);
+
+        Thread update = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object lease = scheduler.acquireExclusive();
+                    mOrder.add("update");
+                    // A job queued during the update must not get the link before it is released
+                    Thread.sleep(50);
+                    mOrder.add("update done");
+                    scheduler.release(lease);
+                } catch (Throwable e) {
+                    mFailure.compareAndSet(null, e);
+                }
+            }
+        });
+        update.start();
+        awaitWaiting(update);
+        Thread urgent = job(scheduler, JobScheduler.Lane.URGENT, "urgent");
+        awaitWaiting(urgent);
+
+        // At its next cut the bulk job gives way to the update even though no lane is more urgent
+        assertTrue(scheduler.yieldTo(JobScheduler.Lane.BULK, bulk));
+        mOrder.add("bulk");
+        scheduler.release(bulk);
+
+        join(update, urgent);
+        assertEquals(list("update", "update done", "urgent", "bulk"), mOrder);
+    }
+
+    @Test
+    public void interruptedExclusiveLetsTheLanesGo() throws Exception {
+        final JobScheduler scheduler = new JobScheduler();
+        Object normal = scheduler.acquire(JobScheduler.Lane.NORMAL);
+        Thread update = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquireExclusive();
+                    mOrder.add("update");
+                } catch (InterruptedException e) {
+                    mOrder.add("update interrupted");
+                }
+            }
+        });
+        update.start();
+        awaitWaiting(update);
+        update.interrupt();
+        join(update);
+
+        scheduler.release(normal);
+        Object next = scheduler.acquire(JobScheduler.Lane.BULK);
+        scheduler.release(next);
+        assertEquals(list("update interrupted"), mOrder);
+    }
+
+    /**
+     * Starts a thread that takes the link in {@code lane}, records {@code name} and releases it
+     */
+    private Thread job(final JobScheduler scheduler, final JobScheduler.Lane lane, final String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Object lease = scheduler.acquire(lane);
+                    mOrder.add(name);
+                    scheduler.release(lease);
+                } catch (Throwable e) {
+                    mFailure.compareAndSet(null, e);
+                }
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    private void join(Thread... threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MS);
+            assertFalse(thread.getName() + " did not finish", thread.isAlive());
+        }
+        if (mFailure.get() != null) {
+            throw new AssertionError("job failed", mFailure.get());
+        }
+    }
+
+    private static List<String> list(String... names) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, names);
+        return list;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(thread.getName() + " never waited");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
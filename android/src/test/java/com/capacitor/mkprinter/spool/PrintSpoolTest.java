@@ -0,0 +1,42 @@
+package com.capacitor.mkprinter.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class PrintSpoolTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void jobIdsKeepCountingAfterTheJournalIsTruncated() throws Exception {
+        File file = new File(mFolder.getRoot(), PrintSpool.FILE_NAME);
+        byte[] job = {0x1B, 0x40, 'A', 0x0A};
+
+        PrintSpool spool = new PrintSpool(file);
+        assertEquals(1, spool.enqueue(job, 0, job.length));
+        assertEquals(2, spool.enqueue(job, 0, job.length));
+        spool.complete(1);
+        // The queue drains and the journal is truncated
+        spool.complete(2);
+        assertEquals(3, spool.enqueue(job, 0, job.length));
+        spool.complete(3);
+        spool.close();
+
+        spool = new PrintSpool(file);
+        assertNull(spool.peek());
+        assertEquals(4, spool.enqueue(job, 0, job.length));
+        spool.close();
+
+        spool = new PrintSpool(file);
+        assertEquals(4, spool.peek().getId());
+        assertEquals(5, spool.enqueue(job, 0, job.length));
+        spool.close();
+    }
+}
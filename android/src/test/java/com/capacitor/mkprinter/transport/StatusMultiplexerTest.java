@@ -0,0 +1,209 @@
+package com.capacitor.mkprinter.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.capacitor.mkprinter.escpos.CommandBuffer;
+import com.capacitor.mkprinter.escpos.CommandScanner;
+import com.capacitor.mkprinter.escpos.EscPosEncoder;
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class StatusMultiplexerTest {
+
+    private static final long TIMEOUT_MS = 5000;
+    private static final int CHUNK_SIZE = 256;
+    /** Printer online, drawer closed, no error, paper present */
+    private static final int READY = 0x12;
+
+    /**
+     * Records job bytes and status requests apart, answers each request, and
+     * starts the status query once the job is under way
+     */
+    private static class RecordingTransport implements PrinterTransport {
+        final ByteArrayOutputStream mJob = new ByteArrayOutputStream();
+        /** Job bytes written before each batch of status requests */
+        final List<Integer> mRequestOffsets = new ArrayList<>();
+        final ArrayDeque<Byte> mReplies = new ArrayDeque<>();
+        Thread mQuery;
+
+        @Override
+        public int write(byte[] data, int offset, int length) {
+            if (isStatusRequests(data, offset, length)) {
+                synchronized (this) {
+                    mRequestOffsets.add(mJob.size());
+                    for (int i = 0; i < length / 3; i++) {
+                        mReplies.add((byte) READY);
+                    }
+                }
+                return length;
+            }
+            if (mQuery != null && mQuery.getState() == Thread.State.NEW) {
+                // Mid-chunk of the first band: the query finds the link busy and its requests wait
+                mQuery.start();
+                awaitSleeping(mQuery);
+            }
+            synchronized (this) {
+                mJob.write(data, offset, length);
+            }
+            return length;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            int n = 0;
+            while (n < length && !mReplies.isEmpty()) {
+                buffer[offset + n++] = mReplies.poll();
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private static boolean isStatusRequests(byte[] data, int offset, int length) {
+            if (length == 0 || length % 3 != 0) {
+                return false;
+            }
+            for (int i = offset; i < offset + length; i += 3) {
+                if (data[i] != 0x10 || data[i + 1] != 0x04 || data[i + 2] < 1 || data[i + 2] > 4) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Test
+    public void statusRequestsGoBetweenCommandsOfRasterJob() throws Exception {
+        // Four 256-row bands of 48 bytes a row, each many chunks long
+        MonochromeImage image = new MonochromeImage(384, 1024);
+        Arrays.fill(image.getData(), (byte) 0xA5);
+        CommandBuffer buffer = new CommandBuffer();
+        new EscPosEncoder(buffer).initialize().rasterImage(image).cut(false);
+        final byte[] job = Arrays.copyOf(buffer.array(), buffer.size());
+
+        RecordingTransport printer = new RecordingTransport();
+        final StatusMultiplexer link = new StatusMultiplexer(printer);
+        final AtomicReference<RealTimeStatus> status = new AtomicReference<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        printer.mQuery = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    status.set(link.queryStatus(TIMEOUT_MS));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+
+        new ChunkedWriter(link, CHUNK_SIZE).write(job, 0, job.length);
+        link.endJob();
+        printer.mQuery.join(TIMEOUT_MS);
+
+        if (failure.get() != null) {
+            throw new AssertionError("status query failed", failure.get());
+        }
+        assertFalse("status query did not finish", printer.mQuery.isAlive());
+        assertArrayEquals("job bytes changed", job, printer.mJob.toByteArray());
+        for (int request = RealTimeStatus.PRINTER; request <= RealTimeStatus.PAPER; request++) {
+            assertNotEquals(RealTimeStatus.NO_REPLY, status.get().getReply(request));
+        }
+
+        Set<Integer> boundaries = getBoundaries(job);
+        assertFalse(printer.mRequestOffsets.isEmpty());
+        for (int offset : printer.mRequestOffsets) {
+            assertTrue("status request inside a command at " + offset, boundaries.contains(offset));
+            assertTrue("status request not sent during the job", offset > 0 && offset < job.length);
+        }
+    }
+
+    @Test
+    public void statusRequestsWaitForTheEndOfZplJob() throws Exception {
+        StringBuilder zpl = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            zpl.append("^XA^XFR:SHIP.ZPL^FN1^FDParcel ").append(i).append("^FS^XZ\n");
+        }
+        final byte[] job = zpl.toString().getBytes(StandardCharsets.US_ASCII);
+
+        RecordingTransport printer = new RecordingTransport();
+        final StatusMultiplexer link = new StatusMultiplexer(printer);
+        final AtomicReference<RealTimeStatus> status = new AtomicReference<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        printer.mQuery = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    status.set(link.queryStatus(TIMEOUT_MS));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+
+        link.beginOpaqueJob();
+        new ChunkedWriter(link, 64).write(job, 0, job.length);
+        // The query polls an idle link between chunks; nothing may go in before the job ends
+        Thread.sleep(50);
+        synchronized (printer) {
+            assertTrue("status request inside a ZPL job", printer.mRequestOffsets.isEmpty());
+        }
+        link.endJob();
+        printer.mQuery.join(TIMEOUT_MS);
+
+        if (failure.get() != null) {
+            throw new AssertionError("status query failed", failure.get());
+        }
+        assertFalse("status query did not finish", printer.mQuery.isAlive());
+        assertArrayEquals("job bytes changed", job, printer.mJob.toByteArray());
+        assertEquals(Collections.singletonList(job.length), printer.mRequestOffsets);
+        assertNotEquals(RealTimeStatus.NO_REPLY, status.get().getReply(RealTimeStatus.PAPER));
+    }
+
+    /**
+     * @return The offsets between two commands of the job
+     */
+    private static Set<Integer> getBoundaries(byte[] job) {
+        Set<Integer> boundaries = new HashSet<>();
+        CommandScanner scanner = new CommandScanner();
+        int i = 0;
+        while (i < job.length) {
+            i = scanner.scanToBoundary(job, i, job.length - i);
+            assertTrue("job ends inside a command", i >= 0);
+            boundaries.add(i);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Waits until a thread sleeps, e.g. between polls of a status query
+     */
+    private static void awaitSleeping(Thread thread) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+    }
+}
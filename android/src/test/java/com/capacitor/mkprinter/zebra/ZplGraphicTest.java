@@ -0,0 +1,157 @@
+package com.capacitor.mkprinter.zebra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.capacitor.mkprinter.escpos.MonochromeImage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+
+public class ZplGraphicTest {
+
+    private static final Pattern FIELD = Pattern.compile("\\^FO(\\d+),(\\d+)\\^GFA,(\\d+),(\\d+),(\\d+),([^^]*)\\^FS");
+
+    @Test
+    public void crcMatchesTheXmodemCheckValue() {
+        assertEquals(0x31C3, ZplGraphic.crc16("123456789", 0, 9));
+    }
+
+    @Test
+    public void acsRowsDecodeToTheImage() {
+        int bytesPerRow = 13;
+        byte[] data = new byte[bytesPerRow * 8];
+        // White, black to the end, a repeated row, a short run, alternating digits and noise
+        Arrays.fill(data, bytesPerRow, bytesPerRow * 3, (byte) 0xFF);
+        data[bytesPerRow * 3] = 0x0F;
+        Arrays.fill(data, bytesPerRow * 4, bytesPerRow * 5, (byte) 0xA5);
+        Random random = new Random(7);
+        for (int i = bytesPerRow * 5; i < bytesPerRow * 7; i++) {
+            data[i] = (byte) random.nextInt(256);
+        }
+        data[data.length - 1] = 0x01;
+
+        StringBuilder acs = new StringBuilder();
+        ZplGraphic.appendAcs(acs, data, 0, bytesPerRow, 8);
+        assertTrue(acs.toString(), acs.length() < bytesPerRow * 8 * 2);
+        assertArrayEquals(data, decodeAcs(acs.toString(), bytesPerRow, data.length));
+
+        byte[] wide = new byte[500];
+        Arrays.fill(wide, 0, 450, (byte) 0x11);
+        StringBuilder runs = new StringBuilder();
+        ZplGraphic.appendAcs(runs, wide, 0, wide.length, 1);
+        assertEquals("zzk1,", runs.toString());
+        assertArrayEquals(wide, decodeAcs(runs.toString(), wide.length, wide.length));
+    }
+
+    @Test
+    public void bandsPickTheShorterEncodingAndKeepTheImage() throws Exception {
+        int width = 200;
+        int height = ZplGraphic.BAND_ROWS + 40;
+        MonochromeImage image = new MonochromeImage(width, height);
+        byte[] data = image.getData();
+        int bytesPerRow = image.getBytesPerRow();
+        // A dithered first band that deflates well and a second of scattered dots that does not
+        for (int y = 0; y < ZplGraphic.BAND_ROWS; y++) {
+            for (int x = 0; x < bytesPerRow; x++) {
+                data[y * bytesPerRow + x] = (byte) ((y & 1) == 0 ? 0xAA : 0x55);
+            }
+        }
+        Random random = new Random(11);
+        for (int i = ZplGraphic.BAND_ROWS * bytesPerRow; i < height * bytesPerRow; i++) {
+            data[i] = random.nextInt(8) == 0 ? (byte) (1 << random.nextInt(8)) : 0;
+        }
+
+        StringBuilder out = new StringBuilder();
+        ZplGraphic.append(out, 10, 20, image, true);
+        Matcher matcher = FIELD.matcher(out);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        int top = 0;
+        while (matcher.find()) {
+            assertEquals(10, Integer.parseInt(matcher.group(1)));
+            assertEquals(20 + top, Integer.parseInt(matcher.group(2)));
+            int length = Integer.parseInt(matcher.group(3));
+            assertEquals(length, Integer.parseInt(matcher.group(4)));
+            assertEquals(bytesPerRow, Integer.parseInt(matcher.group(5)));
+            String band = matcher.group(6);
+            byte[] rows = band.startsWith(":Z64:") ? inflateZ64(band) : decodeAcs(band, bytesPerRow, length);
+            assertEquals(length, rows.length);
+            decoded.write(rows);
+            top += length / bytesPerRow;
+        }
+        assertEquals(height, top);
+        assertTrue(out.indexOf(":Z64:") > 0);
+        assertArrayEquals(Arrays.copyOf(data, bytesPerRow * height), decoded.toByteArray());
+
+        StringBuilder acsOnly = new StringBuilder();
+        ZplGraphic.append(acsOnly, 10, 20, image, false);
+        assertTrue(out.length() <= acsOnly.length());
+        assertTrue(acsOnly.indexOf(":Z64:") < 0);
+    }
+
+    /**
+     * Expands ACS data the way the printer does
+     */
+    private static byte[] decodeAcs(String acs, int bytesPerRow, int length) {
+        int digits = bytesPerRow * 2;
+        byte[] out = new byte[length];
+        int[] row = new int[digits];
+        int[] previous = new int[digits];
+        int position = 0;
+        int count = 0;
+        int written = 0;
+        for (int i = 0; i < acs.length(); i++) {
+            char c = acs.charAt(i);
+            if (c >= 'G' && c <= 'Y') {
+                count += c - 'G' + 1;
+            } else if (c >= 'g' && c <= 'z') {
+                count += (c - 'g' + 1) * 20;
+            } else if (c == ',' || c == '!' || c == ':') {
+                if (c == ':') {
+                    System.arraycopy(previous, 0, row, 0, digits);
+                } else {
+                    Arrays.fill(row, position, digits, c == ',' ? 0 : 0xF);
+                }
+                position = digits;
+            } else {
+                int value = Character.digit(c, 16);
+                for (int n = Math.max(count, 1); n > 0; n--) {
+                    row[position++] = value;
+                }
+                count = 0;
+            }
+            if (position == digits) {
+                for (int d = 0; d < digits; d += 2) {
+                    out[written++] = (byte) (row[d] << 4 | row[d + 1]);
+                }
+                System.arraycopy(row, 0, previous, 0, digits);
+                position = 0;
+            }
+        }
+        assertEquals(length, written);
+        return out;
+    }
+
+    private static byte[] inflateZ64(String band) throws Exception {
+        int end = band.lastIndexOf(':');
+        String text = band.substring(":Z64:".length(), end);
+        assertEquals(String.format("%04x", ZplGraphic.crc16(text, 0, text.length())), band.substring(end + 1));
+        Inflater inflater = new Inflater();
+        inflater.setInput(Base64.getDecoder().decode(text));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (!inflater.finished()) {
+            out.write(chunk, 0, inflater.inflate(chunk));
+        }
+        inflater.end();
+        return out.toByteArray();
+    }
+}
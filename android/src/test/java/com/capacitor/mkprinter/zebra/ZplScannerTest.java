@@ -0,0 +1,31 @@
+package com.capacitor.mkprinter.zebra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ZplScannerTest {
+
+    @Test
+    public void findsEachLabelEndAcrossSlices() {
+        byte[] zpl = "^XA^DFR:A.ZPL^FS^XZ^XA^XFR:A.ZPL^FN1^FDx^FS^Xz\n".getBytes(StandardCharsets.US_ASCII);
+        ZplScanner scanner = new ZplScanner();
+        assertEquals(19, scanner.scan(zpl, 0, zpl.length));
+        // Split inside the second ^XZ
+        assertEquals(-1, scanner.scan(zpl, 19, 26));
+        assertEquals(46, scanner.scan(zpl, 45, zpl.length - 45));
+        assertEquals(-1, scanner.scan(zpl, 46, zpl.length - 46));
+    }
+
+    @Test
+    public void detectsZplByItsFirstCommand() {
+        assertTrue(ZplScanner.isZpl(" \r\n^XA^XZ".getBytes(StandardCharsets.US_ASCII), 0, 9));
+        assertTrue(ZplScanner.isZpl("~HS".getBytes(StandardCharsets.US_ASCII), 0, 3));
+        assertFalse(ZplScanner.isZpl(new byte[] {0x1B, 0x40, '^'}, 0, 3));
+        assertFalse(ZplScanner.isZpl(new byte[0], 0, 0));
+    }
+}
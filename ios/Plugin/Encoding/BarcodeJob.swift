@@ -0,0 +1,156 @@
+import Foundation
+
+/// Symbologies the plugin can print. 1D types map to GS k function B
+/// (m = 65-73); QR and PDF417 use GS ( k.
+public enum BarcodeType: String, CaseIterable {
+    case upcA = "UPC_A"
+    case upcE = "UPC_E"
+    case ean13 = "EAN13"
+    case ean8 = "EAN8"
+    case code39 = "CODE39"
+    case itf = "ITF"
+    case codabar = "CODABAR"
+    case code93 = "CODE93"
+    case code128 = "CODE128"
+    case pdf417 = "PDF417"
+    case qr = "QR"
+
+    /// The GS k m value, or -1 for 2D symbologies
+    public var gsK: Int {
+        switch self {
+        case .upcA: return 65
+        case .upcE: return 66
+        case .ean13: return 67
+        case .ean8: return 68
+        case .code39: return 69
+        case .itf: return 70
+        case .codabar: return 71
+        case .code93: return 72
+        case .code128: return 73
+        case .pdf417, .qr: return -1
+        }
+    }
+
+    public var isTwoDimensional: Bool {
+        return gsK < 0
+    }
+
+    /// - Parameter name: e.g. "QR", "code128", "EAN13"; also accepts "QRCODE", "JAN13" and "JAN8" as used by the vendor SDK
+    /// - Returns: The type, or nil if unknown
+    public static func parse(_ name: String?) -> BarcodeType? {
+        guard let name = name else {
+            return nil
+        }
+        let key = name.trimmingCharacters(in: .whitespaces).uppercased().replacingOccurrences(of: "-", with: "_")
+        switch key {
+        case "QRCODE", "QR_CODE":
+            return .qr
+        case "JAN13", "EAN_13":
+            return .ean13
+        case "JAN8", "EAN_8":
+            return .ean8
+        default:
+            return BarcodeType(rawValue: key)
+        }
+    }
+}
+
+/// One barcode to print, as passed to printBarcode
+public struct BarcodeJob {
+
+    /// Human readable text position for 1D barcodes, in GS H order
+    public enum Hri: Int {
+        case none = 0, above, below, both
+
+        /// - Parameter value: "none", "above", "below" or "both"; anything else is below
+        public static func parse(_ value: String?) -> Hri {
+            switch value?.lowercased() {
+            case "none": return .none
+            case "above": return .above
+            case "both": return .both
+            default: return .below
+            }
+        }
+    }
+
+    /// QR error correction level, in GS ( k function 069 order
+    public enum Ecc: Int {
+        case l = 0, m, q, h
+
+        /// - Parameter value: "L", "M", "Q" or "H"; anything else is M
+        public static func parse(_ value: String?) -> Ecc {
+            switch value?.uppercased() {
+            case "L": return .l
+            case "Q": return .q
+            case "H": return .h
+            default: return .m
+            }
+        }
+
+        /// The CIQRCodeGenerator inputCorrectionLevel
+        public var letter: String {
+            return ["L", "M", "Q", "H"][rawValue]
+        }
+    }
+
+    /// QR cell size in dots when none is given
+    public static let defaultQrModuleSize = 6
+    /// 1D narrow bar and PDF417 module width in dots when none is given
+    public static let defaultModuleSize = 2
+    public static let defaultHeight = 80
+
+    public let type: BarcodeType
+    public let data: String
+    public let moduleSize: Int
+    public let height: Int
+    public let ecc: Ecc
+    public let align: TextRow.Align
+    public let hri: Hri
+
+    /// - Parameters:
+    ///   - moduleSize: Module size in dots: QR cell size, PDF417 and 1D module width; 0 for the default
+    ///   - height: Bar height in dots for 1D barcodes
+    ///   - ecc: QR error correction level; also sets the PDF417 level
+    public init(type: BarcodeType, data: String, moduleSize: Int = 0, height: Int = BarcodeJob.defaultHeight, ecc: Ecc = .m,
+                align: TextRow.Align = .center, hri: Hri = .below) {
+        self.type = type
+        self.data = data
+        self.moduleSize = moduleSize > 0
+            ? moduleSize
+            : (type == .qr ? BarcodeJob.defaultQrModuleSize : BarcodeJob.defaultModuleSize)
+        self.height = max(1, min(255, height))
+        self.ecc = ecc
+        self.align = align
+        self.hri = hri
+    }
+
+    /// The GS k data bytes; CODE128 gets a code set prefix unless it already has one
+    public func barcodeData() throws -> [UInt8] {
+        guard data.unicodeScalars.allSatisfy({ $0.isASCII }) else {
+            throw EncodingError.invalidData("\(type.rawValue) data must be ASCII")
+        }
+        let bytes: [UInt8]
+        if type == .code128 && !data.hasPrefix("{") {
+            bytes = BarcodeJob.code128(Array(data.utf8))
+        } else {
+            bytes = Array(data.utf8)
+        }
+        guard bytes.count >= 1 && bytes.count <= 255 else {
+            throw EncodingError.invalidData("\(type.rawValue) data must be 1-255 bytes")
+        }
+        return bytes
+    }
+
+    /// Code set C (two digits per symbol character) for even-length digit strings, code set B otherwise
+    private static func code128(_ data: [UInt8]) -> [UInt8] {
+        let digits = data.count >= 4 && data.count % 2 == 0 && data.allSatisfy { $0 >= 0x30 && $0 <= 0x39 }
+        if !digits {
+            return [UInt8(ascii: "{"), UInt8(ascii: "B")] + data
+        }
+        var bytes: [UInt8] = [UInt8(ascii: "{"), UInt8(ascii: "C")]
+        for i in Swift.stride(from: 0, to: data.count, by: 2) {
+            bytes.append((data[i] - 0x30) * 10 + data[i + 1] - 0x30)
+        }
+        return bytes
+    }
+}
@@ -0,0 +1,219 @@
+import Foundation
+
+/// Printer character code tables and their Unicode lookup tables.
+///
+/// Single-byte pages are selected with ESC t n using the Epson table numbers;
+/// GBK is the double-byte Chinese mode entered with FS &, which the vendor
+/// printers start in. Each lookup table is built once, on first use, by
+/// decoding every byte sequence of the page, and maps a UTF-16 unit straight
+/// to its one or two bytes. Pages the platform has no converter for are
+/// treated as unavailable.
+public enum CodePage: String, CaseIterable {
+    case cp437 = "CP437"
+    case cp850 = "CP850"
+    case cp860 = "CP860"
+    case cp863 = "CP863"
+    case cp865 = "CP865"
+    case cp1252 = "CP1252"
+    case cp866 = "CP866"
+    case cp852 = "CP852"
+    case cp858 = "CP858"
+    case cp1250 = "CP1250"
+    case cp1251 = "CP1251"
+    case cp1253 = "CP1253"
+    case cp1254 = "CP1254"
+    case cp1257 = "CP1257"
+    case cp1258 = "CP1258"
+    case gbk = "GBK"
+
+    /// Marks a character with no encoding in this page
+    public static let unmapped: UInt32 = 0
+
+    /// The ESC t table number, or -1 for the double-byte GBK mode
+    public var escPosNumber: Int {
+        switch self {
+        case .cp437: return 0
+        case .cp850: return 2
+        case .cp860: return 3
+        case .cp863: return 4
+        case .cp865: return 5
+        case .cp1252: return 16
+        case .cp866: return 17
+        case .cp852: return 18
+        case .cp858: return 19
+        case .cp1250: return 45
+        case .cp1251: return 46
+        case .cp1253: return 47
+        case .cp1254: return 48
+        case .cp1257: return 51
+        case .cp1258: return 52
+        case .gbk: return -1
+        }
+    }
+
+    public var isMultiByte: Bool {
+        return escPosNumber < 0
+    }
+
+    /// - Parameter name: e.g. "CP1258", "cp437" or "GBK"
+    /// - Returns: The code page, or nil if unknown
+    public static func parse(_ name: String?) -> CodePage? {
+        guard let name = name else {
+            return nil
+        }
+        return CodePage(rawValue: name.trimmingCharacters(in: .whitespaces).uppercased())
+    }
+
+    /// - Parameter number: An ESC t table number
+    /// - Returns: The single-byte code page with that number, or nil if there is none
+    public static func forEscPosNumber(_ number: Int) -> CodePage? {
+        return number < 0 ? nil : allCases.first { $0.escPosNumber == number }
+    }
+
+    /// The platform's converter for this page, nil if it has none
+    public var stringEncoding: String.Encoding? {
+        #if canImport(Darwin)
+        let cf = CFStringConvertIANACharSetNameToEncoding(ianaName as CFString)
+        if cf == kCFStringEncodingInvalidId {
+            return nil
+        }
+        return String.Encoding(rawValue: CFStringConvertEncodingToNSStringEncoding(cf))
+        #else
+        switch self {
+        case .cp1250: return .windowsCP1250
+        case .cp1251: return .windowsCP1251
+        case .cp1252: return .windowsCP1252
+        case .cp1253: return .windowsCP1253
+        case .cp1254: return .windowsCP1254
+        default: return nil
+        }
+        #endif
+    }
+
+    private var ianaName: String {
+        switch self {
+        case .cp437, .cp850, .cp860, .cp863, .cp865, .cp866, .cp852:
+            return "IBM" + rawValue.dropFirst(2)
+        case .cp858:
+            return "IBM00858"
+        case .gbk:
+            return "GBK"
+        default:
+            return "windows-" + rawValue.dropFirst(2)
+        }
+    }
+
+    /// Looks up the encoding of one UTF-16 unit.
+    ///
+    /// - Returns: `CodePage.unmapped`, or the length (1 or 2) in bits 16-17 and
+    ///   the bytes in bits 8-15 and 0-7 (the second byte only for length 2)
+    public func lookup(_ c: UInt16) -> UInt32 {
+        let table = lookupTable
+        return Int(c) < table.count ? table[Int(c)] : CodePage.unmapped
+    }
+
+    /// Whether the platform can encode this page at all
+    public var isAvailable: Bool {
+        return lookupTable.count > 0x80
+    }
+
+    /// Builds the lookup table now instead of on the first print
+    public func prepare() {
+        _ = lookupTable
+    }
+
+    private static var tables = [CodePage: [UInt32]]()
+    private static let lock = NSLock()
+
+    /// The whole table, indexed by UTF-16 unit; hold on to it to skip the lock in tight loops
+    public var lookupTable: [UInt32] {
+        CodePage.lock.lock()
+        defer { CodePage.lock.unlock() }
+        if let table = CodePage.tables[self] {
+            return table
+        }
+        let table = buildTable()
+        CodePage.tables[self] = table
+        return table
+    }
+
+    private func buildTable() -> [UInt32] {
+        var table = [UInt32](repeating: CodePage.unmapped, count: 0x10000)
+        for c in 0..<0x80 {
+            table[c] = (1 << 16) | UInt32(c << 8)
+        }
+        guard let encoding = stringEncoding else {
+            return Array(table[0..<0x80])
+        }
+        // Invert the decoder over the code page's byte sequences: far fewer than the BMP's chars
+        if isMultiByte {
+            for lead in 0x81...0xFE {
+                for trail in 0x40...0xFE where trail != 0x7F {
+                    record(&table, encoding, [UInt8(lead), UInt8(trail)])
+                }
+            }
+        } else {
+            for b in 0x80...0xFF {
+                record(&table, encoding, [UInt8(b)])
+            }
+            // CP1258 spells most Vietnamese letters as a base letter plus a combining tone mark
+            for c in 0xC0...0x1EFF where table[c] == CodePage.unmapped && (c <= 0x24F || c >= 0x1E00) {
+                table[c] = CodePage.decomposed(table, UInt16(c))
+            }
+        }
+        var max = table.count - 1
+        while max >= 0x80 && table[max] == CodePage.unmapped {
+            max -= 1
+        }
+        return Array(table[0...max])
+    }
+
+    /// Decodes one byte sequence and records it for the char it decodes to, keeping the first
+    private func record(_ table: inout [UInt32], _ encoding: String.Encoding, _ bytes: [UInt8]) {
+        guard let decoded = String(bytes: bytes, encoding: encoding) else {
+            return
+        }
+        let units = Array(decoded.utf16)
+        guard units.count == 1, units[0] != 0xFFFD, table[Int(units[0])] == CodePage.unmapped else {
+            return
+        }
+        table[Int(units[0])] = bytes.count == 1
+            ? (1 << 16) | UInt32(bytes[0]) << 8
+            : (2 << 16) | UInt32(bytes[0]) << 8 | UInt32(bytes[1])
+    }
+
+    /// Encodes a precomposed letter as a shorter precomposed letter plus one combining mark
+    private static func decomposed(_ table: [UInt32], _ c: UInt16) -> UInt32 {
+        guard let scalar = Unicode.Scalar(c) else {
+            return unmapped
+        }
+        let nfd = Array(String(Character(scalar)).decomposedStringWithCanonicalMapping.utf16)
+        if nfd.count == 2 {
+            return pair(table, nfd[0], nfd[1])
+        }
+        guard nfd.count == 3 else {
+            return unmapped
+        }
+        // e.g. ệ is e + dot below + circumflex; CP1258 has ê, so try each mark as the combining one
+        for mark in 1...2 {
+            let head = String(utf16CodeUnits: [nfd[0], nfd[3 - mark]], count: 2).precomposedStringWithCanonicalMapping
+            let units = Array(head.utf16)
+            if units.count == 1 {
+                let entry = pair(table, units[0], nfd[mark])
+                if entry != unmapped {
+                    return entry
+                }
+            }
+        }
+        return unmapped
+    }
+
+    private static func pair(_ table: [UInt32], _ base: UInt16, _ mark: UInt16) -> UInt32 {
+        let first = base < 0x80 ? (1 << 16) | UInt32(base) << 8 : table[Int(base)]
+        let second = table[Int(mark)]
+        guard first >> 16 == 1, second >> 16 == 1 else {
+            return unmapped
+        }
+        return (2 << 16) | (first & 0xFF00) | ((second >> 8) & 0xFF)
+    }
+}
@@ -0,0 +1,119 @@
+import Foundation
+
+/// Encodes text into the printer's code pages, switching tables only when a
+/// character is missing from the current one.
+///
+/// Tracks the printer's selected ESC t table and Chinese mode across calls so
+/// that a switch command is sent once per change, not once per line. Call
+/// `reset()` whenever ESC @ is sent.
+public final class CodePageEncoder {
+
+    public static let fs = 0x1C
+
+    /// Written for characters no available code page can encode
+    public static let replacement = Int(UInt8(ascii: "?"))
+
+    private let defaultPage: CodePage
+    private let available: [(page: CodePage, table: [UInt32])]
+    /// Index in available of the printer's page; nil while in a default page the platform cannot encode
+    private var current: Int?
+    private var selectedTable = 0
+    private var chineseMode = false
+
+    /// - Parameters:
+    ///   - defaultPage: Code page the printer is in after ESC @
+    ///   - available: Code pages the printer supports, in order of preference; ones the platform cannot encode are left out
+    public init(defaultPage: CodePage, available: [CodePage]) {
+        self.defaultPage = defaultPage
+        var pages = [(page: CodePage, table: [UInt32])]()
+        for page in [defaultPage] + available where page.isAvailable && !pages.contains(where: { $0.page == page }) {
+            pages.append((page, page.lookupTable))
+        }
+        self.available = pages
+        reset()
+    }
+
+    /// Forgets all switches; the printer is back in the default code page
+    public func reset() {
+        current = available.first?.page == defaultPage ? 0 : nil
+        chineseMode = defaultPage.isMultiByte
+        // ESC @ selects table 0 (PC437) on every ESC/POS printer
+        selectedTable = defaultPage.isMultiByte ? CodePage.cp437.escPosNumber : defaultPage.escPosNumber
+    }
+
+    /// Whether every character of `text` is in some available code page
+    public func canEncode<S: Collection>(_ text: S) -> Bool where S.Element == UInt16 {
+        var page = current
+        for c in text where c >= 0x80 && !has(page, c) {
+            guard let found = find(c) else {
+                return false
+            }
+            page = found
+        }
+        return true
+    }
+
+    /// Encodes `text`, switching code pages as needed. Characters no available
+    /// code page can encode are written as `replacement`.
+    public func encode<S: Collection>(_ text: S, into out: CommandBuffer) where S.Element == UInt16 {
+        for c in text {
+            if c < 0x80 {
+                // ASCII is the same in every code page and in GBK
+                out.write(Int(c))
+                continue
+            }
+            if !has(current, c) {
+                guard let page = find(c) else {
+                    out.write(CodePageEncoder.replacement)
+                    continue
+                }
+                select(page, out)
+            }
+            let entry = entryOf(current!, c)
+            out.write(Int(entry >> 8) & 0xFF)
+            if entry >> 16 == 2 {
+                out.write(Int(entry) & 0xFF)
+            }
+        }
+    }
+
+    /// Makes page `index` current, sending only the commands that change printer state
+    private func select(_ index: Int, _ out: CommandBuffer) {
+        let page = available[index].page
+        if page.isMultiByte {
+            if !chineseMode {
+                // FS & - enter Chinese character mode
+                out.write(CodePageEncoder.fs, Int(UInt8(ascii: "&")))
+                chineseMode = true
+            }
+        } else {
+            if chineseMode {
+                // FS . - leave Chinese character mode
+                out.write(CodePageEncoder.fs, Int(UInt8(ascii: ".")))
+                chineseMode = false
+            }
+            if selectedTable != page.escPosNumber {
+                // ESC t n - select character code table
+                out.write(EscPosEncoder.esc, Int(UInt8(ascii: "t")), page.escPosNumber)
+                selectedTable = page.escPosNumber
+            }
+        }
+        current = index
+    }
+
+    private func entryOf(_ index: Int?, _ c: UInt16) -> UInt32 {
+        guard let index = index else {
+            return CodePage.unmapped
+        }
+        let table = available[index].table
+        return Int(c) < table.count ? table[Int(c)] : CodePage.unmapped
+    }
+
+    private func has(_ index: Int?, _ c: UInt16) -> Bool {
+        return entryOf(index, c) != CodePage.unmapped
+    }
+
+    private func find(_ c: UInt16) -> Int? {
+        return available.indices.first { has($0, c) }
+    }
+}
@@ -0,0 +1,55 @@
+import Foundation
+
+/// Growable byte buffer that holds the encoded commands of a print job.
+///
+/// The encoding sources only import Foundation, so they build and run the same
+/// on iOS and with the Swift toolchain on Linux.
+public final class CommandBuffer {
+
+    public private(set) var bytes: [UInt8]
+
+    /// - Parameter capacity: Bytes to reserve up front
+    public init(capacity: Int = 4096) {
+        bytes = []
+        bytes.reserveCapacity(capacity)
+    }
+
+    public var count: Int {
+        return bytes.count
+    }
+
+    /// Appends each value as one byte; only the low 8 bits are kept
+    @discardableResult
+    public func write(_ values: Int...) -> CommandBuffer {
+        for value in values {
+            bytes.append(UInt8(truncatingIfNeeded: value))
+        }
+        return self
+    }
+
+    @discardableResult
+    public func write<S: Sequence>(contentsOf data: S) -> CommandBuffer where S.Element == UInt8 {
+        bytes.append(contentsOf: data)
+        return self
+    }
+
+    /// Writes a 16-bit value as low byte, high byte (the ESC/POS nL nH order)
+    @discardableResult
+    public func writeShortLE(_ value: Int) -> CommandBuffer {
+        return write(value & 0xFF, (value >> 8) & 0xFF)
+    }
+
+    /// Drops everything written after `size`
+    public func truncate(to size: Int) {
+        precondition(size >= 0 && size <= bytes.count, "size \(size) out of range 0..\(bytes.count)")
+        bytes.removeSubrange(size...)
+    }
+
+    public func reset() {
+        bytes.removeAll(keepingCapacity: true)
+    }
+
+    public var data: Data {
+        return Data(bytes)
+    }
+}
@@ -0,0 +1,357 @@
+import Foundation
+
+/// Encodes ESC/POS commands into a `CommandBuffer`.
+///
+/// A port of the Android plugin's encoder with the same command choices, so a
+/// receipt comes out byte for byte the same from either platform.
+public final class EscPosEncoder {
+
+    public static let esc = 0x1B
+    public static let gs = 0x1D
+    public static let lf = 0x0A
+
+    /// Rows per GS v 0 command of a 58 mm image; keeps each command within small printer buffers
+    public static let rasterBandHeight = 256
+
+    /// Shorter white runs stay in the raster command; a new command costs more than they do
+    public static let minFeedRows = 8
+
+    /// Most data GS ( k function 080 accepts after its three parameter bytes
+    public static let maxSymbolData = 0xFFFF - 3
+
+    /// Dots per ESC * 33 stripe
+    private static let bitImageStripe = 24
+
+    /// GS ( k symbol types (cn)
+    private static let pdf417: UInt8 = 0x30
+    private static let qrCode: UInt8 = 0x31
+
+    public let buffer: CommandBuffer
+    private var maxBandBytes = EscPosEncoder.rasterBandHeight * 48
+    private var rasterSupported = true
+    /// Justification set by `align`; GS v 0 and ESC * images follow it
+    private var currentAlign = TextRow.Align.left
+
+    public init(buffer: CommandBuffer) {
+        self.buffer = buffer
+    }
+
+    /// Caps the data of one raster command; images are split into bands of at most this many bytes
+    @discardableResult
+    public func setMaxBandBytes(_ bytes: Int) -> EscPosEncoder {
+        maxBandBytes = max(1, bytes)
+        return self
+    }
+
+    /// Whether the printer implements GS v 0; if not, raster bands are sent as ESC * bit images
+    @discardableResult
+    public func setRasterSupported(_ supported: Bool) -> EscPosEncoder {
+        rasterSupported = supported
+        return self
+    }
+
+    /// ESC @ - reset the printer to its power-on settings
+    @discardableResult
+    public func initialize() -> EscPosEncoder {
+        buffer.write(EscPosEncoder.esc, ascii("@"))
+        currentAlign = .left
+        return self
+    }
+
+    /// Appends UTF-16 text through the code page encoder; no line feed is added
+    @discardableResult
+    public func text<S: Collection>(_ text: S, codePages: CodePageEncoder) -> EscPosEncoder where S.Element == UInt16 {
+        codePages.encode(text, into: buffer)
+        return self
+    }
+
+    /// LF - print the buffer and feed one line
+    @discardableResult
+    public func lineFeed() -> EscPosEncoder {
+        buffer.write(EscPosEncoder.lf)
+        return self
+    }
+
+    /// ESC a n - justification of the following lines
+    @discardableResult
+    public func align(_ align: TextRow.Align) -> EscPosEncoder {
+        buffer.write(EscPosEncoder.esc, ascii("a"), align.rawValue)
+        currentAlign = align
+        return self
+    }
+
+    /// GS ! n - character width and height multipliers, 1 to 8
+    @discardableResult
+    public func textSize(width: Int, height: Int) -> EscPosEncoder {
+        let w = max(1, min(TextRow.maxSize, width)) - 1
+        let h = max(1, min(TextRow.maxSize, height)) - 1
+        buffer.write(EscPosEncoder.gs, ascii("!"), (w << 4) | h)
+        return self
+    }
+
+    /// ESC - n - one-dot underline on or off
+    @discardableResult
+    public func underline(_ underline: Bool) -> EscPosEncoder {
+        buffer.write(EscPosEncoder.esc, ascii("-"), underline ? 1 : 0)
+        return self
+    }
+
+    /// ESC d n - print the buffer and feed `lines` lines
+    @discardableResult
+    public func printAndFeedLines(_ lines: Int) -> EscPosEncoder {
+        buffer.write(EscPosEncoder.esc, ascii("d"), EscPosEncoder.clamp(lines))
+        return self
+    }
+
+    /// GS V 65/66 0 - feed the paper to the cutter and cut it, leaving one point
+    /// uncut if `partial`. Printers without a cutter ignore it.
+    @discardableResult
+    public func cut(partial: Bool) -> EscPosEncoder {
+        buffer.write(EscPosEncoder.gs, ascii("V"), partial ? 66 : 65, 0)
+        return self
+    }
+
+    /// ESC p m t1 t2 - pulse a cash drawer pin
+    ///
+    /// - Parameters:
+    ///   - pin: 0 for connector pin 2, 1 for pin 5
+    ///   - pulseMs: Pulse on time; the off time is at least 500 ms so the solenoid can release
+    @discardableResult
+    public func kickDrawer(pin: Int, pulseMs: Int) -> EscPosEncoder {
+        let on = max(1, EscPosEncoder.clamp(pulseMs / 2))
+        buffer.write(EscPosEncoder.esc, ascii("p"), pin & 1, on, max(on, 250))
+        return self
+    }
+
+    /// ESC J n - prints the buffer and feeds the paper `dots` dots, 255 at a time
+    @discardableResult
+    public func feedDots(_ dots: Int) -> EscPosEncoder {
+        var dots = dots
+        while dots > 0 {
+            let n = min(0xFF, dots)
+            buffer.write(EscPosEncoder.esc, ascii("J"), n)
+            dots -= n
+        }
+        return self
+    }
+
+    /// Rows per raster command for images `bytesPerRow` wide
+    public func bandHeight(bytesPerRow: Int) -> Int {
+        return max(1, min(0xFFFF, maxBandBytes / max(1, bytesPerRow)))
+    }
+
+    /// GS v 0 - prints a monochrome image in bands that fit the printer's line buffer.
+    ///
+    /// Runs of at least `minFeedRows` white rows are not sent; ESC J feeds the
+    /// paper past them instead. With left justification each command is also
+    /// cropped to its rightmost inked byte. The paper comes out the same.
+    @discardableResult
+    public func rasterImage(_ image: MonochromeImage) -> EscPosEncoder {
+        let data = image.data
+        let stride = image.bytesPerRow
+        let rows = image.height
+        // ESC * always advances whole stripes, so its gaps are skipped in whole stripes
+        let unit = rasterSupported ? 1 : EscPosEncoder.bitImageStripe
+        let minFeed = rasterSupported ? EscPosEncoder.minFeedRows : 2 * EscPosEncoder.bitImageStripe
+        let band = rasterSupported ? bandHeight(bytesPerRow: stride) : rows
+        let crop = currentAlign == .left
+        var y = 0
+        while y < rows {
+            var blank = 0
+            while y + blank < rows && EscPosEncoder.inkBytes(data, (y + blank) * stride, stride) == 0 {
+                blank += 1
+            }
+            if y + blank < rows {
+                blank -= blank % unit
+            }
+            if blank > 0 && (blank >= EscPosEncoder.minFeedRows || y + blank == rows) {
+                feedDots(blank)
+                y += blank
+                continue
+            }
+
+            // Rows up to the band height or the next long white run
+            var end = y
+            var width = 0
+            var run = 0
+            let limit = min(rows, y + band)
+            while end < limit {
+                let ink = EscPosEncoder.inkBytes(data, end * stride, stride)
+                end += 1
+                if ink > 0 {
+                    run = 0
+                    width = max(width, ink)
+                } else {
+                    run += 1
+                    if run == minFeed {
+                        end -= run
+                        end = min(limit, y + (end - y + unit - 1) / unit * unit)
+                        break
+                    }
+                }
+            }
+            if width == 0 {
+                // Only a band shorter than minFeedRows can be all white
+                feedDots(end - y)
+            } else {
+                emitBand(data, y * stride, stride, crop ? width : stride, end - y)
+            }
+            y = end
+        }
+        return self
+    }
+
+    /// GS w, GS h, GS H, then GS k m n d1...dn - a 1D barcode (function B)
+    ///
+    /// - Parameters:
+    ///   - m: Symbology, 65 (UPC-A) to 73 (CODE128)
+    ///   - data: Barcode data, at most 255 bytes
+    ///   - moduleWidth: Narrow bar width in dots, 2-6
+    ///   - height: Bar height in dots, 1-255
+    ///   - hri: Human readable text: 0 none, 1 above, 2 below, 3 both
+    @discardableResult
+    public func barcode(m: Int, data: [UInt8], moduleWidth: Int, height: Int, hri: Int) -> EscPosEncoder {
+        buffer.write(EscPosEncoder.gs, ascii("w"), max(2, min(6, moduleWidth)))
+        buffer.write(EscPosEncoder.gs, ascii("h"), max(1, EscPosEncoder.clamp(height)))
+        buffer.write(EscPosEncoder.gs, ascii("H"), hri & 3)
+        buffer.write(EscPosEncoder.gs, ascii("k"), m, data.count)
+        buffer.write(contentsOf: data)
+        return self
+    }
+
+    /// GS ( k - QR code model 2: set size and error correction, store the data, print it
+    ///
+    /// - Parameters:
+    ///   - moduleSize: Module size in dots, 1-16
+    ///   - errorCorrection: 0 (L), 1 (M), 2 (Q) or 3 (H)
+    @discardableResult
+    public func qrCode(_ data: [UInt8], moduleSize: Int, errorCorrection: Int) throws -> EscPosEncoder {
+        let cn = Int(EscPosEncoder.qrCode)
+        symbolParameter(cn, ascii("A"), ascii("2"), 0)
+        symbolParameter(cn, ascii("C"), max(1, min(16, moduleSize)))
+        symbolParameter(cn, ascii("E"), ascii("0") + (errorCorrection & 3))
+        try storeAndPrintSymbol(cn, data)
+        return self
+    }
+
+    /// GS ( k - PDF417 with automatic rows and columns: set sizes and error correction, store the data, print it
+    ///
+    /// - Parameters:
+    ///   - moduleWidth: Module width in dots, 2-8
+    ///   - rowHeight: Row height as a multiple of the module width, 2-8
+    ///   - errorLevel: Error correction level, 0-8
+    @discardableResult
+    public func pdf417(_ data: [UInt8], moduleWidth: Int, rowHeight: Int, errorLevel: Int) throws -> EscPosEncoder {
+        let cn = Int(EscPosEncoder.pdf417)
+        symbolParameter(cn, ascii("A"), 0)
+        symbolParameter(cn, ascii("B"), 0)
+        symbolParameter(cn, ascii("C"), max(2, min(8, moduleWidth)))
+        symbolParameter(cn, ascii("D"), max(2, min(8, rowHeight)))
+        symbolParameter(cn, ascii("E"), ascii("0"), ascii("0") + max(0, min(8, errorLevel)))
+        try storeAndPrintSymbol(cn, data)
+        return self
+    }
+
+    /// One command for `rows` rows of `width` bytes, `stride` bytes apart in data
+    private func emitBand(_ data: [UInt8], _ offset: Int, _ stride: Int, _ width: Int, _ rows: Int) {
+        if !rasterSupported {
+            bitImageBand(data, offset, stride, width, rows)
+            return
+        }
+        buffer.write(EscPosEncoder.gs, ascii("v"), ascii("0"), 0)
+        buffer.writeShortLE(width)
+        buffer.writeShortLE(rows)
+        if width == stride {
+            buffer.write(contentsOf: data[offset..<offset + width * rows])
+        } else {
+            for row in 0..<rows {
+                let start = offset + row * stride
+                buffer.write(contentsOf: data[start..<start + width])
+            }
+        }
+    }
+
+    /// ESC 3 24, then ESC * 33 nL nH d1...dk LF per 24-dot stripe, then ESC 2.
+    /// Each column of a stripe is three bytes, top dot in the high bit; the last
+    /// stripe is padded with white.
+    private func bitImageBand(_ data: [UInt8], _ offset: Int, _ stride: Int, _ bytesPerRow: Int, _ rows: Int) {
+        let width = bytesPerRow * 8
+        let stripeHeight = EscPosEncoder.bitImageStripe
+        buffer.write(EscPosEncoder.esc, ascii("3"), stripeHeight)
+        var stripe = [UInt8](repeating: 0, count: width * 3)
+        var top = 0
+        while top < rows {
+            buffer.write(EscPosEncoder.esc, ascii("*"), 33)
+            buffer.writeShortLE(width)
+            for i in stripe.indices {
+                stripe[i] = 0
+            }
+            for dy in 0..<min(stripeHeight, rows - top) {
+                let row = offset + (top + dy) * stride
+                let bit = UInt8(0x80 >> (dy & 7))
+                let column = dy >> 3
+                for x in 0..<width where data[row + (x >> 3)] & (0x80 >> UInt8(x & 7)) != 0 {
+                    stripe[column + x * 3] |= bit
+                }
+            }
+            buffer.write(contentsOf: stripe)
+            buffer.write(EscPosEncoder.lf)
+            top += stripeHeight
+        }
+        buffer.write(EscPosEncoder.esc, ascii("2"))
+    }
+
+    private func symbolParameter(_ cn: Int, _ fn: Int, _ n: Int) {
+        buffer.write(EscPosEncoder.gs, ascii("("), ascii("k"), 3, 0, cn, fn, n)
+    }
+
+    private func symbolParameter(_ cn: Int, _ fn: Int, _ n1: Int, _ n2: Int) {
+        buffer.write(EscPosEncoder.gs, ascii("("), ascii("k"), 4, 0, cn, fn, n1, n2)
+    }
+
+    private func storeAndPrintSymbol(_ cn: Int, _ data: [UInt8]) throws {
+        guard data.count <= EscPosEncoder.maxSymbolData else {
+            throw EncodingError.invalidData("Symbol data too long (\(data.count) bytes)")
+        }
+        // Function 080: store data, then 081: print the stored symbol
+        buffer.write(EscPosEncoder.gs, ascii("("), ascii("k"))
+        buffer.writeShortLE(data.count + 3)
+        buffer.write(cn, ascii("P"), ascii("0"))
+        buffer.write(contentsOf: data)
+        symbolParameter(cn, ascii("Q"), ascii("0"))
+    }
+
+    /// Bytes up to and including the last non-white one, 0 for a white row
+    private static func inkBytes(_ data: [UInt8], _ offset: Int, _ length: Int) -> Int {
+        var i = length - 1
+        while i >= 0 {
+            if data[offset + i] != 0 {
+                return i + 1
+            }
+            i -= 1
+        }
+        return 0
+    }
+
+    private static func clamp(_ n: Int) -> Int {
+        return max(0, min(255, n))
+    }
+}
+
+/// A job the encoder cannot express, e.g. barcode data the symbology does not allow
+public enum EncodingError: LocalizedError {
+    case invalidData(String)
+
+    public var errorDescription: String? {
+        switch self {
+        case .invalidData(let message):
+            return message
+        }
+    }
+}
+
+/// The byte value of an ASCII character, for command letters
+@inline(__always)
+func ascii(_ c: Unicode.Scalar) -> Int {
+    return Int(c.value)
+}
@@ -0,0 +1,70 @@
+import Foundation
+
+/// What happens after a job's content: a paper feed, an optional cut and an
+/// optional cash drawer kick. The commands go at the end of the job's own
+/// buffer, so a receipt and its cut leave in the same write.
+public struct JobFinish {
+
+    public enum Cut {
+        case none, partial, full
+
+        /// - Parameter value: "none", "partial" or "full"; nil or blank is none
+        /// - Returns: The cut, or nil if the value is not one
+        public static func parse(_ value: String?) -> Cut? {
+            switch value?.trimmingCharacters(in: .whitespaces).lowercased() ?? "" {
+            case "", "none":
+                return Cut.none
+            case "partial":
+                return .partial
+            case "full":
+                return .full
+            default:
+                return nil
+            }
+        }
+    }
+
+    /// Feed lines meaning "the job type's usual feed"
+    public static let defaultFeed = -1
+    /// Drawer connector pins, as numbered on the printer's DK port
+    public static let drawerPin2 = 2
+    public static let drawerPin5 = 5
+    /// Drawer pulse on time; most solenoids open with 50-200 ms
+    public static let defaultPulseMs = 100
+
+    /// The usual feed, no cut, no drawer
+    public static let `default` = JobFinish()
+
+    public let feedLines: Int
+    public let cut: Cut
+    public let drawerPin: Int
+    public let pulseMs: Int
+
+    /// - Parameters:
+    ///   - feedLines: Lines to feed after the content, or `defaultFeed`
+    ///   - cut: Cut after feeding
+    ///   - drawerPin: `drawerPin2` or `drawerPin5` to kick a cash drawer, 0 for none
+    ///   - pulseMs: Drawer pulse on time
+    public init(feedLines: Int = JobFinish.defaultFeed, cut: Cut = .none, drawerPin: Int = 0,
+                pulseMs: Int = JobFinish.defaultPulseMs) {
+        precondition(drawerPin == 0 || drawerPin == JobFinish.drawerPin2 || drawerPin == JobFinish.drawerPin5,
+                     "Cash drawer pin must be 2 or 5, not \(drawerPin)")
+        self.feedLines = feedLines
+        self.cut = cut
+        self.drawerPin = drawerPin
+        self.pulseMs = pulseMs
+    }
+
+    /// Appends the feed, cut and drawer kick
+    ///
+    /// - Parameter defaultFeedLines: The job type's usual feed, used unless one was given
+    public func encode(_ encoder: EscPosEncoder, defaultFeedLines: Int) {
+        encoder.printAndFeedLines(feedLines == JobFinish.defaultFeed ? defaultFeedLines : feedLines)
+        if cut != .none {
+            encoder.cut(partial: cut == .partial)
+        }
+        if drawerPin != 0 {
+            encoder.kickDrawer(pin: drawerPin == JobFinish.drawerPin5 ? 1 : 0, pulseMs: pulseMs)
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import Foundation
+
+/// A 1-bit image packed the way raster commands expect it: rows of
+/// `bytesPerRow` bytes, most significant bit first, 1 = black dot.
+public struct MonochromeImage {
+
+    /// Gray level below which a pixel prints as a black dot
+    public static let defaultThreshold = 128
+
+    public let width: Int
+    public let height: Int
+    public let bytesPerRow: Int
+    public var data: [UInt8]
+
+    public init(width: Int, height: Int, data: [UInt8]? = nil) {
+        self.width = width
+        self.height = height
+        bytesPerRow = MonochromeImage.bytesPerRow(width)
+        let size = bytesPerRow * height
+        if let data = data {
+            precondition(data.count >= size, "Image data too short for \(width)x\(height)")
+            self.data = data
+        } else {
+            self.data = [UInt8](repeating: 0, count: size)
+        }
+    }
+
+    public static func bytesPerRow(_ width: Int) -> Int {
+        return (width + 7) / 8
+    }
+
+    public func isBlack(x: Int, y: Int) -> Bool {
+        return data[y * bytesPerRow + (x >> 3)] & (0x80 >> UInt8(x & 7)) != 0
+    }
+
+    /// Thresholds 8-bit gray pixels, 0 being black, into packed rows
+    ///
+    /// - Parameters:
+    ///   - gray: Source pixels, `stride` bytes per row
+    ///   - threshold: Gray level (0-255) below which a pixel is black
+    public static func threshold(gray: UnsafePointer<UInt8>, width: Int, height: Int, stride: Int,
+                                 threshold: Int = MonochromeImage.defaultThreshold) -> MonochromeImage {
+        var image = MonochromeImage(width: width, height: height)
+        let bytesPerRow = image.bytesPerRow
+        image.data.withUnsafeMutableBufferPointer { out in
+            for y in 0..<height {
+                let row = gray + y * stride
+                let o = y * bytesPerRow
+                for x in 0..<width where Int(row[x]) < threshold {
+                    out[o + (x >> 3)] |= 0x80 >> UInt8(x & 7)
+                }
+            }
+        }
+        return image
+    }
+
+    /// Height of an image scaled to `width`, keeping its aspect ratio
+    public static func scaledHeight(sourceWidth: Int, sourceHeight: Int, width: Int) -> Int {
+        return max(1, sourceHeight * width / max(1, sourceWidth))
+    }
+}
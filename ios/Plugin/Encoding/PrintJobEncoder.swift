@@ -0,0 +1,84 @@
+import Foundation
+
+/// Encodes the plugin's print jobs with the same commands, feeds and finish as
+/// the Android plugin's PrintJobEncoder.
+public enum PrintJobEncoder {
+
+    /// Lines fed after text and barcode jobs unless the job says otherwise
+    public static let textFeedLines = 2
+    /// Lines fed after an image, clear of the tear bar
+    public static let imageFeedLines = 4
+
+    /// An image job: reset, the raster image, then the finish (by default four lines of feed)
+    public static func encodeImage(_ encoder: EscPosEncoder, image: MonochromeImage, finish: JobFinish) {
+        encoder.initialize()
+            .rasterImage(image)
+        finish.encode(encoder, defaultFeedLines: imageFeedLines)
+    }
+
+    /// A rasterized text job: reset, the rows already drawn as one image, then the finish
+    public static func encodeRasterRows(_ encoder: EscPosEncoder, image: MonochromeImage, finish: JobFinish) {
+        encoder.initialize()
+            .rasterImage(image)
+        finish.encode(encoder, defaultFeedLines: textFeedLines)
+    }
+
+    /// A text job with native per-row formatting: reset, every row in the
+    /// printer's own font, then the finish. Characters outside the printer's
+    /// code pages print as '?'; use the rasterize option for those scripts.
+    public static func encodeRows(_ encoder: EscPosEncoder, codePages: CodePageEncoder, rows: [TextRow],
+                                  finish: JobFinish) {
+        encoder.initialize()
+        codePages.reset()
+        for row in rows {
+            // One precomposed char per letter, as the code page tables expect
+            let text = row.text.precomposedStringWithCanonicalMapping
+            encoder.align(row.align)
+                .textSize(width: row.size, height: row.size)
+                .underline(row.underline)
+            var lines = text.split(separator: "\n", omittingEmptySubsequences: false)
+            if lines.count > 1 && lines[lines.count - 1].isEmpty {
+                // A trailing line break ends the last line rather than starting another
+                lines.removeLast()
+            }
+            for line in lines {
+                encoder.text(line.utf16, codePages: codePages)
+                    .lineFeed()
+            }
+        }
+        finish.encode(encoder, defaultFeedLines: textFeedLines)
+    }
+
+    /// A barcode job: reset, the barcode, then the finish (by default two lines of feed)
+    ///
+    /// - Parameters:
+    ///   - nativeSymbols: Whether the printer implements GS ( k for QR and PDF417
+    ///   - rasterQr: Draws the QR code as an image, for printers without GS ( k
+    public static func encodeBarcode(_ encoder: EscPosEncoder, job: BarcodeJob, nativeSymbols: Bool,
+                                     rasterQr: (BarcodeJob) throws -> MonochromeImage,
+                                     finish: JobFinish) throws {
+        encoder.initialize()
+        switch job.type {
+        case .qr:
+            if nativeSymbols {
+                try encoder.align(job.align)
+                    .qrCode(Array(job.data.utf8), moduleSize: job.moduleSize, errorCorrection: job.ecc.rawValue)
+            } else {
+                encoder.rasterImage(try rasterQr(job))
+            }
+        case .pdf417:
+            guard nativeSymbols else {
+                throw EncodingError.invalidData("PDF417 needs a printer with GS ( k support")
+            }
+            // Map the QR level onto PDF417's 0-8 scale: L=1, M=3, Q=5, H=7
+            try encoder.align(job.align)
+                .pdf417(Array(job.data.utf8), moduleWidth: job.moduleSize, rowHeight: 3,
+                        errorLevel: job.ecc.rawValue * 2 + 1)
+        default:
+            encoder.align(job.align)
+                .barcode(m: job.type.gsK, data: try job.barcodeData(), moduleWidth: job.moduleSize,
+                         height: job.height, hri: job.hri.rawValue)
+        }
+        finish.encode(encoder, defaultFeedLines: textFeedLines)
+    }
+}
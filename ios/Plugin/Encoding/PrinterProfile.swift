@@ -0,0 +1,94 @@
+import Foundation
+
+/// What a printer can do, as far as encoding is concerned: its paper width,
+/// line buffer, link chunk size, optional commands and code pages. Read from
+/// the same `printerProfiles` config as on Android.
+public struct PrinterProfile {
+
+    /// Optional commands a printer may implement
+    public enum Capability: String, CaseIterable {
+        /// GS v 0 raster images; without it images go out as ESC * bit images
+        case raster
+        /// FS q / FS p images stored in non-volatile memory
+        case nvGraphics
+        /// GS ( k QR codes and PDF417
+        case native2dBarcodes
+        /// ZPL ^GF graphics in Z64 (deflate) form; without it label images use ACS run-length hex
+        case z64Graphics
+
+        /// - Parameter name: The capability name, e.g. "raster", "nvGraphics" or "NATIVE_2D_BARCODES"
+        /// - Returns: The capability, or nil if unknown
+        public static func parse(_ name: String) -> Capability? {
+            let key = name.replacingOccurrences(of: "_", with: "").lowercased()
+            return allCases.first { $0.rawValue.lowercased() == key }
+        }
+    }
+
+    /// Printable width in dots of a 58 mm printer
+    public static let defaultWidthDots = 384
+    /// Printable width in dots of an 80 mm printer
+    public static let wideWidthDots = 576
+    /// 8 dots per mm, the resolution of nearly every receipt printer
+    public static let defaultDpi = 203
+    /// Bytes of one raster command; a 58 mm printer takes 256 rows at a time
+    public static let defaultMaxLineBuffer = EscPosEncoder.rasterBandHeight * defaultWidthDots / 8
+    public static let defaultChunkSize = 1024
+
+    /// The vendor printers: 58 mm, GS v 0, no GS ( k, Chinese (GBK) mode with PC437
+    public static let `default` = PrinterProfile()
+
+    public var model: String?
+    public var widthDots = PrinterProfile.defaultWidthDots
+    public var dpi = PrinterProfile.defaultDpi
+    public var maxLineBuffer = PrinterProfile.defaultMaxLineBuffer
+    public var chunkSize = PrinterProfile.defaultChunkSize
+    public var capabilities: Set<Capability> = [.raster]
+    public var defaultCodePage = CodePage.gbk
+    public var codePages: [CodePage] = [.gbk, .cp437]
+
+    public init() {}
+
+    /// - Parameters:
+    ///   - json: Profile fields: model, width, dpi, maxLineBuffer, chunkSize, capabilities, codePages
+    ///   - base: Values of the fields json leaves out
+    public init(json: [String: Any], base: PrinterProfile) {
+        self = base
+        if let model = json["model"] as? String {
+            self.model = model
+        }
+        widthDots = json["width"] as? Int ?? base.widthDots
+        dpi = json["dpi"] as? Int ?? base.dpi
+        maxLineBuffer = json["maxLineBuffer"] as? Int ?? base.maxLineBuffer
+        chunkSize = json["chunkSize"] as? Int ?? base.chunkSize
+        if let names = json["capabilities"] as? [String] {
+            capabilities = Set(names.compactMap { Capability.parse($0) })
+        }
+        if let names = json["codePages"] as? [String] {
+            let pages = names.compactMap { CodePage.parse($0) }
+            if let first = pages.first {
+                defaultCodePage = first
+                codePages = pages
+            }
+        }
+    }
+
+    public func has(_ capability: Capability) -> Bool {
+        return capabilities.contains(capability)
+    }
+
+    /// Configures an encoder for this printer's raster commands and buffer size
+    @discardableResult
+    public func configure(_ encoder: EscPosEncoder) -> EscPosEncoder {
+        return encoder.setMaxBandBytes(maxLineBuffer)
+            .setRasterSupported(has(.raster))
+    }
+
+    public func newCodePageEncoder() -> CodePageEncoder {
+        return CodePageEncoder(defaultPage: defaultCodePage, available: codePages)
+    }
+
+    /// Dots at this printer's resolution for a length given in dots at 203 dpi
+    public func scaleDots(_ dots: Int) -> Int {
+        return max(1, (dots * dpi + PrinterProfile.defaultDpi / 2) / PrinterProfile.defaultDpi)
+    }
+}
@@ -0,0 +1,41 @@
+import Foundation
+
+/// One row of a text receipt, mirroring the JS `RowOption`.
+public struct TextRow {
+
+    public enum Align: Int {
+        case left = 0, center, right
+
+        /// - Parameter value: "left", "center" or "right"; anything else is left
+        public static func parse(_ value: String?) -> Align {
+            switch value?.lowercased() {
+            case "center":
+                return .center
+            case "right":
+                return .right
+            default:
+                return .left
+            }
+        }
+    }
+
+    /// Largest size multiplier, as with GS !
+    public static let maxSize = 8
+
+    public let text: String
+    public let size: Int
+    public let align: Align
+    public let underline: Bool
+
+    /// - Parameters:
+    ///   - text: Row text; may contain line breaks
+    ///   - size: Size multiplier 1-8 relative to the printer's standard font
+    ///   - align: Horizontal alignment
+    ///   - underline: Whether to underline the row
+    public init(text: String, size: Int = 1, align: Align = .left, underline: Bool = false) {
+        self.text = text
+        self.size = max(1, min(TextRow.maxSize, size))
+        self.align = align
+        self.underline = underline
+    }
+}
@@ -0,0 +1,116 @@
+import Foundation
+import UIKit
+import CoreImage
+
+/// Turns images, text rows and QR codes into printer dots with UIKit and
+/// Core Image, for the platform-neutral encoder to send.
+enum ImageRasterizer {
+
+    /// Dot height at 203 dpi of the standard printer font that row sizes multiply
+    static let baseFontDots = 24
+
+    /// Decodes a base64 image and scales it to the paper width, keeping its aspect ratio
+    static func decode(base64 data: String, widthDots: Int) throws -> MonochromeImage {
+        guard let bytes = Data(base64Encoded: data, options: .ignoreUnknownCharacters),
+              let image = UIImage(data: bytes), image.size.width > 0, image.size.height > 0 else {
+            throw EncodingError.invalidData("Failed to decode image data")
+        }
+        let height = MonochromeImage.scaledHeight(sourceWidth: Int(image.size.width),
+                                                  sourceHeight: Int(image.size.height), width: widthDots)
+        return try draw(width: widthDots, height: height) { _ in
+            // UIImage.draw honours the EXIF orientation; transparent areas stay paper white
+            image.draw(in: CGRect(x: 0, y: 0, width: widthDots, height: height))
+        }
+    }
+
+    /// Draws text rows in a system font, for scripts the printer has no code page for
+    ///
+    /// - Parameter fontFamily: Font family name, or nil for the system font
+    static func render(rows: [TextRow], fontFamily: String?, profile: PrinterProfile) throws -> MonochromeImage {
+        let width = CGFloat(profile.widthDots)
+        var lines = [NSAttributedString]()
+        for row in rows {
+            let size = CGFloat(profile.scaleDots(baseFontDots * row.size))
+            let font = fontFamily.flatMap { UIFont(name: $0, size: size) } ?? UIFont.systemFont(ofSize: size)
+            let paragraph = NSMutableParagraphStyle()
+            paragraph.alignment = [NSTextAlignment.left, .center, .right][row.align.rawValue]
+            paragraph.lineBreakMode = .byWordWrapping
+            lines.append(NSAttributedString(string: row.text, attributes: [
+                .font: font,
+                .foregroundColor: UIColor.black,
+                .paragraphStyle: paragraph,
+                .underlineStyle: row.underline ? NSUnderlineStyle.single.rawValue : 0,
+            ]))
+        }
+        let bounds = lines.map {
+            $0.boundingRect(with: CGSize(width: width, height: .greatestFiniteMagnitude),
+                            options: [.usesLineFragmentOrigin, .usesFontLeading], context: nil)
+        }
+        let height = max(1, Int(ceil(bounds.reduce(0) { $0 + ceil($1.height) })))
+        return try draw(width: profile.widthDots, height: height) { _ in
+            var y: CGFloat = 0
+            for (line, rect) in zip(lines, bounds) {
+                line.draw(with: CGRect(x: 0, y: y, width: width, height: ceil(rect.height)),
+                          options: [.usesLineFragmentOrigin, .usesFontLeading], context: nil)
+                y += ceil(rect.height)
+            }
+        }
+    }
+
+    /// Draws a QR code with Core Image, whole dots per module, for printers without GS ( k
+    static func qrCode(_ job: BarcodeJob, widthDots: Int) throws -> MonochromeImage {
+        guard let filter = CIFilter(name: "CIQRCodeGenerator") else {
+            throw EncodingError.invalidData("QR code generator unavailable")
+        }
+        filter.setValue(Data(job.data.utf8), forKey: "inputMessage")
+        filter.setValue(job.ecc.letter, forKey: "inputCorrectionLevel")
+        guard let output = filter.outputImage,
+              let symbol = CIContext(options: nil).createCGImage(output, from: output.extent) else {
+            throw EncodingError.invalidData("QR code data too long")
+        }
+        // The generator's image already has a one-module margin
+        let modules = symbol.width
+        let moduleDots = min(job.moduleSize, widthDots / modules)
+        guard moduleDots >= 1 else {
+            throw EncodingError.invalidData("QR code does not fit \(widthDots) dots")
+        }
+        let size = modules * moduleDots
+        let left: Int
+        switch job.align {
+        case .left: left = 0
+        case .right: left = widthDots - size
+        case .center: left = (widthDots - size) / 2
+        }
+        return try draw(width: widthDots, height: size) { context in
+            context.interpolationQuality = .none
+            // CGContext.draw expects a bottom-left origin; undo the UIKit flip so the symbol is not mirrored
+            context.translateBy(x: 0, y: CGFloat(size))
+            context.scaleBy(x: 1, y: -1)
+            context.draw(symbol, in: CGRect(x: left, y: 0, width: size, height: size))
+        }
+    }
+
+    /// Draws into a white 8-bit gray context of the given size and thresholds the result.
+    /// UIKit drawing calls see a top-left origin, as in a view.
+    private static func draw(width: Int, height: Int, _ body: (CGContext) -> Void) throws -> MonochromeImage {
+        guard let context = CGContext(data: nil, width: width, height: height, bitsPerComponent: 8,
+                                      bytesPerRow: 0, space: CGColorSpaceCreateDeviceGray(),
+                                      bitmapInfo: CGImageAlphaInfo.none.rawValue) else {
+            throw EncodingError.invalidData("Cannot allocate a \(width)x\(height) image")
+        }
+        context.setFillColor(gray: 1, alpha: 1)
+        context.fill(CGRect(x: 0, y: 0, width: width, height: height))
+        context.saveGState()
+        context.translateBy(x: 0, y: CGFloat(height))
+        context.scaleBy(x: 1, y: -1)
+        UIGraphicsPushContext(context)
+        body(context)
+        UIGraphicsPopContext()
+        context.restoreGState()
+        guard let pixels = context.data else {
+            throw EncodingError.invalidData("Cannot read back a \(width)x\(height) image")
+        }
+        return MonochromeImage.threshold(gray: pixels.assumingMemoryBound(to: UInt8.self), width: width,
+                                         height: height, stride: context.bytesPerRow)
+    }
+}
@@ -1,12 +1,372 @@
 import Foundation
+import UIKit
+import CoreBluetooth
 import Capacitor
 
+/// The printing API over BLE (CoreBluetooth) or MFi accessories (External
+/// Accessory). Jobs are encoded by the platform-neutral sources in Encoding/,
+/// which mirror the Android encoder, and sent over one connection kept open
+/// between jobs.
 @objc(MkPrinterPlugin)
 public class MkPrinterPlugin: CAPPlugin {
+
+    private let logTag = "MkPrinterPlugin"
+
+    private static let defaultWarmUpIdleTimeout = 60000
+    private static let defaultDedupWindow = 600000
+    private static let dedupMaxEntries = 512
+    /// Seconds listenPrinters scans for BLE printers
+    private static let scanDuration: TimeInterval = 3
+
+    private var connection: PrinterConnection!
+    private var defaultProfile = PrinterProfile.default
+    private var profileOverrides = [String: PrinterProfile]()
+    private var codePageEncoders = [String: CodePageEncoder]()
+    /// Results of finished jobs by clientJobId; only touched on the job queue
+    private var finishedJobs = [String: (result: [String: Any], time: Date)]()
+    private var dedupWindow: TimeInterval = 0
+    private var powerAlertManager: CBCentralManager?
+
+    override public func load() {
+        // plugins.MkPrinter.warmUp / warmUpIdleTimeout (ms): keep the link open between jobs for that long
+        let idleTimeout = getConfig().getBoolean("warmUp", false)
+            ? getConfig().getInt("warmUpIdleTimeout", MkPrinterPlugin.defaultWarmUpIdleTimeout)
+            : 0
+        connection = PrinterConnection(idleTimeout: TimeInterval(idleTimeout) / 1000)
+        loadPrinterProfiles()
+        // plugins.MkPrinter.dedupWindow (ms): how long a clientJobId is remembered
+        dedupWindow = TimeInterval(getConfig().getInt("dedupWindow", MkPrinterPlugin.defaultDedupWindow)) / 1000
+    }
+
+    /// Reads plugins.MkPrinter.printerProfiles, keyed by "default", printer ids and names, as on Android
+    private func loadPrinterProfiles() {
+        var base = PrinterProfile()
+        if let names = getConfig().getArray("codePages")?.compactMap({ $0 as? String }) {
+            let pages = names.compactMap { CodePage.parse($0) }
+            if let first = pages.first {
+                base.defaultCodePage = first
+                base.codePages = pages
+            }
+        }
+        if getConfig().getBoolean("native2dBarcodes", false) {
+            base.capabilities.insert(.native2dBarcodes)
+        }
+        let profiles = getConfig().getObject("printerProfiles") ?? [:]
+        if let json = profiles["default"] as? JSObject {
+            base = PrinterProfile(json: json.mapValues { $0 as Any }, base: base)
+        }
+        defaultProfile = base
+        for (key, value) in profiles where key != "default" {
+            if let json = value as? JSObject {
+                profileOverrides[key] = PrinterProfile(json: json.mapValues { $0 as Any }, base: base)
+            }
+        }
+    }
+
+    /// The profile of the current printer: an override for its id or name, else the default
+    private var profile: PrinterProfile {
+        guard let device = connection.current else {
+            return defaultProfile
+        }
+        return profileOverrides[device.id] ?? profileOverrides[device.name] ?? defaultProfile
+    }
+
+    /// One code page encoder per profile, so its page switches and tables are kept between jobs
+    private func codePages(for profile: PrinterProfile) -> CodePageEncoder {
+        let key = ([profile.defaultCodePage] + profile.codePages).map { $0.rawValue }.joined(separator: ",")
+        if let encoder = codePageEncoders[key] {
+            return encoder
+        }
+        let encoder = profile.newCodePageEncoder()
+        codePageEncoders[key] = encoder
+        return encoder
+    }
+
     @objc func echo(_ call: CAPPluginCall) {
         let value = call.getString("value") ?? ""
         call.resolve([
             "value": value
         ])
     }
+
+    @objc func printText(_ call: CAPPluginCall) {
+        runJob(call) { profile in
+            let rows = self.parseRows(call)
+            let finish = try self.parseFinish(call)
+            let buffer = CommandBuffer()
+            let encoder = profile.configure(EscPosEncoder(buffer: buffer))
+            if call.getArray("rows") != nil && call.getBool("rasterize", false) {
+                let image = try ImageRasterizer.render(rows: rows, fontFamily: call.getString("font"), profile: profile)
+                PrintJobEncoder.encodeRasterRows(encoder, image: image, finish: finish)
+            } else {
+                PrintJobEncoder.encodeRows(encoder, codePages: self.codePages(for: profile), rows: rows, finish: finish)
+            }
+            return buffer.data
+        }
+    }
+
+    @objc func printBarcode(_ call: CAPPluginCall) {
+        guard let type = BarcodeType.parse(call.getString("type")) else {
+            call.reject("Unknown barcode type " + (call.getString("type") ?? ""))
+            return
+        }
+        guard let data = call.getString("data"), !data.isEmpty else {
+            call.reject("Missing barcode data")
+            return
+        }
+        runJob(call) { profile in
+            let job = BarcodeJob(type: type, data: data,
+                                 moduleSize: call.getInt("size", 0),
+                                 height: call.getInt("height", BarcodeJob.defaultHeight),
+                                 ecc: .parse(call.getString("errorCorrection")),
+                                 align: call.getString("align") == nil ? .center : .parse(call.getString("align")),
+                                 hri: .parse(call.getString("hri")))
+            let buffer = CommandBuffer()
+            try PrintJobEncoder.encodeBarcode(profile.configure(EscPosEncoder(buffer: buffer)), job: job,
+                                              nativeSymbols: profile.has(.native2dBarcodes),
+                                              rasterQr: { try ImageRasterizer.qrCode($0, widthDots: profile.widthDots) },
+                                              finish: try self.parseFinish(call))
+            return buffer.data
+        }
+    }
+
+    @objc func printImage(_ call: CAPPluginCall) {
+        guard let base64Data = call.getString("base64Data") else {
+            call.reject("Missing base64Data")
+            return
+        }
+        runJob(call) { profile in
+            let image = try ImageRasterizer.decode(base64: base64Data, widthDots: profile.widthDots)
+            let buffer = CommandBuffer(capacity: image.data.count + 64)
+            PrintJobEncoder.encodeImage(profile.configure(EscPosEncoder(buffer: buffer)), image: image,
+                                        finish: try self.parseFinish(call))
+            return buffer.data
+        }
+    }
+
+    @objc func printRaw(_ call: CAPPluginCall) {
+        let base64Data = call.getString("base64Data") ?? ""
+        let uri = call.getString("uri") ?? ""
+        if base64Data.isEmpty == uri.isEmpty {
+            call.reject("Pass either base64Data or uri")
+            return
+        }
+        if uri.isEmpty {
+            runJob(call) { _ in
+                guard let data = Data(base64Encoded: base64Data, options: .ignoreUnknownCharacters) else {
+                    throw EncodingError.invalidData("Invalid base64 data")
+                }
+                return data
+            }
+            return
+        }
+        connection.queue.async {
+            if let earlier = self.earlierResult(call) {
+                call.resolve(earlier)
+                return
+            }
+            var sent = 0
+            do {
+                // Streamed a block at a time, so a large file never sits in memory whole
+                let url = uri.hasPrefix("/") ? URL(fileURLWithPath: uri) : URL(string: uri)
+                guard let fileURL = url, fileURL.isFileURL else {
+                    throw PrinterError.notFound("Cannot open " + uri)
+                }
+                let file = try FileHandle(forReadingFrom: fileURL)
+                defer { file.closeFile() }
+                var length = 0
+                while true {
+                    let block = file.readData(ofLength: 64 * 1024)
+                    if block.isEmpty {
+                        break
+                    }
+                    try self.connection.write(block) { sent = length + $0 }
+                    length += block.count
+                }
+                self.resolveJob(call, ["length": length])
+            } catch {
+                self.failJob(call, error, sent: sent)
+            }
+        }
+    }
+
+    @objc func listenPrinters(_ call: CAPPluginCall) {
+        DispatchQueue.global(qos: .userInitiated).async {
+            do {
+                let devices = try self.connection.discover(duration: MkPrinterPlugin.scanDuration).map {
+                    ["name": $0.name, "macAddress": $0.id, "id": $0.id, "class": $0.kind]
+                }
+                call.resolve(["devices": devices])
+            } catch {
+                self.log(error)
+                call.reject(error.localizedDescription)
+            }
+        }
+    }
+
+    @objc func connectPrinter(_ call: CAPPluginCall) {
+        guard let id = call.getString("macAddress"), !id.isEmpty else {
+            call.reject("Missing macAddress")
+            return
+        }
+        connection.queue.async {
+            do {
+                try self.connection.connect(id: id)
+                call.resolve()
+            } catch {
+                self.log(error)
+                call.reject(error.localizedDescription)
+            }
+        }
+    }
+
+    @objc func disconnectPrinter(_ call: CAPPluginCall) {
+        connection.queue.async {
+            self.connection.disconnect()
+            call.resolve()
+        }
+    }
+
+    @objc func getCurrentPrinter(_ call: CAPPluginCall) {
+        guard let device = connection.current else {
+            call.reject("No printer connected")
+            return
+        }
+        call.resolve(["name": device.name, "macAddress": device.id])
+    }
+
+    @objc func getPrinterProfile(_ call: CAPPluginCall) {
+        let profile = self.profile
+        call.resolve([
+            "model": (profile.model ?? connection.current?.name).map { $0 as Any } ?? NSNull(),
+            "width": profile.widthDots,
+            "dpi": profile.dpi,
+            "maxLineBuffer": profile.maxLineBuffer,
+            "chunkSize": connection.packetSize > 0 ? connection.packetSize : profile.chunkSize,
+            "capabilities": PrinterProfile.Capability.allCases.filter { profile.has($0) }.map { $0.rawValue },
+            "codePages": profile.codePages.map { $0.rawValue },
+        ])
+    }
+
+    @objc func openBluetoothSettings(_ call: CAPPluginCall) {
+        // iOS only lets apps open their own settings page, which holds the Bluetooth permission
+        DispatchQueue.main.async {
+            if let url = URL(string: UIApplication.openSettingsURLString) {
+                UIApplication.shared.open(url)
+            }
+            call.resolve()
+        }
+    }
+
+    @objc func enableBluetooth(_ call: CAPPluginCall) {
+        // Apps cannot switch Bluetooth on; a central created with the power alert option asks the user to
+        if connection.bluetoothState != .poweredOn {
+            powerAlertManager = CBCentralManager(delegate: nil, queue: nil,
+                                                 options: [CBCentralManagerOptionShowPowerAlertKey: true])
+        }
+        call.resolve(["enabled": connection.bluetoothState == .poweredOn])
+    }
+
+    /// Encodes and writes one job on the job queue, resolving with its clientJobId
+    ///
+    /// - Parameter encode: Builds the job's bytes for the current printer's profile
+    private func runJob(_ call: CAPPluginCall, _ encode: @escaping (PrinterProfile) throws -> Data) {
+        connection.queue.async {
+            if let earlier = self.earlierResult(call) {
+                call.resolve(earlier)
+                return
+            }
+            var sent = 0
+            do {
+                let data = try encode(self.profile)
+                try self.connection.write(data) { sent = $0 }
+                self.resolveJob(call, [:])
+            } catch {
+                self.failJob(call, error, sent: sent)
+            }
+        }
+    }
+
+    private func parseRows(_ call: CAPPluginCall) -> [TextRow] {
+        guard let array = call.getArray("rows") else {
+            return [TextRow(text: call.getString("rows") ?? "")]
+        }
+        return array.map { item in
+            guard let row = item as? JSObject else {
+                return TextRow(text: "\(item)")
+            }
+            return TextRow(text: row["text"] as? String ?? "",
+                           size: row["fontSize"] as? Int ?? 1,
+                           align: .parse(row["fontAlign"] as? String),
+                           underline: row["fontUnderline"] as? Bool ?? false)
+        }
+    }
+
+    /// The feedLines, cut and openDrawer options of a print call
+    private func parseFinish(_ call: CAPPluginCall) throws -> JobFinish {
+        guard let cut = JobFinish.Cut.parse(call.getString("cut")) else {
+            throw EncodingError.invalidData("Unknown cut \(call.getString("cut") ?? "")")
+        }
+        let pin = call.getBool("openDrawer", false) ? call.getInt("drawerPin", JobFinish.drawerPin2) : 0
+        guard pin == 0 || pin == JobFinish.drawerPin2 || pin == JobFinish.drawerPin5 else {
+            throw EncodingError.invalidData("Cash drawer pin must be 2 or 5, not \(pin)")
+        }
+        return JobFinish(feedLines: call.getInt("feedLines", JobFinish.defaultFeed),
+                         cut: cut,
+                         drawerPin: pin,
+                         pulseMs: call.getInt("drawerPulse", JobFinish.defaultPulseMs))
+    }
+
+    /// The result of an earlier job with the call's clientJobId, marked as a duplicate.
+    /// Jobs run one at a time on the job queue, so a retry of a running job
+    /// gets here only once that job is done; call on the job queue.
+    private func earlierResult(_ call: CAPPluginCall) -> [String: Any]? {
+        guard let clientJobId = call.getString("clientJobId") else {
+            return nil
+        }
+        let now = Date()
+        finishedJobs = finishedJobs.filter { now.timeIntervalSince($0.value.time) < dedupWindow }
+        guard var res = finishedJobs[clientJobId]?.result else {
+            return nil
+        }
+        res["duplicate"] = true
+        return res
+    }
+
+    /// Resolves a printed job and remembers the result under its clientJobId; call on the job queue
+    private func resolveJob(_ call: CAPPluginCall, _ res: [String: Any]) {
+        var res = res
+        if let clientJobId = call.getString("clientJobId") {
+            res["clientJobId"] = clientJobId
+            remember(clientJobId, res)
+        }
+        call.resolve(res)
+    }
+
+    /// Rejects a failed job. If part of it reached the printer, which may have
+    /// printed it, a retry under its clientJobId is answered with
+    /// `possiblyPrinted` instead of printing again; call on the job queue
+    private func failJob(_ call: CAPPluginCall, _ error: Error, sent: Int) {
+        if sent > 0, let clientJobId = call.getString("clientJobId") {
+            remember(clientJobId, ["clientJobId": clientJobId, "possiblyPrinted": true, "bytesSent": sent])
+        }
+        fail(call, error)
+    }
+
+    private func remember(_ clientJobId: String, _ res: [String: Any]) {
+        if finishedJobs.count >= MkPrinterPlugin.dedupMaxEntries,
+           let oldest = finishedJobs.min(by: { $0.value.time < $1.value.time }) {
+            finishedJobs.removeValue(forKey: oldest.key)
+        }
+        finishedJobs[clientJobId] = (res, Date())
+    }
+
+    private func fail(_ call: CAPPluginCall, _ error: Error) {
+        log(error)
+        call.reject(error.localizedDescription)
+    }
+
+    private func log(_ error: Error) {
+        CAPLog.print("[\(logTag)] \(error.localizedDescription)")
+    }
 }
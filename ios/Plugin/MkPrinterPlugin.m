@@ -5,4 +5,15 @@
 // each method the plugin supports using the CAP_PLUGIN_METHOD macro.
 CAP_PLUGIN(MkPrinterPlugin, "MkPrinter",
            CAP_PLUGIN_METHOD(echo, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(printText, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(printBarcode, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(printImage, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(printRaw, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(listenPrinters, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(connectPrinter, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(disconnectPrinter, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getCurrentPrinter, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getPrinterProfile, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(openBluetoothSettings, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(enableBluetooth, CAPPluginReturnPromise);
 )
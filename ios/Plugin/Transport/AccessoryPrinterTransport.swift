@@ -0,0 +1,111 @@
+import Foundation
+import ExternalAccessory
+
+/// Writes to an MFi printer over an External Accessory session (classic
+/// Bluetooth or Lightning). The app must list the printer's protocol strings
+/// under UISupportedExternalAccessoryProtocols in its Info.plist.
+final class AccessoryPrinterTransport: PrinterTransport {
+
+    /// Bytes handed to the output stream per write
+    static let packetSize = 4096
+    /// Seconds without stream space before a write fails
+    static let stallTimeout: TimeInterval = 10
+
+    /// Prefix of the ids of accessory printers, to tell them from BLE peripheral UUIDs
+    static let idPrefix = "ea:"
+
+    let accessory: EAAccessory
+    private let session: EASession
+    private let output: OutputStream
+
+    static var supportedProtocols: [String] {
+        return Bundle.main.object(forInfoDictionaryKey: "UISupportedExternalAccessoryProtocols") as? [String] ?? []
+    }
+
+    /// Connected accessories that speak one of the app's protocols
+    static func printers() -> [EAAccessory] {
+        let protocols = Set(supportedProtocols)
+        return EAAccessoryManager.shared().connectedAccessories.filter {
+            !protocols.isDisjoint(with: $0.protocolStrings)
+        }
+    }
+
+    static func identifier(of accessory: EAAccessory) -> String {
+        return idPrefix + (accessory.serialNumber.isEmpty ? String(accessory.connectionID) : accessory.serialNumber)
+    }
+
+    init(accessory: EAAccessory) throws {
+        guard let protocolString = accessory.protocolStrings.first(where: {
+            AccessoryPrinterTransport.supportedProtocols.contains($0)
+        }) else {
+            throw PrinterError.linkFailed("\(accessory.name) speaks none of the app's accessory protocols")
+        }
+        guard let session = EASession(accessory: accessory, forProtocol: protocolString),
+              let output = session.outputStream else {
+            throw PrinterError.linkFailed("Cannot open a session with \(accessory.name)")
+        }
+        self.accessory = accessory
+        self.session = session
+        self.output = output
+        // Scheduled so the stream gets its events; writes poll hasSpaceAvailable from the job queue
+        let open = {
+            output.schedule(in: .main, forMode: .default)
+            output.open()
+        }
+        if Thread.isMainThread {
+            open()
+        } else {
+            DispatchQueue.main.sync(execute: open)
+        }
+    }
+
+    var maximumWriteLength: Int {
+        return AccessoryPrinterTransport.packetSize
+    }
+
+    var isConnected: Bool {
+        return accessory.isConnected && output.streamStatus != .closed && output.streamStatus != .error
+    }
+
+    func write(_ data: Data) throws {
+        try data.withUnsafeBytes { (raw: UnsafeRawBufferPointer) in
+            guard let base = raw.bindMemory(to: UInt8.self).baseAddress else {
+                return
+            }
+            var written = 0
+            var lastProgress = Date()
+            while written < data.count {
+                if let error = output.streamError {
+                    throw PrinterError.linkFailed(error.localizedDescription)
+                }
+                guard accessory.isConnected else {
+                    throw PrinterError.linkFailed("Printer disconnected after \(written) of \(data.count) bytes")
+                }
+                if output.streamStatus == .open && output.hasSpaceAvailable {
+                    let n = output.write(base + written, maxLength: min(AccessoryPrinterTransport.packetSize,
+                                                                        data.count - written))
+                    if n < 0 {
+                        throw PrinterError.linkFailed("Write to \(accessory.name) failed")
+                    }
+                    if n > 0 {
+                        written += n
+                        lastProgress = Date()
+                        continue
+                    }
+                }
+                if Date().timeIntervalSince(lastProgress) > AccessoryPrinterTransport.stallTimeout {
+                    throw PrinterError.timedOut("Printer stopped taking data after \(written) of \(data.count) bytes")
+                }
+                Thread.sleep(forTimeInterval: 0.002)
+            }
+        }
+    }
+
+    func close() {
+        let output = self.output
+        DispatchQueue.main.async {
+            output.close()
+            output.remove(from: .main, forMode: .default)
+        }
+    }
+}
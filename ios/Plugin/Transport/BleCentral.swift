@@ -0,0 +1,173 @@
+import Foundation
+import CoreBluetooth
+
+/// Owns the CBCentralManager and turns its callbacks into blocking calls for
+/// the plugin's job queue. All CoreBluetooth work runs on `queue`.
+final class BleCentral: NSObject, CBCentralManagerDelegate {
+
+    struct Discovered {
+        let peripheral: CBPeripheral
+        let name: String
+    }
+
+    let queue = DispatchQueue(label: "MkPrinter.ble")
+    private let condition = NSCondition()
+    private var manager: CBCentralManager!
+    private var discovered = [UUID: Discovered]()
+    private var connectResults = [UUID: Error?]()
+    private var transports = [UUID: BlePrinterTransport]()
+
+    override init() {
+        super.init()
+        // No power alert here; enableBluetooth asks for it explicitly
+        manager = CBCentralManager(delegate: self, queue: queue,
+                                   options: [CBCentralManagerOptionShowPowerAlertKey: false])
+    }
+
+    var state: CBManagerState {
+        return manager.state
+    }
+
+    /// Waits for the radio to settle and fails unless it is on and allowed
+    func waitUntilPoweredOn(timeout: TimeInterval = 5) throws {
+        condition.lock()
+        _ = waitFor(condition, stall: timeout) { manager.state != .unknown && manager.state != .resetting }
+        let state = manager.state
+        condition.unlock()
+        switch state {
+        case .poweredOn:
+            return
+        case .unauthorized:
+            throw PrinterError.bluetoothUnavailable("Bluetooth permission denied")
+        case .unsupported:
+            throw PrinterError.bluetoothUnavailable("Bluetooth LE is not supported on this device")
+        default:
+            throw PrinterError.bluetoothUnavailable("Bluetooth is not on.")
+        }
+    }
+
+    /// Scans for `duration` seconds
+    ///
+    /// - Returns: Named peripherals seen, plus those already connected to the system with a printer service
+    func scan(duration: TimeInterval) throws -> [Discovered] {
+        try waitUntilPoweredOn()
+        condition.lock()
+        discovered.removeAll()
+        condition.unlock()
+        queue.sync {
+            for peripheral in manager.retrieveConnectedPeripherals(withServices: BlePrinterTransport.printerServices) {
+                record(peripheral, name: peripheral.name)
+            }
+            manager.scanForPeripherals(withServices: nil, options: nil)
+        }
+        Thread.sleep(forTimeInterval: duration)
+        queue.sync {
+            manager.stopScan()
+        }
+        condition.lock()
+        defer { condition.unlock() }
+        return discovered.values.sorted { $0.name < $1.name }
+    }
+
+    /// Connects to a peripheral by identifier, scanning for it if the system does not know it yet
+    func connect(_ identifier: UUID, timeout: TimeInterval) throws -> CBPeripheral {
+        try waitUntilPoweredOn()
+        var peripheral = queue.sync { manager.retrievePeripherals(withIdentifiers: [identifier]).first }
+        if peripheral == nil {
+            condition.lock()
+            discovered.removeAll()
+            condition.unlock()
+            // Never hold the condition across queue.sync: the delegate callbacks take it on that queue
+            queue.sync {
+                manager.scanForPeripherals(withServices: nil, options: nil)
+            }
+            condition.lock()
+            _ = waitFor(condition, stall: timeout) { discovered[identifier] != nil }
+            peripheral = discovered[identifier]?.peripheral
+            condition.unlock()
+            queue.sync {
+                manager.stopScan()
+            }
+        }
+        guard let found = peripheral else {
+            throw PrinterError.notFound("Printer \(identifier.uuidString) not found")
+        }
+
+        condition.lock()
+        connectResults.removeValue(forKey: identifier)
+        condition.unlock()
+        queue.sync {
+            manager.connect(found, options: nil)
+        }
+        condition.lock()
+        let answered = waitFor(condition, stall: timeout) { connectResults[identifier] != nil }
+        let result = connectResults.removeValue(forKey: identifier)
+        condition.unlock()
+        if !answered {
+            queue.sync {
+                manager.cancelPeripheralConnection(found)
+            }
+            throw PrinterError.timedOut("Timed out connecting to \(found.name ?? identifier.uuidString)")
+        }
+        if let error = result ?? nil {
+            throw PrinterError.linkFailed(error.localizedDescription)
+        }
+        return found
+    }
+
+    /// Routes the peripheral's disconnect to its transport
+    func register(_ transport: BlePrinterTransport) {
+        condition.lock()
+        transports[transport.peripheral.identifier] = transport
+        condition.unlock()
+    }
+
+    func cancel(_ peripheral: CBPeripheral) {
+        queue.async {
+            self.manager.cancelPeripheralConnection(peripheral)
+        }
+    }
+
+    private func record(_ peripheral: CBPeripheral, name: String?) {
+        guard let name = name, !name.isEmpty else {
+            return
+        }
+        condition.lock()
+        discovered[peripheral.identifier] = Discovered(peripheral: peripheral, name: name)
+        condition.broadcast()
+        condition.unlock()
+    }
+
+    func centralManagerDidUpdateState(_ central: CBCentralManager) {
+        condition.lock()
+        condition.broadcast()
+        condition.unlock()
+    }
+
+    func centralManager(_ central: CBCentralManager, didDiscover peripheral: CBPeripheral,
+                        advertisementData: [String: Any], rssi RSSI: NSNumber) {
+        record(peripheral, name: advertisementData[CBAdvertisementDataLocalNameKey] as? String ?? peripheral.name)
+    }
+
+    func centralManager(_ central: CBCentralManager, didConnect peripheral: CBPeripheral) {
+        condition.lock()
+        connectResults[peripheral.identifier] = .some(nil)
+        condition.broadcast()
+        condition.unlock()
+    }
+
+    func centralManager(_ central: CBCentralManager, didFailToConnect peripheral: CBPeripheral, error: Error?) {
+        condition.lock()
+        connectResults[peripheral.identifier] = error ?? PrinterError.linkFailed("Connection failed")
+        condition.broadcast()
+        condition.unlock()
+    }
+
+    func centralManager(_ central: CBCentralManager, didDisconnectPeripheral peripheral: CBPeripheral,
+                        error: Error?) {
+        condition.lock()
+        let transport = transports.removeValue(forKey: peripheral.identifier)
+        condition.unlock()
+        transport?.linkLost(error)
+    }
+}
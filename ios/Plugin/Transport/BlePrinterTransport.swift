@@ -0,0 +1,228 @@
+import Foundation
+import CoreBluetooth
+
+/// Writes to a BLE printer's data characteristic.
+///
+/// Each job is cut into packets of the negotiated write length (the ATT MTU
+/// less its header) and sent with write-with-response, a few packets in
+/// flight at a time: the printer acknowledges every packet, so a slow
+/// printer throttles the transfer instead of dropping bytes, and the window
+/// keeps the link busy while acknowledgements come back. Characteristics that
+/// only take write-without-response are paced by CoreBluetooth's
+/// canSendWriteWithoutResponse flow control instead.
+final class BlePrinterTransport: NSObject, PrinterTransport, CBPeripheralDelegate {
+
+    /// Data services of common BLE receipt printers, tried before any other writable characteristic
+    static let printerServices = [
+        CBUUID(string: "18F0"),
+        CBUUID(string: "E7810A71-73AE-499D-8C15-FAA9AEF0C3F2"),
+        CBUUID(string: "49535343-FE7D-4AE5-8FA9-9FAFD205E455"),
+        CBUUID(string: "FFE0"),
+        CBUUID(string: "FF00"),
+    ]
+
+    /// Packets written but not yet acknowledged
+    static let writeWindow = 4
+    /// Seconds without an acknowledgement before a write fails
+    static let stallTimeout: TimeInterval = 10
+
+    let peripheral: CBPeripheral
+    private let central: BleCentral
+    private let condition = NSCondition()
+
+    private var characteristic: CBCharacteristic?
+    private var writeType = CBCharacteristicWriteType.withResponse
+    private var servicesPending = -1
+    private var linkError: Error?
+    private var lost = false
+
+    private var packets = [Data]()
+    private var nextPacket = 0
+    private var inFlight = 0
+    private var acknowledged = 0
+
+    init(central: BleCentral, peripheral: CBPeripheral) {
+        self.central = central
+        self.peripheral = peripheral
+        super.init()
+        peripheral.delegate = self
+        central.register(self)
+    }
+
+    /// Finds the characteristic to write jobs to
+    func open(timeout: TimeInterval) throws {
+        condition.lock()
+        servicesPending = -1
+        condition.unlock()
+        central.queue.sync {
+            peripheral.discoverServices(nil)
+        }
+        condition.lock()
+        let done = waitFor(condition, stall: timeout) { servicesPending == 0 || linkError != nil || lost }
+        let error = linkError
+        let found = characteristic != nil
+        condition.unlock()
+        if let error = error {
+            throw PrinterError.linkFailed(error.localizedDescription)
+        }
+        if !done {
+            throw PrinterError.timedOut("Timed out discovering the printer's services")
+        }
+        if !found {
+            throw PrinterError.linkFailed("\(peripheral.name ?? "The device") has no writable characteristic")
+        }
+    }
+
+    var maximumWriteLength: Int {
+        return max(20, min(512, peripheral.maximumWriteValueLength(for: writeType)))
+    }
+
+    var isConnected: Bool {
+        condition.lock()
+        defer { condition.unlock() }
+        return !lost && peripheral.state == .connected && characteristic != nil
+    }
+
+    func write(_ data: Data) throws {
+        let packetSize = maximumWriteLength
+        condition.lock()
+        guard !lost, characteristic != nil else {
+            condition.unlock()
+            throw PrinterError.notConnected
+        }
+        packets.removeAll(keepingCapacity: true)
+        var offset = data.startIndex
+        while offset < data.endIndex {
+            let end = min(offset + packetSize, data.endIndex)
+            packets.append(data.subdata(in: offset..<end))
+            offset = end
+        }
+        nextPacket = 0
+        inFlight = 0
+        acknowledged = 0
+        linkError = nil
+        condition.unlock()
+
+        central.queue.async {
+            self.pump()
+        }
+
+        condition.lock()
+        let finished = waitFor(condition, stall: BlePrinterTransport.stallTimeout, progress: { acknowledged }) {
+            (nextPacket == packets.count && inFlight == 0) || linkError != nil || lost
+        }
+        let error = linkError
+        let dropped = lost
+        let sent = acknowledged
+        packets.removeAll(keepingCapacity: true)
+        nextPacket = 0
+        condition.unlock()
+
+        if let error = error {
+            throw PrinterError.linkFailed(error.localizedDescription)
+        }
+        if dropped {
+            throw PrinterError.linkFailed("Printer disconnected after \(sent * packetSize) of \(data.count) bytes")
+        }
+        if !finished {
+            throw PrinterError.timedOut("Printer stopped acknowledging after \(sent * packetSize) of \(data.count) bytes")
+        }
+    }
+
+    func close() {
+        central.cancel(peripheral)
+        condition.lock()
+        lost = true
+        condition.broadcast()
+        condition.unlock()
+    }
+
+    /// Called by the central when the link drops
+    func linkLost(_ error: Error?) {
+        condition.lock()
+        lost = true
+        if linkError == nil, let error = error {
+            linkError = error
+        }
+        condition.broadcast()
+        condition.unlock()
+    }
+
+    /// Sends packets up to the window, or as far as flow control allows; runs on the central's queue
+    private func pump() {
+        condition.lock()
+        defer { condition.unlock() }
+        guard let characteristic = characteristic, linkError == nil, !lost else {
+            return
+        }
+        if writeType == .withResponse {
+            while inFlight < BlePrinterTransport.writeWindow && nextPacket < packets.count {
+                peripheral.writeValue(packets[nextPacket], for: characteristic, type: .withResponse)
+                nextPacket += 1
+                inFlight += 1
+            }
+        } else {
+            while nextPacket < packets.count && peripheral.canSendWriteWithoutResponse {
+                peripheral.writeValue(packets[nextPacket], for: characteristic, type: .withoutResponse)
+                nextPacket += 1
+                acknowledged += 1
+            }
+            condition.broadcast()
+        }
+    }
+
+    func peripheral(_ peripheral: CBPeripheral, didDiscoverServices error: Error?) {
+        condition.lock()
+        defer { condition.unlock() }
+        let services = peripheral.services ?? []
+        if let error = error {
+            linkError = error
+        } else {
+            servicesPending = services.count
+        }
+        for service in services {
+            peripheral.discoverCharacteristics(nil, for: service)
+        }
+        condition.broadcast()
+    }
+
+    func peripheral(_ peripheral: CBPeripheral, didDiscoverCharacteristicsFor service: CBService, error: Error?) {
+        condition.lock()
+        defer { condition.unlock() }
+        servicesPending -= 1
+        for candidate in service.characteristics ?? [] {
+            let best = characteristic.map { rank($0) } ?? 0
+            if rank(candidate) > best {
+                characteristic = candidate
+                writeType = candidate.properties.contains(.write) ? .withResponse : .withoutResponse
+            }
+        }
+        condition.broadcast()
+    }
+
+    /// Printer services first, then write-with-response over write-without-response; 0 if not writable
+    private func rank(_ characteristic: CBCharacteristic) -> Int {
+        let properties = characteristic.properties
+        guard properties.contains(.write) || properties.contains(.writeWithoutResponse) else {
+            return 0
+        }
+        let known = characteristic.service.map { BlePrinterTransport.printerServices.contains($0.uuid) } ?? false
+        return (known ? 4 : 1) + (properties.contains(.write) ? 2 : 0)
+    }
+
+    func peripheral(_ peripheral: CBPeripheral, didWriteValueFor characteristic: CBCharacteristic, error: Error?) {
+        condition.lock()
+        inFlight -= 1
+        acknowledged += 1
+        if let error = error, linkError == nil {
+            linkError = error
+        }
+        condition.broadcast()
+        condition.unlock()
+        pump()
+    }
+
+    func peripheralIsReady(toSendWriteWithoutResponse peripheral: CBPeripheral) {
+        pump()
+    }
+}
@@ -0,0 +1,171 @@
+import Foundation
+import CoreBluetooth
+
+/// A printer the plugin can connect to
+struct PrinterDevice {
+    /// Peripheral UUID of a BLE printer, or "ea:" and the serial number of an accessory
+    let id: String
+    let name: String
+    /// "ble" or "accessory"
+    let kind: String
+
+    var dictionary: [String: String] {
+        return ["id": id, "name": name, "kind": kind]
+    }
+
+    init(id: String, name: String, kind: String) {
+        self.id = id
+        self.name = name
+        self.kind = kind
+    }
+
+    init?(dictionary: [String: String]?) {
+        guard let id = dictionary?["id"], let name = dictionary?["name"], let kind = dictionary?["kind"] else {
+            return nil
+        }
+        self.init(id: id, name: name, kind: kind)
+    }
+}
+
+/// Keeps the connection to the current printer open between print jobs.
+///
+/// Jobs run one at a time on `queue`, so they reuse one link instead of each
+/// reconnecting, and never interleave their bytes. A dropped link is
+/// reopened by the next job. The printer is saved so the first job after an
+/// app restart connects by itself, as on Android.
+final class PrinterConnection {
+
+    private static let savedPrinterKey = "MkPrinter.printer"
+    static let connectTimeout: TimeInterval = 10
+    /// Bytes written between progress reports; large enough that BLE packets stay pipelined
+    private static let progressStep = 16 * 1024
+
+    let queue = DispatchQueue(label: "MkPrinter.jobs")
+    private let central = BleCentral()
+    private var transport: PrinterTransport?
+    private var idleClose: DispatchWorkItem?
+    private let idleTimeout: TimeInterval
+
+    /// - Parameter idleTimeout: Seconds a link may sit unused before it is closed, 0 to keep it open
+    init(idleTimeout: TimeInterval) {
+        self.idleTimeout = idleTimeout
+    }
+
+    var bluetoothState: CBManagerState {
+        return central.state
+    }
+
+    /// The printer jobs go to, connected or not
+    var current: PrinterDevice? {
+        return PrinterDevice(dictionary: UserDefaults.standard.dictionary(forKey: PrinterConnection.savedPrinterKey)
+            as? [String: String])
+    }
+
+    /// BLE printers in range and connected accessory printers; blocks for `duration`, so call off the main thread
+    func discover(duration: TimeInterval) throws -> [PrinterDevice] {
+        var devices = AccessoryPrinterTransport.printers().map {
+            PrinterDevice(id: AccessoryPrinterTransport.identifier(of: $0), name: $0.name, kind: "accessory")
+        }
+        do {
+            devices += try central.scan(duration: duration).map {
+                PrinterDevice(id: $0.peripheral.identifier.uuidString, name: $0.name, kind: "ble")
+            }
+        } catch {
+            // Accessory printers are still worth listing without Bluetooth LE
+            if devices.isEmpty {
+                throw error
+            }
+        }
+        return devices
+    }
+
+    /// Connects to `id` and makes it the current printer; call on `queue`
+    @discardableResult
+    func connect(id: String) throws -> PrinterDevice {
+        close()
+        let device: PrinterDevice
+        if id.hasPrefix(AccessoryPrinterTransport.idPrefix) {
+            guard let accessory = AccessoryPrinterTransport.printers().first(where: {
+                AccessoryPrinterTransport.identifier(of: $0) == id
+            }) else {
+                throw PrinterError.notFound("Accessory printer \(id) is not connected")
+            }
+            transport = try AccessoryPrinterTransport(accessory: accessory)
+            device = PrinterDevice(id: id, name: accessory.name, kind: "accessory")
+        } else {
+            guard let uuid = UUID(uuidString: id) else {
+                throw PrinterError.notFound("\(id) is not a printer id from listenPrinters")
+            }
+            let peripheral = try central.connect(uuid, timeout: PrinterConnection.connectTimeout)
+            let ble = BlePrinterTransport(central: central, peripheral: peripheral)
+            do {
+                try ble.open(timeout: PrinterConnection.connectTimeout)
+            } catch {
+                ble.close()
+                throw error
+            }
+            transport = ble
+            device = PrinterDevice(id: id, name: peripheral.name ?? id, kind: "ble")
+        }
+        UserDefaults.standard.set(device.dictionary, forKey: PrinterConnection.savedPrinterKey)
+        scheduleIdleClose()
+        return device
+    }
+
+    /// Closes the link and forgets the printer; call on `queue`
+    func disconnect() {
+        close()
+        UserDefaults.standard.removeObject(forKey: PrinterConnection.savedPrinterKey)
+    }
+
+    /// Writes one encoded job, reconnecting to the current printer first if the link is down; call on `queue`
+    ///
+    /// - Parameter progress: Called with the bytes written so far after each
+    ///   piece the link accepted, so a failed job knows whether any of it reached the printer
+    func write(_ data: Data, progress: (Int) -> Void = { _ in }) throws {
+        if transport?.isConnected != true {
+            guard let device = current else {
+                throw PrinterError.notConnected
+            }
+            try connect(id: device.id)
+        }
+        idleClose?.cancel()
+        defer { scheduleIdleClose() }
+        do {
+            var offset = data.startIndex
+            while offset < data.endIndex {
+                let end = min(offset + PrinterConnection.progressStep, data.endIndex)
+                try transport!.write(data.subdata(in: offset..<end))
+                offset = end
+                progress(offset - data.startIndex)
+            }
+        } catch {
+            // The next job starts from a fresh connection
+            close()
+            throw error
+        }
+    }
+
+    /// Bytes per packet of the open link, 0 if none is open
+    var packetSize: Int {
+        return transport?.maximumWriteLength ?? 0
+    }
+
+    private func close() {
+        idleClose?.cancel()
+        idleClose = nil
+        transport?.close()
+        transport = nil
+    }
+
+    private func scheduleIdleClose() {
+        guard idleTimeout > 0 else {
+            return
+        }
+        let item = DispatchWorkItem { [weak self] in
+            self?.close()
+        }
+        idleClose = item
+        queue.asyncAfter(deadline: .now() + idleTimeout, execute: item)
+    }
+}
@@ -0,0 +1,57 @@
+import Foundation
+
+/// Byte-level link to a printer.
+///
+/// Implementations wrap a BLE characteristic or an External Accessory
+/// session, so the encoding and job code does not depend on how the bytes
+/// travel. Calls block and must not be made on the main thread.
+protocol PrinterTransport: AnyObject {
+
+    /// Largest write the link takes in one packet
+    var maximumWriteLength: Int { get }
+
+    var isConnected: Bool { get }
+
+    /// Writes all of `data`, returning once the link has accepted the last byte
+    func write(_ data: Data) throws
+
+    func close()
+}
+
+enum PrinterError: LocalizedError {
+    case bluetoothUnavailable(String)
+    case notFound(String)
+    case notConnected
+    case timedOut(String)
+    case linkFailed(String)
+
+    var errorDescription: String? {
+        switch self {
+        case .bluetoothUnavailable(let message), .notFound(let message), .timedOut(let message),
+             .linkFailed(let message):
+            return message
+        case .notConnected:
+            return "No printer connected"
+        }
+    }
+}
+
+/// Blocks the calling thread on `condition` until `done` holds or nothing
+/// changes for `stall` seconds. The condition must be locked by the caller;
+/// `progress` is sampled on every wake-up so slow but moving transfers never time out.
+func waitFor(_ condition: NSCondition, stall: TimeInterval, progress: () -> Int = { 0 },
+             _ done: () -> Bool) -> Bool {
+    var last = progress()
+    var deadline = Date(timeIntervalSinceNow: stall)
+    while !done() {
+        if !condition.wait(until: deadline) {
+            let now = progress()
+            if now == last {
+                return done()
+            }
+            last = now
+            deadline = Date(timeIntervalSinceNow: stall)
+        }
+    }
+    return true
+}
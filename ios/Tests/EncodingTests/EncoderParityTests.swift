@@ -0,0 +1,124 @@
+import XCTest
+import MkPrinterEncoding
+
+/// Checks that the Swift encoders send the same bytes as the Android plugin.
+///
+/// The expected jobs in Fixtures/ are written by the Java encoders:
+/// `cd android && ./gradlew -p benchmark iosFixtures --args="--update"`. The
+/// text rows here repeat those in IosFixtures.java.
+final class EncoderParityTests: XCTestCase {
+
+    func testTextRowsInDefaultCodePages() throws {
+        try XCTSkipUnless(CodePage.gbk.isAvailable && CodePage.cp437.isAvailable,
+                          "No GBK or PC437 converter on this platform")
+        let buffer = CommandBuffer()
+        PrintJobEncoder.encodeRows(EscPosEncoder(buffer: buffer),
+                                   codePages: CodePageEncoder(defaultPage: .gbk, available: [.gbk, .cp437]), rows: [
+                                       TextRow(text: "RECEIPT", size: 2, align: .center),
+                                       TextRow(text: "Café au lait    3.50\nPain ½          1.20\n"),
+                                       TextRow(text: "合计            4.70", underline: true),
+                                       TextRow(text: "Thank you!", align: .right)
+                                   ], finish: .default)
+        try assertFixture("text_rows", buffer)
+    }
+
+    func testTextRowsWithCutAndDrawer() throws {
+        try XCTSkipUnless(CodePage.cp1252.isAvailable, "No CP1252 converter on this platform")
+        let buffer = CommandBuffer()
+        PrintJobEncoder.encodeRows(EscPosEncoder(buffer: buffer),
+                                   codePages: CodePageEncoder(defaultPage: .cp1252, available: [.cp1252]), rows: [
+                                       TextRow(text: "Crème brûlée   €4.50"),
+                                       TextRow(text: "TOTAL", size: 3, align: .right, underline: true)
+                                   ], finish: JobFinish(feedLines: 3, cut: .partial, drawerPin: JobFinish.drawerPin2))
+        try assertFixture("text_rows_cp1252_cut", buffer)
+    }
+
+    func testVietnameseInCp1258() throws {
+        try XCTSkipUnless(CodePage.cp1258.isAvailable, "No CP1258 converter on this platform")
+        let buffer = CommandBuffer()
+        PrintJobEncoder.encodeRows(EscPosEncoder(buffer: buffer),
+                                   codePages: CodePageEncoder(defaultPage: .cp1258, available: [.cp1258]), rows: [
+                                       TextRow(text: "Tổng cộng      85.000đ", underline: true),
+                                       TextRow(text: "Cảm ơn quý khách", align: .center)
+                                   ], finish: JobFinish(cut: .full))
+        try assertFixture("text_rows_cp1258", buffer)
+    }
+
+    func testRasterImages() throws {
+        for width in [384, 576] {
+            let image = try loadImage("image_\(width)")
+            let buffer = CommandBuffer()
+            PrintJobEncoder.encodeImage(PrinterProfile.default.configure(EscPosEncoder(buffer: buffer)),
+                                        image: image, finish: .default)
+            try assertFixture("image_\(width)", buffer)
+        }
+    }
+
+    func testBitImageWithoutRasterSupport() throws {
+        let image = try loadImage("image_384")
+        let buffer = CommandBuffer()
+        PrintJobEncoder.encodeImage(EscPosEncoder(buffer: buffer).setRasterSupported(false), image: image,
+                                    finish: .default)
+        try assertFixture("image_384_bit_image", buffer)
+    }
+
+    func testNativeBarcodes() throws {
+        let jobs = [
+            "barcode_qr_native": BarcodeJob(type: .qr, data: "https://example.com/r/1042"),
+            "barcode_pdf417": BarcodeJob(type: .pdf417, data: "INV-1042;2024-01-17;85000", moduleSize: 3, ecc: .q,
+                                         align: .left, hri: .none),
+            "barcode_code128": BarcodeJob(type: .code128, data: "20240117"),
+            "barcode_code39": BarcodeJob(type: .code39, data: "MK-42", moduleSize: 3, height: 120, align: .right,
+                                         hri: .both)
+        ]
+        for (name, job) in jobs {
+            let buffer = CommandBuffer()
+            try PrintJobEncoder.encodeBarcode(EscPosEncoder(buffer: buffer), job: job, nativeSymbols: true,
+                                              rasterQr: { _ in
+                                                  XCTFail("\(name) drew a raster QR code")
+                                                  return MonochromeImage(width: 8, height: 1)
+                                              }, finish: .default)
+            try assertFixture(name, buffer)
+        }
+    }
+
+    private func assertFixture(_ name: String, _ buffer: CommandBuffer, file: StaticString = #filePath,
+                               line: UInt = #line) throws {
+        let expected = [UInt8](try fixture(name, "bin"))
+        let actual = buffer.bytes
+        if actual == expected {
+            return
+        }
+        let index = zip(actual, expected).enumerated().first { $0.element.0 != $0.element.1 }?.offset
+            ?? min(actual.count, expected.count)
+        XCTFail("\(name): \(actual.count) bytes, expected \(expected.count); first difference at byte \(index)",
+                file: file, line: line)
+    }
+
+    /// Reads a binary PBM (P4) image, packed as MonochromeImage packs its rows
+    private func loadImage(_ name: String) throws -> MonochromeImage {
+        let data = [UInt8](try fixture(name, "pbm"))
+        // Header: "P4", width and height, each followed by one whitespace byte
+        var fields = [String]()
+        var start = 0
+        var i = 0
+        while fields.count < 3 && i < data.count {
+            if data[i] == 0x0A || data[i] == 0x20 {
+                fields.append(String(decoding: data[start..<i], as: UTF8.self))
+                start = i + 1
+            }
+            i += 1
+        }
+        guard fields.count == 3, fields[0] == "P4", let width = Int(fields[1]), let height = Int(fields[2]) else {
+            throw EncodingError.invalidData("\(name).pbm is not a binary PBM image")
+        }
+        return MonochromeImage(width: width, height: height, data: Array(data[start...]))
+    }
+
+    private func fixture(_ name: String, _ ext: String) throws -> Data {
+        guard let url = Bundle.module.url(forResource: name, withExtension: ext, subdirectory: "Fixtures") else {
+            throw EncodingError.invalidData("Missing fixture \(name).\(ext)")
+        }
+        return try Data(contentsOf: url)
+    }
+}
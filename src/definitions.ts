@@ -1,3 +1,5 @@
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export interface MkPrinterPlugin {
   echo(options: { value: string }): Promise<{ value: string }>;
 
@@ -6,14 +8,44 @@ export interface MkPrinterPlugin {
    * @param options
    * @returns returns a promise
    */
-  printText(options: PrintTextOptions): Promise<any>
+  printText(options: PrintTextOptions): Promise<PrintResult>
+
+  /**
+   * Print a 1D barcode, QR code or PDF417 symbol with the printer's own barcode commands
+   * @param options
+   * @returns returns a promise
+   */
+  printBarcode(options: PrintBarcodeOptions): Promise<PrintResult>
 
   /**
    * Get ZPL equivalent code from the base64 Image string
    * @param options
    * @returns returns a promise
    */
-  printImage(options: PrintImageOptions): Promise<any>
+  printImage(options: PrintImageOptions): Promise<PrintResult>
+
+  /**
+   * Send command bytes (ESC/POS, ZPL, ...) to the printer as they are
+   * @param options
+   * @returns returns a promise
+   */
+  printRaw(options: PrintRawOptions): Promise<PrintResult>
+
+  /**
+   * Print a batch of labels from a ZPL label format: the layout is stored on
+   * the printer once and each label sends only its field data (Android)
+   * @param options
+   * @returns returns a promise
+   */
+  printLabels(options: PrintLabelsOptions): Promise<PrintResult>
+
+  /**
+   * Encode a job exactly as the matching print call would and render the
+   * command bytes as a PNG of the printout, without printing
+   * @param options
+   * @returns returns a promise
+   */
+  renderPreview(options: PreviewOptions): Promise<PreviewResult>
 
   /**
    * Discover bonded devices
@@ -34,18 +66,29 @@ export interface MkPrinterPlugin {
   enableBluetooth(): Promise<any>
 
   /**
-   * You can get a status response from a connected Zebra printer using
+   * Ask the connected printer for its real-time status (ESC/POS DLE EOT).
+   * On Android the requests are slipped in between the commands of a job being
+   * sent, so status can be polled while a large job prints
    * @param options
    * @returns returns a promise
    */
-  getStatusPrinter(options: StatusPrinterOptions): Promise<{ status: string }>
+  getStatusPrinter(options?: StatusPrinterOptions): Promise<PrinterStatusResult>
 
   /**
-   * Connect to a printer
+   * Connect to a printer. On Android, `transport` picks classic Bluetooth
+   * (SPP) or BLE; without it, devices known to be BLE only use BLE. On web it
+   * picks Web Serial, WebUSB or Web Bluetooth ('classic' is Web Serial), and
+   * a macAddress not returned by listenPrinters opens the browser's chooser.
+   * On web, `profile` sets this printer's profile over the default one; it is
+   * kept for the printer and used again when it is reopened
    * @param options
    * @returns returns a promise
    */
-  connectPrinter(options: { macAddress: string }): Promise<any>;
+  connectPrinter(options: {
+    macAddress: string,
+    transport?: 'classic' | 'ble' | 'serial' | 'usb',
+    profile?: Partial<PrinterProfile>
+  }): Promise<any>;
 
   /**
    * Disconnect from a printer
@@ -58,21 +101,647 @@ export interface MkPrinterPlugin {
    * @returns returns a promise
    */
   getCurrentPrinter(): Promise<{ name: string, macAddress: string }>;
+
+  /**
+   * Get the profile print jobs are encoded for: the configured or probed
+   * profile of the current printer, or the default one before the first connect
+   * @returns returns a promise
+   */
+  getPrinterProfile(): Promise<PrinterProfile>;
+
+  /**
+   * Get the number and size of jobs waiting in the on-device print spool
+   * @returns returns a promise
+   */
+  getSpoolStatus(): Promise<SpoolStatus>;
+
+  /**
+   * Called when a spooled job has been printed
+   */
+  addListener(
+    eventName: 'spoolJobPrinted',
+    listenerFunc: (event: SpoolJobEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Called when printing a spooled job failed; it stays queued and is retried
+   */
+  addListener(
+    eventName: 'spoolJobFailed',
+    listenerFunc: (event: SpoolJobFailedEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Stream a firmware image to the current printer in the vendor update framing.
+   * Print jobs are refused while it runs; a failed attempt is retried from the
+   * start on a fresh connection
+   * @param options
+   * @returns returns a promise
+   */
+  updateFirmware(options: UpdateFirmwareOptions): Promise<FirmwareResult>;
+
+  /**
+   * Called after each firmware chunk the printer accepted
+   */
+  addListener(
+    eventName: 'firmwareProgress',
+    listenerFunc: (event: FirmwareProgressEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Called when a firmware attempt failed and the update will be retried
+   */
+  addListener(
+    eventName: 'firmwareRetry',
+    listenerFunc: (event: FirmwareRetryEvent) => void,
+  ): Promise<PluginListenerHandle>;
+
+  /**
+   * Get print pipeline timings and counters collected since start or the last reset
+   * @param options
+   * @returns returns a promise
+   */
+  getMetrics(options?: { reset?: boolean }): Promise<PrintMetrics>;
 }
 
-interface RowOption {
+export interface RowOption {
   text: string,
+  /**
+   * Size multiplier, 1-8
+   */
   fontSize?: number,
+  /**
+   * "left", "center" or "right"
+   */
   fontAlign?: string,
   fontUnderline?: boolean
 }
 
-export interface PrintTextOptions {
-  rows: RowOption[]
+/**
+ * What follows the job's content. The commands are sent in the same write as
+ * the content, so a receipt is never left uncut or a drawer unopened.
+ */
+export interface JobFinishOptions {
+  /**
+   * Lines to feed after the content; default 2 for text and barcodes, 4 for images
+   */
+  feedLines?: number,
+  /**
+   * Cut the paper after feeding, on printers with a cutter; any other value rejects the call
+   */
+  cut?: 'none' | 'partial' | 'full',
+  /**
+   * Kick the cash drawer after the job
+   */
+  openDrawer?: boolean,
+  /**
+   * Drawer connector pin, 2 or 5; default 2
+   */
+  drawerPin?: 2 | 5,
+  /**
+   * Drawer pulse on time in milliseconds, default 100
+   */
+  drawerPulse?: number
+}
+
+export interface PrintTextOptions extends JobFinishOptions {
+  rows: RowOption[],
+  /**
+   * Render the rows natively as raster lines instead of sending text, so
+   * Vietnamese, CJK and other scripts print without a matching code page
+   */
+  rasterize?: boolean,
+  /**
+   * Font family used when rasterize is true, e.g. "sans-serif" or "serif"
+   */
+  font?: string,
+  /**
+   * Lane the job waits in for the printer (Android). Urgent jobs go first,
+   * and a bulk job gives way to waiting urgent and normal jobs at each paper
+   * cut. Spooled jobs print in the normal lane. Default 'normal'
+   */
+  priority?: 'urgent' | 'normal' | 'bulk',
+  /**
+   * Store the encoded job in the on-device spool and resolve with its jobId
+   * instead of waiting for the printer. Defaults to the spool config option.
+   */
+  spool?: boolean,
+  /**
+   * Caller-chosen id of this job. A retry with the same id within the
+   * dedupWindow resolves with the first call's result instead of printing again.
+   */
+  clientJobId?: string
+}
+
+export interface PrintBarcodeOptions extends JobFinishOptions {
+  /**
+   * QR, PDF417, CODE128, CODE39, CODE93, EAN13, EAN8, UPC_A, UPC_E, ITF or CODABAR
+   */
+  type: string,
+  data: string,
+  /**
+   * Module size in dots: QR cell size (default 6, shrunk to fit the paper),
+   * 1D narrow bar or PDF417 module width (default 2)
+   */
+  size?: number,
+  /**
+   * Bar height in dots for 1D barcodes, default 80
+   */
+  height?: number,
+  /**
+   * "L", "M", "Q" or "H"; default "M"
+   */
+  errorCorrection?: string,
+  /**
+   * "left", "center" or "right"; default "center"
+   */
+  align?: string,
+  /**
+   * Human readable text of 1D barcodes: "none", "above", "below" or "both"; default "below"
+   */
+  hri?: string,
+  /**
+   * Lane the job waits in for the printer (Android). Urgent jobs go first,
+   * and a bulk job gives way to waiting urgent and normal jobs at each paper
+   * cut. Spooled jobs print in the normal lane. Default 'normal'
+   */
+  priority?: 'urgent' | 'normal' | 'bulk',
+  /**
+   * Store the encoded job in the on-device spool and resolve with its jobId
+   * instead of waiting for the printer. Defaults to the spool config option.
+   */
+  spool?: boolean,
+  /**
+   * Caller-chosen id of this job. A retry with the same id within the
+   * dedupWindow resolves with the first call's result instead of printing again.
+   */
+  clientJobId?: string
 }
 
-export interface PrintImageOptions {
+export interface PrintImageOptions extends JobFinishOptions {
   base64Data: string,
+  /**
+   * Lane the job waits in for the printer (Android). Urgent jobs go first,
+   * and a bulk job gives way to waiting urgent and normal jobs at each paper
+   * cut. Spooled jobs print in the normal lane. Default 'normal'
+   */
+  priority?: 'urgent' | 'normal' | 'bulk',
+  /**
+   * Store the encoded job in the on-device spool and resolve with its jobId
+   * instead of waiting for the printer. Defaults to the spool config option.
+   */
+  spool?: boolean,
+  /**
+   * Caller-chosen id of this job. A retry with the same id within the
+   * dedupWindow resolves with the first call's result instead of printing again.
+   */
+  clientJobId?: string
+}
+
+export interface PrintRawOptions {
+  /**
+   * The bytes, base64 encoded. Pass this or uri.
+   */
+  base64Data?: string,
+  /**
+   * content:// or file:// URI, or an absolute path, of a file holding the bytes.
+   * The file is streamed to the printer without passing through the WebView,
+   * so use this for large jobs.
+   */
+  uri?: string,
+  /**
+   * Lane the job waits in for the printer (Android). Urgent jobs go first,
+   * and a bulk job gives way to waiting urgent and normal jobs at each paper
+   * cut. Spooled jobs print in the normal lane. Default 'normal'
+   */
+  priority?: 'urgent' | 'normal' | 'bulk',
+  /**
+   * Store the job in the on-device spool and resolve with its jobId
+   * instead of waiting for the printer. Defaults to the spool config option.
+   */
+  spool?: boolean,
+  /**
+   * Caller-chosen id of this job. A retry with the same id within the
+   * dedupWindow resolves with the first call's result instead of printing again.
+   */
+  clientJobId?: string
+}
+
+/**
+ * One element of a label, placed at x, y in dots from the top left corner.
+ * Text and barcode fields with a name take their content from each label;
+ * without one they print their text or data on every label.
+ */
+export type LabelField =
+  | {
+      type: 'text',
+      x: number,
+      y: number,
+      name?: string,
+      text?: string,
+      /**
+       * Printer font, "0" (scalable, the default) to "9" or "A" to "Z"
+       */
+      font?: string,
+      /**
+       * Character height in dots, default 30
+       */
+      height?: number,
+      /**
+       * Character width in dots; follows the height by default
+       */
+      width?: number,
+      rotation?: 0 | 90 | 180 | 270,
+      /**
+       * Width of the block to wrap and align the text in
+       */
+      blockWidth?: number,
+      maxLines?: number,
+      align?: 'left' | 'center' | 'right'
+    }
+  | {
+      type: 'barcode',
+      x: number,
+      y: number,
+      name?: string,
+      /**
+       * QR, PDF417, CODE128, CODE39, CODE93, EAN13, EAN8, UPC_A, UPC_E, ITF or CODABAR
+       */
+      symbology: string,
+      data?: string,
+      /**
+       * Narrow bar width in dots, or QR magnification
+       */
+      size?: number,
+      /**
+       * Bar height in dots for 1D barcodes, row height for PDF417
+       */
+      height?: number,
+      errorCorrection?: 'L' | 'M' | 'Q' | 'H',
+      hri?: 'none' | 'above' | 'below',
+      rotation?: 0 | 90 | 180 | 270
+    }
+  | {
+      type: 'box',
+      x: number,
+      y: number,
+      width: number,
+      height: number,
+      thickness?: number,
+      /**
+       * Draw in white, to clear part of a black area
+       */
+      white?: boolean,
+      /**
+       * Corner rounding, 0 to 8
+       */
+      rounding?: number
+    }
+  | {
+      type: 'image',
+      x: number,
+      y: number,
+      /**
+       * Name of a graphic already stored on the printer, e.g. "LOGO" or "E:LOGO.GRF"
+       */
+      image?: string,
+      /**
+       * A PNG or JPEG, base64 encoded, to carry in the format instead; it is
+       * sent once with the stored format, as compressed ^GF graphic fields
+       */
+      base64Data?: string,
+      /**
+       * Printed width in dots of base64Data; the image's own width by default
+       */
+      width?: number,
+      /**
+       * Magnification of a stored graphic, 1 to 10
+       */
+      scaleX?: number,
+      scaleY?: number
+    };
+
+export interface LabelFormat {
+  /**
+   * Name the format is stored under, e.g. "SHIPPING", or "E:SHIPPING.ZPL" to
+   * keep it in flash; up to 16 letters, digits and _
+   */
+  name: string,
+  /**
+   * Print width in dots; the printer's setting by default
+   */
+  width?: number,
+  /**
+   * Label length in dots; the printer's setting by default
+   */
+  height?: number,
+  fields: LabelField[]
+}
+
+export interface PrintLabelsOptions {
+  format: LabelFormat,
+  /**
+   * One object per label, mapping field names to their content
+   */
+  labels: { [name: string]: string | number }[],
+  /**
+   * How many of each label to print, default 1
+   */
+  copies?: number,
+  /**
+   * Lane the job waits in for the printer. Default 'normal'
+   */
+  priority?: 'urgent' | 'normal' | 'bulk',
+  /**
+   * Store the job in the on-device spool and resolve with its jobId
+   * instead of waiting for the printer. Defaults to the spool config option.
+   */
+  spool?: boolean,
+  /**
+   * Caller-chosen id of this job. A retry with the same id within the
+   * dedupWindow resolves with the first call's result instead of printing again.
+   */
+  clientJobId?: string
+}
+
+/**
+ * The options of the print call to preview, plus which call it is
+ */
+export type PreviewOptions =
+  | ({ job?: 'text' } & PrintTextOptions)
+  | ({ job: 'image' } & PrintImageOptions)
+  | ({ job: 'barcode' } & PrintBarcodeOptions)
+  | ({ job: 'raw' } & PrintRawOptions);
+
+export interface PreviewResult {
+  /**
+   * 1-bit PNG of the printout, base64 encoded
+   */
+  image: string,
+  /**
+   * Paper width in dots
+   */
+  width: number,
+  /**
+   * Paper fed, in dots
+   */
+  height: number,
+  /**
+   * Size of the encoded job in bytes
+   */
+  length: number
+}
+
+export interface PrintResult {
+  /**
+   * Spool job id, set when the job was spooled
+   */
+  jobId?: number,
+  spooled?: boolean,
+  /**
+   * Echoes the clientJobId option
+   */
+  clientJobId?: string,
+  /**
+   * True if the job had already run under the same clientJobId and was not printed again
+   */
+  duplicate?: boolean,
+  /**
+   * Set on a duplicate whose first run failed after part of it reached the
+   * printer: it may have printed in part or whole, and was not printed again
+   */
+  possiblyPrinted?: boolean,
+  /**
+   * Bytes the failed first run had sent, set with possiblyPrinted
+   */
+  bytesSent?: number,
+  /**
+   * Bytes sent, set by printRaw when it streamed a uri
+   */
+  length?: number,
+  /**
+   * Labels printed, set by printLabels
+   */
+  labels?: number,
+  /**
+   * The label format was sent along, as it was not stored on the printer over this connection yet
+   */
+  formatSent?: boolean,
+  /**
+   * Milliseconds until a spooled job should be printed, from the printer's learned throughput (Android)
+   */
+  estimatedMs?: number,
+  /**
+   * When a spooled job should be printed, as epoch milliseconds (Android)
+   */
+  eta?: number
+}
+
+export interface PrinterProfile {
+  /**
+   * Model name reported by the printer, its Bluetooth name or the configured one
+   */
+  model: string | null,
+  /**
+   * Printable width in dots: 384 for 58 mm, 576 for 80 mm paper
+   */
+  width: number,
+  dpi: number,
+  /**
+   * Most bytes sent in one raster command
+   */
+  maxLineBuffer: number,
+  /**
+   * Bytes handed to the Bluetooth link per write
+   */
+  chunkSize: number,
+  /**
+   * Configured link rate, used until one is learned (Android)
+   */
+  bytesPerSecond?: number,
+  /**
+   * Configured dot rows fed per second, used until a rate is learned (Android)
+   */
+  linesPerSecond?: number,
+  /**
+   * What was learned from the jobs printed on the current printer (Android)
+   */
+  throughput?: PrinterThroughput,
+  /**
+   * Any of "raster", "nvGraphics", "native2dBarcodes", "z64Graphics"
+   */
+  capabilities: string[],
+  /**
+   * Code pages, the first being the one the printer starts in
+   */
+  codePages: string[]
+}
+
+export interface PrinterThroughput {
+  /**
+   * Jobs learned from
+   */
+  jobs: number,
+  /**
+   * Learned link rate, 0 until learned
+   */
+  bytesPerSecond: number,
+  /**
+   * Learned dot rows fed per second, 0 until learned
+   */
+  linesPerSecond: number,
+  /**
+   * Connect timeout learned from earlier connects in milliseconds, 0 before the first
+   */
+  connectTimeout: number
+}
+
+export interface SpoolStatus {
+  /**
+   * Jobs waiting to be printed
+   */
+  pending: number,
+  pendingBytes: number,
+  /**
+   * Journal file size, including printed jobs not compacted yet
+   */
+  journalBytes: number,
+  /**
+   * Milliseconds the waiting jobs should take to print
+   */
+  estimatedMs: number
+}
+
+export interface SpoolJobEvent {
+  jobId: number,
+  /**
+   * Jobs still waiting
+   */
+  pending: number
+}
+
+export interface SpoolJobFailedEvent extends SpoolJobEvent {
+  error: string,
+  /**
+   * Milliseconds until the next attempt
+   */
+  retryIn: number
+}
+
+export interface UpdateFirmwareOptions {
+  /**
+   * Path or file:// URI of the firmware image on the device
+   */
+  path: string,
+  /**
+   * CRC-32 of the image in hex; the update is refused before sending anything if it differs
+   */
+  crc32?: string,
+  /**
+   * Pause after each 1 KB chunk while the printer writes its flash, in milliseconds. Default 250
+   */
+  chunkDelay?: number,
+  /**
+   * Attempts before giving up. Default 3
+   */
+  attempts?: number
+}
+
+export interface FirmwareResult {
+  /**
+   * Image size in bytes
+   */
+  length: number,
+  /**
+   * Byte sum sent in the update header, hex
+   */
+  checksum: string,
+  /**
+   * CRC-32 of the image, hex
+   */
+  crc32: string,
+  /**
+   * Attempts it took
+   */
+  attempts: number
+}
+
+export interface FirmwareProgressEvent {
+  attempt: number,
+  /**
+   * Image bytes sent in this attempt
+   */
+  sent: number,
+  total: number
+}
+
+export interface FirmwareRetryEvent {
+  /**
+   * The attempt that failed
+   */
+  attempt: number,
+  error: string,
+  /**
+   * Milliseconds until the next attempt
+   */
+  retryIn: number
+}
+
+export interface StageMetrics {
+  /**
+   * Number of recorded samples
+   */
+  count: number,
+  /**
+   * Latencies in milliseconds
+   */
+  min: number,
+  mean: number,
+  p50: number,
+  p90: number,
+  p99: number,
+  p999: number,
+  max: number
+}
+
+export interface PrintMetrics {
+  /**
+   * Latency per stage: base64Decode, bitmapDecode, scale, rasterize, encode, connect, transfer, printText,
+   * printImage, printBarcode, printRaw, printLabels, renderPreview, queueWaitUrgent, queueWaitNormal, queueWaitBulk
+   */
+  stages: { [stage: string]: StageMetrics },
+  /**
+   * Counters: bytesSent, jobsPrinted, jobsFailed, connectAttempts, connectFailures, preemptions
+   */
+  counters: { [counter: string]: number },
+  /**
+   * Reuse of the buffers and decoded bitmaps kept between jobs (Android)
+   */
+  pools?: { buffers: PoolStats, bitmaps: PoolStats }
+}
+
+export interface PoolStats {
+  /**
+   * Requests served from the pool
+   */
+  hits: number,
+  /**
+   * Requests that allocated
+   */
+  misses: number,
+  /**
+   * Returned buffers or bitmaps that were not kept, too large or over the limit
+   */
+  drops: number,
+  /**
+   * Buffers or bitmaps held now
+   */
+  pooled: number,
+  pooledBytes: number,
+  /**
+   * Size limit, set from the printer's paper width
+   */
+  maxBytes: number
 }
 
 export interface BluetoothDevices {
@@ -91,14 +760,47 @@ export interface BluetoothDevices {
   /**
    *
    */
-  class?: string
+  class?: string,
+  /**
+   * How the device can be reached: 'classic', 'ble', 'dual' or 'unknown' (Android);
+   * 'serial', 'usb' or 'ble' (web)
+   */
+  type?: string
 }
 
 export interface StatusPrinterOptions {
   /**
-   * Identifier of the remote device
+   * Identifier of the remote device; Android always asks the connected printer
+   */
+  macAddress?: string,
+  /**
+   * How long to wait for the printer's answers in milliseconds, 2000 by default
+   */
+  timeout?: number
+}
+
+export interface PrinterStatusResult {
+  /**
+   * One of the {@link StatusPrinter} messages
+   */
+  status: string,
+  /**
+   * The printer answered; when false every other flag is false
+   */
+  responded: boolean,
+  /**
+   * Online, with paper, cover closed and no error
+   */
+  ready: boolean,
+  offline: boolean,
+  coverOpen: boolean,
+  paperOut: boolean,
+  paperNearEnd: boolean,
+  /**
+   * Cutter, mechanical or other error
    */
-  macAddress: string
+  error: boolean,
+  cutterError: boolean
 }
 
 export declare enum StatusPrinter {
@@ -0,0 +1,75 @@
+/**
+ * Growable byte array that print jobs are encoded into, like the Java
+ * CommandBuffer: commands are appended in place and the job is handed to the
+ * transport as one view, without copying.
+ */
+export class CommandBuffer {
+  private data: Uint8Array;
+  private length = 0;
+
+  constructor(capacity = 4096) {
+    this.data = new Uint8Array(Math.max(16, capacity));
+  }
+
+  get size(): number {
+    return this.length;
+  }
+
+  /**
+   * The backing array; valid up to size, and replaced when the buffer grows
+   */
+  get array(): Uint8Array {
+    return this.data;
+  }
+
+  /**
+   * The valid bytes, sharing the backing array
+   */
+  bytes(): Uint8Array {
+    return this.data.subarray(0, this.length);
+  }
+
+  reset(): void {
+    this.length = 0;
+  }
+
+  ensureCapacity(capacity: number): void {
+    if (capacity > this.data.length) {
+      const grown = new Uint8Array(Math.max(capacity, this.data.length * 2));
+      grown.set(this.data.subarray(0, this.length));
+      this.data = grown;
+    }
+  }
+
+  write(...values: number[]): void {
+    this.ensureCapacity(this.length + values.length);
+    for (const value of values) {
+      this.data[this.length++] = value & 0xff;
+    }
+  }
+
+  writeBytes(bytes: Uint8Array): void {
+    this.ensureCapacity(this.length + bytes.length);
+    this.data.set(bytes, this.length);
+    this.length += bytes.length;
+  }
+
+  writeShortLE(value: number): void {
+    this.write(value & 0xff, (value >> 8) & 0xff);
+  }
+
+  /**
+   * Makes room for {@code count} bytes to be filled in through array
+   * @returns Offset of the reserved bytes
+   */
+  reserve(count: number): number {
+    this.ensureCapacity(this.length + count);
+    const offset = this.length;
+    this.length += count;
+    return offset;
+  }
+
+  truncate(size: number): void {
+    this.length = Math.min(this.length, size);
+  }
+}
@@ -0,0 +1,394 @@
+import type { CommandBuffer } from './buffer';
+import { ESC, FS } from './encoder';
+
+/**
+ * Single-byte pages: the ESC t table number and the characters of bytes
+ * 0x80-0xFF, taken from the JDK charsets the Android encoder uses so both
+ * send the same bytes. U+FFFD marks a byte with no character.
+ */
+const SINGLE_BYTE_PAGES: { [name: string]: { number: number, high: string } } = {
+  CP437: {
+    number: 0,
+    high: 'ÇüéâäàåçêëèïîìÄÅÉæÆôöòûùÿÖÜ¢£¥₧ƒáíóúñÑªº¿⌐¬½¼¡«»░▒▓│┤╡╢╖╕╣║╗╝╜╛┐' +
+      '└┴┬├─┼╞╟╚╔╩╦╠═╬╧╨╤╥╙╘╒╓╫╪┘┌█▄▌▐▀αßΓπΣσµτΦΘΩδ∞φε∩≡±≥≤⌠⌡÷≈°∙·√ⁿ²■\u00a0',
+  },
+  CP850: {
+    number: 2,
+    high: 'ÇüéâäàåçêëèïîìÄÅÉæÆôöòûùÿÖÜø£Ø×ƒáíóúñÑªº¿®¬½¼¡«»░▒▓│┤ÁÂÀ©╣║╗╝¢¥┐' +
+      '└┴┬├─┼ãÃ╚╔╩╦╠═╬¤ðÐÊËÈıÍÎÏ┘┌█▄¦Ì▀ÓßÔÒõÕµþÞÚÛÙýÝ¯´\u00ad±‗¾¶§÷¸°¨·¹³²■\u00a0',
+  },
+  CP860: {
+    number: 3,
+    high: 'ÇüéâãàÁçêÊèÍÔìÃÂÉÀÈôõòÚùÌÕÜ¢£Ù₧ÓáíóúñÑªº¿Ò¬½¼¡«»░▒▓│┤╡╢╖╕╣║╗╝╜╛┐' +
+      '└┴┬├─┼╞╟╚╔╩╦╠═╬╧╨╤╥╙╘╒╓╫╪┘┌█▄▌▐▀αßΓπΣσµτΦΘΩδ∞φε∩≡±≥≤⌠⌡÷≈°∙·√ⁿ²■\u00a0',
+  },
+  CP863: {
+    number: 4,
+    high: 'ÇüéâÂà¶çêëèïî‗À§ÉÈÊôËÏûù¤ÔÜ¢£ÙÛƒ¦´óú¨¸³¯Î⌐¬½¼¾«»░▒▓│┤╡╢╖╕╣║╗╝╜╛┐' +
+      '└┴┬├─┼╞╟╚╔╩╦╠═╬╧╨╤╥╙╘╒╓╫╪┘┌█▄▌▐▀αßΓπΣσµτΦΘΩδ∞φε∩≡±≥≤⌠⌡÷≈°∙·√ⁿ²■\u00a0',
+  },
+  CP865: {
+    number: 5,
+    high: 'ÇüéâäàåçêëèïîìÄÅÉæÆôöòûùÿÖÜø£Ø₧ƒáíóúñÑªº¿⌐¬½¼¡«¤░▒▓│┤╡╢╖╕╣║╗╝╜╛┐' +
+      '└┴┬├─┼╞╟╚╔╩╦╠═╬╧╨╤╥╙╘╒╓╫╪┘┌█▄▌▐▀αßΓπΣσµτΦΘΩδ∞φε∩≡±≥≤⌠⌡÷≈°∙·√ⁿ²■\u00a0',
+  },
+  CP1252: {
+    number: 16,
+    high: '€\ufffd‚ƒ„…†‡ˆ‰Š‹Œ\ufffdŽ\ufffd\ufffd‘’“”•–—˜™š›œ\ufffdžŸ\u00a0¡¢£¤¥¦§¨©ª«¬\u00ad®¯°±²³´µ¶·¸¹º»¼½¾¿' +
+      'ÀÁÂÃÄÅÆÇÈÉÊËÌÍÎÏÐÑÒÓÔÕÖ×ØÙÚÛÜÝÞßàáâãäåæçèéêëìíîïðñòóôõö÷øùúûüýþÿ',
+  },
+  CP866: {
+    number: 17,
+    high: 'АБВГДЕЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯабвгдежзийклмноп░▒▓│┤╡╢╖╕╣║╗╝╜╛┐' +
+      '└┴┬├─┼╞╟╚╔╩╦╠═╬╧╨╤╥╙╘╒╓╫╪┘┌█▄▌▐▀рстуфхцчшщъыьэюяЁёЄєЇїЎў°∙·√№¤■\u00a0',
+  },
+  CP852: {
+    number: 18,
+    high: 'ÇüéâäůćçłëŐőîŹÄĆÉĹĺôöĽľŚśÖÜŤťŁ×čáíóúĄąŽžĘę¬źČş«»░▒▓│┤ÁÂĚŞ╣║╗╝Żż┐' +
+      '└┴┬├─┼Ăă╚╔╩╦╠═╬¤đĐĎËďŇÍÎě┘┌█▄ŢŮ▀ÓßÔŃńňŠšŔÚŕŰýÝţ´\u00ad˝˛ˇ˘§÷¸°¨˙űŘř■\u00a0',
+  },
+  CP858: {
+    number: 19,
+    high: 'ÇüéâäàåçêëèïîìÄÅÉæÆôöòûùÿÖÜø£Ø×ƒáíóúñÑªº¿®¬½¼¡«»░▒▓│┤ÁÂÀ©╣║╗╝¢¥┐' +
+      '└┴┬├─┼ãÃ╚╔╩╦╠═╬¤ðÐÊËÈ€ÍÎÏ┘┌█▄¦Ì▀ÓßÔÒõÕµþÞÚÛÙýÝ¯´\u00ad±‗¾¶§÷¸°¨·¹³²■\u00a0',
+  },
+  CP1250: {
+    number: 45,
+    high: '€\ufffd‚\ufffd„…†‡\ufffd‰Š‹ŚŤŽŹ\ufffd‘’“”•–—\ufffd™š›śťžź\u00a0ˇ˘Ł¤Ą¦§¨©Ş«¬\u00ad®Ż°±˛ł´µ¶·¸ąş»Ľ˝ľż' +
+      'ŔÁÂĂÄĹĆÇČÉĘËĚÍÎĎĐŃŇÓÔŐÖ×ŘŮÚŰÜÝŢßŕáâăäĺćçčéęëěíîďđńňóôőö÷řůúűüýţ˙',
+  },
+  CP1251: {
+    number: 46,
+    high: 'ЂЃ‚ѓ„…†‡€‰Љ‹ЊЌЋЏђ‘’“”•–—\ufffd™љ›њќћџ\u00a0ЎўЈ¤Ґ¦§Ё©Є«¬\u00ad®Ї°±Ііґµ¶·ё№є»јЅѕї' +
+      'АБВГДЕЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯабвгдежзийклмнопрстуфхцчшщъыьэюя',
+  },
+  CP1253: {
+    number: 47,
+    high: '€\ufffd‚ƒ„…†‡\ufffd‰\ufffd‹\ufffd\ufffd\ufffd\ufffd\ufffd‘’“”•–—\ufffd™\ufffd›\ufffd\ufffd\ufffd\ufffd\u00a0΅Ά£¤¥¦§¨©\ufffd«¬\u00ad®―°±²³΄µ¶·ΈΉΊ»Ό½ΎΏ' +
+      'ΐΑΒΓΔΕΖΗΘΙΚΛΜΝΞΟΠΡ\ufffdΣΤΥΦΧΨΩΪΫάέήίΰαβγδεζηθικλμνξοπρςστυφχψωϊϋόύώ\ufffd',
+  },
+  CP1254: {
+    number: 48,
+    high: '€\ufffd‚ƒ„…†‡ˆ‰Š‹Œ\ufffd\ufffd\ufffd\ufffd‘’“”•–—˜™š›œ\ufffd\ufffdŸ\u00a0¡¢£¤¥¦§¨©ª«¬\u00ad®¯°±²³´µ¶·¸¹º»¼½¾¿' +
+      'ÀÁÂÃÄÅÆÇÈÉÊËÌÍÎÏĞÑÒÓÔÕÖ×ØÙÚÛÜİŞßàáâãäåæçèéêëìíîïğñòóôõö÷øùúûüışÿ',
+  },
+  CP1257: {
+    number: 51,
+    high: '€\ufffd‚\ufffd„…†‡\ufffd‰\ufffd‹\ufffd¨ˇ¸\ufffd‘’“”•–—\ufffd™\ufffd›\ufffd¯˛\ufffd\u00a0\ufffd¢£¤\ufffd¦§Ø©Ŗ«¬\u00ad®Æ°±²³´µ¶·ø¹ŗ»¼½¾æ' +
+      'ĄĮĀĆÄÅĘĒČÉŹĖĢĶĪĻŠŃŅÓŌÕÖ×ŲŁŚŪÜŻŽßąįāćäåęēčéźėģķīļšńņóōõö÷ųłśūüżž˙',
+  },
+  CP1258: {
+    number: 52,
+    high: '€\ufffd‚ƒ„…†‡ˆ‰\ufffd‹Œ\ufffd\ufffd\ufffd\ufffd‘’“”•–—˜™\ufffd›œ\ufffd\ufffdŸ\u00a0¡¢£¤¥¦§¨©ª«¬\u00ad®¯°±²³´µ¶·¸¹º»¼½¾¿' +
+      'ÀÁÂĂÄÅÆÇÈÉÊË\u0300ÍÎÏĐÑ\u0309ÓÔƠÖ×ØÙÚÛÜƯ\u0303ßàáâăäåæçèéêë\u0301íîïđñ\u0323óôơö÷øùúûüư₫ÿ',
+  },};
+
+/** Marks a character with no encoding in a page */
+export const UNMAPPED = 0;
+
+/**
+ * A printer character code table and its Unicode lookup table.
+ *
+ * Single-byte pages are selected with ESC t n using the Epson table numbers;
+ * GBK is the double-byte Chinese mode entered with FS &. Each lookup table
+ * is built on first use and maps a UTF-16 code unit straight to its one or
+ * two bytes, as in the Android CodePage.
+ */
+export class CodePage {
+  private static readonly pages = new Map<string, CodePage>();
+
+  private table: Int32Array | null = null;
+
+  private constructor(readonly name: string, readonly escPosNumber: number, private readonly high: string | null) {}
+
+  /**
+   * @param name e.g. "CP1258", "cp437" or "GBK"
+   * @returns The code page, or null if unknown
+   */
+  static parse(name: string | null | undefined): CodePage | null {
+    const key = (name || '').trim().toUpperCase();
+    let page = CodePage.pages.get(key);
+    if (!page) {
+      if (key === 'GBK') {
+        page = new CodePage(key, -1, null);
+      } else if (SINGLE_BYTE_PAGES[key]) {
+        page = new CodePage(key, SINGLE_BYTE_PAGES[key].number, SINGLE_BYTE_PAGES[key].high);
+      } else {
+        return null;
+      }
+      CodePage.pages.set(key, page);
+    }
+    return page;
+  }
+
+  get isMultiByte(): boolean {
+    return this.escPosNumber < 0;
+  }
+
+  /**
+   * @returns Whether the table can be built here; GBK needs a browser with a GBK TextDecoder
+   */
+  get isAvailable(): boolean {
+    if (!this.isMultiByte) {
+      return true;
+    }
+    try {
+      new TextDecoder('gbk');
+      return true;
+    } catch {
+      return false;
+    }
+  }
+
+  /**
+   * Looks up the encoding of one UTF-16 code unit
+   * @returns UNMAPPED, or the length (1 or 2) in bits 16-17 and the bytes in
+   *          bits 8-15 and 0-7 (the second byte only for length 2)
+   */
+  lookup(c: number): number {
+    const table = this.table || this.buildTable();
+    return c < table.length ? table[c] : UNMAPPED;
+  }
+
+  /**
+   * Builds the lookup table now instead of on the first print
+   */
+  prepare(): void {
+    this.lookup(0);
+  }
+
+  private buildTable(): Int32Array {
+    const table = new Int32Array(0x10000);
+    if (this.high === null) {
+      // Without a GBK decoder only ASCII is known; other characters fall through to the next page
+      if (this.isAvailable) {
+        mapDoubleByte(table);
+      }
+    } else {
+      for (let i = 0; i < 0x80; i++) {
+        const c = this.high.charCodeAt(i);
+        if (c !== 0xfffd && table[c] === UNMAPPED) {
+          table[c] = (1 << 16) | ((0x80 + i) << 8);
+        }
+      }
+      // CP1258 spells most Vietnamese letters as a base letter plus a combining tone mark
+      for (let c = 0xc0; c <= 0x1eff; c++) {
+        // Only Latin-1 Supplement, Latin Extended-A/B and Latin Extended Additional
+        if (table[c] === UNMAPPED && (c <= 0x24f || c >= 0x1e00)) {
+          table[c] = decomposed(table, c);
+        }
+      }
+    }
+    for (let c = 0; c < 0x80; c++) {
+      table[c] = (1 << 16) | (c << 8);
+    }
+    let max = table.length - 1;
+    while (max >= 0x80 && table[max] === UNMAPPED) {
+      max--;
+    }
+    this.table = table.slice(0, max + 1);
+    return this.table;
+  }
+}
+
+/**
+ * Inverts the browser's GBK decoder over every lead and trail byte pair, a row of trail bytes per call
+ */
+function mapDoubleByte(table: Int32Array): void {
+  const decoder = new TextDecoder('gbk');
+  const trails: number[] = [];
+  for (let trail = 0x40; trail <= 0xfe; trail++) {
+    if (trail !== 0x7f) {
+      trails.push(trail);
+    }
+  }
+  const row = new Uint8Array(trails.length * 2);
+  const pair = new Uint8Array(2);
+  for (let lead = 0x81; lead <= 0xfe; lead++) {
+    trails.forEach((trail, i) => {
+      row[i * 2] = lead;
+      row[i * 2 + 1] = trail;
+    });
+    // One char per pair unless an invalid pair let its ASCII trail byte through
+    const text = decoder.decode(row);
+    trails.forEach((trail, i) => {
+      let c: number;
+      if (text.length === trails.length) {
+        c = text.charCodeAt(i);
+      } else {
+        pair[0] = lead;
+        pair[1] = trail;
+        const one = decoder.decode(pair);
+        c = one.length === 1 ? one.charCodeAt(0) : 0xfffd;
+      }
+      if (c !== 0xfffd && table[c] === UNMAPPED) {
+        table[c] = (2 << 16) | (lead << 8) | trail;
+      }
+    });
+  }
+  // The two pairs where the browser's GBK (GB18030) differs from the JDK's, as the Android table has them
+  table[0xe76c] = UNMAPPED;
+  table[0x20ac] = (2 << 16) | 0xa2e3;
+  table[0x2295] = UNMAPPED;
+  table[0x2641] = (2 << 16) | 0xa892;
+}
+
+/**
+ * Encodes a precomposed letter as a shorter precomposed letter plus one combining mark
+ */
+function decomposed(table: Int32Array, c: number): number {
+  const nfd = String.fromCharCode(c).normalize('NFD');
+  if (nfd.length === 2) {
+    return pair(table, nfd.charCodeAt(0), nfd.charCodeAt(1));
+  }
+  if (nfd.length !== 3) {
+    return UNMAPPED;
+  }
+  // e.g. ệ is e + dot below + circumflex; CP1258 has ê, so try each mark as the combining one
+  for (let mark = 1; mark <= 2; mark++) {
+    const head = (nfd.charAt(0) + nfd.charAt(3 - mark)).normalize('NFC');
+    if (head.length === 1) {
+      const entry = pair(table, head.charCodeAt(0), nfd.charCodeAt(mark));
+      if (entry !== UNMAPPED) {
+        return entry;
+      }
+    }
+  }
+  return UNMAPPED;
+}
+
+function pair(table: Int32Array, base: number, mark: number): number {
+  const first = base < 0x80 ? (1 << 16) | (base << 8) : table[base];
+  const second = table[mark];
+  if (first >> 16 !== 1 || second >> 16 !== 1) {
+    return UNMAPPED;
+  }
+  return (2 << 16) | (first & 0xff00) | ((second >> 8) & 0xff);
+}
+
+/** Written for characters no available code page can encode */
+export const REPLACEMENT = 0x3f;
+
+/**
+ * Encodes text into the printer's code pages, switching tables only when a
+ * character is missing from the current one. Tracks the selected ESC t table
+ * and Chinese mode so each switch is sent once per change; call reset()
+ * whenever ESC @ is sent.
+ */
+export class CodePageEncoder {
+  private current: CodePage;
+  private selectedTable = 0;
+  private chineseMode = false;
+
+  /**
+   * @param defaultPage Code page the printer is in after ESC @
+   * @param available Code pages the printer supports, in order of preference
+   */
+  constructor(private readonly defaultPage: CodePage, private readonly available: CodePage[]) {
+    this.current = defaultPage;
+    this.reset();
+  }
+
+  /**
+   * Forgets all switches; the printer is back in the default code page
+   */
+  reset(): void {
+    this.current = this.defaultPage;
+    this.chineseMode = this.defaultPage.isMultiByte;
+    // ESC @ selects table 0 (PC437) on every ESC/POS printer
+    this.selectedTable = this.defaultPage.isMultiByte ? 0 : this.defaultPage.escPosNumber;
+  }
+
+  get currentPage(): CodePage {
+    return this.current;
+  }
+
+  /**
+   * Builds the lookup tables of every available code page ahead of the first job
+   */
+  prepare(): void {
+    this.available.forEach(page => page.prepare());
+  }
+
+  /**
+   * @returns Whether every character of text[start, end) is in some available code page
+   */
+  canEncode(text: string, start: number, end: number): boolean {
+    let current = this.current;
+    for (let i = start; i < end; i++) {
+      const c = text.charCodeAt(i);
+      if (c < 0x80 || current.lookup(c) !== UNMAPPED) {
+        continue;
+      }
+      const page = this.find(c);
+      if (page === null) {
+        return false;
+      }
+      current = page;
+    }
+    return true;
+  }
+
+  /**
+   * Encodes text[start, end), switching code pages as needed. Characters no
+   * available code page can encode are written as REPLACEMENT.
+   */
+  encode(text: string, start: number, end: number, out: CommandBuffer): void {
+    for (let i = start; i < end; i++) {
+      const c = text.charCodeAt(i);
+      if (c < 0x80) {
+        // ASCII is the same in every code page and in GBK
+        out.write(c);
+        continue;
+      }
+      let entry = this.current.lookup(c);
+      if (entry === UNMAPPED) {
+        const page = this.find(c);
+        if (page === null) {
+          out.write(REPLACEMENT);
+          continue;
+        }
+        this.select(page, out);
+        entry = page.lookup(c);
+      }
+      out.write((entry >> 8) & 0xff);
+      if (entry >> 16 === 2) {
+        out.write(entry & 0xff);
+      }
+    }
+  }
+
+  /**
+   * Makes page current, sending only the commands that change printer state
+   */
+  private select(page: CodePage, out: CommandBuffer): void {
+    if (page.isMultiByte) {
+      if (!this.chineseMode) {
+        // FS & - enter Chinese character mode
+        out.write(FS, 0x26);
+        this.chineseMode = true;
+      }
+    } else {
+      if (this.chineseMode) {
+        // FS . - leave Chinese character mode
+        out.write(FS, 0x2e);
+        this.chineseMode = false;
+      }
+      if (this.selectedTable !== page.escPosNumber) {
+        // ESC t n - select character code table
+        out.write(ESC, 0x74, page.escPosNumber);
+        this.selectedTable = page.escPosNumber;
+      }
+    }
+    this.current = page;
+  }
+
+  private find(c: number): CodePage | null {
+    for (const page of this.available) {
+      if (page.lookup(c) !== UNMAPPED) {
+        return page;
+      }
+    }
+    return null;
+  }
+}
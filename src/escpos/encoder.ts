@@ -0,0 +1,362 @@
+import type { CommandBuffer } from './buffer';
+import type { CodePageEncoder } from './codepage';
+
+export const ESC = 0x1b;
+export const GS = 0x1d;
+export const FS = 0x1c;
+export const LF = 0x0a;
+
+/** Rows per GS v 0 command of a 58 mm image; keeps each command within small printer buffers */
+export const RASTER_BAND_HEIGHT = 256;
+/** Shorter white runs stay in the raster command; a new command costs more than they do */
+export const MIN_FEED_ROWS = 8;
+/** Most data GS ( k function 080 accepts after its three parameter bytes */
+export const MAX_SYMBOL_DATA = 0xffff - 3;
+
+/** Dots per ESC * 33 stripe */
+const BIT_IMAGE_STRIPE = 24;
+
+/** GS ( k symbol types (cn) */
+const PDF417 = 0x30;
+const QR_CODE = 0x31;
+
+export type Align = 'left' | 'center' | 'right';
+
+/**
+ * @param value "left", "center" or "right"; anything else is left
+ */
+export function parseAlign(value: string | undefined | null): Align {
+  const key = (value || '').toLowerCase();
+  return key === 'center' || key === 'right' ? key : 'left';
+}
+
+/**
+ * A packed 1-bit image, eight dots per byte, most significant bit first
+ */
+export interface MonochromeImage {
+  width: number,
+  height: number,
+  bytesPerRow: number,
+  data: Uint8Array
+}
+
+export function bytesPerRow(width: number): number {
+  return (width + 7) >> 3;
+}
+
+export function newMonochromeImage(width: number, height: number): MonochromeImage {
+  return { width, height, bytesPerRow: bytesPerRow(width), data: new Uint8Array(bytesPerRow(width) * height) };
+}
+
+/**
+ * Encodes ESC/POS commands into a {@link CommandBuffer}; a port of the
+ * Android EscPosEncoder that produces the same bytes for the same calls.
+ */
+export class EscPosEncoder {
+  private maxBandBytes = RASTER_BAND_HEIGHT * 48;
+  private rasterSupported = true;
+  /** Justification set by align; GS v 0 and ESC * images follow it */
+  private justification: Align = 'left';
+
+  constructor(readonly buffer: CommandBuffer) {}
+
+  /**
+   * Caps the data of one raster command; images are split into bands of at most this many bytes
+   */
+  setMaxBandBytes(maxBandBytes: number): this {
+    this.maxBandBytes = Math.max(1, maxBandBytes);
+    return this;
+  }
+
+  /**
+   * Whether the printer implements GS v 0; if not, raster bands are sent as ESC * bit images
+   */
+  setRasterSupported(supported: boolean): this {
+    this.rasterSupported = supported;
+    return this;
+  }
+
+  /**
+   * ESC @ - reset the printer to its power-on settings
+   */
+  initialize(): this {
+    this.buffer.write(ESC, 0x40);
+    this.justification = 'left';
+    return this;
+  }
+
+  /**
+   * Appends text[start, end) through the code page encoder; no line feed is added
+   */
+  text(text: string, start: number, end: number, codePages: CodePageEncoder): this {
+    codePages.encode(text, start, end, this.buffer);
+    return this;
+  }
+
+  /**
+   * LF - print the buffer and feed one line
+   */
+  lineFeed(): this {
+    this.buffer.write(LF);
+    return this;
+  }
+
+  /**
+   * ESC a n - justification of the following lines
+   */
+  align(align: Align): this {
+    this.buffer.write(ESC, 0x61, align === 'center' ? 1 : align === 'right' ? 2 : 0);
+    this.justification = align;
+    return this;
+  }
+
+  /**
+   * GS ! n - character width and height multipliers, 1 to 8
+   */
+  textSize(width: number, height: number): this {
+    const w = Math.max(1, Math.min(8, width)) - 1;
+    const h = Math.max(1, Math.min(8, height)) - 1;
+    this.buffer.write(GS, 0x21, (w << 4) | h);
+    return this;
+  }
+
+  /**
+   * ESC - n - one-dot underline on or off
+   */
+  underline(underline: boolean): this {
+    this.buffer.write(ESC, 0x2d, underline ? 1 : 0);
+    return this;
+  }
+
+  /**
+   * ESC d n - print the buffer and feed {@code lines} lines
+   */
+  printAndFeedLines(lines: number): this {
+    this.buffer.write(ESC, 0x64, clamp(lines));
+    return this;
+  }
+
+  /**
+   * GS V 65/66 0 - feed the paper to the cutter and cut it, leaving one point uncut if partial
+   */
+  cut(partial: boolean): this {
+    this.buffer.write(GS, 0x56, partial ? 66 : 65, 0);
+    return this;
+  }
+
+  /**
+   * ESC p m t1 t2 - pulse a cash drawer pin
+   * @param pin 0 for connector pin 2, 1 for pin 5
+   * @param pulseMs Pulse on time; the off time is at least 500 ms so the solenoid can release
+   */
+  kickDrawer(pin: number, pulseMs: number): this {
+    const on = Math.max(1, clamp(Math.trunc(pulseMs / 2)));
+    this.buffer.write(ESC, 0x70, pin & 1, on, Math.max(on, 250));
+    return this;
+  }
+
+  /**
+   * ESC J n - prints the buffer and feeds the paper {@code dots} dots, 255 at a time
+   */
+  feedDots(dots: number): this {
+    while (dots > 0) {
+      const n = Math.min(0xff, dots);
+      this.buffer.write(ESC, 0x4a, n);
+      dots -= n;
+    }
+    return this;
+  }
+
+  /**
+   * GS v 0 - prints a monochrome image in bands that fit the printer's line buffer
+   */
+  rasterImage(image: MonochromeImage): this {
+    return this.rasterBand(image.data, 0, image.bytesPerRow, image.height);
+  }
+
+  /**
+   * @returns Rows per raster command for images {@code bytesPerRow} wide
+   */
+  getBandHeight(bytesPerRow: number): number {
+    return Math.max(1, Math.min(0xffff, Math.trunc(this.maxBandBytes / Math.max(1, bytesPerRow))));
+  }
+
+  /**
+   * Prints packed rows as GS v 0 commands, split as the line buffer needs, or
+   * as ESC * stripes on printers without raster support. Long white runs are
+   * fed with ESC J instead of sent, and left-justified commands are cropped
+   * to their rightmost inked byte.
+   */
+  rasterBand(data: Uint8Array, offset: number, stride: number, rows: number): this {
+    // ESC * always advances whole stripes, so its gaps are skipped in whole stripes
+    const unit = this.rasterSupported ? 1 : BIT_IMAGE_STRIPE;
+    const minFeed = this.rasterSupported ? MIN_FEED_ROWS : 2 * BIT_IMAGE_STRIPE;
+    const bandHeight = this.rasterSupported ? this.getBandHeight(stride) : rows;
+    const crop = this.justification === 'left';
+    let y = 0;
+    while (y < rows) {
+      let blank = 0;
+      while (y + blank < rows && inkBytes(data, offset + (y + blank) * stride, stride) === 0) {
+        blank++;
+      }
+      if (y + blank < rows) {
+        blank -= blank % unit;
+      }
+      if (blank > 0 && (blank >= MIN_FEED_ROWS || y + blank === rows)) {
+        this.feedDots(blank);
+        y += blank;
+        continue;
+      }
+
+      // Rows up to the band height or the next long white run
+      let end = y;
+      let width = 0;
+      let run = 0;
+      const limit = Math.min(rows, y + bandHeight);
+      while (end < limit) {
+        const ink = inkBytes(data, offset + end * stride, stride);
+        end++;
+        if (ink > 0) {
+          run = 0;
+          width = Math.max(width, ink);
+        } else if (++run === minFeed) {
+          end -= run;
+          end = Math.min(limit, y + Math.trunc((end - y + unit - 1) / unit) * unit);
+          break;
+        }
+      }
+      if (width === 0) {
+        // Only a band shorter than MIN_FEED_ROWS can be all white
+        this.feedDots(end - y);
+      } else {
+        this.emitBand(data, offset + y * stride, stride, crop ? width : stride, end - y);
+      }
+      y = end;
+    }
+    return this;
+  }
+
+  /**
+   * GS w, GS h, GS H, then GS k m n d1...dn - a 1D barcode (function B)
+   * @param m Symbology, 65 (UPC-A) to 73 (CODE128)
+   * @param hri Human readable text: 0 none, 1 above, 2 below, 3 both
+   */
+  barcode(m: number, data: Uint8Array, moduleWidth: number, height: number, hri: number): this {
+    this.buffer.write(GS, 0x77, Math.max(2, Math.min(6, moduleWidth)));
+    this.buffer.write(GS, 0x68, Math.max(1, clamp(height)));
+    this.buffer.write(GS, 0x48, hri & 3);
+    this.buffer.write(GS, 0x6b, m, data.length);
+    this.buffer.writeBytes(data);
+    return this;
+  }
+
+  /**
+   * GS ( k - QR code model 2: set size and error correction, store the data, print it
+   * @param errorCorrection 0 (L), 1 (M), 2 (Q) or 3 (H)
+   */
+  qrCode(data: Uint8Array, moduleSize: number, errorCorrection: number): this {
+    this.symbolParameter(QR_CODE, 0x41, 0x32, 0);
+    this.symbolParameter(QR_CODE, 0x43, Math.max(1, Math.min(16, moduleSize)));
+    this.symbolParameter(QR_CODE, 0x45, 0x30 + (errorCorrection & 3));
+    this.storeAndPrintSymbol(QR_CODE, data);
+    return this;
+  }
+
+  /**
+   * GS ( k - PDF417 with automatic rows and columns
+   * @param rowHeight Row height as a multiple of the module width, 2-8
+   * @param errorLevel Error correction level, 0-8
+   */
+  pdf417(data: Uint8Array, moduleWidth: number, rowHeight: number, errorLevel: number): this {
+    this.symbolParameter(PDF417, 0x41, 0);
+    this.symbolParameter(PDF417, 0x42, 0);
+    this.symbolParameter(PDF417, 0x43, Math.max(2, Math.min(8, moduleWidth)));
+    this.symbolParameter(PDF417, 0x44, Math.max(2, Math.min(8, rowHeight)));
+    this.symbolParameter(PDF417, 0x45, 0x30, 0x30 + Math.max(0, Math.min(8, errorLevel)));
+    this.storeAndPrintSymbol(PDF417, data);
+    return this;
+  }
+
+  /**
+   * One command for {@code rows} rows of {@code width} bytes, {@code stride} bytes apart in data
+   */
+  private emitBand(data: Uint8Array, offset: number, stride: number, width: number, rows: number): void {
+    if (!this.rasterSupported) {
+      this.bitImageBand(data, offset, stride, width, rows);
+      return;
+    }
+    this.buffer.write(GS, 0x76, 0x30, 0);
+    this.buffer.writeShortLE(width);
+    this.buffer.writeShortLE(rows);
+    if (width === stride) {
+      this.buffer.writeBytes(data.subarray(offset, offset + width * rows));
+    } else {
+      for (let row = 0; row < rows; row++) {
+        this.buffer.writeBytes(data.subarray(offset + row * stride, offset + row * stride + width));
+      }
+    }
+  }
+
+  /**
+   * ESC 3 24, then ESC * 33 nL nH d1...dk LF per 24-dot stripe, then ESC 2
+   */
+  private bitImageBand(data: Uint8Array, offset: number, stride: number, width: number, rows: number): void {
+    const dots = width * 8;
+    this.buffer.write(ESC, 0x33, BIT_IMAGE_STRIPE);
+    for (let top = 0; top < rows; top += BIT_IMAGE_STRIPE) {
+      this.buffer.write(ESC, 0x2a, 33);
+      this.buffer.writeShortLE(dots);
+      const out = this.buffer.reserve(dots * 3);
+      const dst = this.buffer.array;
+      dst.fill(0, out, out + dots * 3);
+      const stripeRows = Math.min(BIT_IMAGE_STRIPE, rows - top);
+      for (let dy = 0; dy < stripeRows; dy++) {
+        const row = offset + (top + dy) * stride;
+        const bit = 0x80 >> (dy & 7);
+        const column = out + (dy >> 3);
+        for (let x = 0; x < dots; x++) {
+          if ((data[row + (x >> 3)] & (0x80 >> (x & 7))) !== 0) {
+            dst[column + x * 3] |= bit;
+          }
+        }
+      }
+      this.buffer.write(LF);
+    }
+    this.buffer.write(ESC, 0x32);
+  }
+
+  private symbolParameter(cn: number, fn: number, n1: number, n2?: number): void {
+    this.buffer.write(GS, 0x28, 0x6b, n2 === undefined ? 3 : 4, 0, cn, fn, n1);
+    if (n2 !== undefined) {
+      this.buffer.write(n2);
+    }
+  }
+
+  private storeAndPrintSymbol(cn: number, data: Uint8Array): void {
+    if (data.length > MAX_SYMBOL_DATA) {
+      throw new Error(`Symbol data too long (${data.length} bytes)`);
+    }
+    // Function 080: store data, then 081: print the stored symbol
+    this.buffer.write(GS, 0x28, 0x6b);
+    this.buffer.writeShortLE(data.length + 3);
+    this.buffer.write(cn, 0x50, 0x30);
+    this.buffer.writeBytes(data);
+    this.symbolParameter(cn, 0x51, 0x30);
+  }
+}
+
+/**
+ * @returns Bytes up to and including the last non-white one, 0 for a white row
+ */
+function inkBytes(data: Uint8Array, offset: number, length: number): number {
+  for (let i = length - 1; i >= 0; i--) {
+    if (data[offset + i] !== 0) {
+      return i + 1;
+    }
+  }
+  return 0;
+}
+
+function clamp(n: number): number {
+  return Math.max(0, Math.min(255, n));
+}
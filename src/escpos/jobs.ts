@@ -0,0 +1,386 @@
+import type { JobFinishOptions, PrintBarcodeOptions, PrinterProfile, RowOption } from '../definitions';
+
+import { CodePage, CodePageEncoder } from './codepage';
+import type { Align, EscPosEncoder, MonochromeImage } from './encoder';
+import { RASTER_BAND_HEIGHT, parseAlign } from './encoder';
+import type { Ecc } from './qrcode';
+import { QrCode, eccOrdinal, fitModuleDots, parseEcc, renderQrCode } from './qrcode';
+
+/** Lines fed after text and barcode jobs unless the job says otherwise */
+export const TEXT_FEED_LINES = 2;
+/** Lines fed after an image, clear of the tear bar */
+export const IMAGE_FEED_LINES = 4;
+
+/** 8 dots per mm, the resolution of nearly every receipt printer */
+export const DEFAULT_DPI = 203;
+/** Dot height at 203 dpi of the standard printer font that row sizes multiply */
+export const BASE_FONT_DOTS = 24;
+
+/**
+ * The vendor printers: 58 mm, GS v 0, no GS ( k, Chinese (GBK) mode with PC437.
+ * The same defaults as the Android PrinterProfile.
+ */
+export const DEFAULT_PROFILE: PrinterProfile = {
+  model: null,
+  width: 384,
+  dpi: DEFAULT_DPI,
+  maxLineBuffer: RASTER_BAND_HEIGHT * 384 / 8,
+  chunkSize: 1024,
+  capabilities: ['raster'],
+  codePages: ['GBK', 'CP437'],
+};
+
+/**
+ * @returns The default profile with the set fields of `overrides`; a new
+ * width without its own maxLineBuffer gets the one that width needs
+ */
+export function overrideProfile(overrides: Partial<PrinterProfile>): PrinterProfile {
+  const profile: PrinterProfile = { ...DEFAULT_PROFILE };
+  (Object.keys(overrides) as (keyof PrinterProfile)[]).forEach(key => {
+    if (overrides[key] != null) {
+      (profile as any)[key] = overrides[key];
+    }
+  });
+  if (overrides.maxLineBuffer == null) {
+    profile.maxLineBuffer = RASTER_BAND_HEIGHT * profile.width / 8;
+  }
+  return profile;
+}
+
+/**
+ * Configures an encoder for the printer's raster commands and buffer size
+ */
+export function configure(encoder: EscPosEncoder, profile: PrinterProfile): EscPosEncoder {
+  return encoder.setMaxBandBytes(profile.maxLineBuffer)
+    .setRasterSupported(profile.capabilities.indexOf('raster') >= 0);
+}
+
+/**
+ * @returns An encoder for the profile's code pages, leaving out any this browser cannot build
+ */
+export function newCodePageEncoder(profile: PrinterProfile): CodePageEncoder {
+  const pages: CodePage[] = [];
+  profile.codePages.forEach(name => {
+    const page = CodePage.parse(name);
+    if (page && page.isAvailable) {
+      pages.push(page);
+    }
+  });
+  const cp437 = CodePage.parse('CP437') as CodePage;
+  // The first listed page is the printer's reset state even when it cannot be used here
+  const first = CodePage.parse(profile.codePages[0]) || cp437;
+  return new CodePageEncoder(first, pages.length > 0 ? pages : [cp437]);
+}
+
+/**
+ * Scales a size given for a 203 dpi printer to the printer's resolution
+ */
+export function scaleDots(profile: PrinterProfile, dots: number): number {
+  return Math.max(1, Math.floor((dots * profile.dpi + Math.floor(DEFAULT_DPI / 2)) / DEFAULT_DPI));
+}
+
+/** Largest size multiplier, as with GS ! */
+export const MAX_SIZE = 8;
+
+/**
+ * One row of a text receipt, a RowOption with its defaults applied
+ */
+export interface TextRow {
+  /** Row text; may contain line breaks */
+  text: string,
+  /** Size multiplier 1-8 relative to the printer's standard font */
+  size: number,
+  align: Align,
+  underline: boolean
+}
+
+export function toTextRow(row: RowOption | string): TextRow {
+  if (typeof row !== 'object' || row === null) {
+    return { text: String(row), size: 1, align: 'left', underline: false };
+  }
+  return {
+    text: row.text == null ? '' : String(row.text),
+    size: Math.max(1, Math.min(MAX_SIZE, Math.floor(row.fontSize || 1))),
+    align: parseAlign(row.fontAlign),
+    underline: !!row.fontUnderline,
+  };
+}
+
+/**
+ * Draws rows as raster bands, for text the printer's code pages cannot spell
+ */
+export interface RowRasterizer {
+  rasterize(row: TextRow, encoder: EscPosEncoder): void;
+}
+
+/** Feed lines meaning "the job type's usual feed" */
+export const DEFAULT_FEED = -1;
+/** Drawer pulse on time; most solenoids open with 50-200 ms */
+export const DEFAULT_PULSE_MS = 100;
+
+/**
+ * What happens after a job's content: a paper feed, an optional cut and an
+ * optional cash drawer kick, appended to the job's own buffer
+ */
+export interface JobFinish {
+  /** Lines to feed after the content, or DEFAULT_FEED */
+  feedLines: number,
+  cut: 'none' | 'partial' | 'full',
+  /** 2 or 5 to kick a cash drawer, 0 for none */
+  drawerPin: number,
+  pulseMs: number
+}
+
+/**
+ * The feedLines, cut and openDrawer options of a print call
+ * @throws Error If the cut is not none, partial or full, or the drawer pin is not 2 or 5
+ */
+export function parseFinish(options: JobFinishOptions): JobFinish {
+  const cut = (options.cut || '').trim().toLowerCase() || 'none';
+  if (cut !== 'none' && cut !== 'partial' && cut !== 'full') {
+    throw new Error('Unknown cut ' + options.cut);
+  }
+  const drawerPin = options.openDrawer ? (options.drawerPin == null ? 2 : options.drawerPin) : 0;
+  if (drawerPin !== 0 && drawerPin !== 2 && drawerPin !== 5) {
+    throw new Error('Cash drawer pin must be 2 or 5, not ' + drawerPin);
+  }
+  return {
+    feedLines: options.feedLines == null ? DEFAULT_FEED : options.feedLines,
+    cut,
+    drawerPin,
+    pulseMs: options.drawerPulse == null ? DEFAULT_PULSE_MS : options.drawerPulse,
+  };
+}
+
+/**
+ * Appends the feed, cut and drawer kick
+ * @param defaultFeedLines The job type's usual feed, used unless one was given
+ */
+export function encodeFinish(encoder: EscPosEncoder, finish: JobFinish, defaultFeedLines: number): void {
+  encoder.printAndFeedLines(finish.feedLines === DEFAULT_FEED ? defaultFeedLines : finish.feedLines);
+  if (finish.cut !== 'none') {
+    encoder.cut(finish.cut === 'partial');
+  }
+  if (finish.drawerPin !== 0) {
+    encoder.kickDrawer(finish.drawerPin === 5 ? 1 : 0, finish.pulseMs);
+  }
+}
+
+/**
+ * A text job with native per-row formatting: reset, every row in the
+ * printer's own font, then the finish. Lines with characters outside the
+ * printer's code pages are rasterized instead when fallback is set, and
+ * printed with '?' in their place otherwise.
+ */
+export function encodeRows(encoder: EscPosEncoder, codePages: CodePageEncoder, fallback: RowRasterizer | null,
+                           rows: TextRow[], finish: JobFinish): void {
+  encoder.initialize();
+  codePages.reset();
+  for (const row of rows) {
+    // One precomposed char per letter, as the code page tables expect
+    const text = /[\u0300-\u036f]/.test(row.text) ? row.text.normalize('NFC') : row.text;
+    encoder.align(row.align)
+      .textSize(row.size, row.size)
+      .underline(row.underline);
+    let start = 0;
+    const length = text.length;
+    do {
+      const newline = text.indexOf('\n', start);
+      const end = newline < 0 ? length : newline;
+      if (fallback === null || codePages.canEncode(text, start, end)) {
+        encoder.text(text, start, end, codePages).lineFeed();
+      } else {
+        fallback.rasterize({ ...row, text: text.substring(start, end) }, encoder);
+      }
+      start = end + 1;
+    } while (start < length);
+  }
+  encodeFinish(encoder, finish, TEXT_FEED_LINES);
+}
+
+/**
+ * A rasterized text job: reset, every row as raster lines, then the finish
+ */
+export function encodeRasterRows(encoder: EscPosEncoder, rasterizer: RowRasterizer, rows: TextRow[],
+                                 finish: JobFinish): void {
+  encoder.initialize();
+  rows.forEach(row => rasterizer.rasterize(row, encoder));
+  encodeFinish(encoder, finish, TEXT_FEED_LINES);
+}
+
+/**
+ * An image job: reset, the raster image, then the finish (by default four lines of feed)
+ */
+export function encodeImage(encoder: EscPosEncoder, image: MonochromeImage, finish: JobFinish): void {
+  encoder.initialize()
+    .rasterImage(image);
+  encodeFinish(encoder, finish, IMAGE_FEED_LINES);
+}
+
+/** GS k m values of the 1D symbologies; QR and PDF417 use GS ( k */
+const GS_K: { [type: string]: number } = {
+  UPC_A: 65,
+  UPC_E: 66,
+  EAN13: 67,
+  EAN8: 68,
+  CODE39: 69,
+  ITF: 70,
+  CODABAR: 71,
+  CODE93: 72,
+  CODE128: 73,
+};
+
+/** Human readable text position for 1D barcodes, in GS H order */
+const HRI = ['none', 'above', 'below', 'both'];
+
+/** QR cell size in dots when none is given */
+export const DEFAULT_QR_MODULE_SIZE = 6;
+/** 1D narrow bar and PDF417 module width in dots when none is given */
+export const DEFAULT_MODULE_SIZE = 2;
+export const DEFAULT_HEIGHT = 80;
+/** PDF417 row height, in module widths */
+const PDF417_ROW_HEIGHT = 3;
+
+/**
+ * One barcode to print, a PrintBarcodeOptions with its defaults applied
+ */
+export interface BarcodeJob {
+  /** QR, PDF417 or a key of GS_K */
+  type: string,
+  data: string,
+  moduleSize: number,
+  height: number,
+  ecc: Ecc,
+  align: Align,
+  /** GS H n */
+  hri: number
+}
+
+/**
+ * @param name e.g. "QR", "code128", "EAN13"; also accepts "QRCODE", "JAN13" and "JAN8" as used by the vendor SDK
+ * @returns The type, or null if unknown
+ */
+export function parseBarcodeType(name: string | null | undefined): string | null {
+  if (name == null) {
+    return null;
+  }
+  const key = name.trim().toUpperCase().replace(/-/g, '_');
+  switch (key) {
+    case 'QRCODE':
+    case 'QR_CODE':
+      return 'QR';
+    case 'JAN13':
+    case 'EAN_13':
+      return 'EAN13';
+    case 'JAN8':
+    case 'EAN_8':
+      return 'EAN8';
+  }
+  return key === 'QR' || key === 'PDF417' || GS_K[key] !== undefined ? key : null;
+}
+
+/**
+ * @throws Error If the type is unknown or there is no data
+ */
+export function toBarcodeJob(options: PrintBarcodeOptions): BarcodeJob {
+  const type = parseBarcodeType(options.type);
+  if (type === null) {
+    throw new Error('Unknown barcode type ' + options.type);
+  }
+  if (!options.data) {
+    throw new Error('Missing barcode data');
+  }
+  const hri = HRI.indexOf((options.hri || '').toLowerCase());
+  return {
+    type,
+    data: options.data,
+    moduleSize: options.size && options.size > 0 ? options.size
+      : type === 'QR' ? DEFAULT_QR_MODULE_SIZE : DEFAULT_MODULE_SIZE,
+    height: Math.max(1, Math.min(255, options.height == null ? DEFAULT_HEIGHT : options.height)),
+    ecc: parseEcc(options.errorCorrection),
+    align: options.align == null ? 'center' : parseAlign(options.align),
+    hri: hri < 0 ? 2 : hri,
+  };
+}
+
+/**
+ * A barcode job: reset, the barcode, then the finish (by default two lines of
+ * feed). QR codes are built here and sent as raster rows unless the printer
+ * implements GS ( k.
+ * @throws Error If the data does not fit the symbology, or PDF417 is asked of a printer without GS ( k
+ */
+export function encodeBarcode(encoder: EscPosEncoder, job: BarcodeJob, nativeSymbols: boolean, widthDots: number,
+                              finish: JobFinish): void {
+  encoder.initialize();
+  const utf8 = new TextEncoder();
+  switch (job.type) {
+    case 'QR':
+      if (nativeSymbols) {
+        encoder.align(job.align)
+          .qrCode(utf8.encode(job.data), job.moduleSize, eccOrdinal(job.ecc));
+      } else {
+        const qr = QrCode.encodeText(job.data, job.ecc);
+        const moduleDots = fitModuleDots(qr, job.moduleSize, widthDots);
+        encoder.rasterImage(renderQrCode(qr, moduleDots, widthDots, job.align));
+      }
+      break;
+    case 'PDF417':
+      if (!nativeSymbols) {
+        throw new Error('PDF417 needs a printer with GS ( k support');
+      }
+      // Map the QR level onto PDF417's 0-8 scale: L=1, M=3, Q=5, H=7
+      encoder.align(job.align)
+        .pdf417(utf8.encode(job.data), job.moduleSize, PDF417_ROW_HEIGHT, eccOrdinal(job.ecc) * 2 + 1);
+      break;
+    default:
+      encoder.align(job.align)
+        .barcode(GS_K[job.type], barcodeData(job), job.moduleSize, job.height, job.hri);
+      break;
+  }
+  encodeFinish(encoder, finish, TEXT_FEED_LINES);
+}
+
+/**
+ * @returns The GS k data bytes; CODE128 gets a code set prefix unless it already has one
+ */
+function barcodeData(job: BarcodeJob): Uint8Array {
+  const data = job.data;
+  if (/[^\x00-\x7f]/.test(data)) {
+    throw new Error(job.type + ' data must be ASCII');
+  }
+  let bytes: Uint8Array;
+  if (job.type === 'CODE128' && data.charAt(0) !== '{') {
+    bytes = code128(data);
+  } else {
+    bytes = new Uint8Array(data.length);
+    for (let i = 0; i < data.length; i++) {
+      bytes[i] = data.charCodeAt(i);
+    }
+  }
+  if (bytes.length === 0 || bytes.length > 255) {
+    throw new Error(job.type + ' data must be 1-255 bytes');
+  }
+  return bytes;
+}
+
+/**
+ * Code set C (two digits per symbol character) for even-length digit strings, code set B otherwise
+ */
+function code128(data: string): Uint8Array {
+  if (data.length < 4 || data.length % 2 !== 0 || !/^[0-9]*$/.test(data)) {
+    const bytes = new Uint8Array(data.length + 2);
+    bytes[0] = 0x7b;
+    bytes[1] = 0x42;
+    for (let i = 0; i < data.length; i++) {
+      bytes[i + 2] = data.charCodeAt(i);
+    }
+    return bytes;
+  }
+  const bytes = new Uint8Array(data.length / 2 + 2);
+  bytes[0] = 0x7b;
+  bytes[1] = 0x43;
+  for (let i = 0; i < data.length; i += 2) {
+    bytes[i / 2 + 2] = parseInt(data.substring(i, i + 2), 10);
+  }
+  return bytes;
+}
@@ -0,0 +1,603 @@
+import type { Align, MonochromeImage } from './encoder';
+import { newMonochromeImage } from './encoder';
+
+/** Error correction level; the order is also the GS ( k order (48 + ordinal) */
+export type Ecc = 'L' | 'M' | 'Q' | 'H';
+
+const ECC_ORDER: Ecc[] = ['L', 'M', 'Q', 'H'];
+const FORMAT_BITS = [1, 0, 3, 2];
+
+/**
+ * @param value "L", "M", "Q" or "H"; anything else is M
+ */
+export function parseEcc(value: string | null | undefined): Ecc {
+  const key = (value || '').toUpperCase();
+  return key === 'L' || key === 'Q' || key === 'H' ? key : 'M';
+}
+
+export function eccOrdinal(ecc: Ecc): number {
+  return ECC_ORDER.indexOf(ecc);
+}
+
+export const MIN_VERSION = 1;
+export const MAX_VERSION = 40;
+
+const MODE_NUMERIC = 0x1;
+const MODE_ALPHANUMERIC = 0x2;
+const MODE_BYTE = 0x4;
+
+const ALPHANUMERIC = '0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:';
+
+const ECC_CODEWORDS_PER_BLOCK = [
+  // Version: 0 (unused), 1 ... 40
+  [-1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30],
+  [-1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28],
+  [-1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30],
+  [-1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30],
+];
+
+const NUM_ERROR_CORRECTION_BLOCKS = [
+  [-1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25],
+  [-1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49],
+  [-1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68],
+  [-1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81],
+];
+
+const GF_EXP = new Uint8Array(512);
+const GF_LOG = new Uint8Array(256);
+
+// GF(2^8) with the QR polynomial x^8 + x^4 + x^3 + x^2 + 1
+for (let i = 0, x = 1; i < 255; i++) {
+  GF_EXP[i] = x;
+  GF_LOG[x] = i;
+  x <<= 1;
+  if (x >= 0x100) {
+    x ^= 0x11d;
+  }
+}
+for (let i = 255; i < GF_EXP.length; i++) {
+  GF_EXP[i] = GF_EXP[i - 255];
+}
+
+/**
+ * A QR Code symbol (ISO/IEC 18004, model 2) built in the plugin, for printers
+ * without the GS ( k QR command; a port of the Android QrCode.
+ *
+ * Encodes one segment in numeric, alphanumeric or byte (UTF-8) mode, picks
+ * the smallest version that fits and the mask with the lowest penalty.
+ */
+export class QrCode {
+  /** Modules per side, without the quiet zone */
+  readonly size: number;
+  readonly mask: number;
+  private readonly modules: Uint8Array;
+  private readonly isFunction: Uint8Array;
+
+  private constructor(readonly version: number, readonly ecc: Ecc, dataCodewords: Uint8Array) {
+    this.size = version * 4 + 17;
+    this.modules = new Uint8Array(this.size * this.size);
+    this.isFunction = new Uint8Array(this.size * this.size);
+
+    this.drawFunctionPatterns();
+    this.drawCodewords(this.addErrorCorrection(dataCodewords));
+
+    let bestMask = 0;
+    let bestPenalty = Number.MAX_VALUE;
+    for (let mask = 0; mask < 8; mask++) {
+      this.applyMask(mask);
+      this.drawFormatBits(mask);
+      const penalty = this.penalty();
+      if (penalty < bestPenalty) {
+        bestMask = mask;
+        bestPenalty = penalty;
+      }
+      // XOR again to undo
+      this.applyMask(mask);
+    }
+    this.mask = bestMask;
+    this.applyMask(bestMask);
+    this.drawFormatBits(bestMask);
+  }
+
+  /**
+   * Encodes text in the most compact single mode, at the smallest version that fits
+   * @throws Error If the text does not fit version 40 at this level
+   */
+  static encodeText(text: string, ecc: Ecc): QrCode {
+    let mode: number;
+    let bytes: Uint8Array | null = null;
+    if (/^[0-9]*$/.test(text)) {
+      mode = MODE_NUMERIC;
+    } else if (isAlphanumeric(text)) {
+      mode = MODE_ALPHANUMERIC;
+    } else {
+      mode = MODE_BYTE;
+      bytes = new TextEncoder().encode(text);
+    }
+    const count = bytes !== null ? bytes.length : text.length;
+
+    for (let version = MIN_VERSION; version <= MAX_VERSION; version++) {
+      const capacityBits = numDataCodewords(version, ecc) * 8;
+      const usedBits = 4 + charCountBits(mode, version) + dataBits(mode, count);
+      if (usedBits > capacityBits) {
+        continue;
+      }
+      const bits = new BitBuffer(capacityBits);
+      bits.append(mode, 4);
+      bits.append(count, charCountBits(mode, version));
+      appendData(bits, mode, text, bytes);
+      // Terminator, byte alignment, then alternating pad bytes
+      bits.append(0, Math.min(4, capacityBits - bits.length));
+      bits.append(0, (8 - (bits.length % 8)) % 8);
+      for (let pad = 0xec; bits.length < capacityBits; pad ^= 0xec ^ 0x11) {
+        bits.append(pad, 8);
+      }
+      return new QrCode(version, ecc, bits.data);
+    }
+    throw new Error('Data too long for a QR code (' + count + ' characters)');
+  }
+
+  /**
+   * @returns Whether the module at column x, row y is dark; false outside the symbol
+   */
+  isDark(x: number, y: number): boolean {
+    return x >= 0 && x < this.size && y >= 0 && y < this.size && this.modules[y * this.size + x] !== 0;
+  }
+
+  // ---- Error correction ----
+
+  /**
+   * Splits the data into blocks, appends Reed-Solomon codewords to each and interleaves them
+   */
+  private addErrorCorrection(data: Uint8Array): Uint8Array {
+    const level = eccOrdinal(this.ecc);
+    const numBlocks = NUM_ERROR_CORRECTION_BLOCKS[level][this.version];
+    const eccLength = ECC_CODEWORDS_PER_BLOCK[level][this.version];
+    const rawCodewords = Math.floor(numRawDataModules(this.version) / 8);
+    const numShortBlocks = numBlocks - (rawCodewords % numBlocks);
+    const shortBlockLength = Math.floor(rawCodewords / numBlocks);
+
+    const divisor = reedSolomonDivisor(eccLength);
+    const blocks: Uint8Array[] = [];
+    for (let i = 0, offset = 0; i < numBlocks; i++) {
+      const dataLength = shortBlockLength - eccLength + (i < numShortBlocks ? 0 : 1);
+      const block = new Uint8Array(shortBlockLength + 1);
+      block.set(data.subarray(offset, offset + dataLength));
+      offset += dataLength;
+      reedSolomonRemainder(block, dataLength, divisor, block, shortBlockLength + 1 - eccLength);
+      blocks.push(block);
+    }
+
+    const result = new Uint8Array(rawCodewords);
+    let k = 0;
+    for (let i = 0; i < shortBlockLength + 1; i++) {
+      for (let j = 0; j < numBlocks; j++) {
+        // Short blocks have no data byte at the last data position
+        if (i !== shortBlockLength - eccLength || j >= numShortBlocks) {
+          result[k++] = blocks[j][i];
+        }
+      }
+    }
+    return result;
+  }
+
+  // ---- Module placement ----
+
+  private drawFunctionPatterns(): void {
+    const size = this.size;
+    for (let i = 0; i < size; i++) {
+      this.setFunction(6, i, i % 2 === 0);
+      this.setFunction(i, 6, i % 2 === 0);
+    }
+    this.drawFinder(3, 3);
+    this.drawFinder(size - 4, 3);
+    this.drawFinder(3, size - 4);
+
+    const positions = this.alignmentPositions();
+    const last = positions.length - 1;
+    for (let i = 0; i <= last; i++) {
+      for (let j = 0; j <= last; j++) {
+        // Skip the three corners taken by finder patterns
+        if (!((i === 0 && j === 0) || (i === 0 && j === last) || (i === last && j === 0))) {
+          this.drawAlignment(positions[i], positions[j]);
+        }
+      }
+    }
+
+    // Reserve the format areas with a dummy mask, then the version blocks
+    this.drawFormatBits(0);
+    if (this.version >= 7) {
+      let remainder = this.version;
+      for (let i = 0; i < 12; i++) {
+        remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1f25);
+      }
+      const bits = (this.version << 12) | remainder;
+      for (let i = 0; i < 18; i++) {
+        const dark = bit(bits, i);
+        const a = size - 11 + (i % 3);
+        const b = Math.floor(i / 3);
+        this.setFunction(a, b, dark);
+        this.setFunction(b, a, dark);
+      }
+    }
+  }
+
+  private drawFinder(cx: number, cy: number): void {
+    for (let dy = -4; dy <= 4; dy++) {
+      for (let dx = -4; dx <= 4; dx++) {
+        const distance = Math.max(Math.abs(dx), Math.abs(dy));
+        const x = cx + dx;
+        const y = cy + dy;
+        if (x >= 0 && x < this.size && y >= 0 && y < this.size) {
+          this.setFunction(x, y, distance !== 2 && distance !== 4);
+        }
+      }
+    }
+  }
+
+  private drawAlignment(cx: number, cy: number): void {
+    for (let dy = -2; dy <= 2; dy++) {
+      for (let dx = -2; dx <= 2; dx++) {
+        this.setFunction(cx + dx, cy + dy, Math.max(Math.abs(dx), Math.abs(dy)) !== 1);
+      }
+    }
+  }
+
+  private alignmentPositions(): number[] {
+    if (this.version === 1) {
+      return [];
+    }
+    const numAlign = Math.floor(this.version / 7) + 2;
+    const step = this.version === 32 ? 26
+      : Math.floor((this.version * 4 + numAlign * 2 + 1) / (numAlign * 2 - 2)) * 2;
+    const result = [6];
+    for (let i = numAlign - 1, position = this.size - 7; i >= 1; i--, position -= step) {
+      result[i] = position;
+    }
+    return result;
+  }
+
+  private drawFormatBits(mask: number): void {
+    const size = this.size;
+    const data = (FORMAT_BITS[eccOrdinal(this.ecc)] << 3) | mask;
+    let remainder = data;
+    for (let i = 0; i < 10; i++) {
+      remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+    }
+    const bits = ((data << 10) | remainder) ^ 0x5412;
+
+    // Around the top left finder
+    for (let i = 0; i <= 5; i++) {
+      this.setFunction(8, i, bit(bits, i));
+    }
+    this.setFunction(8, 7, bit(bits, 6));
+    this.setFunction(8, 8, bit(bits, 7));
+    this.setFunction(7, 8, bit(bits, 8));
+    for (let i = 9; i < 15; i++) {
+      this.setFunction(14 - i, 8, bit(bits, i));
+    }
+    // Split between the other two finders
+    for (let i = 0; i < 8; i++) {
+      this.setFunction(size - 1 - i, 8, bit(bits, i));
+    }
+    for (let i = 8; i < 15; i++) {
+      this.setFunction(8, size - 15 + i, bit(bits, i));
+    }
+    this.setFunction(8, size - 8, true);
+  }
+
+  private drawCodewords(codewords: Uint8Array): void {
+    const size = this.size;
+    const totalBits = codewords.length * 8;
+    let i = 0;
+    for (let right = size - 1; right >= 1; right -= 2) {
+      if (right === 6) {
+        // Skip the vertical timing pattern
+        right = 5;
+      }
+      const upward = ((right + 1) & 2) === 0;
+      for (let vert = 0; vert < size; vert++) {
+        const y = upward ? size - 1 - vert : vert;
+        for (let j = 0; j < 2; j++) {
+          const index = y * size + right - j;
+          if (!this.isFunction[index] && i < totalBits) {
+            this.modules[index] = bit(codewords[i >>> 3], 7 - (i & 7)) ? 1 : 0;
+            i++;
+          }
+        }
+      }
+    }
+  }
+
+  private applyMask(mask: number): void {
+    const size = this.size;
+    for (let y = 0; y < size; y++) {
+      for (let x = 0; x < size; x++) {
+        let invert: boolean;
+        switch (mask) {
+          case 0: invert = (x + y) % 2 === 0; break;
+          case 1: invert = y % 2 === 0; break;
+          case 2: invert = x % 3 === 0; break;
+          case 3: invert = (x + y) % 3 === 0; break;
+          case 4: invert = (Math.floor(x / 3) + Math.floor(y / 2)) % 2 === 0; break;
+          case 5: invert = ((x * y) % 2) + ((x * y) % 3) === 0; break;
+          case 6: invert = (((x * y) % 2) + ((x * y) % 3)) % 2 === 0; break;
+          default: invert = (((x + y) % 2) + ((x * y) % 3)) % 2 === 0; break;
+        }
+        const index = y * size + x;
+        if (invert && !this.isFunction[index]) {
+          this.modules[index] ^= 1;
+        }
+      }
+    }
+  }
+
+  // ---- Mask penalty (ISO/IEC 18004 section 7.8.3) ----
+
+  private penalty(): number {
+    const size = this.size;
+    const modules = this.modules;
+    let penalty = 0;
+    let dark = 0;
+    for (let a = 0; a < size; a++) {
+      let rowRun = 0;
+      let columnRun = 0;
+      for (let b = 0; b < size; b++) {
+        const rowModule = modules[a * size + b];
+        const columnModule = modules[b * size + a];
+        dark += rowModule;
+        // N1: five or more same-coloured modules in a row or column
+        rowRun = b > 0 && rowModule === modules[a * size + b - 1] ? rowRun + 1 : 1;
+        if (rowRun === 5) {
+          penalty += 3;
+        } else if (rowRun > 5) {
+          penalty++;
+        }
+        columnRun = b > 0 && columnModule === modules[(b - 1) * size + a] ? columnRun + 1 : 1;
+        if (columnRun === 5) {
+          penalty += 3;
+        } else if (columnRun > 5) {
+          penalty++;
+        }
+        // N2: 2x2 blocks of one colour
+        if (a > 0 && b > 0 && rowModule === modules[a * size + b - 1]
+          && rowModule === modules[(a - 1) * size + b]
+          && rowModule === modules[(a - 1) * size + b - 1]) {
+          penalty += 3;
+        }
+        // N3: 1:1:3:1:1 finder-like pattern with four light modules on one side
+        if (b + 6 < size && this.isFinderLike(a, b, true)) {
+          penalty += 40;
+        }
+        if (b + 6 < size && this.isFinderLike(b, a, false)) {
+          penalty += 40;
+        }
+      }
+    }
+    // N4: 10 points for every 5% the dark share is away from 50%
+    const total = size * size;
+    penalty += Math.floor((Math.abs(dark * 2 - total) * 10) / total) * 10;
+    return penalty;
+  }
+
+  /**
+   * @returns Whether dark-light-dark-dark-dark-light-dark starts at (row, column) with four light modules before or after
+   */
+  private isFinderLike(row: number, column: number, horizontal: boolean): boolean {
+    for (let i = 0; i < 7; i++) {
+      const expected = i !== 1 && i !== 5;
+      if (this.module(row, column, i, horizontal) !== expected) {
+        return false;
+      }
+    }
+    return this.isLight(row, column, -4, 0, horizontal) || this.isLight(row, column, 7, 11, horizontal);
+  }
+
+  private isLight(row: number, column: number, from: number, to: number, horizontal: boolean): boolean {
+    for (let i = from; i < to; i++) {
+      if (this.module(row, column, i, horizontal)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private module(row: number, column: number, offset: number, horizontal: boolean): boolean {
+    // The quiet zone counts as light
+    return horizontal ? this.isDark(column + offset, row) : this.isDark(column, row + offset);
+  }
+
+  private setFunction(x: number, y: number, dark: boolean): void {
+    this.modules[y * this.size + x] = dark ? 1 : 0;
+    this.isFunction[y * this.size + x] = 1;
+  }
+}
+
+// ---- Data encoding ----
+
+function isAlphanumeric(text: string): boolean {
+  for (let i = 0; i < text.length; i++) {
+    if (ALPHANUMERIC.indexOf(text.charAt(i)) < 0) {
+      return false;
+    }
+  }
+  return true;
+}
+
+function charCountBits(mode: number, version: number): number {
+  const range = version <= 9 ? 0 : version <= 26 ? 1 : 2;
+  switch (mode) {
+    case MODE_NUMERIC:
+      return [10, 12, 14][range];
+    case MODE_ALPHANUMERIC:
+      return [9, 11, 13][range];
+    default:
+      return [8, 16, 16][range];
+  }
+}
+
+function dataBits(mode: number, count: number): number {
+  switch (mode) {
+    case MODE_NUMERIC:
+      return Math.floor(count / 3) * 10 + [0, 4, 7][count % 3];
+    case MODE_ALPHANUMERIC:
+      return Math.floor(count / 2) * 11 + (count % 2) * 6;
+    default:
+      return count * 8;
+  }
+}
+
+function appendData(bits: BitBuffer, mode: number, text: string, bytes: Uint8Array | null): void {
+  if (mode === MODE_NUMERIC) {
+    for (let i = 0; i < text.length; i += 3) {
+      const n = Math.min(3, text.length - i);
+      bits.append(parseInt(text.substring(i, i + n), 10), n * 3 + 1);
+    }
+  } else if (mode === MODE_ALPHANUMERIC) {
+    let i = 0;
+    for (; i + 1 < text.length; i += 2) {
+      bits.append(ALPHANUMERIC.indexOf(text.charAt(i)) * 45 + ALPHANUMERIC.indexOf(text.charAt(i + 1)), 11);
+    }
+    if (i < text.length) {
+      bits.append(ALPHANUMERIC.indexOf(text.charAt(i)), 6);
+    }
+  } else if (bytes !== null) {
+    bytes.forEach(b => bits.append(b, 8));
+  }
+}
+
+function numRawDataModules(version: number): number {
+  let result = (16 * version + 128) * version + 64;
+  if (version >= 2) {
+    const numAlign = Math.floor(version / 7) + 2;
+    result -= (25 * numAlign - 10) * numAlign - 55;
+    if (version >= 7) {
+      result -= 36;
+    }
+  }
+  return result;
+}
+
+function numDataCodewords(version: number, ecc: Ecc): number {
+  const level = eccOrdinal(ecc);
+  return Math.floor(numRawDataModules(version) / 8)
+    - ECC_CODEWORDS_PER_BLOCK[level][version] * NUM_ERROR_CORRECTION_BLOCKS[level][version];
+}
+
+function reedSolomonDivisor(degree: number): Uint8Array {
+  const result = new Uint8Array(degree);
+  result[degree - 1] = 1;
+  let root = 1;
+  for (let i = 0; i < degree; i++) {
+    for (let j = 0; j < degree; j++) {
+      result[j] = multiply(result[j], root);
+      if (j + 1 < degree) {
+        result[j] ^= result[j + 1];
+      }
+    }
+    root = multiply(root, 0x02);
+  }
+  return result;
+}
+
+function reedSolomonRemainder(data: Uint8Array, length: number, divisor: Uint8Array, out: Uint8Array,
+                              outOffset: number): void {
+  const degree = divisor.length;
+  out.fill(0, outOffset, outOffset + degree);
+  for (let i = 0; i < length; i++) {
+    const factor = data[i] ^ out[outOffset];
+    out.copyWithin(outOffset, outOffset + 1, outOffset + degree);
+    out[outOffset + degree - 1] = 0;
+    if (factor !== 0) {
+      for (let j = 0; j < degree; j++) {
+        out[outOffset + j] ^= multiply(divisor[j], factor);
+      }
+    }
+  }
+}
+
+function multiply(a: number, b: number): number {
+  return a === 0 || b === 0 ? 0 : GF_EXP[GF_LOG[a] + GF_LOG[b]];
+}
+
+function bit(value: number, index: number): boolean {
+  return ((value >>> index) & 1) !== 0;
+}
+
+/**
+ * Appends bits most significant first into a fixed-capacity byte array
+ */
+class BitBuffer {
+  readonly data: Uint8Array;
+  length = 0;
+
+  constructor(capacityBits: number) {
+    this.data = new Uint8Array((capacityBits + 7) >> 3);
+  }
+
+  append(value: number, count: number): void {
+    for (let i = count - 1; i >= 0; i--, this.length++) {
+      if (((value >>> i) & 1) !== 0) {
+        this.data[this.length >>> 3] |= 0x80 >>> (this.length & 7);
+      }
+    }
+  }
+}
+
+/** Light modules around the symbol, as the QR spec requires */
+export const QUIET_ZONE = 4;
+
+/**
+ * @param requested Preferred module size in dots
+ * @returns The largest module size up to requested at which the symbol and its quiet zone fit
+ * @throws Error If the symbol is wider than the paper even at one dot per module
+ */
+export function fitModuleDots(qr: QrCode, requested: number, widthDots: number): number {
+  const fit = Math.floor(widthDots / (qr.size + 2 * QUIET_ZONE));
+  if (fit < 1) {
+    throw new Error('QR code version ' + qr.version + ' does not fit ' + widthDots + ' dots');
+  }
+  return Math.max(1, Math.min(requested, fit));
+}
+
+/**
+ * Draws the symbol straight into packed raster rows spanning the paper width:
+ * each module row is packed once and copied for the module's height.
+ */
+export function renderQrCode(qr: QrCode, moduleDots: number, widthDots: number, align: Align): MonochromeImage {
+  const size = qr.size;
+  const symbolDots = size * moduleDots;
+  const quietDots = QUIET_ZONE * moduleDots;
+  const left = align === 'left' ? quietDots
+    : align === 'right' ? widthDots - quietDots - symbolDots
+      : Math.floor((widthDots - symbolDots) / 2);
+
+  const image = newMonochromeImage(widthDots, symbolDots + 2 * quietDots);
+  const bytesPerRow = image.bytesPerRow;
+  const data = image.data;
+  for (let my = 0; my < size; my++) {
+    const rowOffset = (quietDots + my * moduleDots) * bytesPerRow;
+    for (let mx = 0; mx < size; mx++) {
+      if (qr.isDark(mx, my)) {
+        fillDots(data, rowOffset, left + mx * moduleDots, moduleDots);
+      }
+    }
+    for (let dy = 1; dy < moduleDots; dy++) {
+      data.copyWithin(rowOffset + dy * bytesPerRow, rowOffset, rowOffset + bytesPerRow);
+    }
+  }
+  return image;
+}
+
+function fillDots(data: Uint8Array, rowOffset: number, x: number, count: number): void {
+  const end = x + count;
+  while (x < end) {
+    if ((x & 7) === 0 && end - x >= 8) {
+      data[rowOffset + (x >> 3)] = 0xff;
+      x += 8;
+    } else {
+      data[rowOffset + (x >> 3)] |= 0x80 >>> (x & 7);
+      x++;
+    }
+  }
+}
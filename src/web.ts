@@ -2,39 +2,353 @@ import { WebPlugin } from '@capacitor/core';
 
 import {
   PrintImageOptions,
+  PrintRawOptions,
+  PrintLabelsOptions,
+  PreviewOptions,
+  PreviewResult,
+  PrintBarcodeOptions,
   MkPrinterPlugin,
   PrintTextOptions,
   StatusPrinterOptions,
   BluetoothDevices,
+  UpdateFirmwareOptions,
+  FirmwareResult,
+  PrintMetrics,
+  PrintResult,
+  PrinterProfile,
+  PrinterStatusResult,
+  SpoolStatus,
 } from './definitions';
+import { CommandBuffer } from './escpos/buffer';
+import type { CodePageEncoder } from './escpos/codepage';
+import { EscPosEncoder } from './escpos/encoder';
+import {
+  BASE_FONT_DOTS,
+  DEFAULT_PROFILE,
+  configure,
+  encodeBarcode,
+  encodeImage,
+  encodeRasterRows,
+  encodeRows,
+  newCodePageEncoder,
+  overrideProfile,
+  parseFinish,
+  scaleDots,
+  toBarcodeJob,
+  toTextRow,
+} from './escpos/jobs';
+import { CanvasRasterizer, decodeBase64, decodeForPrinting } from './web/raster';
+import type { TransportKind, WebTransport } from './web/transport';
+import { grantedPrinters, openTransport } from './web/transport';
+
+/** localStorage key of the printer last connected, reopened without a prompt */
+const SAVED_PRINTER_KEY = 'MkPrinter.printer';
+/** localStorage key prefix of the profile given for a printer, followed by its transport id */
+const PROFILE_KEY_PREFIX = 'MkPrinter.profile.';
+/** How long a clientJobId is remembered, as the Android dedupWindow default */
+const DEDUP_WINDOW_MS = 600000;
 
+/**
+ * Browser backend over Web Serial, WebUSB or Web Bluetooth. Jobs are encoded
+ * by the same ESC/POS encoder port for every transport, one job at a time, on
+ * a link that stays open between jobs.
+ */
 export class MkPrinterWeb extends WebPlugin implements MkPrinterPlugin {
+  private transport: WebTransport | null = null;
+  /** Built for codePagesFor; rebuilt when the printer's code pages change */
+  private codePages: CodePageEncoder | null = null;
+  private codePagesFor = '';
+  private rasterizers = new Map<string, CanvasRasterizer>();
+  /** Settles after the last queued job, so jobs never interleave on the link */
+  private queue: Promise<unknown> = Promise.resolve();
+  private dedup = new Map<string, { at: number, result: Promise<PrintResult> }>();
+
   async echo(options: { value: string }): Promise<{ value: string }> {
     console.log('ECHO', options);
     return options;
   }
 
-  // @ts-ignore
-  printText(options: PrintTextOptions): Promise<any> {}
+  async printText(options: PrintTextOptions): Promise<PrintResult> {
+    return this.runJob(options, async () => {
+      const rowsOption = options.rows as PrintTextOptions['rows'] | string;
+      const rows = Array.isArray(rowsOption) ? rowsOption.map(toTextRow) : [toTextRow(String(rowsOption))];
+      const finish = parseFinish(options);
+      const profile = this.profile();
+      const buffer = new CommandBuffer();
+      const encoder = configure(new EscPosEncoder(buffer), profile);
+      const rasterizer = this.rasterizer(profile, options.font || null);
+      if (Array.isArray(rowsOption) && options.rasterize) {
+        encodeRasterRows(encoder, rasterizer, rows, finish);
+      } else {
+        encodeRows(encoder, this.codePageEncoder(profile), rasterizer, rows, finish);
+      }
+      return buffer.bytes();
+    });
+  }
+
+  async printBarcode(options: PrintBarcodeOptions): Promise<PrintResult> {
+    const job = toBarcodeJob(options);
+    return this.runJob(options, async () => {
+      const profile = this.profile();
+      const buffer = new CommandBuffer();
+      encodeBarcode(configure(new EscPosEncoder(buffer), profile), job,
+        profile.capabilities.indexOf('native2dBarcodes') >= 0, profile.width, parseFinish(options));
+      return buffer.bytes();
+    });
+  }
+
+  async printImage(options: PrintImageOptions): Promise<PrintResult> {
+    return this.runJob(options, async () => {
+      const profile = this.profile();
+      const image = await decodeForPrinting(options.base64Data, profile.width);
+      const buffer = new CommandBuffer(image.data.length + 1024);
+      encodeImage(configure(new EscPosEncoder(buffer), profile), image, parseFinish(options));
+      return buffer.bytes();
+    });
+  }
+
+  async printRaw(options: PrintRawOptions): Promise<PrintResult> {
+    if (options.uri) {
+      throw this.unimplemented('printRaw with a uri is not available on web; pass base64Data');
+    }
+    if (!options.base64Data) {
+      throw new Error('Missing base64Data');
+    }
+    const bytes = decodeBase64(options.base64Data);
+    return this.runJob(options, async () => bytes);
+  }
+
+  async printLabels(_options: PrintLabelsOptions): Promise<PrintResult> {
+    throw this.unimplemented('printLabels is not available on web');
+  }
 
-  // @ts-ignore
-  printImage(options: PrintImageOptions): Promise<any> {}
+  async renderPreview(_options: PreviewOptions): Promise<PreviewResult> {
+    throw this.unimplemented('renderPreview is not available on web');
+  }
 
-  // @ts-ignore
-  listenPrinters(): Promise<{ devices: BluetoothDevices[] }> {}
+  /**
+   * Printers this page has been granted before: serial ports, USB devices and,
+   * where the browser allows listing them, Bluetooth devices
+   */
+  async listenPrinters(): Promise<{ devices: BluetoothDevices[] }> {
+    const devices = (await grantedPrinters()).map(printer => ({
+      name: printer.name,
+      macAddress: printer.id,
+      id: printer.id,
+      type: printer.kind,
+    }));
+    return { devices };
+  }
 
-  openBluetoothSettings(): any {}
+  async openBluetoothSettings(): Promise<any> {
+    throw this.unimplemented('openBluetoothSettings is not available on web');
+  }
 
-  enableBluetooth(): any {}
+  async enableBluetooth(): Promise<any> {
+    throw this.unimplemented('enableBluetooth is not available on web');
+  }
 
-  // @ts-ignore
-  getStatusPrinter(options: StatusPrinterOptions): Promise<any> {}
+  async getStatusPrinter(_options?: StatusPrinterOptions): Promise<PrinterStatusResult> {
+    throw this.unimplemented('getStatusPrinter is not available on web');
+  }
 
-  // @ts-ignore
-  connectPrinter(options: { macAddress: string }): Promise<any> {}
+  /**
+   * Opens the printer with the id listenPrinters returned, or shows the
+   * browser's chooser when there is none; call it from a user gesture.
+   */
+  async connectPrinter(options: {
+    macAddress: string,
+    transport?: 'classic' | 'ble' | 'serial' | 'usb',
+    profile?: Partial<PrinterProfile>
+  }): Promise<any> {
+    // Classic Bluetooth printers are paired by the OS and reached through their serial port
+    const kind: TransportKind | null = options.transport === 'classic' ? 'serial'
+      : options.transport === 'ble' || options.transport === 'serial' || options.transport === 'usb'
+        ? options.transport : null;
+    await this.enqueue(async () => {
+      await this.closeTransport();
+      const transport = await openTransport(kind, options.macAddress || null);
+      this.transport = transport;
+      localStorage.setItem(SAVED_PRINTER_KEY, transport.id);
+      // Kept by transport id, so the printer gets its profile again when reopened after a reload
+      if (options.profile) {
+        localStorage.setItem(PROFILE_KEY_PREFIX + transport.id, JSON.stringify(options.profile));
+      }
+    });
+  }
 
-  disconnectPrinter(): any {}
+  async disconnectPrinter(): Promise<any> {
+    await this.enqueue(async () => {
+      localStorage.removeItem(SAVED_PRINTER_KEY);
+      await this.closeTransport();
+    });
+  }
 
-  // @ts-ignore
-  getCurrentPrinter(): Promise<{ name: string; macAddress: string }>
+  async getCurrentPrinter(): Promise<{ name: string; macAddress: string }> {
+    const transport = this.transport;
+    if (transport && transport.isConnected()) {
+      return { name: transport.name, macAddress: transport.id };
+    }
+    const saved = localStorage.getItem(SAVED_PRINTER_KEY);
+    const printer = saved ? (await grantedPrinters()).find(p => p.id === saved) : undefined;
+    if (!printer) {
+      throw new Error('No printer connected');
+    }
+    return { name: printer.name, macAddress: printer.id };
+  }
+
+  async getPrinterProfile(): Promise<PrinterProfile> {
+    return this.profile();
+  }
+
+  async getSpoolStatus(): Promise<SpoolStatus> {
+    throw this.unimplemented('The print spool is not available on web');
+  }
+
+  async updateFirmware(_options: UpdateFirmwareOptions): Promise<FirmwareResult> {
+    throw this.unimplemented('updateFirmware is not available on web');
+  }
+
+  async getMetrics(_options?: { reset?: boolean }): Promise<PrintMetrics> {
+    throw this.unimplemented('getMetrics is not available on web');
+  }
+
+  /**
+   * The profile given to connectPrinter for the connected (or saved) printer
+   * over the default one; the model and chunk size come from the link unless
+   * the given profile sets them
+   */
+  private profile(): PrinterProfile {
+    const transport = this.transport;
+    const id = transport ? transport.id : localStorage.getItem(SAVED_PRINTER_KEY);
+    let overrides: Partial<PrinterProfile> = {};
+    const stored = id ? localStorage.getItem(PROFILE_KEY_PREFIX + id) : null;
+    if (stored) {
+      try {
+        overrides = JSON.parse(stored);
+      } catch (e) {
+        console.warn('MkPrinter: ignoring the unreadable profile saved for ' + id, e);
+      }
+    }
+    return overrideProfile({
+      model: transport ? transport.name : null,
+      chunkSize: transport ? transport.chunkSize : DEFAULT_PROFILE.chunkSize,
+      ...overrides,
+    });
+  }
+
+  private codePageEncoder(profile: PrinterProfile): CodePageEncoder {
+    const key = profile.codePages.join(',');
+    if (!this.codePages || this.codePagesFor !== key) {
+      this.codePages = newCodePageEncoder(profile);
+      this.codePagesFor = key;
+    }
+    return this.codePages;
+  }
+
+  private rasterizer(profile: PrinterProfile, font: string | null): CanvasRasterizer {
+    const key = profile.width + ':' + (font || '');
+    let rasterizer = this.rasterizers.get(key);
+    if (!rasterizer) {
+      rasterizer = new CanvasRasterizer(profile.width, scaleDots(profile, BASE_FONT_DOTS), font);
+      this.rasterizers.set(key, rasterizer);
+    }
+    return rasterizer;
+  }
+
+  /**
+   * Encodes and prints a job in the queue. A retry under the same clientJobId
+   * within the dedup window resolves with the first call's result; one that is
+   * still running waits for it. A job that failed before any of it was sent is
+   * forgotten, so its retry prints; one that failed part way may have printed,
+   * so its retry resolves with possiblyPrinted instead. There is no spool here,
+   * so jobs always print directly.
+   */
+  private runJob(options: { clientJobId?: string },
+                 encode: () => Promise<Uint8Array>): Promise<PrintResult> {
+    const clientJobId = options.clientJobId;
+    const now = Date.now();
+    this.dedup.forEach((entry, id) => {
+      if (now - entry.at > DEDUP_WINDOW_MS) {
+        this.dedup.delete(id);
+      }
+    });
+    const earlier = clientJobId != null ? this.dedup.get(clientJobId) : undefined;
+    if (earlier) {
+      // If the first call fails, its entry is settled before this runs, so the retry sees the outcome
+      return earlier.result.then(res => ({ ...res, duplicate: true }), () => this.runJob(options, encode));
+    }
+
+    let sent = 0;
+    const result = this.enqueue(async () => {
+      const bytes = await encode();
+      await this.write(bytes, n => { sent = n; });
+      const res: PrintResult = {};
+      if (clientJobId != null) {
+        res.clientJobId = clientJobId;
+      }
+      return res;
+    });
+    if (clientJobId != null) {
+      this.dedup.set(clientJobId, { at: now, result });
+      result.catch(() => {
+        if (sent > 0) {
+          const res: PrintResult = { clientJobId, possiblyPrinted: true, bytesSent: sent };
+          this.dedup.set(clientJobId, { at: Date.now(), result: Promise.resolve(res) });
+        } else {
+          this.dedup.delete(clientJobId);
+        }
+      });
+    }
+    return result;
+  }
+
+  private enqueue<T>(task: () => Promise<T>): Promise<T> {
+    const run = this.queue.then(task);
+    this.queue = run.catch(() => undefined);
+    return run;
+  }
+
+  /**
+   * Writes a job on the open link, reopening the saved printer first if the link was lost
+   *
+   * @param onSent Called with the bytes written so far after each chunk the link accepted
+   */
+  private async write(bytes: Uint8Array, onSent: (sent: number) => void): Promise<void> {
+    let transport = this.transport;
+    if (!transport || !transport.isConnected()) {
+      await this.closeTransport();
+      const saved = localStorage.getItem(SAVED_PRINTER_KEY);
+      if (!saved) {
+        throw new Error('No printer connected');
+      }
+      transport = await openTransport(null, saved, false);
+      this.transport = transport;
+    }
+    try {
+      // A chunk per call, so a failed job knows whether any of it reached the printer
+      for (let offset = 0; offset < bytes.length; offset += transport.chunkSize) {
+        const end = Math.min(bytes.length, offset + transport.chunkSize);
+        await transport.write(bytes.subarray(offset, end));
+        onSent(end);
+      }
+    } catch (e) {
+      if (!transport.isConnected()) {
+        await this.closeTransport();
+      }
+      throw e;
+    }
+  }
+
+  private async closeTransport(): Promise<void> {
+    const transport = this.transport;
+    this.transport = null;
+    if (transport) {
+      try {
+        await transport.close();
+      } catch (e) {
+        console.warn('MkPrinter: closing the printer failed', e);
+      }
+    }
+  }
 }
@@ -0,0 +1,171 @@
+import type { EscPosEncoder, MonochromeImage } from '../escpos/encoder';
+import { newMonochromeImage } from '../escpos/encoder';
+import type { RowRasterizer, TextRow } from '../escpos/jobs';
+
+/** Alpha at or above which an anti-aliased pixel becomes a black dot */
+const INK_THRESHOLD = 128;
+/** Gray level below which an image dot is black */
+const DEFAULT_THRESHOLD = 128;
+
+function newCanvas(width: number, height: number): CanvasRenderingContext2D {
+  const canvas = document.createElement('canvas');
+  canvas.width = width;
+  canvas.height = height;
+  const context = canvas.getContext('2d');
+  if (!context) {
+    throw new Error('Canvas 2D is unavailable');
+  }
+  return context;
+}
+
+/**
+ * {@link RowRasterizer} that draws each printed line with the browser's text
+ * renderer into a canvas the width of the paper and thresholds it into one
+ * raster band, wrapping at spaces like the Android TextRasterizer.
+ */
+export class CanvasRasterizer implements RowRasterizer {
+  private context: CanvasRenderingContext2D | null = null;
+
+  /**
+   * @param width Printable width in dots
+   * @param baseFontDots Height of a size 1 row in dots
+   * @param family Font family such as "sans-serif" or "serif"; null for sans-serif
+   */
+  constructor(private readonly width: number, private readonly baseFontDots: number,
+              private readonly family: string | null) {}
+
+  rasterize(row: TextRow, encoder: EscPosEncoder): void {
+    const size = row.size * this.baseFontDots;
+    const context = this.getContext();
+    context.font = size + 'px ' + (this.family || 'sans-serif');
+    const metrics = context.measureText('Mg');
+    const ascent = Math.ceil(metrics.fontBoundingBoxAscent || size * 0.9);
+    const lineHeight = ascent + Math.ceil(metrics.fontBoundingBoxDescent || size * 0.3);
+    // Compose decomposed Vietnamese diacritics so each letter is drawn once
+    const text = row.text.normalize('NFC');
+
+    let start = 0;
+    do {
+      const newline = text.indexOf('\n', start);
+      const end = newline < 0 ? text.length : newline;
+      let lineStart = start;
+      do {
+        const [lineEnd, next] = this.wrap(context, text, lineStart, end);
+        this.emitLine(context, text.substring(lineStart, lineEnd), row, size, ascent, lineHeight, encoder);
+        lineStart = next;
+      } while (lineStart < end);
+      start = end + 1;
+    } while (start < text.length);
+  }
+
+  /**
+   * @returns The end of the line starting at start and where the next line starts
+   */
+  private wrap(context: CanvasRenderingContext2D, text: string, start: number, end: number): [number, number] {
+    if (context.measureText(text.substring(start, end)).width <= this.width) {
+      return [end, end];
+    }
+    let lineEnd = start + 1;
+    let lastBreak = -1;
+    while (lineEnd < end && context.measureText(text.substring(start, lineEnd + 1)).width <= this.width) {
+      if (text.charAt(lineEnd) === ' ') {
+        lastBreak = lineEnd;
+      }
+      lineEnd++;
+    }
+    // Wrap at the last space instead of inside a word; the space itself is dropped
+    return lastBreak > start ? [lastBreak, lastBreak + 1] : [lineEnd, lineEnd];
+  }
+
+  private emitLine(context: CanvasRenderingContext2D, line: string, row: TextRow, size: number, ascent: number,
+                   lineHeight: number, encoder: EscPosEncoder): void {
+    const canvas = context.canvas;
+    if (canvas.height < lineHeight) {
+      canvas.height = lineHeight;
+      context.font = size + 'px ' + (this.family || 'sans-serif');
+    }
+    context.clearRect(0, 0, this.width, lineHeight);
+    const lineWidth = Math.min(this.width, Math.ceil(context.measureText(line).width));
+    const x = row.align === 'center' ? Math.max(0, Math.floor((this.width - lineWidth) / 2))
+      : row.align === 'right' ? Math.max(0, this.width - lineWidth) : 0;
+    context.fillStyle = '#000';
+    context.textBaseline = 'alphabetic';
+    context.fillText(line, x, ascent);
+    if (row.underline && lineWidth > 0) {
+      const thickness = Math.max(1, Math.floor(size / this.baseFontDots));
+      context.fillRect(x, lineHeight - 1 - thickness, lineWidth, thickness);
+    }
+
+    const image = newMonochromeImage(this.width, lineHeight);
+    const pixels = context.getImageData(0, 0, this.width, lineHeight).data;
+    for (let y = 0; y < lineHeight; y++) {
+      for (let px = 0; px < this.width; px++) {
+        if (pixels[(y * this.width + px) * 4 + 3] >= INK_THRESHOLD) {
+          image.data[y * image.bytesPerRow + (px >> 3)] |= 0x80 >>> (px & 7);
+        }
+      }
+    }
+    encoder.rasterBand(image.data, 0, image.bytesPerRow, lineHeight);
+  }
+
+  private getContext(): CanvasRenderingContext2D {
+    if (!this.context) {
+      this.context = newCanvas(this.width, this.baseFontDots * 2);
+    }
+    return this.context;
+  }
+}
+
+/**
+ * Decodes a base64 image, scales it to the paper width and thresholds it.
+ * The browser's smoothing averages the pixels each dot covers; transparent
+ * areas count as paper.
+ * @param width Printable width in dots
+ */
+export async function decodeForPrinting(base64Data: string, width: number): Promise<MonochromeImage> {
+  const comma = base64Data.indexOf(',');
+  const bytes = decodeBase64(base64Data.startsWith('data:') ? base64Data.substring(comma + 1) : base64Data);
+  let bitmap: ImageBitmap;
+  try {
+    bitmap = await createImageBitmap(new Blob([bytes.buffer as ArrayBuffer]));
+  } catch (e) {
+    throw new Error('Failed to decode image data');
+  }
+  const height = Math.max(1, Math.floor(bitmap.height * width / bitmap.width));
+  const context = newCanvas(width, height);
+  context.fillStyle = '#fff';
+  context.fillRect(0, 0, width, height);
+  context.imageSmoothingEnabled = true;
+  context.imageSmoothingQuality = 'high';
+  context.drawImage(bitmap, 0, 0, width, height);
+  bitmap.close();
+
+  const image = newMonochromeImage(width, height);
+  const pixels = context.getImageData(0, 0, width, height).data;
+  for (let y = 0, i = 0; y < height; y++) {
+    for (let x = 0; x < width; x++, i += 4) {
+      // BT.601 luminance, as the Android scaler computes it
+      if (pixels[i] * 77 + pixels[i + 1] * 150 + pixels[i + 2] * 29 < DEFAULT_THRESHOLD * 256) {
+        image.data[y * image.bytesPerRow + (x >> 3)] |= 0x80 >>> (x & 7);
+      }
+    }
+  }
+  return image;
+}
+
+/**
+ * @throws Error If the string is not base64
+ */
+export function decodeBase64(base64Data: string): Uint8Array {
+  let binary: string;
+  try {
+    binary = atob(base64Data.replace(/\s/g, ''));
+  } catch (e) {
+    throw new Error('Invalid base64 data');
+  }
+  const bytes = new Uint8Array(binary.length);
+  for (let i = 0; i < binary.length; i++) {
+    bytes[i] = binary.charCodeAt(i);
+  }
+  return bytes;
+}
@@ -0,0 +1,459 @@
+/*
+ * The parts of Web Serial, WebUSB and Web Bluetooth the transports use. These
+ * APIs are not in lib.dom yet, and each is missing from some browsers.
+ */
+
+interface SerialPortInfo {
+  usbVendorId?: number,
+  usbProductId?: number
+}
+
+interface SerialPort {
+  readonly writable: WritableStream<Uint8Array> | null;
+  open(options: { baudRate: number, bufferSize?: number }): Promise<void>;
+  close(): Promise<void>;
+  getInfo(): SerialPortInfo;
+}
+
+interface Serial {
+  getPorts(): Promise<SerialPort[]>;
+  requestPort(options?: { filters?: { usbVendorId?: number }[] }): Promise<SerialPort>;
+}
+
+interface USBEndpoint {
+  endpointNumber: number,
+  direction: 'in' | 'out',
+  type: 'bulk' | 'interrupt' | 'isochronous',
+  packetSize: number
+}
+
+interface USBAlternateInterface {
+  alternateSetting: number,
+  interfaceClass: number,
+  endpoints: USBEndpoint[]
+}
+
+interface USBInterface {
+  interfaceNumber: number,
+  alternates: USBAlternateInterface[]
+}
+
+interface USBDevice {
+  vendorId: number,
+  productId: number,
+  serialNumber?: string,
+  productName?: string,
+  manufacturerName?: string,
+  opened: boolean,
+  configuration: { interfaces: USBInterface[] } | null;
+  open(): Promise<void>;
+  close(): Promise<void>;
+  selectConfiguration(configurationValue: number): Promise<void>;
+  claimInterface(interfaceNumber: number): Promise<void>;
+  selectAlternateInterface(interfaceNumber: number, alternateSetting: number): Promise<void>;
+  transferOut(endpointNumber: number, data: Uint8Array): Promise<{ bytesWritten: number, status: string }>;
+}
+
+interface USB {
+  getDevices(): Promise<USBDevice[]>;
+  requestDevice(options: { filters: { classCode?: number, vendorId?: number }[] }): Promise<USBDevice>;
+}
+
+interface BluetoothCharacteristicProperties {
+  write: boolean,
+  writeWithoutResponse: boolean
+}
+
+interface BluetoothRemoteGATTCharacteristic {
+  uuid: string,
+  properties: BluetoothCharacteristicProperties;
+  writeValueWithResponse(value: Uint8Array): Promise<void>;
+  writeValueWithoutResponse(value: Uint8Array): Promise<void>;
+}
+
+interface BluetoothRemoteGATTService {
+  uuid: string,
+  getCharacteristics(): Promise<BluetoothRemoteGATTCharacteristic[]>;
+}
+
+interface BluetoothRemoteGATTServer {
+  connected: boolean,
+  connect(): Promise<BluetoothRemoteGATTServer>;
+  disconnect(): void;
+  getPrimaryServices(): Promise<BluetoothRemoteGATTService[]>;
+}
+
+interface BluetoothDevice {
+  id: string,
+  name?: string,
+  gatt?: BluetoothRemoteGATTServer
+}
+
+interface Bluetooth {
+  getDevices?(): Promise<BluetoothDevice[]>;
+  requestDevice(options: { acceptAllDevices: boolean, optionalServices: string[] }): Promise<BluetoothDevice>;
+}
+
+interface WebPrinterNavigator {
+  serial?: Serial,
+  usb?: USB,
+  bluetooth?: Bluetooth
+}
+
+function webNavigator(): WebPrinterNavigator {
+  return navigator as unknown as WebPrinterNavigator;
+}
+
+export type TransportKind = 'serial' | 'usb' | 'ble';
+
+/**
+ * An open link to a printer. It stays open between jobs; every job is
+ * written in chunks of the link's own buffer size.
+ */
+export interface WebTransport {
+  readonly kind: TransportKind;
+  /** Stable id of the printer for this origin, e.g. "usb:0416:5011:XP58" */
+  readonly id: string;
+  readonly name: string;
+  /** Bytes handed to the link per write */
+  readonly chunkSize: number;
+  isConnected(): boolean;
+  write(data: Uint8Array): Promise<void>;
+  close(): Promise<void>;
+}
+
+/**
+ * @returns The transports this browser implements
+ */
+export function availableTransports(): TransportKind[] {
+  const nav = webNavigator();
+  const kinds: TransportKind[] = [];
+  if (nav.serial) {
+    kinds.push('serial');
+  }
+  if (nav.usb) {
+    kinds.push('usb');
+  }
+  if (nav.bluetooth) {
+    kinds.push('ble');
+  }
+  return kinds;
+}
+
+/**
+ * A printer the page has been granted access to, not necessarily open
+ */
+export interface GrantedPrinter {
+  kind: TransportKind,
+  id: string,
+  name: string
+}
+
+/**
+ * @returns Printers granted to this origin earlier, which can be opened without a prompt
+ */
+export async function grantedPrinters(): Promise<GrantedPrinter[]> {
+  const nav = webNavigator();
+  const printers: GrantedPrinter[] = [];
+  if (nav.serial) {
+    (await nav.serial.getPorts()).forEach((port, index) => {
+      printers.push({ kind: 'serial', id: serialId(port, index), name: serialName(port) });
+    });
+  }
+  if (nav.usb) {
+    (await nav.usb.getDevices()).forEach(device => {
+      printers.push({ kind: 'usb', id: usbId(device), name: usbName(device) });
+    });
+  }
+  if (nav.bluetooth && nav.bluetooth.getDevices) {
+    (await nav.bluetooth.getDevices()).forEach(device => {
+      printers.push({ kind: 'ble', id: 'ble:' + device.id, name: device.name || device.id });
+    });
+  }
+  return printers;
+}
+
+/**
+ * Opens a printer: the granted one with this id if there is one, otherwise
+ * one the user picks in the browser's chooser, which needs a user gesture.
+ * @param kind Transport to use; taken from the id when not given
+ * @param id A GrantedPrinter id, or empty to always show the chooser
+ * @param prompt Whether to show the chooser when the printer is not granted; if not, that fails
+ */
+export async function openTransport(kind: TransportKind | null, id: string | null,
+                                    prompt = true): Promise<WebTransport> {
+  const resolved = kind || (id ? id.substring(0, id.indexOf(':')) as TransportKind : null) || availableTransports()[0];
+  switch (resolved) {
+    case 'serial':
+      return SerialTransport.open(id, prompt);
+    case 'usb':
+      return UsbTransport.open(id, prompt);
+    case 'ble':
+      return BleTransport.open(id, prompt);
+    default:
+      throw new Error('This browser supports neither Web Serial, WebUSB nor Web Bluetooth');
+  }
+}
+
+// ---- Web Serial ----
+
+/** Baud rate of USB serial and Bluetooth SPP printers; USB CDC printers ignore it */
+const SERIAL_BAUD_RATE = 115200;
+/** Stream buffer asked of the port; writes are chunked to it */
+const SERIAL_BUFFER_SIZE = 4096;
+
+function serialId(port: SerialPort, index: number): string {
+  const info = port.getInfo();
+  return info.usbVendorId != null
+    ? 'serial:' + hex4(info.usbVendorId) + ':' + hex4(info.usbProductId || 0) + ':' + index
+    : 'serial:' + index;
+}
+
+function serialName(port: SerialPort): string {
+  const info = port.getInfo();
+  return info.usbVendorId != null
+    ? 'Serial ' + hex4(info.usbVendorId) + ':' + hex4(info.usbProductId || 0)
+    : 'Serial port';
+}
+
+class SerialTransport implements WebTransport {
+  readonly kind = 'serial';
+  readonly chunkSize = SERIAL_BUFFER_SIZE;
+  private opened = true;
+
+  private constructor(private readonly port: SerialPort, readonly id: string, readonly name: string) {}
+
+  static async open(id: string | null, prompt: boolean): Promise<SerialTransport> {
+    const serial = webNavigator().serial;
+    if (!serial) {
+      throw new Error('Web Serial is not supported by this browser');
+    }
+    const ports = await serial.getPorts();
+    let index = ports.findIndex((port, i) => serialId(port, i) === id);
+    let port = index >= 0 ? ports[index] : null;
+    if (!port) {
+      port = await choose(prompt, id, () => serial.requestPort());
+      index = (await serial.getPorts()).indexOf(port);
+    }
+    await port.open({ baudRate: SERIAL_BAUD_RATE, bufferSize: SERIAL_BUFFER_SIZE });
+    return new SerialTransport(port, serialId(port, Math.max(0, index)), serialName(port));
+  }
+
+  isConnected(): boolean {
+    return this.opened && this.port.writable !== null;
+  }
+
+  async write(data: Uint8Array): Promise<void> {
+    if (!this.port.writable) {
+      throw new Error('Serial port is closed');
+    }
+    const writer = this.port.writable.getWriter();
+    try {
+      for (let offset = 0; offset < data.length; offset += this.chunkSize) {
+        // ready holds back the next chunk while the port's buffer is full
+        await writer.ready;
+        await writer.write(data.subarray(offset, offset + this.chunkSize));
+      }
+    } finally {
+      writer.releaseLock();
+    }
+  }
+
+  async close(): Promise<void> {
+    this.opened = false;
+    await this.port.close();
+  }
+}
+
+// ---- WebUSB ----
+
+/** USB printer class (IEEE 1284 over USB) */
+const USB_PRINTER_CLASS = 7;
+/** Bulk packets per transfer; the host controller splits a transfer into packets itself */
+const USB_PACKETS_PER_TRANSFER = 64;
+
+function usbId(device: USBDevice): string {
+  return 'usb:' + hex4(device.vendorId) + ':' + hex4(device.productId) + ':' + (device.serialNumber || '');
+}
+
+function usbName(device: USBDevice): string {
+  return device.productName || device.manufacturerName || 'USB ' + hex4(device.vendorId) + ':' + hex4(device.productId);
+}
+
+class UsbTransport implements WebTransport {
+  readonly kind = 'usb';
+
+  private constructor(private readonly device: USBDevice, private readonly endpoint: number,
+                      readonly chunkSize: number, readonly id: string, readonly name: string) {}
+
+  static async open(id: string | null, prompt: boolean): Promise<UsbTransport> {
+    const usb = webNavigator().usb;
+    if (!usb) {
+      throw new Error('WebUSB is not supported by this browser');
+    }
+    const devices = await usb.getDevices();
+    const device = devices.find(d => usbId(d) === id)
+      || await choose(prompt, id, () => usb.requestDevice({ filters: [] }));
+    if (!device.opened) {
+      await device.open();
+    }
+    if (device.configuration === null) {
+      await device.selectConfiguration(1);
+    }
+    const interfaces = device.configuration ? device.configuration.interfaces : [];
+    // The printer class interface if there is one, else any with a bulk OUT endpoint
+    let best: { number: number, alternate: USBAlternateInterface, out: USBEndpoint } | null = null;
+    for (const usbInterface of interfaces) {
+      for (const alternate of usbInterface.alternates) {
+        const out = alternate.endpoints.find(e => e.direction === 'out' && e.type === 'bulk');
+        if (out && (!best || (alternate.interfaceClass === USB_PRINTER_CLASS
+          && best.alternate.interfaceClass !== USB_PRINTER_CLASS))) {
+          best = { number: usbInterface.interfaceNumber, alternate, out };
+        }
+      }
+    }
+    if (!best) {
+      await device.close();
+      throw new Error(usbName(device) + ' has no bulk OUT endpoint');
+    }
+    await device.claimInterface(best.number);
+    if (best.alternate.alternateSetting !== 0) {
+      await device.selectAlternateInterface(best.number, best.alternate.alternateSetting);
+    }
+    return new UsbTransport(device, best.out.endpointNumber, best.out.packetSize * USB_PACKETS_PER_TRANSFER,
+      usbId(device), usbName(device));
+  }
+
+  isConnected(): boolean {
+    return this.device.opened;
+  }
+
+  async write(data: Uint8Array): Promise<void> {
+    for (let offset = 0; offset < data.length; offset += this.chunkSize) {
+      const result = await this.device.transferOut(this.endpoint, data.subarray(offset, offset + this.chunkSize));
+      if (result.status !== 'ok') {
+        throw new Error('USB transfer failed: ' + result.status);
+      }
+    }
+  }
+
+  async close(): Promise<void> {
+    if (this.device.opened) {
+      await this.device.close();
+    }
+  }
+}
+
+// ---- Web Bluetooth ----
+
+/** Data services of common BLE receipt printers, preferred over any other writable characteristic */
+const PRINTER_SERVICES = [
+  '000018f0-0000-1000-8000-00805f9b34fb',
+  'e7810a71-73ae-499d-8c15-faa9aef0c3f2',
+  '49535343-fe7d-4ae5-8fa9-9fafd205e455',
+  '0000ffe0-0000-1000-8000-00805f9b34fb',
+  '0000ff00-0000-1000-8000-00805f9b34fb',
+];
+/** Largest attribute value; used until the link turns it down */
+const BLE_MAX_WRITE = 512;
+/** Payload of a write at the default ATT MTU of 23 */
+const BLE_MIN_WRITE = 20;
+
+class BleTransport implements WebTransport {
+  readonly kind = 'ble';
+  private writeSize = BLE_MAX_WRITE;
+
+  private constructor(private readonly device: BluetoothDevice,
+                      private readonly characteristic: BluetoothRemoteGATTCharacteristic,
+                      readonly id: string, readonly name: string) {}
+
+  static async open(id: string | null, prompt: boolean): Promise<BleTransport> {
+    const bluetooth = webNavigator().bluetooth;
+    if (!bluetooth) {
+      throw new Error('Web Bluetooth is not supported by this browser');
+    }
+    const granted = bluetooth.getDevices ? await bluetooth.getDevices() : [];
+    const device = granted.find(d => 'ble:' + d.id === id)
+      || await choose(prompt, id,
+        () => bluetooth.requestDevice({ acceptAllDevices: true, optionalServices: PRINTER_SERVICES }));
+    if (!device.gatt) {
+      throw new Error('Bluetooth device has no GATT server');
+    }
+    const server = await device.gatt.connect();
+    let best: BluetoothRemoteGATTCharacteristic | null = null;
+    let bestRank = 0;
+    for (const service of await server.getPrimaryServices()) {
+      for (const characteristic of await service.getCharacteristics()) {
+        const rank = BleTransport.rank(service.uuid, characteristic);
+        if (rank > bestRank) {
+          best = characteristic;
+          bestRank = rank;
+        }
+      }
+    }
+    if (!best) {
+      server.disconnect();
+      throw new Error('No writable characteristic on ' + (device.name || device.id));
+    }
+    return new BleTransport(device, best, 'ble:' + device.id, device.name || device.id);
+  }
+
+  /**
+   * @returns 0 if the characteristic cannot be written; higher for printer services and writes without response
+   */
+  private static rank(service: string, characteristic: BluetoothRemoteGATTCharacteristic): number {
+    const properties = characteristic.properties;
+    if (!properties.write && !properties.writeWithoutResponse) {
+      return 0;
+    }
+    return (PRINTER_SERVICES.indexOf(service.toLowerCase()) >= 0 ? 4 : 1)
+      + (properties.writeWithoutResponse ? 2 : 0);
+  }
+
+  get chunkSize(): number {
+    return this.writeSize;
+  }
+
+  isConnected(): boolean {
+    return !!this.device.gatt && this.device.gatt.connected;
+  }
+
+  async write(data: Uint8Array): Promise<void> {
+    let offset = 0;
+    while (offset < data.length) {
+      const chunk = data.subarray(offset, offset + this.writeSize);
+      try {
+        // Awaiting each write is the flow control: the browser resolves once the stack took the packet
+        if (this.characteristic.properties.writeWithoutResponse) {
+          await this.characteristic.writeValueWithoutResponse(chunk);
+        } else {
+          await this.characteristic.writeValueWithResponse(chunk);
+        }
+        offset += chunk.length;
+      } catch (e) {
+        // The MTU is not exposed; a write larger than it fails whole, so retry it smaller
+        if (this.writeSize <= BLE_MIN_WRITE || !this.isConnected()) {
+          throw e;
+        }
+        this.writeSize = Math.max(BLE_MIN_WRITE, this.writeSize >> 1);
+      }
+    }
+  }
+
+  async close(): Promise<void> {
+    if (this.device.gatt && this.device.gatt.connected) {
+      this.device.gatt.disconnect();
+    }
+  }
+}
+
+/**
+ * Shows the browser's chooser, or fails if the printer had to be found without one
+ */
+function choose<T>(prompt: boolean, id: string | null, request: () => Promise<T>): Promise<T> {
+  return prompt ? request() : Promise.reject(new Error('Printer ' + id + ' is no longer available'));
+}
+
+function hex4(value: number): string {
+  return ('000' + value.toString(16)).slice(-4);
+}